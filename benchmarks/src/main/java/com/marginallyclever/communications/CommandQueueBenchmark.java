@@ -0,0 +1,79 @@
+package com.marginallyclever.communications;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One thread adds commands while another takes them off, as the UI and the sending thread do.  The old queue was an
+ * ArrayList guarded by the connection, so every remove(0) copied the rest of the list.
+ *
+ * Throughput is per thread: the offer and poll rows of a group should be about the same.  A poll row much faster
+ * than its offer row means the consumer is mostly finding the queue empty.
+ * @author Dan Royer
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class CommandQueueBenchmark {
+	private static final int CAPACITY = 1024;
+	private static final String COMMAND = "G01 X12.500 Y-3.250 Z40.000 F7000;";
+
+	@State(Scope.Group)
+	public static class Ring {
+		CommandQueue<String> queue = new CommandQueue<String>(CAPACITY);
+	}
+
+	@State(Scope.Group)
+	public static class Legacy {
+		ArrayList<String> queue = new ArrayList<String>();
+	}
+
+	@Benchmark
+	@Group("commandQueue")
+	@GroupThreads(1)
+	public boolean commandQueueOffer(Ring s) {
+		return s.queue.offer(COMMAND);
+	}
+
+	@Benchmark
+	@Group("commandQueue")
+	@GroupThreads(1)
+	public String commandQueuePoll(Ring s) {
+		return s.queue.poll();
+	}
+
+	@Benchmark
+	@Group("legacyArrayList")
+	@GroupThreads(1)
+	public boolean legacyAdd(Legacy s) {
+		synchronized(s) {
+			// same bound as the ring, or the list grows without end.
+			if(s.queue.size()>=CAPACITY) return false;
+			return s.queue.add(COMMAND);
+		}
+	}
+
+	@Benchmark
+	@Group("legacyArrayList")
+	@GroupThreads(1)
+	public String legacyRemove(Legacy s) {
+		synchronized(s) {
+			if(s.queue.isEmpty()) return null;
+			return s.queue.remove(0);
+		}
+	}
+}
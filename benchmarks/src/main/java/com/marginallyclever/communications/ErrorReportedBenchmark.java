@@ -0,0 +1,73 @@
+package com.marginallyclever.communications;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.marginallyclever.communications.serial.SerialConnection;
+import com.marginallyclever.communications.serial.SerialTransportLayer;
+
+/**
+ * Cost of {@link StreamConnection#errorReported(String)}, which looks at every line the robot sends.  Most lines are
+ * not errors, so the interesting number is how long it takes to say no.  One line in a hundred is an error and goes
+ * through getNumberPortion().
+ *
+ * The error branch prints, so printing is sent nowhere while this runs.
+ * @author Dan Royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput,Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class ErrorReportedBenchmark {
+	private static final int LINES = 1000;
+
+	private String [] replies = new String[LINES];
+	private int next=0;
+	private SerialConnection connection = new SerialConnection(new SerialTransportLayer());
+	private PrintStream out;
+
+	@Setup
+	public void setup() {
+		for(int i=0;i<LINES;++i) {
+			switch(i%100) {
+			case 33:  replies[i] = StreamConnection.BADCHECKSUM+i;  break;
+			case 66:  replies[i] = StreamConnection.BADLINENUM+i;  break;
+			case 99:  replies[i] = StreamConnection.NOCHECKSUM+i;  break;
+			default:
+				replies[i] = (i%4==0) ? "X12.50 Y-3.25 Z40.00 F7000.00 A2000.00" : "";
+				break;
+			}
+		}
+		out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {}
+		}));
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(out);
+	}
+
+	@Benchmark
+	public int errorReported() {
+		if(++next==LINES) next=0;
+		return connection.errorReported(replies[next]);
+	}
+}
@@ -0,0 +1,114 @@
+package com.marginallyclever.communications;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of cutting what the robot sends into lines, one serial event at a time, before and after {@link LineAssembler}.
+ * The stream is what a robot says while running a job: a cue after every line, now and then a position report or
+ * an error, arriving in pieces of 1 to {@link #maxChunk} bytes.
+ *
+ * Sample time shows the latency percentiles of one event.  Run with <code>-prof gc</code> for bytes per event.
+ * @author Dan Royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput,Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class LineAssemblerBenchmark {
+	private static final String CUE = "> ";
+	private static final int STREAM_LINES = 4096;
+	private static final int CHUNKS = 4096;
+
+	/**
+	 * largest serial event, in bytes.
+	 */
+	@Param({"8","64"})
+	public int maxChunk;
+
+	private byte [] stream;
+	private int [] chunkStart = new int[CHUNKS];
+	private int [] chunkLength = new int[CHUNKS];
+	private int next=0;
+
+	private LineAssembler lines = new LineAssembler(CUE);
+	private String inputBuffer = "";
+
+	@Setup
+	public void setup() {
+		Random r = new Random(1234);
+		StringBuilder sb = new StringBuilder();
+		for(int i=0;i<STREAM_LINES;++i) {
+			if(i%64==0) {
+				sb.append(String.format("X%.2f Y%.2f Z%.2f F7000.00 A2000.00\n",
+						r.nextFloat()*200-100, r.nextFloat()*200-100, r.nextFloat()*50));
+			}
+			if(i%1000==999) sb.append("BADCHECKSUM ").append(i).append('\n');
+			sb.append("\n> ");
+		}
+		stream = sb.toString().getBytes(StandardCharsets.US_ASCII);
+
+		// cut the stream the same way every run, wrapping around when it runs out.
+		int at=0;
+		for(int i=0;i<CHUNKS;++i) {
+			int len = 1+r.nextInt(maxChunk);
+			if(at+len>stream.length) at=0;
+			chunkStart[i]=at;
+			chunkLength[i]=len;
+			at+=len;
+		}
+	}
+
+	/**
+	 * What SerialConnection.serialEvent() used to do with every event.
+	 */
+	@Benchmark
+	public void legacyStringConcat(Blackhole bh) {
+		if(++next==CHUNKS) next=0;
+		String rawInput = new String(stream,chunkStart[next],chunkLength[next]);
+		inputBuffer+=rawInput;
+		for(int x=inputBuffer.indexOf("\n"); x!=-1; x=inputBuffer.indexOf("\n")) {
+			x=x+1;
+			String oneLine = inputBuffer.substring(0,x);
+			inputBuffer = inputBuffer.substring(x);
+			if(!oneLine.trim().equals(CUE.trim())) {
+				bh.consume(oneLine);
+			}
+			if(oneLine.indexOf(CUE)==0) {
+				bh.consume(true);
+			}
+		}
+	}
+
+	/**
+	 * The same work with a reused buffer.  Only lines that are not cues become Strings.
+	 */
+	@Benchmark
+	public void lineAssembler(Blackhole bh) {
+		if(++next==CHUNKS) next=0;
+		lines.append(stream,chunkStart[next],chunkLength[next]);
+		while(lines.next()) {
+			if(lines.isCue()) {
+				bh.consume(true);
+				continue;
+			}
+			bh.consume(lines.line().toString());
+		}
+	}
+}
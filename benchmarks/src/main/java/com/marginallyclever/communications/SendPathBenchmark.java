@@ -0,0 +1,84 @@
+package com.marginallyclever.communications;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.marginallyclever.gcode.GCodeCorpus;
+import com.marginallyclever.gcode.GCodeTokenizer;
+
+/**
+ * Cost of everything sendQueuedCommand() does to one line between the queue and the port: take it off the
+ * {@link CommandQueue}, strip the comment, frame it with a {@link LineNumberFramer} if <code>numbered</code>, check the
+ * {@link SendWindow} and copy it to bytes.  The robot acknowledges each line right away, so the window never stalls.
+ *
+ * Run with <code>-prof gc</code> for bytes per line.
+ * @author Dan Royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput,Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class SendPathBenchmark {
+	@Param({GCodeCorpus.SYNTHETIC})
+	public String corpus;
+
+	@Param({"false","true"})
+	public boolean numbered;
+
+	private String [] lines;
+	private int next=0;
+
+	private CommandQueue<String> queue = new CommandQueue<String>(1024);
+	private SendWindow window = SendWindow.characterCounting();
+	private LineNumberFramer framer;
+	private byte [] bytes = new byte[256];
+
+	@Setup
+	public void setup() throws IOException {
+		lines = GCodeCorpus.load(corpus);
+		framer = numbered ? new LineNumberFramer() : null;
+		if(framer!=null) {
+			framer.prepare(null,0);
+			framer.commit(null,0);
+		}
+	}
+
+	@Benchmark
+	public void sendOneLine(Blackhole bh) {
+		if(++next==lines.length) next=0;
+		queue.offer(lines[next]);
+
+		String command = queue.peek();
+		int len = GCodeTokenizer.commandLength(command);
+		CharSequence line = (framer==null) ? command : framer.prepare(command,len);
+		int lineLength = (framer==null) ? len : line.length();
+		if(!window.canSend(lineLength+1)) throw new IllegalStateException("window stalled");
+		queue.poll();
+		if(framer!=null) framer.commit(command,len);
+
+		for(int i=0;i<lineLength;++i) {
+			bytes[i] = (byte)line.charAt(i);
+		}
+		bytes[lineLength] = '\n';
+		window.sent(lineLength+1);
+		bh.consume(bytes);
+
+		// the robot's cue
+		if(window.acknowledge() && framer!=null) framer.acknowledge();
+	}
+}
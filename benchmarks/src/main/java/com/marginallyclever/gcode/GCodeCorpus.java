@@ -0,0 +1,85 @@
+package com.marginallyclever.gcode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Lines of g-code for the benchmarks to chew on.  Every benchmark that reads g-code has a <code>corpus</code>
+ * parameter: "synthetic" makes a repeatable mix of moves, comments and tool changes, and anything else is the path of
+ * a real job, as in <code>java -jar target/benchmarks.jar -p corpus=/path/to/job.ngc</code>.
+ * @author Dan Royer
+ */
+public final class GCodeCorpus {
+	public static final String SYNTHETIC = "synthetic";
+	public static final int SYNTHETIC_LINES = 4096;
+
+	private GCodeCorpus() {}
+
+	/**
+	 * @param corpus "synthetic" or the path of a g-code file
+	 * @return every line that isn't blank
+	 */
+	public static String [] load(String corpus) throws IOException {
+		if(corpus==null || corpus.isEmpty() || corpus.equals(SYNTHETIC)) return synthetic(SYNTHETIC_LINES,1234);
+
+		List<String> lines = new ArrayList<String>();
+		for(String line : Files.readAllLines(Paths.get(corpus),StandardCharsets.ISO_8859_1)) {
+			line = line.trim();
+			if(!line.isEmpty()) lines.add(line);
+		}
+		if(lines.isEmpty()) throw new IOException(corpus+" has no g-code.");
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	/**
+	 * A job that looks like what Skycam sends: mostly moves, some comments, the odd tool change.
+	 */
+	public static String [] synthetic(int count,long seed) {
+		Random r = new Random(seed);
+		String [] lines = new String[count];
+		for(int i=0;i<count;++i) {
+			if(i%500==499) {
+				lines[i] = "M06 T"+r.nextInt(4);
+				continue;
+			}
+			String comment = (i%8==0) ? " (move to next point)" : "";
+			lines[i] = String.format("G01 X%.3f Y%.3f Z%.3f F7000%s;",
+					r.nextFloat()*200-100, r.nextFloat()*200-100, r.nextFloat()*50, comment);
+		}
+		return lines;
+	}
+
+	/**
+	 * The end points of every G00/G01 in the lines, in the same units, as a flat xyz array.  Missing axes keep their
+	 * last value.
+	 * @return 3 doubles per move
+	 */
+	public static double [] moves(String [] lines) {
+		GCodeTokenizer t = new GCodeTokenizer();
+		double [] xyz = new double[lines.length*3];
+		double x=0,y=0,z=0;
+		int count=0;
+		for(String line : lines) {
+			t.reset(line);
+			if(!t.next() || !(t.is('G',0) || t.is('G',1))) continue;
+			while(t.next()) {
+				if(!t.isWord()) continue;
+				switch(t.letter()) {
+				case 'X':  x=t.number();  break;
+				case 'Y':  y=t.number();  break;
+				case 'Z':  z=t.number();  break;
+				default:  break;
+				}
+			}
+			xyz[count*3]=x;  xyz[count*3+1]=y;  xyz[count*3+2]=z;
+			count++;
+		}
+		return Arrays.copyOf(xyz,count*3);
+	}
+}
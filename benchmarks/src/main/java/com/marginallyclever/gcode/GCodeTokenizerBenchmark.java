@@ -0,0 +1,107 @@
+package com.marginallyclever.gcode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of getting one line of g-code ready to send, before and after {@link GCodeTokenizer}.
+ * Run with <code>-prof gc</code> and compare gc.alloc.rate.norm, which is bytes allocated per line.
+ * @author Dan Royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class GCodeTokenizerBenchmark {
+	@Param({GCodeCorpus.SYNTHETIC})
+	public String corpus;
+
+	private String [] lines;
+	private int next=0;
+
+	private GCodeTokenizer tokenizer = new GCodeTokenizer();
+	private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(256);
+
+	@Setup
+	public void setup() throws IOException {
+		lines = GCodeCorpus.load(corpus);
+	}
+
+	private String nextLine() {
+		if(++next==lines.length) next=0;
+		return lines[next];
+	}
+
+	/**
+	 * What Skycam.SendLineToRobot() and SerialConnection.sendQueuedCommand() used to do with every line.
+	 */
+	@Benchmark
+	public void legacySplit(Blackhole bh) {
+		String line = nextLine();
+
+		// Skycam.SendLineToRobot()
+		String [] tokens = line.split("\\s");
+		if(Arrays.asList(tokens).contains("M06") || Arrays.asList(tokens).contains("M6")) return;
+		if(tokens[0].startsWith("M")) return;
+		int index=line.indexOf('(');
+		if(index!=-1) {
+			line=line.substring(0,index).trim();
+			if(line.length()==0) return;
+		}
+
+		// SerialConnection.sendQueuedCommand()
+		String command = line;
+		if(line.contains(";")) {
+			String [] parts = line.split(";");
+			command = parts[0];
+		}
+		if(command.endsWith("\n") == false) {
+			command+="\n";
+		}
+		bh.consume(command.getBytes());
+	}
+
+	/**
+	 * The same work with the tokenizer and a reused send buffer.
+	 */
+	@Benchmark
+	public void tokenizer(Blackhole bh) {
+		String line = nextLine();
+
+		tokenizer.reset(line);
+		if(!tokenizer.next()) return;
+		if(tokenizer.letter()=='M') return;
+		double sum=0;
+		do {
+			if(tokenizer.is('M',6)) return;
+			sum += tokenizer.number();
+		} while(tokenizer.next());
+		bh.consume(sum);
+
+		int len = GCodeTokenizer.commandLength(line);
+		sendBuffer.clear();
+		for(int i=0;i<len;++i) {
+			sendBuffer.put((byte)line.charAt(i));
+		}
+		sendBuffer.put((byte)'\n');
+		sendBuffer.flip();
+		bh.consume(sendBuffer);
+	}
+}
@@ -0,0 +1,93 @@
+package com.marginallyclever.kinematics;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.marginallyclever.gcode.GCodeCorpus;
+
+/**
+ * Cost of the cable math for every move in a job, and of the motion plan built on it.  Times are per job; divide by
+ * the number of moves for the cost of one.
+ * @author Dan Royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class KinematicsBenchmark {
+	@Param({GCodeCorpus.SYNTHETIC})
+	public String corpus;
+
+	private SkycamKinematics kinematics = new SkycamKinematics();
+	private MotionPlanner planner = new MotionPlanner(kinematics);
+	private double [] xyz;
+	private int count;
+	private double [] lengths;
+	private long [] steps;
+	private double [] found;
+
+	@Setup
+	public void setup() throws IOException {
+		// the motors at the corners of a 4m x 4m room, 2m up.
+		kinematics.setAnchor(0,-200, 200,200);
+		kinematics.setAnchor(1, 200, 200,200);
+		kinematics.setAnchor(2, 200,-200,200);
+		kinematics.setAnchor(3,-200,-200,200);
+
+		xyz = GCodeCorpus.moves(GCodeCorpus.load(corpus));
+		count = xyz.length/3;
+		lengths = new double[count*SkycamKinematics.NUM_MOTORS];
+		steps = new long[count*SkycamKinematics.NUM_MOTORS];
+		found = new double[count*3];
+		kinematics.inverse(xyz,count,lengths);
+	}
+
+	@Benchmark
+	public double [] inverseLengths() {
+		kinematics.inverse(xyz,count,lengths);
+		return lengths;
+	}
+
+	@Benchmark
+	public long [] inverseSteps() {
+		kinematics.inverse(xyz,count,steps);
+		return steps;
+	}
+
+	/**
+	 * Each point starts from the last answer, as when following a job.  The synthetic job jumps all over the room, so
+	 * this is closer to the worst case than a real drawing.
+	 */
+	@Benchmark
+	public int forward() {
+		return kinematics.forward(lengths,count,found);
+	}
+
+	/**
+	 * Cut every move into pieces and plan the speeds of the whole job.
+	 */
+	@Benchmark
+	public int plan() {
+		planner.clear();
+		planner.teleport(0,0,0);
+		for(int i=0;i<count;++i) {
+			planner.lineTo(xyz[i*3],xyz[i*3+1],xyz[i*3+2],MotionPlanner.DEFAULT_FEEDRATE);
+		}
+		planner.plan();
+		return planner.getSegmentCount();
+	}
+}
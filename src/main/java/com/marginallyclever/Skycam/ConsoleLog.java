@@ -0,0 +1,160 @@
+package com.marginallyclever.Skycam;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.AbstractListModel;
+import javax.swing.JList;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.Timer;
+
+/**
+ * The last few thousand lines sent to and received from a robot.  Adding a line takes the same time no matter how long
+ * the job has been running: old lines fall off the top of a ring and are never copied.
+ *
+ * Lines can be added from any thread.  The list on screen catches up a few times a second on the Swing thread, and
+ * only draws the rows that are visible.
+ * @author Dan Royer
+ */
+public class ConsoleLog extends AbstractListModel<String> implements LineLog {
+	private static final long serialVersionUID = 1L;
+
+	public static final int DEFAULT_CAPACITY = 10000;
+	// how often the view catches up, in ms.
+	private static final int REFRESH_DELAY = 200;
+
+	private final String [] lines;
+	// how many lines have ever been added.  The ring holds the newest lines.length of them.
+	private long added=0;
+	// lines before this were thrown away by clear().
+	private long cleared=0;
+
+	// the lines the view knows about.  only touched on the Swing thread.
+	private long viewStart=0;
+	private long viewEnd=0;
+
+	private Timer timer;
+	private JList<String> list;
+	private JScrollPane pane;
+
+
+	public ConsoleLog() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity how many lines to keep
+	 */
+	public ConsoleLog(int capacity) {
+		lines = new String[capacity];
+	}
+
+	/**
+	 * Add some text.  Each line becomes a row.  Safe to call from any thread.
+	 * @param msg one or more lines
+	 */
+	@Override
+	public void append(String msg) {
+		int from=0;
+		int len=msg.length();
+		synchronized(lines) {
+			while(from<len) {
+				int to = msg.indexOf('\n',from);
+				if(to==-1) to=len;
+				int end = to;
+				if(end>from && msg.charAt(end-1)=='\r') end--;
+				lines[(int)(added % lines.length)] = msg.substring(from,end);
+				added++;
+				from=to+1;
+			}
+		}
+	}
+
+	/**
+	 * Forget every line.
+	 */
+	public void clear() {
+		synchronized(lines) {
+			for(int i=0;i<lines.length;++i) lines[i]=null;
+			cleared=added;
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return (int)(viewEnd-viewStart);
+	}
+
+	@Override
+	public String getElementAt(int index) {
+		long n = viewStart+index;
+		synchronized(lines) {
+			// overwritten since the last refresh?
+			if(n<added-lines.length || n<cleared || n>=added) return "";
+			String line = lines[(int)(n % lines.length)];
+			return line==null ? "" : line;
+		}
+	}
+
+	/**
+	 * Tell the view about lines added since the last time.  Swing thread only.
+	 */
+	private void refresh() {
+		long end, start;
+		synchronized(lines) {
+			end = added;
+			start = Math.max(viewStart,Math.max(cleared,end-lines.length));
+		}
+		if(end==viewEnd && start==viewStart) return;
+
+		boolean atBottom = isAtBottom();
+
+		if(start>=viewEnd) {
+			// everything on screen has gone.
+			int oldSize = getSize();
+			viewStart=viewEnd=start;
+			if(oldSize>0) fireIntervalRemoved(this,0,oldSize-1);
+		} else if(start>viewStart) {
+			int removed = (int)(start-viewStart);
+			viewStart=start;
+			fireIntervalRemoved(this,0,removed-1);
+		}
+		int oldSize = getSize();
+		viewEnd=end;
+		if(getSize()>oldSize) fireIntervalAdded(this,oldSize,getSize()-1);
+
+		if(atBottom && getSize()>0) list.ensureIndexIsVisible(getSize()-1);
+	}
+
+	private boolean isAtBottom() {
+		JScrollBar bar = pane.getVerticalScrollBar();
+		return bar.getValue()+bar.getVisibleAmount() >= bar.getMaximum()-list.getFixedCellHeight();
+	}
+
+	/**
+	 * @return the view of this log.  Swing thread only.
+	 */
+	public JScrollPane getView() {
+		if(pane!=null) return pane;
+
+		list = new JList<String>(this);
+		list.setForeground(Color.GREEN);
+		list.setBackground(Color.BLACK);
+		list.setFont(new Font(Font.MONOSPACED,Font.PLAIN,12));
+		// every row the same height, so the list never has to measure rows it doesn't draw.
+		list.setPrototypeCellValue("G00 X-000.00000 Y-000.00000 Z-000.00000 F0000.00000;");
+		pane = new JScrollPane(list);
+
+		timer = new Timer(REFRESH_DELAY,new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				refresh();
+			}
+		});
+		timer.start();
+		return pane;
+	}
+}
@@ -0,0 +1,287 @@
+package com.marginallyclever.Skycam;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the same stream of commands to any number of controllers without making them wait for each other on every
+ * line.  Each controller has its own queue and takes the next line as soon as it has room, so a fast board can run
+ * ahead of a slow one by up to {@link #getMaxLead()} lines.
+ *
+ * Every line gets a sequence number.  A barrier is a sequence number that no controller may pass until every controller
+ * has taken every line before it, such as a tool change that must wait until both boards are done.
+ *
+ * When the slowest controller has room the {@link LineSource} is asked for more.  The source and barrier actions are
+ * run by an {@link Executor}, one at a time and in stream order, never on the thread that heard the robot.  That thread
+ * serves every link, and a dialog waiting on it would stop them all.
+ * @author Dan Royer
+ */
+public class ControllerDispatcher implements SerialConnectionReadyListener {
+	public static final int DEFAULT_MAX_LEAD = 64;
+
+	/**
+	 * Where the lines come from.
+	 */
+	public interface LineSource {
+		/**
+		 * Call {@link ControllerDispatcher#send(String)} while {@link ControllerDispatcher#hasRoom()} is true.
+		 */
+		public void fill(ControllerDispatcher dispatcher);
+	}
+
+	private class Controller {
+		SkycamRobot robot;
+		// lines not yet given to the robot, oldest first
+		ArrayDeque<String> queue = new ArrayDeque<String>();
+		// sequence number of the next line this controller will take
+		long next=0;
+		// true when the robot has asked for a line that wasn't there yet
+		boolean waiting=true;
+
+		Controller(SkycamRobot robot) {
+			this.robot = robot;
+		}
+	}
+
+	private class Barrier {
+		// no controller may take this line until every controller has reached it.
+		long sequence;
+		Runnable action;
+
+		Barrier(long sequence,Runnable action) {
+			this.sequence = sequence;
+			this.action = action;
+		}
+	}
+
+	private ArrayList<Controller> controllers = new ArrayList<Controller>();
+	private ArrayDeque<Barrier> barriers = new ArrayDeque<Barrier>();
+	private LineSource source;
+	private int maxLead = DEFAULT_MAX_LEAD;
+	// sequence number of the next line to send
+	private long sequence=0;
+	// how many times dispatch() has been asked to run.  Only the thread that raises it from zero works.
+	private AtomicInteger dispatchRequests = new AtomicInteger();
+	// where fill() and barrier actions run.
+	private final Executor callbacks;
+	// true from handing a fill() or barrier action to the executor until it is done.
+	private boolean callbackPending=false;
+	// counts cues and wake()s.  A fill() that sends nothing is not tried again until this changes.
+	private long wakes=0;
+	private long idleAt=-1;
+
+
+	/**
+	 * @param callbacks runs {@link LineSource#fill(ControllerDispatcher)} and barrier actions, such as
+	 * SwingUtilities::invokeLater.
+	 */
+	public ControllerDispatcher(Executor callbacks) {
+		this.callbacks = callbacks;
+	}
+
+	/**
+	 * Add a controller.  Every line sent from now on goes to it as well.
+	 */
+	public synchronized void addController(SkycamRobot robot) {
+		Controller c = new Controller(robot);
+		c.next = sequence;
+		controllers.add(c);
+		robot.addListener(this);
+	}
+
+	public synchronized int getControllerCount() {
+		return controllers.size();
+	}
+
+	public synchronized void setLineSource(LineSource source) {
+		this.source = source;
+		wakes++;
+	}
+
+	/**
+	 * @param maxLead how many lines the fastest controller can be ahead of the slowest.
+	 */
+	public synchronized void setMaxLead(int maxLead) {
+		this.maxLead = Math.max(1,maxLead);
+	}
+
+	public synchronized int getMaxLead() {
+		return maxLead;
+	}
+
+	/**
+	 * @return true if the slowest controller has room for another line.
+	 */
+	public synchronized boolean hasRoom() {
+		for(Controller c : controllers) {
+			if(c.queue.size()>=maxLead) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Queue a line for every controller.  Always accepted, even if {@link #hasRoom()} is false.
+	 * @param line the command
+	 * @return the sequence number of the line.
+	 */
+	public long send(String line) {
+		long s;
+		synchronized(this) {
+			s = sequence++;
+			for(Controller c : controllers) {
+				c.queue.add(line);
+			}
+		}
+		dispatch();
+		return s;
+	}
+
+	/**
+	 * Stop every controller at this point in the stream until all of them have taken every line sent so far.
+	 * @param action run once they have.  No controller takes another line until it returns.  May be null.
+	 * @return the sequence number of the barrier.
+	 */
+	public long barrier(Runnable action) {
+		long s;
+		synchronized(this) {
+			s = sequence;
+			barriers.add(new Barrier(s,action));
+		}
+		dispatch();
+		return s;
+	}
+
+	/**
+	 * Throw away every line not yet given to a controller, and every barrier.  Lines already given are not recalled.
+	 */
+	public synchronized void clear() {
+		for(Controller c : controllers) {
+			c.queue.clear();
+			c.next = sequence;
+		}
+		barriers.clear();
+	}
+
+	/**
+	 * @return how many lines controller i has not yet taken.
+	 */
+	public synchronized int getPending(int i) {
+		return controllers.get(i).queue.size();
+	}
+
+	/**
+	 * Ask the source for more lines, as when a job starts or is unpaused.
+	 */
+	public void wake() {
+		synchronized(this) {
+			wakes++;
+		}
+		dispatch();
+	}
+
+	@Override
+	public void SerialConnectionReady(SkycamRobot robot) {
+		synchronized(this) {
+			for(Controller c : controllers) {
+				if(c.robot==robot) c.waiting=true;
+			}
+			wakes++;
+		}
+		dispatch();
+	}
+
+	/**
+	 * Give lines to every controller that is waiting, and hand the next barrier action or refill to the executor.  Safe
+	 * to call from any thread and from inside a callback: if another call is already working it goes around again.
+	 */
+	private void dispatch() {
+		if(dispatchRequests.getAndIncrement()!=0) return;
+
+		int missed=1;
+		do {
+			while(release());
+			Runnable task = nextCallback();
+			if(task!=null) callbacks.execute(task);
+			missed = dispatchRequests.addAndGet(-missed);
+		} while(missed!=0);
+	}
+
+	/**
+	 * @return the action of a barrier every controller has reached, or a refill, or null if there is nothing to do or
+	 * a callback is still running.
+	 */
+	private synchronized Runnable nextCallback() {
+		if(callbackPending) return null;
+
+		final Barrier b = barriers.peek();
+		if(b!=null) {
+			for(Controller c : controllers) {
+				if(c.next<b.sequence || !c.waiting) return null;
+			}
+			callbackPending=true;
+			return new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if(b.action!=null) b.action.run();
+					} finally {
+						// the barrier holds every controller until now.
+						synchronized(ControllerDispatcher.this) {
+							barriers.remove(b);
+							callbackPending=false;
+							wakes++;
+						}
+						dispatch();
+					}
+				}
+			};
+		}
+
+		final LineSource s = source;
+		if(s==null || idleAt==wakes || !hasRoom()) return null;
+		callbackPending=true;
+		final long before = sequence;
+		final long wakesBefore = wakes;
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					s.fill(ControllerDispatcher.this);
+				} finally {
+					synchronized(ControllerDispatcher.this) {
+						// nothing to send?  wait for a cue or a wake() before asking again.
+						if(sequence==before) idleAt=wakesBefore;
+						callbackPending=false;
+					}
+					dispatch();
+				}
+			}
+		};
+	}
+
+	// give one line to every controller that is waiting for one.
+	private boolean release() {
+		boolean any=false;
+		for(int i=0;;++i) {
+			SkycamRobot robot;
+			String line;
+			synchronized(this) {
+				if(i>=controllers.size()) break;
+				Controller c = controllers.get(i);
+				if(!c.waiting || c.queue.isEmpty()) continue;
+				Barrier b = barriers.peek();
+				if(b!=null && c.next>=b.sequence) continue;
+				line = c.queue.poll();
+				c.next++;
+				c.waiting=false;
+				robot = c.robot;
+			}
+			// outside the lock: the robot may call back into SerialConnectionReady() right away.
+			robot.sendCommand(line);
+			any=true;
+		}
+		return any;
+	}
+}
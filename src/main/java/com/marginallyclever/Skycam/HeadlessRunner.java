@@ -0,0 +1,488 @@
+package com.marginallyclever.Skycam;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.Preferences;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.Telemetry;
+import com.marginallyclever.communications.TransportLayer;
+import com.marginallyclever.communications.TransportLayers;
+import com.marginallyclever.dxf.DXFImporter;
+import com.marginallyclever.gcode.CompiledGCode;
+import com.marginallyclever.gcode.GCodeFile;
+import com.marginallyclever.image.ImageImporter;
+import com.marginallyclever.kinematics.JobTimeEstimate;
+import com.marginallyclever.kinematics.JobTimeEstimator;
+import com.marginallyclever.kinematics.Trajectory;
+import com.marginallyclever.kinematics.WorkspaceReport;
+import com.marginallyclever.kinematics.WorkspaceValidator;
+
+/**
+ * Runs one job with no window, for schedulers and machines with no display.  The job is made with the same
+ * {@link JobSettings} as the window, checked against the workspace, and streamed to both robots through the same
+ * {@link ControllerDispatcher}.  Nothing here loads Swing or the 3D preview.
+ *
+ * From the command line:
+ * <pre>
+ * java -cp Skycam.jar com.marginallyclever.Skycam.HeadlessRunner -a "TCP/IP=192.168.1.20:9999" -b "TCP/IP=192.168.1.21:9999" job.ngc
+ * </pre>
+ * The exit status says how it went, see the EXIT_ constants.
+ * @author Dan Royer
+ */
+public class HeadlessRunner implements ControllerDispatcher.LineSource {
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_USAGE = 1;
+	// the file could not be read.
+	public static final int EXIT_FILE = 2;
+	// a robot could not be reached or never said hello.
+	public static final int EXIT_CONNECT = 3;
+	// the job leaves the workspace.  See setForce().
+	public static final int EXIT_WORKSPACE = 4;
+	// the job stopped at a tool change.  See setToolChange().
+	public static final int EXIT_TOOL_CHANGE = 5;
+	// a robot hung up during the job.
+	public static final int EXIT_LOST = 6;
+	// halt() was called.
+	public static final int EXIT_HALTED = 7;
+
+	// stop the job at a tool change, after every line before it is sent.
+	public static final int TOOL_CHANGE_STOP = 0;
+	// keep going with the same tool.
+	public static final int TOOL_CHANGE_SKIP = 1;
+	// wait for a line on standard input.
+	public static final int TOOL_CHANGE_WAIT = 2;
+	public static final String [] TOOL_CHANGE_NAMES = { "stop", "skip", "wait" };
+
+	public static final long DEFAULT_HELLO_TIMEOUT = 30000;
+	// how often to check the robots are still there, in ms.
+	private static final long POLL_INTERVAL = 50;
+
+	/**
+	 * Told as the job is sent.
+	 */
+	public interface ProgressListener {
+		/**
+		 * Called from the thread that called send(), between lines, so keep it short.
+		 * @param sent how many blocks of the program have been queued for the robots
+		 * @param total how many blocks there are
+		 */
+		public void progress(long sent,long total);
+	}
+
+	private final JobSettings settings;
+	private int toolChange = TOOL_CHANGE_STOP;
+	private boolean force = false;
+	private long helloTimeout = DEFAULT_HELLO_TIMEOUT;
+	private ProgressListener listener;
+	private LineLog log;
+
+	private ControllerDispatcher dispatcher;
+	// the job from load().
+	private CompiledGCode program;
+	private long blocksSent;
+	private volatile boolean running;
+	private volatile int status;
+	// counted down once the job is over, well or not.
+	private CountDownLatch done;
+
+
+	/**
+	 * @param settings where the motors are and how files become jobs.
+	 */
+	public HeadlessRunner(JobSettings settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * @param toolChange what to do at M06.  One of {@link #TOOL_CHANGE_STOP}, {@link #TOOL_CHANGE_SKIP} or
+	 * {@link #TOOL_CHANGE_WAIT}.
+	 */
+	public void setToolChange(int toolChange) {
+		if(toolChange<TOOL_CHANGE_STOP || toolChange>TOOL_CHANGE_WAIT) throw new IllegalArgumentException("no such tool change "+toolChange);
+		this.toolChange = toolChange;
+	}
+
+	/**
+	 * @param force true to send a job that leaves the workspace.
+	 */
+	public void setForce(boolean force) {
+		this.force = force;
+	}
+
+	/**
+	 * @param ms how long to wait for both robots to say hello.
+	 */
+	public void setHelloTimeout(long ms) {
+		this.helloTimeout = ms;
+	}
+
+	public void setProgressListener(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param log where the conversation with both robots goes, or null to drop it.
+	 */
+	public void setLog(LineLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Make the job and check it.  Call before connecting, so a bad job never reaches the robots.
+	 * @param filename a g-code file, drawing or picture
+	 * @return {@link #EXIT_OK} if the job can be sent, or why not.
+	 * @throws InterruptedException if the thread is interrupted while the job is made.
+	 */
+	public int load(String filename) throws InterruptedException {
+		CompiledGCode p;
+		try {
+			if(DXFImporter.isDXF(filename) || ImageImporter.isImage(filename)) {
+				p = settings.compile(null,filename);
+			} else {
+				GCodeFile file = new GCodeFile(filename);
+				try {
+					p = settings.compile(file,null);
+				} finally {
+					file.close();
+				}
+			}
+		} catch(IOException e) {
+			System.out.println("Can't read "+filename+": "+e.getMessage());
+			return EXIT_FILE;
+		}
+
+		Trajectory path = Trajectory.build(p);
+		WorkspaceReport w = new WorkspaceValidator(settings.getKinematics()).validate(path);
+		for(WorkspaceReport.Problem problem : w.getProblems()) {
+			System.out.println(problem);
+		}
+		if(!w.isOK() && !force) {
+			System.out.println(w.getProblemCount()+" places in this job are outside the safe workspace.");
+			return EXIT_WORKSPACE;
+		}
+		JobTimeEstimate e = new JobTimeEstimator(settings.getKinematics()).estimate(path);
+		System.out.println(p.size()+" blocks, about "+JobTimeEstimate.format(e.getTotalTime()));
+		program = p;
+		return EXIT_OK;
+	}
+
+	/**
+	 * Send the job from {@link #load(String)}.  Returns when every line has been read by both robots.  The job is fed
+	 * to the robots and tool changes are made on this thread, so --tool-change wait can stop for a person without
+	 * stopping the threads that hear the robots.
+	 * @param a the connection to the robot with motors 1 and 2
+	 * @param b the connection to the robot with motors 3 and 4
+	 * @return one of the EXIT_ constants.  Both connections are closed.
+	 * @throws InterruptedException if the thread is interrupted.  The job stops where it is.
+	 */
+	public int send(NetworkConnection a,NetworkConnection b) throws InterruptedException {
+		if(program==null) throw new IllegalStateException("load() a job first");
+		SkycamRobot robotA = new SkycamRobot("A",log);
+		SkycamRobot robotB = new SkycamRobot("B",log);
+		try {
+			return send(robotA,robotB,a,b);
+		} finally {
+			running=false;
+			robotA.closePort();
+			robotB.closePort();
+			a.closeConnection();
+			b.closeConnection();
+		}
+	}
+
+	private int send(SkycamRobot robotA,SkycamRobot robotB,NetworkConnection a,NetworkConnection b)
+			throws InterruptedException {
+		final BlockingQueue<Runnable> jobs = new LinkedBlockingQueue<Runnable>();
+		dispatcher = new ControllerDispatcher(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				jobs.add(command);
+			}
+		});
+		dispatcher.addController(robotA);
+		dispatcher.addController(robotB);
+		robotA.open(a);
+		robotB.open(b);
+		// the same start as the window: where each robot is, then where the job begins.
+		robotA.sendCommand(settings.getConfigA());
+		robotB.sendCommand(settings.getConfigB());
+		dispatcher.send("TELEPORT X0 Y0 Z0");
+
+		long giveUp = System.currentTimeMillis()+helloTimeout;
+		while(!robotA.portConfirmed || !robotB.portConfirmed) {
+			if(!a.isOpen() || !b.isOpen()) {
+				System.out.println("A robot hung up before saying hello.");
+				return EXIT_CONNECT;
+			}
+			if(System.currentTimeMillis()>giveUp) {
+				System.out.println("A robot did not say hello within "+helloTimeout+" ms.");
+				return EXIT_CONNECT;
+			}
+			work(jobs);
+		}
+
+		blocksSent = 0;
+		status = EXIT_OK;
+		done = new CountDownLatch(1);
+		running = true;
+		dispatcher.setLineSource(this);
+		dispatcher.wake();
+
+		while(done.getCount()>0) {
+			work(jobs);
+			if(!a.isOpen() || !b.isOpen()) {
+				System.out.println("A robot hung up during the job.");
+				halt(EXIT_LOST);
+			}
+		}
+		if(status!=EXIT_OK && status!=EXIT_TOOL_CHANGE) return status;
+
+		// every line is on its way.  Wait until both robots have read them.
+		while(inFlight(a) || inFlight(b)) {
+			if(!a.isOpen() || !b.isOpen()) {
+				System.out.println("A robot hung up during the job.");
+				return EXIT_LOST;
+			}
+			work(jobs);
+		}
+		return status;
+	}
+
+	// run what the dispatcher hands over, for up to POLL_INTERVAL ms.
+	private static void work(BlockingQueue<Runnable> jobs) throws InterruptedException {
+		Runnable job = jobs.poll(POLL_INTERVAL,TimeUnit.MILLISECONDS);
+		while(job!=null) {
+			job.run();
+			job = jobs.poll();
+		}
+	}
+
+	private static boolean inFlight(NetworkConnection c) {
+		return c.getStatistics().getQueueDepth()>0 || c.getSendWindow().getLinesInFlight()>0;
+	}
+
+	/**
+	 * Stop sending.  Lines already given to the robots are not recalled.  {@link #send(NetworkConnection,NetworkConnection)}
+	 * returns {@link #EXIT_HALTED}.  Safe to call from any thread.
+	 */
+	public void halt() {
+		halt(EXIT_HALTED);
+	}
+
+	private void halt(int why) {
+		running=false;
+		if(status==EXIT_OK) status=why;
+		if(dispatcher!=null) dispatcher.clear();
+		if(done!=null) done.countDown();
+	}
+
+	// Queue blocks from the program until the dispatcher is full.  Called by the dispatcher.
+	@Override
+	public void fill(ControllerDispatcher d) {
+		if(!running) return;
+		int size = program.size();
+		while(running && d.hasRoom() && blocksSent<size) {
+			sendBlock((int)blocksSent++);
+		}
+		if(listener!=null) listener.progress(blocksSent,size);
+
+		if(running && blocksSent>=size) {
+			// end of file.  done once every robot has every line.
+			running=false;
+			d.barrier(new Runnable() {
+				@Override
+				public void run() {
+					done.countDown();
+				}
+			});
+		}
+	}
+
+	// the same as Skycam.SendBlockToRobot(), with no one to ask for a new tool.
+	private void sendBlock(int block) {
+		int op = program.getOpcode(block);
+
+		// tool change?
+		if(op==CompiledGCode.opcode('M',6)) {
+			float tool = program.getParam(block,'T',-1);
+			if(tool>=0) changeTool(Integer.toString((int)tool));
+			return;
+		}
+
+		// end of program?
+		if(op==CompiledGCode.opcode('M',2)) {
+			blocksSent=program.size();
+			return;
+		}
+
+		dispatcher.send(program.appendBlock(block,new StringBuilder()).toString());
+	}
+
+	private void changeTool(final String tool) {
+		if(toolChange==TOOL_CHANGE_SKIP) {
+			System.out.println("Skipped a change to tool #"+tool+".");
+			return;
+		}
+		if(toolChange==TOOL_CHANGE_STOP) {
+			// nothing after the change is sent.  send() still waits for the robots to finish what came before.
+			running=false;
+			dispatcher.barrier(new Runnable() {
+				@Override
+				public void run() {
+					System.out.println("Stopped for a change to tool #"+tool+".");
+					if(status==EXIT_OK) status=EXIT_TOOL_CHANGE;
+					done.countDown();
+				}
+			});
+			return;
+		}
+		dispatcher.barrier(new Runnable() {
+			@Override
+			public void run() {
+				System.out.println("Please change to tool #"+tool+" and press enter.");
+				try {
+					if(new BufferedReader(new InputStreamReader(System.in)).readLine()!=null) return;
+				} catch(IOException e) {}
+				// no one to answer.
+				halt(EXIT_TOOL_CHANGE);
+			}
+		});
+	}
+
+	/**
+	 * @param spec transport name and address, such as "TCP/IP=192.168.1.20:9999"
+	 * @return the open connection, or null.
+	 */
+	private static NetworkConnection connect(String spec) {
+		int eq = spec.indexOf('=');
+		TransportLayer layer = (eq<0) ? null : TransportLayers.get(spec.substring(0,eq));
+		if(layer==null) {
+			System.out.println("No transport for "+spec+".  Try one of:");
+			for(TransportLayer t : TransportLayers.getAll()) {
+				System.out.println("  "+t.getName());
+			}
+			return null;
+		}
+		return layer.openConnection(spec.substring(eq+1));
+	}
+
+	private static int usage() {
+		System.out.println("Usage: HeadlessRunner -a transport=address -b transport=address [options] file");
+		System.out.println("  -a, -b                 the robots with motors 1 and 2, and 3 and 4.  Such as \"TCP/IP=192.168.1.20:9999\"");
+		System.out.println("  --force                send a job that leaves the workspace");
+		System.out.println("  --tool-change stop|skip|wait   what to do at M06.  Default stop");
+		System.out.println("  --timeout seconds      how long to wait for the robots to say hello.  Default "+DEFAULT_HELLO_TIMEOUT/1000);
+		System.out.println("  --verbose              print everything said to and by the robots");
+		System.out.println("Settings are read from the same preferences as the window.");
+		return EXIT_USAGE;
+	}
+
+	/**
+	 * @return one of the EXIT_ constants
+	 */
+	static int run(String [] args) throws InterruptedException {
+		String specA=null, specB=null, filename=null;
+		boolean force=false, verbose=false;
+		int toolChange=TOOL_CHANGE_STOP;
+		long timeout=DEFAULT_HELLO_TIMEOUT;
+		try {
+			for(int i=0;i<args.length;++i) {
+				String arg = args[i];
+				if(arg.equals("-a")) specA = args[++i];
+				else if(arg.equals("-b")) specB = args[++i];
+				else if(arg.equals("--force")) force=true;
+				else if(arg.equals("--verbose")) verbose=true;
+				else if(arg.equals("--timeout")) timeout = Math.round(Double.parseDouble(args[++i])*1000);
+				else if(arg.equals("--tool-change")) {
+					String name = args[++i];
+					toolChange=-1;
+					for(int j=0;j<TOOL_CHANGE_NAMES.length;++j) {
+						if(TOOL_CHANGE_NAMES[j].equals(name)) toolChange=j;
+					}
+					if(toolChange<0) return usage();
+				}
+				else if(arg.startsWith("-") || filename!=null) return usage();
+				else filename = arg;
+			}
+		} catch(ArrayIndexOutOfBoundsException e) {
+			return usage();
+		} catch(NumberFormatException e) {
+			return usage();
+		}
+		if(specA==null || specB==null || filename==null) return usage();
+		if(!new File(filename).canRead()) {
+			System.out.println("Can't read "+filename);
+			return EXIT_FILE;
+		}
+
+		JobSettings settings = new JobSettings();
+		settings.load(Preferences.userRoot().node("Skycam"));
+		HeadlessRunner runner = new HeadlessRunner(settings);
+		runner.setForce(force);
+		runner.setToolChange(toolChange);
+		runner.setHelloTimeout(timeout);
+		if(verbose) {
+			runner.setLog(new LineLog() {
+				@Override
+				public void append(String msg) {
+					System.out.print(msg.endsWith("\n") ? msg : msg+"\n");
+				}
+			});
+		}
+		runner.setProgressListener(new ProgressListener() {
+			private long lastPercent=-1;
+
+			@Override
+			public void progress(long sent,long total) {
+				long percent = (total==0) ? 100 : sent*100/total;
+				if(percent==lastPercent) return;
+				lastPercent=percent;
+				System.out.println(percent+"% sent");
+			}
+		});
+
+		int status = runner.load(filename);
+		if(status!=EXIT_OK) return status;
+
+		NetworkConnection a = connect(specA);
+		if(a==null) return EXIT_CONNECT;
+		NetworkConnection b = connect(specB);
+		if(b==null) {
+			a.closeConnection();
+			return EXIT_CONNECT;
+		}
+		status = runner.send(a,b);
+		if(status==EXIT_OK) System.out.println("Done.");
+		return status;
+	}
+
+	public static void main(String[] args) {
+		// pictures are read with ImageIO, which must not look for a display.
+		System.setProperty("java.awt.headless","true");
+		// -Dskycam.telemetry=stats.csv (or .json) writes link statistics every -Dskycam.telemetry.period ms.
+		String telemetry = System.getProperty("skycam.telemetry");
+		if(telemetry!=null) {
+			try {
+				Telemetry.startReport(new File(telemetry),Long.getLong("skycam.telemetry.period",5000));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		int status;
+		try {
+			status = run(args);
+		} catch(InterruptedException e) {
+			status = EXIT_HALTED;
+		}
+		System.exit(status);
+	}
+}
@@ -0,0 +1,291 @@
+package com.marginallyclever.Skycam;
+
+import java.io.IOException;
+import java.util.prefs.Preferences;
+
+import javax.vecmath.Point3d;
+
+import com.marginallyclever.dxf.DXFImporter;
+import com.marginallyclever.gcode.CompiledGCode;
+import com.marginallyclever.gcode.GCodeCompiler;
+import com.marginallyclever.gcode.GCodeFile;
+import com.marginallyclever.gcode.PathSimplifier;
+import com.marginallyclever.gcode.SpeedPlanner;
+import com.marginallyclever.gcode.TravelOptimizer;
+import com.marginallyclever.image.ImageImporter;
+import com.marginallyclever.kinematics.SkycamKinematics;
+
+/**
+ * Where the motors are and how a file becomes a job, as kept in the preferences.  The window and the
+ * {@link HeadlessRunner} both use it, so a job is made and configured the same way whichever one sends it.
+ *
+ * Nothing here touches Swing.
+ * @author Dan Royer
+ */
+public class JobSettings {
+	// config
+	Point3d m1=new Point3d();
+	Point3d m2=new Point3d();
+	Point3d m3=new Point3d();
+	Point3d m4=new Point3d();
+	boolean m1invert=false,
+			m2invert=false,
+			m3invert=false,
+			m4invert=false;
+	// merge tiny moves before sending?
+	boolean simplifyPaths=false;
+	boolean simplifyArcs=true;
+	double simplifyTolerance=PathSimplifier.DEFAULT_TOLERANCE;
+	boolean optimizeTravel=false;
+	double travelTimeLimit=TravelOptimizer.DEFAULT_TIME_LIMIT;
+	// send every move with the speed the whole job plan allows?
+	boolean planSpeeds=false;
+	// where drawings go, in cm.
+	double dxfScale=1;
+	double dxfX=0, dxfY=0, dxfZ=0;
+	boolean dxfOrder=true;
+	// how pictures are drawn, in cm.
+	int imageMode=ImageImporter.MODE_HATCH;
+	double imageWidth=ImageImporter.DEFAULT_WIDTH;
+	double imageSpacing=ImageImporter.DEFAULT_SPACING;
+	int imageLevels=ImageImporter.DEFAULT_LEVELS;
+	double imageX=0, imageY=0, imageZ=0;
+	boolean imageOrder=true;
+
+
+	public JobSettings() {}
+
+	/**
+	 * A copy, so a job can be made in the background while the settings are changed.
+	 */
+	public JobSettings(JobSettings s) {
+		m1.set(s.m1);
+		m2.set(s.m2);
+		m3.set(s.m3);
+		m4.set(s.m4);
+		m1invert=s.m1invert;
+		m2invert=s.m2invert;
+		m3invert=s.m3invert;
+		m4invert=s.m4invert;
+		simplifyPaths=s.simplifyPaths;
+		simplifyArcs=s.simplifyArcs;
+		simplifyTolerance=s.simplifyTolerance;
+		optimizeTravel=s.optimizeTravel;
+		travelTimeLimit=s.travelTimeLimit;
+		planSpeeds=s.planSpeeds;
+		dxfScale=s.dxfScale;
+		dxfX=s.dxfX;
+		dxfY=s.dxfY;
+		dxfZ=s.dxfZ;
+		dxfOrder=s.dxfOrder;
+		imageMode=s.imageMode;
+		imageWidth=s.imageWidth;
+		imageSpacing=s.imageSpacing;
+		imageLevels=s.imageLevels;
+		imageX=s.imageX;
+		imageY=s.imageY;
+		imageZ=s.imageZ;
+		imageOrder=s.imageOrder;
+	}
+
+	public void load(Preferences prefs) {
+		m1.x=Double.valueOf(prefs.get("m1x", "0"));
+		m1.y=Double.valueOf(prefs.get("m1y", "0"));
+		m1.z=Double.valueOf(prefs.get("m1z", "0"));
+		m1invert=Boolean.parseBoolean(prefs.get("m1invert", "false"));
+
+		m2.x=Double.valueOf(prefs.get("m2x", "0"));
+		m2.y=Double.valueOf(prefs.get("m2y", "0"));
+		m2.z=Double.valueOf(prefs.get("m2z", "0"));
+		m2invert=Boolean.parseBoolean(prefs.get("m2invert", "false"));
+
+		m3.x=Double.valueOf(prefs.get("m3x", "0"));
+		m3.y=Double.valueOf(prefs.get("m3y", "0"));
+		m3.z=Double.valueOf(prefs.get("m3z", "0"));
+		m3invert=Boolean.parseBoolean(prefs.get("m3invert", "false"));
+
+		m4.x=Double.valueOf(prefs.get("m4x", "0"));
+		m4.y=Double.valueOf(prefs.get("m4y", "0"));
+		m4.z=Double.valueOf(prefs.get("m4z", "0"));
+		m4invert=Boolean.parseBoolean(prefs.get("m4invert", "false"));
+
+		simplifyPaths=Boolean.parseBoolean(prefs.get("simplify", "false"));
+		simplifyArcs=Boolean.parseBoolean(prefs.get("simplify-arcs", "true"));
+		simplifyTolerance=Double.valueOf(prefs.get("simplify-tolerance", String.valueOf(PathSimplifier.DEFAULT_TOLERANCE)));
+
+		optimizeTravel=Boolean.parseBoolean(prefs.get("optimize-travel", "false"));
+		travelTimeLimit=Double.valueOf(prefs.get("travel-time", String.valueOf(TravelOptimizer.DEFAULT_TIME_LIMIT)));
+		planSpeeds=Boolean.parseBoolean(prefs.get("plan-speeds", "false"));
+
+		dxfScale=Double.valueOf(prefs.get("dxf-scale", "1"));
+		dxfX=Double.valueOf(prefs.get("dxf-x", "0"));
+		dxfY=Double.valueOf(prefs.get("dxf-y", "0"));
+		dxfZ=Double.valueOf(prefs.get("dxf-z", "0"));
+		dxfOrder=Boolean.parseBoolean(prefs.get("dxf-order", "true"));
+
+		imageMode=Integer.valueOf(prefs.get("image-mode", String.valueOf(ImageImporter.MODE_HATCH)));
+		imageWidth=Double.valueOf(prefs.get("image-width", String.valueOf(ImageImporter.DEFAULT_WIDTH)));
+		imageSpacing=Double.valueOf(prefs.get("image-spacing", String.valueOf(ImageImporter.DEFAULT_SPACING)));
+		imageLevels=Integer.valueOf(prefs.get("image-levels", String.valueOf(ImageImporter.DEFAULT_LEVELS)));
+		imageX=Double.valueOf(prefs.get("image-x", "0"));
+		imageY=Double.valueOf(prefs.get("image-y", "0"));
+		imageZ=Double.valueOf(prefs.get("image-z", "0"));
+		imageOrder=Boolean.parseBoolean(prefs.get("image-order", "true"));
+	}
+
+	public void save(Preferences prefs) {
+		prefs.put("m1x",String.valueOf(m1.x));
+		prefs.put("m1y",String.valueOf(m1.y));
+		prefs.put("m1z",String.valueOf(m1.z));
+		prefs.put("m1invert",Boolean.toString(m1invert));
+
+		prefs.put("m2x",String.valueOf(m2.x));
+		prefs.put("m2y",String.valueOf(m2.y));
+		prefs.put("m2z",String.valueOf(m2.z));
+		prefs.put("m2invert",Boolean.toString(m2invert));
+
+		prefs.put("m3x",String.valueOf(m3.x));
+		prefs.put("m3y",String.valueOf(m3.y));
+		prefs.put("m3z",String.valueOf(m3.z));
+		prefs.put("m3invert",Boolean.toString(m3invert));
+
+		prefs.put("m4x",String.valueOf(m4.x));
+		prefs.put("m4y",String.valueOf(m4.y));
+		prefs.put("m4z",String.valueOf(m4.z));
+		prefs.put("m4invert",Boolean.toString(m4invert));
+
+		prefs.put("simplify",Boolean.toString(simplifyPaths));
+		prefs.put("simplify-arcs",Boolean.toString(simplifyArcs));
+		prefs.put("simplify-tolerance",String.valueOf(simplifyTolerance));
+
+		prefs.put("optimize-travel",Boolean.toString(optimizeTravel));
+		prefs.put("travel-time",String.valueOf(travelTimeLimit));
+		prefs.put("plan-speeds",Boolean.toString(planSpeeds));
+
+		prefs.put("dxf-scale",String.valueOf(dxfScale));
+		prefs.put("dxf-x",String.valueOf(dxfX));
+		prefs.put("dxf-y",String.valueOf(dxfY));
+		prefs.put("dxf-z",String.valueOf(dxfZ));
+		prefs.put("dxf-order",Boolean.toString(dxfOrder));
+
+		prefs.put("image-mode",String.valueOf(imageMode));
+		prefs.put("image-width",String.valueOf(imageWidth));
+		prefs.put("image-spacing",String.valueOf(imageSpacing));
+		prefs.put("image-levels",String.valueOf(imageLevels));
+		prefs.put("image-x",String.valueOf(imageX));
+		prefs.put("image-y",String.valueOf(imageY));
+		prefs.put("image-z",String.valueOf(imageZ));
+		prefs.put("image-order",Boolean.toString(imageOrder));
+	}
+
+	/**
+	 * @return the cable math for the motors where they are now.
+	 */
+	public SkycamKinematics getKinematics() {
+		return new SkycamKinematics(m1,m2,m3,m4);
+	}
+
+	/**
+	 * @return where the first robot's motors are, its designation and which way they turn.
+	 */
+	public String getConfigA() {
+		return "CONFIG A"+String.valueOf(m1.x)  // position of 10:00 motor
+				+" B"+String.valueOf(m1.y)
+				+" C"+String.valueOf(m1.z)
+				+" D"+String.valueOf(m2.x)  // position of 2:00 motor
+				+" E"+String.valueOf(m2.y)
+				+" F"+String.valueOf(m2.z)
+				+" GA HB"
+				+" I"+(m1invert?"-1":"1")
+				+" J"+(m2invert?"-1":"1");  // name of motors, inversion
+	}
+
+	/**
+	 * @return the same for the second robot.
+	 */
+	public String getConfigB() {
+		return "CONFIG A"+String.valueOf(m3.x)  // position of 4:30 motor
+				+" B"+String.valueOf(m3.y)
+				+" C"+String.valueOf(m3.z)
+				+" D"+String.valueOf(m4.x)  // position of 7:30 motor
+				+" E"+String.valueOf(m4.y)
+				+" F"+String.valueOf(m4.z)
+				+" GC HD"
+				+" I"+(m3invert?"-1":"1")
+				+" J"+(m4invert?"-1":"1");  // name of motors, inversion
+	}
+
+	/**
+	 * Tokenize the file once, and simplify it and shorten its travel if asked, or fetch the result from the cache.
+	 * Then plan its speeds if asked, which is quick enough not to cache.
+	 * @param file the file to compile, or null for a drawing or picture
+	 * @param imported the drawing or picture to import, or null for a g-code file
+	 * @return the job
+	 * @throws IOException if the file cannot be read
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public CompiledGCode compile(GCodeFile file,String imported) throws IOException, InterruptedException {
+		CompiledGCode p = make(file,imported);
+		if(planSpeeds) p = new SpeedPlanner(getKinematics()).plan(p);
+		return p;
+	}
+
+	private CompiledGCode make(GCodeFile file,String imported) throws IOException, InterruptedException {
+		PathSimplifier simplifier = null;
+		if(simplifyPaths) {
+			simplifier = new PathSimplifier(simplifyTolerance);
+			simplifier.setFitArcs(simplifyArcs);
+		}
+		DXFImporter importer = null;
+		ImageImporter imageImporter = null;
+		if(imported!=null && DXFImporter.isDXF(imported)) {
+			importer = new DXFImporter();
+			importer.setScale(dxfScale);
+			importer.setOffset(dxfX,dxfY,dxfZ);
+			importer.setOrderPaths(dxfOrder);
+		} else if(imported!=null) {
+			imageImporter = new ImageImporter();
+			imageImporter.setMode(imageMode);
+			imageImporter.setWidth(imageWidth);
+			imageImporter.setSpacing(imageSpacing);
+			imageImporter.setLevels(imageLevels);
+			imageImporter.setCentre(imageX,imageY,imageZ);
+			imageImporter.setOrderPaths(imageOrder);
+		}
+
+		TravelOptimizer optimizer = null;
+		String key = null;
+		if(optimizeTravel) {
+			optimizer = new TravelOptimizer(travelTimeLimit);
+			// every way of making the program is shortened apart.
+			String source = (importer!=null) ? importer.getCacheKey()
+					: (imageImporter!=null) ? imageImporter.getCacheKey() : "gcode";
+			if(simplifier!=null) source += "-"+simplifier.getCacheKey();
+			key = GCodeCompiler.hash(imported!=null ? imported : file.getFilename())+"-"+source+"-"+optimizer.getCacheKey();
+			CompiledGCode p = GCodeCompiler.readCache(key);
+			if(p!=null) return p;
+		}
+
+		CompiledGCode p;
+		if(importer!=null) {
+			p = importer.importCached(imported);
+			if(importer.getSkipped()>0) {
+				System.out.println("Skipped "+importer.getSkipped()+" DXF entities that are not lines, arcs or splines.");
+			}
+			if(simplifier!=null) p = simplifier.simplify(p);
+		} else if(imageImporter!=null) {
+			p = imageImporter.importCached(imported);
+			if(simplifier!=null) p = simplifier.simplify(p);
+		} else {
+			p = (simplifier!=null)
+					? GCodeCompiler.simplifyCached(file,simplifier)
+					: GCodeCompiler.compileCached(file);
+		}
+		if(optimizer!=null) {
+			p = optimizer.optimize(p);
+			GCodeCompiler.writeCache(key,p);
+			System.out.printf("Travel shortened from %.1f to %.1f cm.%n",optimizer.getTravelBefore(),optimizer.getTravelAfter());
+		}
+		return p;
+	}
+}
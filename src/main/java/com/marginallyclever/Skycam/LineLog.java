@@ -0,0 +1,12 @@
+package com.marginallyclever.Skycam;
+
+/**
+ * Where the lines sent to and received from a robot go.
+ * @author Dan Royer
+ */
+public interface LineLog {
+	/**
+	 * @param msg one or more lines.  May be called from any thread.
+	 */
+	public void append(String msg);
+}
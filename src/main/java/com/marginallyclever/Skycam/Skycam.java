@@ -9,16 +9,14 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Scanner;
+import java.util.concurrent.Executor;
 import java.util.prefs.Preferences;
 import java.lang.Boolean;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -31,9 +29,24 @@ import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import javax.vecmath.Point3d;
+
+import com.marginallyclever.communications.Telemetry;
+import com.marginallyclever.dxf.DXFImporter;
+import com.marginallyclever.gcode.CompiledGCode;
+import com.marginallyclever.gcode.GCodeFile;
+import com.marginallyclever.gcode.GCodeTokenizer;
+import com.marginallyclever.image.ImageImporter;
+import com.marginallyclever.kinematics.JobTimeEstimate;
+import com.marginallyclever.kinematics.JobTimeEstimator;
+import com.marginallyclever.kinematics.SkycamKinematics;
+import com.marginallyclever.kinematics.Trajectory;
+import com.marginallyclever.kinematics.WorkspaceReport;
+import com.marginallyclever.kinematics.WorkspaceValidator;
+import com.marginallyclever.preview.PreviewPanel;
 
 
 /**
@@ -64,48 +77,80 @@ implements ActionListener, SerialConnectionReadyListener
 	private JMenuBar menuBar;
 	private JMenuItem buttonOpenFile, buttonExit;
     private JMenuItem [] buttonRecent = new JMenuItem[10];
-	private JMenuItem buttonJogMotors, buttonMachineLimits, buttonDisconnect;
+	private JMenuItem buttonJogMotors, buttonMachineLimits, buttonSimplify, buttonTravel, buttonDXF, buttonImage, buttonDisconnect;
 	private JMenuItem buttonStart, buttonPause, buttonHalt, buttonDrive;
 	
 	// serial connections
 	private SkycamRobot connectionBerlin;
 	private SkycamRobot connectionTokyo;
-	private boolean aReady=false, bReady=false, wasConfirmed=false;
+	private ConsoleLog logBerlin = new ConsoleLog();
+	private ConsoleLog logTokyo = new ConsoleLog();
+	private boolean wasConfirmed=false;
+	// feeds every robot the same commands without lockstep
+	// the job and tool changes run on the event thread, like the buttons that start them.
+	private ControllerDispatcher dispatcher = new ControllerDispatcher(new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			SwingUtilities.invokeLater(command);
+		}
+	});
 
 	// settings
 	private Preferences prefs;
 	private String[] recentFiles = {"","","","","","","","","",""};
-	private boolean m1invert=false,
-					m2invert=false,
-					m3invert=false,
-					m4invert=false;
-	
-	// config
-	Point3d m1=new Point3d();
-	Point3d m2=new Point3d();
-	Point3d m3=new Point3d();
-	Point3d m4=new Point3d();
+	// where the motors are and how files become jobs.
+	private JobSettings settings = new JobSettings();
 	
 	// files
 	private boolean running=false;
 	private boolean paused=true;
-    private long linesTotal=0;
 	private long linesProcessed=0;
 	private boolean fileOpened=false;
-	private ArrayList<String> gcode;
-	//private float estimated_time=0;
+	private GCodeFile gcode;
+	// the drawing or picture open instead of a g-code file, or null.
+	private String importedFile;
+	// the same file, already tokenized.  null until the compiler is finished.
+	private volatile CompiledGCode program;
+	// where the program goes, shared by everything that reads the whole job.  null until the compiler is finished.
+	private volatile Trajectory trajectory;
+	// the job in progress.  null if the job is being sent straight from the text.
+	private CompiledGCode runningProgram;
+	// reused for every line sent
+	private GCodeTokenizer tokenizer = new GCodeTokenizer();
+	// how long each block of the program should take.  null until the estimator is finished.
+	private volatile JobTimeEstimate estimate;
+	// where the job would go wrong.  null until the validator is finished.  Until then Start can only send the text.
+	private volatile WorkspaceReport workspace;
+	private JLabel statusLine;
+	// asks for more lines a little later when the sender catches up with the indexer.
+	private Timer indexerWait = new Timer(50,new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			dispatcher.wake();
+		}
+	});
+	private PreviewPanel previewPane = new PreviewPanel();
 	
 	
 	private Skycam() {
+		indexerWait.setRepeats(false);
 		prefs = Preferences.userRoot().node("Skycam");
 		
 		LoadConfig();
 		
-		connectionBerlin = new SkycamRobot("A");
-		connectionTokyo = new SkycamRobot("B");
+		connectionBerlin = new SkycamRobot("A",logBerlin);
+		connectionTokyo = new SkycamRobot("B",logTokyo);
 		
 		connectionBerlin.addListener(this);
 		connectionTokyo.addListener(this);
+		dispatcher.addController(connectionBerlin);
+		dispatcher.addController(connectionTokyo);
+		dispatcher.setLineSource(new ControllerDispatcher.LineSource() {
+			@Override
+			public void fill(ControllerDispatcher d) {
+				SendFileCommand();
+			}
+		});
 		
 		SendConfig();
 	}
@@ -116,16 +161,10 @@ implements ActionListener, SerialConnectionReadyListener
 	}
 	
 	public void SerialConnectionReady(SkycamRobot arg0) {
-		if(arg0==connectionBerlin) aReady=true;
-		if(arg0==connectionTokyo) bReady=true;
-		
-		if(aReady && bReady) {
-			if(!wasConfirmed) {
-				wasConfirmed=true;
-				UpdateMenuBar();
-			}
-			aReady=bReady=false;
-			SendFileCommand();
+		// the dispatcher does the sending.
+		if(!wasConfirmed && IsConfirmed()) {
+			wasConfirmed=true;
+			UpdateMenuBar();
 		}
 	}
 	
@@ -145,6 +184,22 @@ implements ActionListener, SerialConnectionReadyListener
 			updateMachineLimits();
 			return;
 		}
+		if(subject==buttonSimplify) {
+			updatePathSimplifier();
+			return;
+		}
+		if(subject==buttonTravel) {
+			updateTravelOptimizer();
+			return;
+		}
+		if(subject==buttonDXF) {
+			updateDXFImport();
+			return;
+		}
+		if(subject==buttonImage) {
+			updateImageImport();
+			return;
+		}
 		if(subject==buttonDisconnect) {
 			connectionBerlin.closePort();
 			connectionTokyo.closePort();
@@ -153,14 +208,21 @@ implements ActionListener, SerialConnectionReadyListener
 		if(subject==buttonStart) {
 			//if(fileOpened) OpenFile(recentFiles[0]);
 			if(fileOpened) {
+				WorkspaceReport w = workspace;
+				CompiledGCode p = program;
+				if(w==null) {
+					// still compiling.  Only a g-code file has text to send in the meantime.
+					if(gcode==null || !ConfirmUnchecked()) return;
+					p = null;
+				} else if(!w.isOK() && !ConfirmWorkspace(w)) return;
 				paused=false;
 				running=true;
 				UpdateMenuBar();
 				linesProcessed=0;
-				//previewPane.setRunning(running);
-				//previewPane.setLinesProcessed(linesProcessed);
+				runningProgram=p;
+				previewPane.setLinesProcessed(linesProcessed);
 				//statusBar.Start();
-				SendFileCommand();
+				dispatcher.wake();
 			}
 			return;
 		}
@@ -169,8 +231,7 @@ implements ActionListener, SerialConnectionReadyListener
 				if(paused==true) {
 					buttonPause.setText("Pause");
 					paused=false;
-					// @TODO: if the robot is not ready to unpause, this might fail and the program would appear to hang.
-					SendFileCommand();
+					dispatcher.wake();
 				} else {
 					buttonPause.setText("Unpause");
 					paused=true;
@@ -187,6 +248,7 @@ implements ActionListener, SerialConnectionReadyListener
 			return;
 		}
 		if( subject == buttonHalt ) {
+			dispatcher.clear();
 			Halt();
 			return;
 		}
@@ -200,6 +262,35 @@ implements ActionListener, SerialConnectionReadyListener
 		}
 	}
 	
+	/**
+	 * Warn that the job has not been checked yet.  Starting now sends the file line by line, as it was written.
+	 * @return true to start anyway.
+	 */
+	private boolean ConfirmUnchecked() {
+		String message = "The workspace check isn't finished.\n"
+				+"Start sending the file as it is, without simplifying or checking it?";
+		return JOptionPane.showConfirmDialog(this,message,"Workspace",JOptionPane.YES_NO_OPTION)==JOptionPane.YES_OPTION;
+	}
+
+	/**
+	 * Warn that the job goes somewhere it shouldn't.
+	 * @return true to start anyway.
+	 */
+	private boolean ConfirmWorkspace(WorkspaceReport w) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(w.getProblemCount()).append(" places in this job are outside the safe workspace:\n");
+		int shown=0;
+		for(WorkspaceReport.Problem problem : w.getProblems()) {
+			if(shown++==10) {
+				sb.append("...\n");
+				break;
+			}
+			sb.append(problem).append('\n');
+		}
+		sb.append("Start anyway?");
+		return JOptionPane.showConfirmDialog(this,sb.toString(),"Workspace",JOptionPane.YES_NO_OPTION)==JOptionPane.YES_OPTION;
+	}
+
 	/**
 	 * stop sending commands to the robot.
 	 * @todo add an e-stop command?
@@ -208,8 +299,7 @@ implements ActionListener, SerialConnectionReadyListener
 		running=false;
 		paused=false;
 	    linesProcessed=0;
-	    //previewPane.setLinesProcessed(0);
-		//previewPane.setRunning(running);
+	    previewPane.setLinesProcessed(0);
 		UpdateMenuBar();
 	}
 
@@ -316,19 +406,19 @@ implements ActionListener, SerialConnectionReadyListener
 		
 		final JButton buttonAneg = new JButton("IN");
 		final JButton buttonApos = new JButton("OUT");
-		final JCheckBox m1i = new JCheckBox("Invert",m1invert);
+		final JCheckBox m1i = new JCheckBox("Invert",settings.m1invert);
 		
 		final JButton buttonBneg = new JButton("IN");
 		final JButton buttonBpos = new JButton("OUT");
-		final JCheckBox m2i = new JCheckBox("Invert",m2invert);
+		final JCheckBox m2i = new JCheckBox("Invert",settings.m2invert);
 		
 		final JButton buttonCneg = new JButton("IN");
 		final JButton buttonCpos = new JButton("OUT");
-		final JCheckBox m3i = new JCheckBox("Invert",m3invert);
+		final JCheckBox m3i = new JCheckBox("Invert",settings.m3invert);
 		
 		final JButton buttonDneg = new JButton("IN");
 		final JButton buttonDpos = new JButton("OUT");
-		final JCheckBox m4i = new JCheckBox("Invert",m4invert);
+		final JCheckBox m4i = new JCheckBox("Invert",settings.m4invert);
 
 		c.gridx=0;	c.gridy=0;	driver.add(new JLabel("A"),c);
 		c.gridx=0;	c.gridy=1;	driver.add(new JLabel("B"),c);
@@ -369,10 +459,10 @@ implements ActionListener, SerialConnectionReadyListener
 
 		ActionListener invertButtons = new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				m1invert = m1i.isSelected();
-				m2invert = m2i.isSelected();
-				m3invert = m3i.isSelected();
-				m4invert = m4i.isSelected();
+				settings.m1invert = m1i.isSelected();
+				settings.m2invert = m2i.isSelected();
+				settings.m3invert = m3i.isSelected();
+				settings.m4invert = m4i.isSelected();
 				
 				SaveConfig();
 				SendConfig();
@@ -400,167 +490,439 @@ implements ActionListener, SerialConnectionReadyListener
 		driver.setVisible(true);
 	}
 	
-	// Take the next line from the file and send it to the robot, if permitted. 
+	// Queue lines from the file until the dispatcher is full, if permitted.  Called by the dispatcher.
 	public void SendFileCommand() {
-		if(running==false || paused==true || fileOpened==false || IsConfirmed()==false || linesProcessed>=linesTotal) return;
-		
-		String line;
-		do {			
-			// are there any more commands?
-			line=gcode.get((int)linesProcessed++).trim();
-			//previewPane.setLinesProcessed(linesProcessed);
-			//statusBar.SetProgress(linesProcessed, linesTotal);
-			// loop until we find a line that gets sent to the robot, at which point we'll
-			// pause for the robot to respond.  Also stop at end of file.
-		} while(!SendLineToRobot(line) && linesProcessed<linesTotal);
-		
-		if(linesProcessed==linesTotal) {
+		if(running==false || paused==true || fileOpened==false || IsConfirmed()==false) return;
+		if(runningProgram!=null) {
+			SendProgramCommand();
+			return;
+		}
+		if(gcode==null) return;
+		
+		// Never wait for the indexer on the event thread.  Read isIndexComplete() first: once it is true
+		// getLinesIndexed() is the whole file.  Stop early if the program ends itself.
+		boolean complete = gcode.isIndexComplete();
+		while(running && !paused && dispatcher.hasRoom() && linesProcessed<gcode.getLinesIndexed()) {
+			SendLineToRobot(gcode.getLine(linesProcessed++).trim());
+			//statusBar.SetProgress(linesProcessed, gcode.getLinesIndexed());
+		}
+		
+		if(!running || paused) return;
+		if(linesProcessed<gcode.getLinesIndexed()) return;
+		if(complete) {
 			// end of file
 			Halt();
+		} else if(dispatcher.hasRoom()) {
+			// the indexer is behind.  A fill that sends nothing is not tried again until something wakes the dispatcher.
+			indexerWait.restart();
 		}
 	}
 	
+	// Queue blocks from the compiled program until the dispatcher is full.
+	private void SendProgramCommand() {
+		if(linesProcessed>=runningProgram.size()) return;
+
+		// Stop early if the program ends itself.
+		while(running && !paused && dispatcher.hasRoom() && linesProcessed<runningProgram.size()) {
+			SendBlockToRobot(runningProgram,(int)linesProcessed++);
+		}
+		previewPane.setLinesProcessed(linesProcessed);
+
+		if(running && linesProcessed>=runningProgram.size()) {
+			// end of file
+			Halt();
+		}
+	}
+
 	/**
-	 * Processes a single instruction meant for the robot.
-	 * @param line
+	 * Processes a single compiled instruction meant for the robot.  Comments and ignored codes were removed when
+	 * the program was compiled.
+	 * @param p the program
+	 * @param block the instruction
 	 * @return true if the command is sent to the robot.
 	 */
-	public boolean SendLineToRobot(String line) {
-		// tool change request?
-		String [] tokens = line.split("\\s");
+	private boolean SendBlockToRobot(CompiledGCode p,int block) {
+		int op = p.getOpcode(block);
 
 		// tool change?
-		if(Arrays.asList(tokens).contains("M06") || Arrays.asList(tokens).contains("M6")) {
-			for(int i=0;i<tokens.length;++i) {
-				if(tokens[i].startsWith("T")) {
-					JOptionPane.showMessageDialog(null,"Please change to tool #"+tokens[i].substring(1)+" and click OK.");
-				}
+		if(op==CompiledGCode.opcode('M',6)) {
+			float tool = p.getParam(block,'T',-1);
+			if(tool>=0) {
+				ChangeTool(Integer.toString((int)tool));
 			}
 			// still ready to send
 			return false;
 		}
-		
+
 		// end of program?
-		if(tokens[0]=="M02" || tokens[0]=="M2") {
+		if(op==CompiledGCode.opcode('M',2)) {
 			Halt();
 			return false;
 		}
-		
+
+		String line = p.appendBlock(block,new StringBuilder()).toString();
+		dispatcher.send(line);
+		return true;
+	}
+	
+	/**
+	 * Ask for a new tool once every robot has been given every line before the tool change.
+	 * @param tool the tool number
+	 */
+	private void ChangeTool(final String tool) {
+		dispatcher.barrier(new Runnable() {
+			@Override
+			public void run() {
+				JOptionPane.showMessageDialog(null,"Please change to tool #"+tool+" and click OK.");
+			}
+		});
+	}
+	
+	/**
+	 * Processes a single instruction meant for the robot.
+	 * @param line
+	 * @return true if the command is sent to the robot.
+	 */
+	public boolean SendLineToRobot(String line) {
+		tokenizer.reset(line);
+		if(!tokenizer.next()) {
+			// blank, or the entire line was a comment.
+			return false;  // still ready to send
+		}
+		boolean isMachineCode = tokenizer.letter()=='M';
+
+		// end of program?
+		if(tokenizer.is('M',2)) {
+			Halt();
+			return false;
+		}
+
+		// tool change?
+		do {
+			if(tokenizer.is('M',6)) {
+				tokenizer.reset(line);
+				while(tokenizer.next()) {
+					if(tokenizer.letter()=='T') {
+						ChangeTool(line.substring(tokenizer.tokenStart()+1,tokenizer.tokenEnd()));
+					}
+				}
+				// still ready to send
+				return false;
+			}
+		} while(tokenizer.next());
+
 		// other machine code to ignore?
-		if(tokens[0].startsWith("M")) {
+		if(isMachineCode) {
 			//Log(line+NL);
 			return false;
-		} 
+		}
 
 		// contains a comment?  if so remove it
-		int index=line.indexOf('(');
-		if(index!=-1) {
-			//String comment=line.substring(index+1,line.lastIndexOf(')'));
-			//Log("* "+comment+NL);
-			line=line.substring(0,index).trim();
-			if(line.length()==0) {
-				// entire line was a comment.
-				return false;  // still ready to send
-			}
+		if(tokenizer.commandEnd()<line.length()) {
+			line=line.substring(tokenizer.commandStart(),tokenizer.commandEnd());
 		}
 
-		// send relevant part of line to the robot
-		connectionBerlin.sendCommand(line);
-		connectionTokyo.sendCommand(line);
+		// send relevant part of line to the robots
+		dispatcher.send(line);
 		
 		return true;
 	}
 
 	protected void LoadConfig() {
-		m1.x=Double.valueOf(prefs.get("m1x", "0"));
-		m1.y=Double.valueOf(prefs.get("m1y", "0"));
-		m1.z=Double.valueOf(prefs.get("m1z", "0"));
-		m1invert=Boolean.parseBoolean(prefs.get("m1invert", "false"));
-
-		m2.x=Double.valueOf(prefs.get("m2x", "0"));
-		m2.y=Double.valueOf(prefs.get("m2y", "0"));
-		m2.z=Double.valueOf(prefs.get("m2z", "0"));
-		m2invert=Boolean.parseBoolean(prefs.get("m2invert", "false"));
-
-		m3.x=Double.valueOf(prefs.get("m3x", "0"));
-		m3.y=Double.valueOf(prefs.get("m3y", "0"));
-		m3.z=Double.valueOf(prefs.get("m3z", "0"));
-		m3invert=Boolean.parseBoolean(prefs.get("m3invert", "false"));
-
-		m4.x=Double.valueOf(prefs.get("m4x", "0"));
-		m4.y=Double.valueOf(prefs.get("m4y", "0"));
-		m4.z=Double.valueOf(prefs.get("m4z", "0"));
-		m4invert=Boolean.parseBoolean(prefs.get("m4invert", "false"));
-		
+		settings.load(prefs);
 		GetRecentFiles();
 	}
 
 	protected void SaveConfig() {
-		prefs.put("m1x",String.valueOf(m1.x));
-		prefs.put("m1y",String.valueOf(m1.y));
-		prefs.put("m1z",String.valueOf(m1.z));
-		prefs.put("m1invert",Boolean.toString(m1invert));
-
-		prefs.put("m2x",String.valueOf(m2.x));
-		prefs.put("m2y",String.valueOf(m2.y));
-		prefs.put("m2z",String.valueOf(m2.z));
-		prefs.put("m2invert",Boolean.toString(m2invert));
-
-		prefs.put("m3x",String.valueOf(m3.x));
-		prefs.put("m3y",String.valueOf(m3.y));
-		prefs.put("m3z",String.valueOf(m3.z));
-		prefs.put("m3invert",Boolean.toString(m3invert));
-
-		prefs.put("m4x",String.valueOf(m4.x));
-		prefs.put("m4y",String.valueOf(m4.y));
-		prefs.put("m4z",String.valueOf(m4.z));
-		prefs.put("m4invert",Boolean.toString(m4invert));
-		
+		settings.save(prefs);
 		GetRecentFiles();
 	}
 
+	/**
+	 * @return the cable math for the motors where they are now.
+	 */
+	public SkycamKinematics getKinematics() {
+		return settings.getKinematics();
+	}
+	
 	private void SendConfig() {
-		connectionBerlin.sendCommand("CONFIG A"+String.valueOf(m1.x)  // position of 10:00 motor
-				                     +" B"+String.valueOf(m1.y)
-				                     +" C"+String.valueOf(m1.z)
-				                     +" D"+String.valueOf(m2.x)  // position of 2:00 motor
-				                     +" E"+String.valueOf(m2.y)
-				                     +" F"+String.valueOf(m2.z)
-				                     +" GA HB"
-				                     +" I"+(m1invert?"-1":"1")
-				                     +" J"+(m2invert?"-1":"1"));  // name of motors, inversion
-		 
-		connectionTokyo.sendCommand("CONFIG A"+String.valueOf(m3.x)  // position of 4:30 motor
-					                 +" B"+String.valueOf(m3.y)
-					                 +" C"+String.valueOf(m3.z)
-					                 +" D"+String.valueOf(m4.x)  // position of 7:30 motor
-					                 +" E"+String.valueOf(m4.y)
-					                 +" F"+String.valueOf(m4.z)
-					                 +" GC HD"
-				                     +" I"+(m3invert?"-1":"1")
-				                     +" J"+(m4invert?"-1":"1"));  // name of motors, inversion
+		connectionBerlin.sendCommand(settings.getConfigA());
+		connectionTokyo.sendCommand(settings.getConfigB());
 		SendLineToRobot("TELEPORT X0 Y0 Z0");	
 	}
 	
+	/**
+	 * Open the dialog that sets how jobs are simplified before they are sent.  The open file is simplified again if
+	 * the settings change.
+	 */
+	protected void updatePathSimplifier() {
+		final JDialog driver = new JDialog(mainFrame,"Simplify paths",true);
+		driver.setLayout(new GridLayout(5,2));
+
+		final JCheckBox enable = new JCheckBox("Merge small moves",settings.simplifyPaths);
+		final JCheckBox arcs = new JCheckBox("Fit arcs",settings.simplifyArcs);
+		final JCheckBox speeds = new JCheckBox("Plan speeds for the whole job",settings.planSpeeds);
+		final JTextField tolerance = new JTextField(String.valueOf(settings.simplifyTolerance));
+		JButton ok = new JButton("Ok");
+		JButton cancel = new JButton("Cancel");
+
+		driver.add(enable);
+		driver.add(new JLabel(" "));
+		driver.add(arcs);
+		driver.add(new JLabel(" "));
+		driver.add(new JLabel("Tolerance (cm)"));
+		driver.add(tolerance);
+		driver.add(speeds);
+		driver.add(new JLabel(" "));
+		driver.add(ok);
+		driver.add(cancel);
+
+		ok.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				double t;
+				try {
+					t = Double.valueOf(tolerance.getText());
+				} catch(NumberFormatException ex) {
+					return;
+				}
+				if(t<=0) return;
+				boolean changed = enable.isSelected()!=settings.simplifyPaths
+						|| (settings.simplifyPaths && (arcs.isSelected()!=settings.simplifyArcs || t!=settings.simplifyTolerance))
+						|| speeds.isSelected()!=settings.planSpeeds;
+				settings.simplifyPaths = enable.isSelected();
+				settings.simplifyArcs = arcs.isSelected();
+				settings.planSpeeds = speeds.isSelected();
+				settings.simplifyTolerance = t;
+				SaveConfig();
+				if(changed) RecompileOpenFile();
+				driver.dispose();
+			}
+		});
+
+		cancel.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				driver.dispose();
+			}
+		});
+
+		driver.pack();
+		driver.setVisible(true);
+	}
+
+	/**
+	 * Open the dialog that sets how paths are put in order before they are sent.  The open file is ordered again if
+	 * the settings change.
+	 */
+	protected void updateTravelOptimizer() {
+		final JDialog driver = new JDialog(mainFrame,"Shorten travel",true);
+		driver.setLayout(new GridLayout(3,2));
+
+		final JCheckBox enable = new JCheckBox("Reorder paths",settings.optimizeTravel);
+		final JTextField time = new JTextField(String.valueOf(settings.travelTimeLimit));
+		JButton ok = new JButton("Ok");
+		JButton cancel = new JButton("Cancel");
+
+		driver.add(enable);
+		driver.add(new JLabel(" "));
+		driver.add(new JLabel("Time limit (s)"));
+		driver.add(time);
+		driver.add(ok);
+		driver.add(cancel);
+
+		ok.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				double t;
+				try {
+					t = Double.valueOf(time.getText());
+				} catch(NumberFormatException ex) {
+					return;
+				}
+				if(t<0) return;
+				boolean changed = enable.isSelected()!=settings.optimizeTravel
+						|| (settings.optimizeTravel && t!=settings.travelTimeLimit);
+				settings.optimizeTravel = enable.isSelected();
+				settings.travelTimeLimit = t;
+				SaveConfig();
+				if(changed) RecompileOpenFile();
+				driver.dispose();
+			}
+		});
+
+		cancel.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				driver.dispose();
+			}
+		});
+
+		driver.pack();
+		driver.setVisible(true);
+	}
+
+	/**
+	 * Open the dialog that sets where drawings go.  The open drawing is imported again if the settings change.
+	 */
+	protected void updateDXFImport() {
+		final JDialog driver = new JDialog(mainFrame,"DXF import",true);
+		driver.setLayout(new GridLayout(7,2));
+
+		final JTextField scale = new JTextField(String.valueOf(settings.dxfScale));
+		final JTextField x = new JTextField(String.valueOf(settings.dxfX));
+		final JTextField y = new JTextField(String.valueOf(settings.dxfY));
+		final JTextField z = new JTextField(String.valueOf(settings.dxfZ));
+		final JCheckBox order = new JCheckBox("Shorten travel",settings.dxfOrder);
+		JButton ok = new JButton("Ok");
+		JButton cancel = new JButton("Cancel");
+
+		driver.add(new JLabel("Scale"));
+		driver.add(scale);
+		driver.add(new JLabel("Origin X (cm)"));
+		driver.add(x);
+		driver.add(new JLabel("Origin Y (cm)"));
+		driver.add(y);
+		driver.add(new JLabel("Origin Z (cm)"));
+		driver.add(z);
+		driver.add(order);
+		driver.add(new JLabel(" "));
+		driver.add(new JLabel(" "));
+		driver.add(new JLabel(" "));
+		driver.add(ok);
+		driver.add(cancel);
+
+		ok.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				double s, ox, oy, oz;
+				try {
+					s = Double.valueOf(scale.getText());
+					ox = Double.valueOf(x.getText());
+					oy = Double.valueOf(y.getText());
+					oz = Double.valueOf(z.getText());
+				} catch(NumberFormatException ex) {
+					return;
+				}
+				if(s<=0) return;
+				boolean changed = s!=settings.dxfScale || ox!=settings.dxfX || oy!=settings.dxfY || oz!=settings.dxfZ || order.isSelected()!=settings.dxfOrder;
+				settings.dxfScale = s;
+				settings.dxfX = ox;
+				settings.dxfY = oy;
+				settings.dxfZ = oz;
+				settings.dxfOrder = order.isSelected();
+				SaveConfig();
+				if(changed && importedFile!=null && DXFImporter.isDXF(importedFile)) RecompileOpenFile();
+				driver.dispose();
+			}
+		});
+
+		cancel.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				driver.dispose();
+			}
+		});
+
+		driver.pack();
+		driver.setVisible(true);
+	}
+
+	/**
+	 * Open the dialog that sets how pictures are drawn.  The open picture is imported again if the settings change.
+	 */
+	protected void updateImageImport() {
+		final JDialog driver = new JDialog(mainFrame,"Image import",true);
+		driver.setLayout(new GridLayout(10,2));
+
+		final JComboBox<String> mode = new JComboBox<String>(ImageImporter.MODE_NAMES);
+		mode.setSelectedIndex(settings.imageMode);
+		final JTextField width = new JTextField(String.valueOf(settings.imageWidth));
+		final JTextField spacing = new JTextField(String.valueOf(settings.imageSpacing));
+		final JTextField levels = new JTextField(String.valueOf(settings.imageLevels));
+		final JTextField x = new JTextField(String.valueOf(settings.imageX));
+		final JTextField y = new JTextField(String.valueOf(settings.imageY));
+		final JTextField z = new JTextField(String.valueOf(settings.imageZ));
+		final JCheckBox order = new JCheckBox("Shorten travel",settings.imageOrder);
+		JButton ok = new JButton("Ok");
+		JButton cancel = new JButton("Cancel");
+
+		driver.add(new JLabel("Style"));
+		driver.add(mode);
+		driver.add(new JLabel("Width (cm)"));
+		driver.add(width);
+		driver.add(new JLabel("Line spacing (cm)"));
+		driver.add(spacing);
+		driver.add(new JLabel("Shades"));
+		driver.add(levels);
+		driver.add(new JLabel("Centre X (cm)"));
+		driver.add(x);
+		driver.add(new JLabel("Centre Y (cm)"));
+		driver.add(y);
+		driver.add(new JLabel("Plane Z (cm)"));
+		driver.add(z);
+		driver.add(order);
+		driver.add(new JLabel(" "));
+		driver.add(new JLabel(" "));
+		driver.add(new JLabel(" "));
+		driver.add(ok);
+		driver.add(cancel);
+
+		ok.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				double w, sp, cx, cy, cz;
+				int n;
+				try {
+					w = Double.valueOf(width.getText());
+					sp = Double.valueOf(spacing.getText());
+					n = Integer.valueOf(levels.getText());
+					cx = Double.valueOf(x.getText());
+					cy = Double.valueOf(y.getText());
+					cz = Double.valueOf(z.getText());
+				} catch(NumberFormatException ex) {
+					return;
+				}
+				if(w<=0 || sp<=0 || n<1) return;
+				int m = mode.getSelectedIndex();
+				boolean changed = m!=settings.imageMode || w!=settings.imageWidth || sp!=settings.imageSpacing || n!=settings.imageLevels
+						|| cx!=settings.imageX || cy!=settings.imageY || cz!=settings.imageZ || order.isSelected()!=settings.imageOrder;
+				settings.imageMode = m;
+				settings.imageWidth = w;
+				settings.imageSpacing = sp;
+				settings.imageLevels = n;
+				settings.imageX = cx;
+				settings.imageY = cy;
+				settings.imageZ = cz;
+				settings.imageOrder = order.isSelected();
+				SaveConfig();
+				if(changed && importedFile!=null && ImageImporter.isImage(importedFile)) RecompileOpenFile();
+				driver.dispose();
+			}
+		});
+
+		cancel.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				driver.dispose();
+			}
+		});
+
+		driver.pack();
+		driver.setVisible(true);
+	}
+
 	protected void updateMachineLimits() {
 		JDialog driver = new JDialog(mainFrame,"Motor locations",true);
 		driver.setLayout(new GridLayout(6,4));
 		
-		JTextField m1x = new JTextField(String.valueOf(m1.x));
-		JTextField m1y = new JTextField(String.valueOf(m1.y));
-		JTextField m1z = new JTextField(String.valueOf(m1.z));
+		JTextField m1x = new JTextField(String.valueOf(settings.m1.x));
+		JTextField m1y = new JTextField(String.valueOf(settings.m1.y));
+		JTextField m1z = new JTextField(String.valueOf(settings.m1.z));
 		
-		JTextField m2x = new JTextField(String.valueOf(m2.x));
-		JTextField m2y = new JTextField(String.valueOf(m2.y));
-		JTextField m2z = new JTextField(String.valueOf(m2.z));
+		JTextField m2x = new JTextField(String.valueOf(settings.m2.x));
+		JTextField m2y = new JTextField(String.valueOf(settings.m2.y));
+		JTextField m2z = new JTextField(String.valueOf(settings.m2.z));
 		
-		JTextField m3x = new JTextField(String.valueOf(m3.x));
-		JTextField m3y = new JTextField(String.valueOf(m3.y));
-		JTextField m3z = new JTextField(String.valueOf(m3.z));
+		JTextField m3x = new JTextField(String.valueOf(settings.m3.x));
+		JTextField m3y = new JTextField(String.valueOf(settings.m3.y));
+		JTextField m3z = new JTextField(String.valueOf(settings.m3.z));
 		
-		JTextField m4x = new JTextField(String.valueOf(m4.x));
-		JTextField m4y = new JTextField(String.valueOf(m4.y));
-		JTextField m4z = new JTextField(String.valueOf(m4.z));
+		JTextField m4x = new JTextField(String.valueOf(settings.m4.x));
+		JTextField m4y = new JTextField(String.valueOf(settings.m4.y));
+		JTextField m4z = new JTextField(String.valueOf(settings.m4.z));
 
 		JButton ok = new JButton("Ok");
 		JButton cancel = new JButton("Cancel");
@@ -593,23 +955,25 @@ implements ActionListener, SerialConnectionReadyListener
 
 		ok.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				m1.x = Double.valueOf(m1x.getText());
-				m1.y = Double.valueOf(m1y.getText());
-				m1.z = Double.valueOf(m1z.getText());
+				settings.m1.x = Double.valueOf(m1x.getText());
+				settings.m1.y = Double.valueOf(m1y.getText());
+				settings.m1.z = Double.valueOf(m1z.getText());
 				
-				m2.x = Double.valueOf(m2x.getText());
-				m2.y = Double.valueOf(m2y.getText());
-				m2.z = Double.valueOf(m2z.getText());
-				m3.x = Double.valueOf(m3x.getText());
-				m3.y = Double.valueOf(m3y.getText());
-				m3.z = Double.valueOf(m3z.getText());
+				settings.m2.x = Double.valueOf(m2x.getText());
+				settings.m2.y = Double.valueOf(m2y.getText());
+				settings.m2.z = Double.valueOf(m2z.getText());
+				settings.m3.x = Double.valueOf(m3x.getText());
+				settings.m3.y = Double.valueOf(m3y.getText());
+				settings.m3.z = Double.valueOf(m3z.getText());
 				
-				m4.x = Double.valueOf(m4x.getText());
-				m4.y = Double.valueOf(m4y.getText());
-				m4.z = Double.valueOf(m4z.getText());
+				settings.m4.x = Double.valueOf(m4x.getText());
+				settings.m4.y = Double.valueOf(m4y.getText());
+				settings.m4.z = Double.valueOf(m4z.getText());
 				
 				SaveConfig();
 				SendConfig();
+				// the job may fit now, or not.
+				RecompileOpenFile();
 				driver.dispose();
 			}
 		});
@@ -627,43 +991,101 @@ implements ActionListener, SerialConnectionReadyListener
 	private void CloseFile() {
 		if(fileOpened==true) {
 			fileOpened=false;
+			try {
+				if(gcode!=null) gcode.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			gcode=null;
+			importedFile=null;
+			program=null;
+			trajectory=null;
+			estimate=null;
+			workspace=null;
+			previewPane.setTrajectory(null);
 		}
 	}
 	
 	/**
-	 * Opens a file.  If the file can be opened, get a drawing time estimate, update recent files list, and repaint the preview tab.
+	 * Opens a file.  If the file can be opened, update recent files list, and repaint the preview tab.  The drawing time
+	 * is estimated once the file is compiled.  DXF drawings and pictures are imported straight into a program, never into
+	 * g-code text.
 	 * @param filename what file to open
 	 */
 	public void OpenFile(String filename) {
 		CloseFile();
 
-	    try {
-	    	Scanner scanner = new Scanner(new FileInputStream(filename));
-	    	linesTotal=0;
-	    	gcode = new ArrayList<String>();
+		if(DXFImporter.isDXF(filename) || ImageImporter.isImage(filename)) {
+			if(!new File(filename).canRead()) {
+		    	RemoveRecentFile(filename);
+		    	return;
+			}
+			importedFile=filename;
+		} else {
 		    try {
-		      while (scanner.hasNextLine()) {
-		    	  gcode.add(scanner.nextLine());
-		    	  ++linesTotal;
-		      }
+		    	// lines are indexed in the background.  The job can start before indexing is done.
+		    	gcode = new GCodeFile(filename);
 		    }
-		    finally{
-		      scanner.close();
+		    catch(IOException e) {
+		    	RemoveRecentFile(filename);
+		    	return;
 		    }
-	    }
-	    catch(IOException e) {
-	    	RemoveRecentFile(filename);
-	    	return;
-	    }
+		}
 	    
-	    //previewPane.setGCode(gcode);
 	    fileOpened=true;
+	    CompileInBackground(gcode,importedFile);
 	   	UpdateRecentFiles(filename);
 
-	   	//EstimateDrawTime();
 	    Halt();
 	}
 	
+	// compile the open file again after the settings change.
+	private void RecompileOpenFile() {
+		if(!fileOpened || running) return;
+		estimate=null;
+		workspace=null;
+		UpdateMenuBar();
+		CompileInBackground(gcode,importedFile);
+	}
+
+	/**
+	 * Make the job from the file with {@link JobSettings#compile(GCodeFile,String)} on another thread.  Then check it
+	 * stays in the workspace and estimate how long it will take.
+	 * @param file the file to compile, or null for a drawing or picture
+	 * @param imported the drawing or picture to import, or null for a g-code file
+	 */
+	private void CompileInBackground(final GCodeFile file,final String imported) {
+		final JobSettings job = new JobSettings(settings);
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					CompiledGCode p = job.compile(file,imported);
+					// still the open file?
+					if(gcode!=file || importedFile!=imported) return;
+					Trajectory path = Trajectory.build(p);
+					program=p;
+					trajectory=path;
+					previewPane.setTrajectory(path);
+					WorkspaceReport w = new WorkspaceValidator(getKinematics()).validate(path);
+					if(gcode!=file || importedFile!=imported) return;
+					// the status line counts the problems and Start lists them.
+					workspace=w;
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							UpdateMenuBar();
+						}
+					});
+					JobTimeEstimate e = new JobTimeEstimator(getKinematics()).estimate(path);
+					if(gcode==file && importedFile==imported) estimate=e;
+				} catch(IOException e) {
+					e.printStackTrace();
+				} catch(InterruptedException e) {}
+			}
+		},"GCode compiler");
+		t.setDaemon(true);
+		t.start();
+	}
+	
 	/**
 	 * changes the order of the recent files list in the File submenu, saves the updated prefs, and refreshes the menus.
 	 * @param filename the file to push to the top of the list.
@@ -733,10 +1155,12 @@ implements ActionListener, SerialConnectionReadyListener
 
 		FileFilter filterImage  = new FileNameExtensionFilter("Images (jpg/bmp/png/gif)", "jpg", "jpeg", "png", "wbmp", "bmp", "gif");
 		FileFilter filterGCODE = new FileNameExtensionFilter("GCODE files (ngc)", "ngc");
+		FileFilter filterDXF = new FileNameExtensionFilter("DXF drawings (dxf)", "dxf");
 		 
 		JFileChooser fc = new JFileChooser(new File(filename));
 		fc.addChoosableFileFilter(filterImage);
 		fc.addChoosableFileFilter(filterGCODE);
+		fc.addChoosableFileFilter(filterDXF);
 	    if(fc.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
 	    	OpenFile(fc.getSelectedFile().getAbsolutePath());
 	    }
@@ -793,11 +1217,11 @@ implements ActionListener, SerialConnectionReadyListener
         menu.setMnemonic(KeyEvent.VK_T);
         menu.getAccessibleContext().setAccessibleDescription("Adjust the robot settings.");
 
-        subMenu = connectionBerlin.getMenu();
+        subMenu = new JMenu();
         subMenu.setText("Arduino 1 Port");
         menu.add(subMenu);
         
-        subMenu = connectionTokyo.getMenu();
+        subMenu = new JMenu();
         subMenu.setText("Arduino 2 Port");
         menu.add(subMenu);
 
@@ -805,6 +1229,22 @@ implements ActionListener, SerialConnectionReadyListener
         buttonMachineLimits.addActionListener(this);
         menu.add(buttonMachineLimits);
 
+        buttonSimplify = new JMenuItem("Simplify Paths",KeyEvent.VK_S);
+        buttonSimplify.addActionListener(this);
+        menu.add(buttonSimplify);
+
+        buttonTravel = new JMenuItem("Shorten Travel",KeyEvent.VK_T);
+        buttonTravel.addActionListener(this);
+        menu.add(buttonTravel);
+
+        buttonDXF = new JMenuItem("DXF Import",KeyEvent.VK_D);
+        buttonDXF.addActionListener(this);
+        menu.add(buttonDXF);
+
+        buttonImage = new JMenuItem("Image Import",KeyEvent.VK_I);
+        buttonImage.addActionListener(this);
+        menu.add(buttonImage);
+
         buttonJogMotors = new JMenuItem("Jog Motors",KeyEvent.VK_J);
         buttonJogMotors.addActionListener(this);
         menu.add(buttonJogMotors);
@@ -826,7 +1266,7 @@ implements ActionListener, SerialConnectionReadyListener
         buttonStart = new JMenuItem("Start",KeyEvent.VK_S);
         buttonStart.getAccessibleContext().setAccessibleDescription("Start sending g-code");
         buttonStart.addActionListener(this);
-    	buttonStart.setEnabled(IsConfirmed() && !running);
+    	buttonStart.setEnabled(IsConfirmed() && !running && (workspace!=null || gcode!=null));
         menu.add(buttonStart);
 
         buttonPause = new JMenuItem("Pause",KeyEvent.VK_P);
@@ -869,16 +1309,52 @@ implements ActionListener, SerialConnectionReadyListener
         contentPane.setOpaque(true);
 
         JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
-        split.add(connectionBerlin.getGUI());
-        split.add(connectionTokyo.getGUI());
+        split.add(logBerlin.getView());
+        split.add(logTokyo.getView());
         split.setDividerSize(8);
 		split.setResizeWeight(0.5);
 		split.setDividerLocation(0.5);
         
-        contentPane.add(split,BorderLayout.CENTER);
+        JSplitPane top = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
+        top.add(previewPane);
+        top.add(split);
+        top.setDividerSize(8);
+        top.setResizeWeight(0.5);
+        
+        contentPane.add(top,BorderLayout.CENTER);
+
+        statusLine = new JLabel(" ");
+        contentPane.add(statusLine,BorderLayout.SOUTH);
+        new Timer(1000,new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				UpdateStatusLine();
+			}
+        }).start();
         
         return contentPane;
 	}
+
+	// show the estimated drawing time, or the time left if a job is running.  Swing thread only.
+	private void UpdateStatusLine() {
+		JobTimeEstimate e = estimate;
+		String text;
+		if(!fileOpened) {
+			text = " ";
+		} else if(e==null || program==null) {
+			text = "Estimating drawing time...";
+		} else if(running && runningProgram==program) {
+			text = "Time left "+JobTimeEstimate.format(e.getRemainingTime((int)linesProcessed))
+					+" of "+JobTimeEstimate.format(e.getTotalTime());
+		} else {
+			text = "Estimated drawing time "+JobTimeEstimate.format(e.getTotalTime());
+		}
+		if(e!=null && e.getToolChanges()>0) text += ", plus "+e.getToolChanges()+" tool changes";
+		WorkspaceReport w = workspace;
+		if(fileOpened && w==null) text += ", checking workspace...";
+		else if(w!=null && !w.isOK()) text += ", "+w.getProblemCount()+" workspace problems";
+		statusLine.setText(text);
+	}
     
     // Create the GUI and show it.  For thread safety, this method should be invoked from the event-dispatching thread.
     private static void CreateAndShowGUI() {
@@ -901,6 +1377,16 @@ implements ActionListener, SerialConnectionReadyListener
     }
     
     public static void main(String[] args) {
+    	// -Dskycam.telemetry=stats.csv (or .json) writes link statistics every -Dskycam.telemetry.period ms.
+    	String telemetry = System.getProperty("skycam.telemetry");
+    	if(telemetry!=null) {
+    		try {
+    			Telemetry.startReport(new File(telemetry),Long.getLong("skycam.telemetry.period",5000));
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    	}
+
 	    //Schedule a job for the event-dispatching thread:
 	    //creating and showing this application's GUI.
 	    javax.swing.SwingUtilities.invokeLater(new Runnable() {
@@ -1,64 +1,66 @@
 package com.marginallyclever.Skycam;
 
 
-import java.awt.Color;
-import java.awt.Component;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.prefs.Preferences;
 
-import javax.swing.JMenu;
-import javax.swing.JScrollPane;
-import javax.swing.JTextArea;
-
+import com.marginallyclever.communications.CommandQueue;
+import com.marginallyclever.communications.LineNumberFramer;
 import com.marginallyclever.communications.NetworkConnection;
 import com.marginallyclever.communications.NetworkConnectionListener;
 import com.marginallyclever.communications.NetworkConnectionManager;
+import com.marginallyclever.communications.SendWindow;
 
 public class SkycamRobot
 implements NetworkConnectionListener {
-	private static String CUE="> ";
 	private static String NEWLINE="\n";
 	
 	public NetworkConnection serialPort;
-	public boolean portOpened=false;
-	public boolean portConfirmed=false;
+	public volatile boolean portOpened=false;
+	public volatile boolean portConfirmed=false;
 	public String portName;
 	
 	// settings
 	private Preferences prefs;
 	
-	// menus & GUIs
-	JTextArea log = new JTextArea();
-	JScrollPane logPane;
+	// where the conversation is shown, or null.  Not a ConsoleLog, so a robot can run without Swing.
+	private LineLog log;
     
     // communications
-    String line3;
-    ArrayList<String> commandQueue = new ArrayList<String>();
+    // big enough for a burst from the drive dialog.
+    CommandQueue<String> commandQueue = new CommandQueue<String>(1<<17);
+    // how many times sendQueuedCommand() has been asked to run.  Only the thread that raises it from zero sends.
+    private AtomicInteger sendRequests = new AtomicInteger();
 
     // Listeners which should be notified of a change to the percentage.
     private ArrayList<SerialConnectionReadyListener> listeners = new ArrayList<SerialConnectionReadyListener>();
 
 	
-	public SkycamRobot(String name) {
+	public SkycamRobot(String name,LineLog log) {
 		prefs = Preferences.userRoot().node("SkycamRobot");
+		this.log = log;
 	}
 	
 	public void Log(String msg) {
-		log.append(msg);
-		log.setCaretPosition(log.getText().length());
+		if(log!=null) log.append(msg);
 	}
 	
 	
-	public boolean confirmPort() {
+	/**
+	 * @param line one line from the robot
+	 * @return true if the robot has said hello, on this line or before.
+	 */
+	public boolean confirmPort(String line) {
 		if(!portOpened) return false; 
 		if(portConfirmed) return true;
 		
 		String hello = "HELLO WORLD! I AM SKYCAM #";
-		int found=line3.lastIndexOf(hello);
+		int found=line.lastIndexOf(hello);
 		if(found >= 0) {
 			/*
 			// get the UID reported by the robot
-			String[] lines = line3.substring(found+hello.length()).split("\\r?\\n");
+			String[] lines = line.substring(found+hello.length()).split("\\r?\\n");
 			if(lines.length>0) {
 				try {
 					robot_uid = Long.parseLong(lines[0]);
@@ -98,39 +100,63 @@ implements NetworkConnectionListener {
 	public void dataAvailable(NetworkConnection arg0,String data) {
 		if(!portOpened) return;
 		Log(data);
-		line3+=data;
-		// wait for the cue to send another command
-		if(line3.lastIndexOf(CUE)!=-1) {
-			if(confirmPort()) {
-				line3="";
-				sendQueuedCommand();
-			}
+		// the connection holds each command until the robot cues for it, so start sending as soon as it says hello.
+		if(!portConfirmed && confirmPort(data)) {
+			sendQueuedCommand();
 		}
 	}
 	
 	
+	/**
+	 * Send one queued command, or tell the listeners the queue is empty.  Safe to call from any thread and from inside
+	 * a listener: if another call is already running it sends one more command on this call's behalf.
+	 */
 	protected void sendQueuedCommand() {
 		if(!portOpened) return;
-		
-		if(commandQueue.size()==0) {
+		if(sendRequests.getAndIncrement()!=0) return;
+
+		int missed=1;
+		do {
+			for(int i=0;i<missed;++i) {
+				sendOneCommand();
+			}
+			missed = sendRequests.addAndGet(-missed);
+		} while(missed!=0);
+	}
+
+	private void sendOneCommand() {
+		if(!portOpened) return;
+
+		String command=commandQueue.peek();
+		if(command==null) {
 		      notifyListeners();
 		      return;
 		}
-		String command=commandQueue.remove(0)+";"+NEWLINE;
+		command+=";"+NEWLINE;
+		// connection full?  keep the command.  sendBufferEmpty() asks again once it drains.
+		if(!serialPort.offerMessage(command)) return;
+		commandQueue.poll();
 		Log(command);
-		try {
-			serialPort.sendMessage(command);
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
 	}
 	
 	
+	/**
+	 * Queue a command for the robot.  If the queue is full, wait for room.
+	 * @param command the command to send
+	 */
 	public void sendCommand(String command) {
 		if(!portOpened) return;
 		
-		commandQueue.add(command);
+		try {
+			// the queue takes one producer at a time, and the dispatcher, SendConfig() and the drive dialog each add
+			// from their own thread.
+			synchronized(commandQueue) {
+				commandQueue.put(command);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
 		if(portConfirmed) sendQueuedCommand();
 	}
 	
@@ -140,6 +166,7 @@ implements NetworkConnectionListener {
 		
 	    if (serialPort != null) {
 	        // Close the port.
+            serialPort.removeListener(this);
             serialPort.closeConnection();
             serialPort=null;
 	    }
@@ -153,11 +180,29 @@ implements NetworkConnectionListener {
 	 * @param portName @error broken
 	 */
 	public void openPort(String portName) {
+		open(NetworkConnectionManager.requestNewConnection(null));
+	}
+
+	/**
+	 * Talk to the robot through a connection that is already open.  Nothing is sent until it says hello.
+	 * @param connection the connection, or null to stay closed.
+	 */
+	public void open(NetworkConnection connection) {
 		if(portOpened) closePort();
 		
-		serialPort = NetworkConnectionManager.requestNewConnection(null);
+		serialPort = connection;
 		if(serialPort!=null) {
+			// old firmware, or a flaky link?  send one line per cue.
+			if(prefs.getBoolean("pingPong", false)) {
+				serialPort.setSendWindow(SendWindow.pingPong());
+			}
+			// catch garbled lines so the baud rate can go up.  Needs skycamFirmware, the UNO firmware doesn't know N or *.
+			if(prefs.getBoolean("lineNumbers", false)) {
+				serialPort.setLineNumberFramer(new LineNumberFramer());
+			}
+			// open first: the connection may hand over the hello as soon as this listens.
 			portOpened=true;
+			serialPort.addListener(this);
 		}
 	}
 	
@@ -173,28 +218,10 @@ implements NetworkConnectionListener {
       }
     }
 
-	public JMenu getMenu() {
-		JMenu subMenu = new JMenu();
-	    //ButtonGroup group = new ButtonGroup();
-	    
-	    return subMenu;
-	}
-	
-
-	public Component getGUI() {
-	    // the log panel
-	    log.setEditable(false);
-	    log.setForeground(Color.GREEN);
-	    log.setBackground(Color.BLACK);
-	    logPane = new JScrollPane(log);
-	    
-	    return logPane;
-	}
-
 	@Override
 	public void lineError(NetworkConnection arg0, int lineNumber) {
-		// TODO Auto-generated method stub
-		
+		// the connection's LineNumberFramer resends the line on its own.
+		Log("Line "+lineNumber+" failed.  Resending."+NEWLINE);
 	}
 
 	@Override
@@ -0,0 +1,144 @@
+package com.marginallyclever.communications;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded first-in first-out queue for one producer and one consumer, with no locks.  Adding and removing are both
+ * constant time.
+ *
+ * Only one thread may add at a time and only one thread may remove (or peek, or clear) at a time, but the two sides
+ * may run at once on different threads.  When the queue is full {@link #offer(Object)} fails and {@link #put(Object)}
+ * waits for the consumer to make room.
+ * @author Dan Royer
+ */
+public class CommandQueue<E> {
+	// how many times a full producer yields before it parks.
+	private static final int YIELDS_BEFORE_PARK = 64;
+
+	private final Object [] buffer;
+	private final int mask;
+	// next slot to read.  only the consumer changes it.
+	private final AtomicLong head = new AtomicLong();
+	// next slot to write.  only the producer changes it.
+	private final AtomicLong tail = new AtomicLong();
+	// the producer, if it is waiting for room.
+	private volatile Thread waitingProducer;
+
+
+	/**
+	 * @param capacity the most items the queue can hold.  Rounded up to a power of two.
+	 */
+	public CommandQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2,capacity)-1)<<1;
+		buffer = new Object[size];
+		mask = size-1;
+	}
+
+	/**
+	 * Add an item if there is room.  Producer only.
+	 * @param item the item to add
+	 * @return false if the queue is full.
+	 */
+	public boolean offer(E item) {
+		long t = tail.get();
+		if(t-head.get()==buffer.length) return false;
+		buffer[(int)(t&mask)] = item;
+		tail.lazySet(t+1);
+		return true;
+	}
+
+	/**
+	 * Add an item, waiting for room if the queue is full.  Producer only.
+	 * @param item the item to add
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void put(E item) throws InterruptedException {
+		while(!offer(item)) {
+			awaitSpace(Long.MAX_VALUE,TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Wait until there is room for at least one more item.  Producer only.
+	 * @param timeout how long to wait
+	 * @param unit the unit of timeout
+	 * @return true if there is room.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean awaitSpace(long timeout,TimeUnit unit) throws InterruptedException {
+		// the consumer is usually close behind.  parking for every item is slow.
+		for(int i=0;i<YIELDS_BEFORE_PARK && isFull();++i) {
+			Thread.yield();
+		}
+		if(!isFull()) return true;
+
+		long deadline = System.nanoTime()+unit.toNanos(timeout);
+		if(deadline<0 && timeout>0) deadline=Long.MAX_VALUE;
+		waitingProducer = Thread.currentThread();
+		try {
+			// check again after announcing we are waiting, so a poll() in between can't be missed.
+			while(isFull()) {
+				if(Thread.interrupted()) throw new InterruptedException();
+				long left = deadline-System.nanoTime();
+				if(left<=0) return false;
+				LockSupport.parkNanos(this,left);
+			}
+			return true;
+		}
+		finally {
+			waitingProducer = null;
+		}
+	}
+
+	/**
+	 * @return the oldest item without removing it, or null if the queue is empty.  Consumer only.
+	 */
+	@SuppressWarnings("unchecked")
+	public E peek() {
+		long h = head.get();
+		if(h==tail.get()) return null;
+		return (E)buffer[(int)(h&mask)];
+	}
+
+	/**
+	 * @return the oldest item, or null if the queue is empty.  Consumer only.
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head.get();
+		if(h==tail.get()) return null;
+		int i = (int)(h&mask);
+		E item = (E)buffer[i];
+		buffer[i] = null;
+		head.lazySet(h+1);
+
+		Thread waiting = waitingProducer;
+		if(waiting!=null) LockSupport.unpark(waiting);
+		return item;
+	}
+
+	/**
+	 * Remove everything.  Consumer only.
+	 */
+	public void clear() {
+		while(poll()!=null);
+	}
+
+	public int size() {
+		return (int)(tail.get()-head.get());
+	}
+
+	public boolean isEmpty() {
+		return head.get()==tail.get();
+	}
+
+	public boolean isFull() {
+		return size()==buffer.length;
+	}
+
+	public int capacity() {
+		return buffer.length;
+	}
+}
@@ -0,0 +1,93 @@
+package com.marginallyclever.communications;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often each latency happens, so percentiles can be read at any time without keeping every sample.
+ * Buckets are log-linear like an HDR histogram: every power of two is split into {@link #SUB_BUCKETS}/2 equal parts,
+ * so any value is reported to within about 6%, from a nanosecond to centuries.
+ *
+ * {@link #record(long)} takes no lock and makes no objects, so it can be called from any thread on every line.
+ * @author Dan Royer
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	public static final int SUB_BUCKETS = 1<<SUB_BITS;
+	private static final int HALF = SUB_BUCKETS/2;
+	// enough for any positive long
+	private static final int BUCKETS = (64-SUB_BITS+1)*HALF+HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+
+	/**
+	 * @param value how long, in any unit.  Negative values count as zero.
+	 */
+	public void record(long value) {
+		if(value<0) value=0;
+		counts.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long m;
+		while(value>(m=max.get())) {
+			if(max.compareAndSet(m,value)) break;
+		}
+	}
+
+	private static int bucketOf(long value) {
+		if(value<SUB_BUCKETS) return (int)value;
+		int shift = 63-Long.numberOfLeadingZeros(value)-(SUB_BITS-1);
+		return shift*HALF + (int)(value>>>shift);
+	}
+
+	// the largest value that goes in a bucket.
+	private static long highestIn(int bucket) {
+		if(bucket<SUB_BUCKETS) return bucket;
+		int shift = bucket/HALF-1;
+		long sub = bucket-shift*HALF;
+		return ((sub+1)<<shift)-1;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n==0 ? 0 : (double)sum.get()/(double)n;
+	}
+
+	/**
+	 * @param percentile 0 to 100
+	 * @return the value that percentile of samples are at or below, or 0 if there are no samples.
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if(n==0) return 0;
+		long wanted = Math.max(1,(long)Math.ceil(n*percentile/100.0));
+		long seen=0;
+		for(int i=0;i<BUCKETS;++i) {
+			seen += counts.get(i);
+			if(seen>=wanted) return Math.min(highestIn(i),max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forget every sample.  Samples recorded while this runs may or may not be kept.
+	 */
+	public void reset() {
+		for(int i=0;i<BUCKETS;++i) counts.set(i,0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,198 @@
+package com.marginallyclever.communications;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Collects bytes from a robot and splits them into lines.  Bytes are copied once into a buffer that is reused, so a
+ * chatty robot doesn't make garbage.  Each line is looked at in place through {@link #line()}.
+ *
+ * The robot prints its cue "> " at the start of a line and then waits for input without sending a newline.  If a cue
+ * is given, it is returned as a line of its own as soon as it arrives.
+ *
+ * Not thread safe.  Use one per connection, from the thread that reads the connection.
+ * @author Dan Royer
+ */
+public class LineAssembler {
+	public static final int DEFAULT_MAX_LINE = 4096;
+
+	private byte [] buffer = new byte[256];
+	// first byte not yet returned in a line
+	private int start=0;
+	// one past the last byte received
+	private int end=0;
+	// where to look for the next newline.  Bytes between start and here have been searched already.
+	private int scan=0;
+
+	private byte [] cue;
+	private int maxLine;
+
+	// the current line
+	private int lineStart=0;
+	private int lineLength=0;
+	private boolean lineIsCue=false;
+	private Line line = new Line();
+
+
+	/**
+	 * @param cue printed by the robot when it is ready for more, or null.
+	 */
+	public LineAssembler(String cue) {
+		this(cue,DEFAULT_MAX_LINE);
+	}
+
+	/**
+	 * @param cue printed by the robot when it is ready for more, or null.
+	 * @param maxLine longer lines are split at this length, so garbage on the wire can't grow the buffer forever.
+	 */
+	public LineAssembler(String cue,int maxLine) {
+		this.cue = (cue==null) ? null : cue.getBytes(StandardCharsets.US_ASCII);
+		this.maxLine = maxLine;
+	}
+
+	/**
+	 * Add bytes received from the robot.
+	 * @param src the bytes
+	 * @param offset the first byte to add
+	 * @param length how many bytes to add
+	 */
+	public void append(byte [] src,int offset,int length) {
+		makeRoom(length);
+		System.arraycopy(src,offset,buffer,end,length);
+		end+=length;
+	}
+
+	/**
+	 * Add all the remaining bytes in a buffer.
+	 * @param src the bytes.  Its position is moved to its limit.
+	 */
+	public void append(ByteBuffer src) {
+		int length = src.remaining();
+		makeRoom(length);
+		src.get(buffer,end,length);
+		end+=length;
+	}
+
+	private void makeRoom(int length) {
+		if(end+length<=buffer.length) return;
+
+		// move the unfinished line to the front.
+		int unread = end-start;
+		if(unread+length>buffer.length) {
+			byte [] bigger = new byte[Math.max(buffer.length*2,unread+length)];
+			System.arraycopy(buffer,start,bigger,0,unread);
+			buffer = bigger;
+		} else {
+			System.arraycopy(buffer,start,buffer,0,unread);
+		}
+		scan-=start;
+		end=unread;
+		start=0;
+	}
+
+	/**
+	 * Find the next complete line.
+	 * @return true if there is a line to look at with {@link #line()}.  false if more bytes are needed.
+	 */
+	public boolean next() {
+		lineIsCue=false;
+		// nothing left?  start again at the front, so the buffer never has to move.
+		if(start==end) {
+			start=end=scan=0;
+			return false;
+		}
+
+		if(cue!=null && scan==start) {
+			int n = Math.min(cue.length,end-start);
+			if(startsWithCue(n)) {
+				// only part of the cue so far?  wait for the rest.
+				if(n<cue.length) return false;
+				lineIsCue=true;
+				return take(cue.length);
+			}
+		}
+
+		for(;scan<end;++scan) {
+			if(buffer[scan]=='\n') {
+				return take(++scan-start);
+			}
+			if(scan-start>=maxLine) {
+				return take(scan-start);
+			}
+		}
+
+		return false;
+	}
+
+	private boolean startsWithCue(int n) {
+		for(int i=0;i<n;++i) {
+			if(buffer[start+i]!=cue[i]) return false;
+		}
+		return true;
+	}
+
+	private boolean take(int length) {
+		lineStart=start;
+		lineLength=length;
+		start+=length;
+		scan=start;
+		return true;
+	}
+
+	/**
+	 * @return true if the current line is the cue.
+	 */
+	public boolean isCue() {
+		return lineIsCue;
+	}
+
+	/**
+	 * @return the current line, including the newline if it had one.  Only valid until the next call to
+	 * {@link #next()} or append().  Use toString() to keep it.
+	 */
+	public CharSequence line() {
+		return line;
+	}
+
+	/**
+	 * @return how many bytes have been received that are not yet part of a line.
+	 */
+	public int getPending() {
+		return end-start;
+	}
+
+	/**
+	 * Throw away everything received so far.
+	 */
+	public void clear() {
+		start=end=scan=0;
+		lineLength=0;
+		lineIsCue=false;
+	}
+
+
+	/**
+	 * A window on the current line in the buffer.
+	 */
+	private class Line implements CharSequence {
+		@Override
+		public int length() {
+			return lineLength;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char)(buffer[lineStart+index] & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int from,int to) {
+			return toString().substring(from,to);
+		}
+
+		@Override
+		public String toString() {
+			return new String(buffer,lineStart,lineLength,StandardCharsets.US_ASCII);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.marginallyclever.communications;
+
+/**
+ * Stamps a line number and checksum on every outgoing command, like "N12 G00 X1*87", and remembers the most recent
+ * lines.  When the robot reports BADCHECKSUM, BADLINENUM or NOCHECKSUM it expects that line again, so the framer
+ * rewinds and sends everything from that line on.
+ *
+ * The firmware checksum is the XOR of every byte before the '*'.  Before the first numbered line the framer sends
+ * "M110 N0" so the robot and the framer agree where counting starts.
+ * @author Dan Royer
+ */
+public class LineNumberFramer {
+	public static final int DEFAULT_HISTORY = 256;
+
+	// the most recent commands sent, indexed by line number modulo the history size.
+	private String [] commands;
+	private int [] lengths;
+
+	// number of the next new line
+	private int nextNumber=0;
+	// number of the next line to send.  less than nextNumber while resending.
+	private int sendNumber=0;
+	private boolean needsReset=true;
+	// cues still to come for lines sent before the last rewind.  The robot rejects every one of those lines.
+	private int stale=0;
+
+	private StringBuilder line = new StringBuilder();
+	private int resendCount=0;
+
+
+	public LineNumberFramer() {
+		this(DEFAULT_HISTORY);
+	}
+
+	/**
+	 * @param history how many lines to remember.  Must be more than the number of lines that can be in flight.
+	 */
+	public LineNumberFramer(int history) {
+		commands = new String[history];
+		lengths = new int[history];
+	}
+
+	/**
+	 * @return true if there are lines to send that are not new commands, such as a resend.
+	 */
+	public boolean hasPending() {
+		return needsReset || sendNumber<nextNumber;
+	}
+
+	/**
+	 * Build the next line to send.  Nothing is recorded until {@link #commit(String, int)}.
+	 * @param command the next new command.  Ignored if {@link #hasPending()} is true.
+	 * @param length how much of the command to send
+	 * @return the framed line, without a newline.  Only valid until the next call.
+	 */
+	public CharSequence prepare(String command,int length) {
+		line.setLength(0);
+		if(needsReset) {
+			return line.append("M110 N").append(nextNumber);
+		}
+
+		int number = sendNumber;
+		if(sendNumber<nextNumber) {
+			command = commands[number % commands.length];
+			length = lengths[number % commands.length];
+		}
+
+		line.append('N').append(number).append(' ').append(command,0,length);
+		int checksum=0;
+		for(int i=0;i<line.length();++i) {
+			checksum ^= line.charAt(i);
+		}
+		return line.append('*').append(checksum);
+	}
+
+	/**
+	 * The line from the last {@link #prepare(String, int)} has been sent.
+	 * @param command the same command given to prepare()
+	 * @param length the same length given to prepare()
+	 */
+	public void commit(String command,int length) {
+		if(needsReset) {
+			needsReset=false;
+			return;
+		}
+		if(sendNumber<nextNumber) {
+			sendNumber++;
+			return;
+		}
+		commands[nextNumber % commands.length] = command;
+		lengths[nextNumber % commands.length] = length;
+		nextNumber++;
+		sendNumber=nextNumber;
+	}
+
+	/**
+	 * The robot reported an error and wants line <code>lineNumber</code> again.
+	 * @param lineNumber the line the robot expects next
+	 * @param linesInFlight how many lines have been sent that the robot has not yet acknowledged, including the bad one.
+	 * @return true if the framer will resend.  false if the error was caused by an earlier error, or the line is too old.
+	 */
+	public boolean rewind(int lineNumber,int linesInFlight) {
+		if(stale>0) return false;
+		if(lineNumber>=nextNumber) return false;
+		if(lineNumber<0 || nextNumber-lineNumber>commands.length) return false;
+
+		sendNumber = lineNumber;
+		// every line in flight will be cued, the bad one too.  All but the bad one will also be rejected.
+		stale = linesInFlight;
+		resendCount++;
+		return true;
+	}
+
+	/**
+	 * The robot sent a cue, so one line in flight has been read.
+	 */
+	public void acknowledge() {
+		if(stale>0) stale--;
+	}
+
+	/**
+	 * Start counting again from zero, as when the connection is reopened.
+	 */
+	public void reset() {
+		nextNumber=0;
+		sendNumber=0;
+		stale=0;
+		needsReset=true;
+	}
+
+	/**
+	 * @return the number the next new line will get.
+	 */
+	public int getNextLineNumber() {
+		return nextNumber;
+	}
+
+	/**
+	 * @return how many times the robot has asked for lines again.
+	 */
+	public int getResendCount() {
+		return resendCount;
+	}
+}
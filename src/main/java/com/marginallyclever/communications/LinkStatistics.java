@@ -0,0 +1,217 @@
+package com.marginallyclever.communications;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How fast one {@link NetworkConnection} is really streaming.  Counts lines and bytes each way and errors, and
+ * measures:
+ * <ul>
+ * <li>cue latency: from sending a line to the cue that says the robot read it.</li>
+ * <li>starved time: how long the robot had room for more while nothing was queued to send, such as while it waits
+ * for a slower robot to catch up.</li>
+ * <li>queue depth: how many commands are waiting to be sent.</li>
+ * </ul>
+ * Counters can be read from any thread at any time.  {@link #lineSent(int)}, {@link #cue()}, {@link #starved()} and
+ * {@link #cleared()} are called by the connection while it is locked.
+ * @author Dan Royer
+ */
+public class LinkStatistics implements LinkStatisticsMBean {
+	// more lines in flight than this and the oldest send times are forgotten.
+	private static final int MAX_IN_FLIGHT = 1024;
+	private static final long RATE_WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+	private final AtomicLong linesSent = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong linesReceived = new AtomicLong();
+	private final AtomicLong lineErrors = new AtomicLong();
+	private final AtomicLong starvedNanos = new AtomicLong();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private volatile int queueDepth;
+	private final LatencyHistogram cueLatency = new LatencyHistogram();
+
+	// when each line in flight was sent, oldest first.
+	private final long [] sentAt = new long[MAX_IN_FLIGHT];
+	private int head=0;
+	private int inFlight=0;
+	// when the robot ran out of lines to read, or 0 if it hasn't.
+	private long starvedSince=0;
+
+	// lines sent since rateStart, and the rate over the last whole window.
+	private volatile long rateStart = System.nanoTime();
+	private volatile long rateLines=0;
+	private volatile double linesPerSecond=0;
+
+
+	/**
+	 * A line has gone to the robot.
+	 * @param bytes how long it was, including the newline
+	 */
+	public void lineSent(int bytes) {
+		long now = System.nanoTime();
+		if(starvedSince!=0) {
+			starvedNanos.addAndGet(now-starvedSince);
+			starvedSince=0;
+		}
+		if(inFlight==MAX_IN_FLIGHT) {
+			head=(head+1)%MAX_IN_FLIGHT;
+			inFlight--;
+		}
+		sentAt[(head+inFlight)%MAX_IN_FLIGHT] = now;
+		inFlight++;
+
+		linesSent.incrementAndGet();
+		bytesSent.addAndGet(bytes);
+
+		long elapsed = now-rateStart;
+		if(elapsed>=RATE_WINDOW) {
+			linesPerSecond = rateLines*1e9/elapsed;
+			rateStart = now;
+			rateLines = 0;
+		}
+		rateLines++;
+	}
+
+	/**
+	 * The robot sent a cue for the oldest line in flight.
+	 */
+	public void cue() {
+		if(inFlight==0) return;
+		cueLatency.record(System.nanoTime()-sentAt[head]);
+		head=(head+1)%MAX_IN_FLIGHT;
+		inFlight--;
+	}
+
+	/**
+	 * The robot has room for more and there is nothing to send.
+	 */
+	public void starved() {
+		if(starvedSince==0) starvedSince = System.nanoTime();
+	}
+
+	/**
+	 * The connection was opened again, so nothing is in flight.
+	 */
+	public void cleared() {
+		head=0;
+		inFlight=0;
+		starvedSince=0;
+	}
+
+	/**
+	 * The robot sent a line that isn't a cue.
+	 */
+	public void lineReceived() {
+		linesReceived.incrementAndGet();
+	}
+
+	/**
+	 * The robot asked for a line again.
+	 */
+	public void lineError() {
+		lineErrors.incrementAndGet();
+	}
+
+	/**
+	 * @param depth how many commands are waiting to be sent.
+	 */
+	public void setQueueDepth(int depth) {
+		queueDepth = depth;
+		int m;
+		while(depth>(m=maxQueueDepth.get())) {
+			if(maxQueueDepth.compareAndSet(m,depth)) break;
+		}
+	}
+
+	/**
+	 * @return nanoseconds from each line sent to its cue.
+	 */
+	public LatencyHistogram getCueLatency() {
+		return cueLatency;
+	}
+
+	@Override
+	public long getLinesSent() {
+		return linesSent.get();
+	}
+
+	@Override
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	@Override
+	public long getLinesReceived() {
+		return linesReceived.get();
+	}
+
+	@Override
+	public long getCues() {
+		return cueLatency.getCount();
+	}
+
+	@Override
+	public long getLineErrors() {
+		return lineErrors.get();
+	}
+
+	@Override
+	public double getLinesPerSecond() {
+		// nothing sent in a while?  the last window is out of date.
+		long elapsed = System.nanoTime()-rateStart;
+		if(elapsed>=2*RATE_WINDOW) return rateLines*1e9/elapsed;
+		return linesPerSecond;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	@Override
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	@Override
+	public long getStarvedMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(starvedNanos.get());
+	}
+
+	@Override
+	public double getCueMeanMicros() {
+		return cueLatency.getMean()/1000.0;
+	}
+
+	@Override
+	public long getCue50Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(cueLatency.getPercentile(50));
+	}
+
+	@Override
+	public long getCue99Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(cueLatency.getPercentile(99));
+	}
+
+	@Override
+	public long getCue999Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(cueLatency.getPercentile(99.9));
+	}
+
+	@Override
+	public long getCueMaxMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(cueLatency.getMax());
+	}
+
+	@Override
+	public void reset() {
+		linesSent.set(0);
+		bytesSent.set(0);
+		linesReceived.set(0);
+		lineErrors.set(0);
+		starvedNanos.set(0);
+		maxQueueDepth.set(queueDepth);
+		cueLatency.reset();
+	}
+}
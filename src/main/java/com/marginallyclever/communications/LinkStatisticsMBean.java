@@ -0,0 +1,23 @@
+package com.marginallyclever.communications;
+
+/**
+ * What JMX tools like jconsole and VisualVM can see of a {@link LinkStatistics}.  Times are in microseconds.
+ * @author Dan Royer
+ */
+public interface LinkStatisticsMBean {
+	public long getLinesSent();
+	public long getBytesSent();
+	public long getLinesReceived();
+	public long getCues();
+	public long getLineErrors();
+	public double getLinesPerSecond();
+	public int getQueueDepth();
+	public int getMaxQueueDepth();
+	public long getStarvedMicros();
+	public double getCueMeanMicros();
+	public long getCue50Micros();
+	public long getCue99Micros();
+	public long getCue999Micros();
+	public long getCueMaxMicros();
+	public void reset();
+}
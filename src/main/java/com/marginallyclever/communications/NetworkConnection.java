@@ -22,9 +22,25 @@ public interface NetworkConnection {
 
 	public void sendMessage(String msg) throws Exception;
 
+	// queue a line if there is room.  false if the queue is full; try again after sendBufferEmpty().
+	public boolean offerMessage(String msg);
+
 	public void addListener(NetworkConnectionListener listener);
 
 	public void removeListener(NetworkConnectionListener listener);
 	
 	public TransportLayer getTransportLayer();
+
+	// how many commands may be in flight before the robot replies.  SendWindow.pingPong() is one at a time.
+	public void setSendWindow(SendWindow window);
+
+	public SendWindow getSendWindow();
+
+	// stamp line numbers and checksums on outgoing lines and resend on error.  null to send lines as they are.
+	public void setLineNumberFramer(LineNumberFramer framer);
+
+	public LineNumberFramer getLineNumberFramer();
+
+	// how fast this connection is streaming.
+	public LinkStatistics getStatistics();
 }
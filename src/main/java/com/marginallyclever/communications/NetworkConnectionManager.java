@@ -7,19 +7,14 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 
-import com.marginallyclever.communications.serial.SerialTransportLayer;
-import com.marginallyclever.communications.tcp.TCPTransportLayer;
-//import com.marginallyclever.communications.tcp.TCPTransportLayer;
-
 /**
  * Handles requests between the UI and the various transport layers 
+ *
+ * Every layer in {@link TransportLayers} gets a tab, in the order they are listed.
  * @author Dan Royer
  *
  */
 public class NetworkConnectionManager {
-	static private SerialTransportLayer serial = new SerialTransportLayer();
-	static private TCPTransportLayer tcp = new TCPTransportLayer();
-	
 	/**
 	 * create a GUI to give the user transport layer options.
 	 * @param parent the root gui component
@@ -30,10 +25,9 @@ public class NetworkConnectionManager {
 		top.setLayout(new GridLayout(0,1));
 		JTabbedPane tabs = new JTabbedPane();
 		top.add(tabs);
-		// TODO translate me?
-		tabs.addTab("USB", serial.getTransportLayerPanel());
-		// TODO translate me?
-		tabs.addTab("TCP/IP", tcp.getTransportLayerPanel());
+		for(TransportLayer layer : TransportLayers.getAll()) {
+			tabs.addTab(layer.getName(), layer.getTransportLayerPanel());
+		}
 
 		int result = JOptionPane.showConfirmDialog(parent, top, "Connect", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
 		if (result == JOptionPane.OK_OPTION) {
@@ -0,0 +1,118 @@
+package com.marginallyclever.communications;
+
+/**
+ * Keeps track of the commands sent to a robot that it has not finished reading.  The robot prints the cue "> " once
+ * for every line it reads, so each cue frees the oldest line in the window.
+ *
+ * A window one line wide is the old way: send one line, wait for the cue, send the next.  A character counting window
+ * keeps sending until the robot's receive buffer would overflow, so the robot never waits on a round trip.
+ * @author Dan Royer
+ */
+public class SendWindow {
+	/**
+	 * Size of the serial receive buffer in the firmware (MAX_BUF in configure.h).
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64;
+	/**
+	 * Number of segments the firmware can plan ahead (MAX_SEGMENTS in configure.h).
+	 */
+	public static final int DEFAULT_MAX_LINES = 32;
+
+	private int bufferSize;
+	private int maxLines;
+
+	// length of each line in flight, oldest first.
+	private int [] lengths;
+	private int head=0;
+	private int linesInFlight=0;
+	private int bytesInFlight=0;
+
+
+	/**
+	 * @param bufferSize how many bytes the robot can hold before it reads them
+	 * @param maxLines how many lines may be in flight at once
+	 */
+	public SendWindow(int bufferSize,int maxLines) {
+		this.bufferSize = bufferSize;
+		this.maxLines = maxLines;
+		lengths = new int[maxLines];
+	}
+
+	/**
+	 * @return a window that sends one line and waits for the cue before sending another.
+	 */
+	static public SendWindow pingPong() {
+		return new SendWindow(Integer.MAX_VALUE,1);
+	}
+
+	/**
+	 * @return a window that keeps the firmware's receive buffer full.
+	 */
+	static public SendWindow characterCounting() {
+		return new SendWindow(DEFAULT_BUFFER_SIZE,DEFAULT_MAX_LINES);
+	}
+
+	/**
+	 * @param length number of bytes in the line, including the newline
+	 * @return true if the line can be sent without overflowing the robot.
+	 */
+	public boolean canSend(int length) {
+		if(linesInFlight==0) return true;  // a line longer than the buffer still has to go sometime.
+		if(linesInFlight>=maxLines) return false;
+		return bytesInFlight+length <= bufferSize;
+	}
+
+	/**
+	 * @return true if there is room for at least one more line.
+	 */
+	public boolean hasRoom() {
+		return canSend(1);
+	}
+
+	/**
+	 * Record a line that has just been sent.
+	 * @param length number of bytes in the line, including the newline
+	 */
+	public void sent(int length) {
+		lengths[(head+linesInFlight)%maxLines] = length;
+		linesInFlight++;
+		bytesInFlight+=length;
+	}
+
+	/**
+	 * The robot sent a cue, so it has read the oldest line in flight.
+	 * @return false if nothing was in flight, such as the cue the robot sends when it has been idle a while.
+	 */
+	public boolean acknowledge() {
+		if(linesInFlight==0) return false;
+		bytesInFlight-=lengths[head];
+		head=(head+1)%maxLines;
+		linesInFlight--;
+		return true;
+	}
+
+	/**
+	 * Forget everything in flight, as when the connection is opened again.
+	 */
+	public void clear() {
+		head=0;
+		linesInFlight=0;
+		bytesInFlight=0;
+	}
+
+	public int getLinesInFlight() {
+		return linesInFlight;
+	}
+
+	public int getBytesInFlight() {
+		return bytesInFlight;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getMaxLines() {
+		return maxLines;
+	}
+}
@@ -0,0 +1,408 @@
+package com.marginallyclever.communications;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.marginallyclever.gcode.GCodeTokenizer;
+
+
+/**
+ * The part of talking to a robot that is the same on every wire: queueing commands, the {@link SendWindow}, the
+ * {@link LineNumberFramer}, splitting what the robot says into lines and cues, and spotting line errors.
+ *
+ * A transport opens its link and calls {@link #opened(String)}, hands every byte it reads to {@link #received}, writes
+ * what {@link #write(CharSequence, int)} is given, and calls {@link #closed()} when the link is gone.
+ *
+ * A robot says hello as soon as the link opens, often before anyone has called {@link #addListener}.  Lines heard
+ * while no one is listening are kept and given to the first listener, in order, before anything newer.
+ * @author Dan Royer
+ */
+public abstract class StreamConnection implements NetworkConnection {
+	public static final String CUE = "> ";
+	public static final String NOCHECKSUM = "NOCHECKSUM ";
+	public static final String BADCHECKSUM = "BADCHECKSUM ";
+	public static final String BADLINENUM = "BADLINENUM ";
+	private static final int QUEUE_SIZE = 1024;
+	// lines kept for the first listener.  More than a hello and a help screen, and the rest are dropped.
+	private static final int MAX_UNHEARD = 64;
+
+	private TransportLayer transportLayer;
+	private String connectionName = "";
+	private volatile boolean portOpened = false;
+	// true from the moment the port opens until the robot sends its first cue.
+	private boolean waitingForCue = false;
+	private SendWindow window = SendWindow.characterCounting();
+	// null if lines are sent without line numbers and checksums.
+	private LineNumberFramer framer = null;
+	private LinkStatistics stats = new LinkStatistics();
+
+	// parsing input from Makelangelo.  only touched by the thread that reads.
+	private LineAssembler lines = new LineAssembler(CUE);
+	private CommandQueue<String> commandQueue = new CommandQueue<String>(QUEUE_SIZE);
+	// how many times sendQueuedCommand() has been asked to run.  Only the thread that raises it from zero sends.
+	private AtomicInteger sendRequests = new AtomicInteger();
+
+	// Listeners which should be notified of a change to the percentage.  Added and removed while lines arrive.
+	private List<NetworkConnectionListener> listeners = new CopyOnWriteArrayList<NetworkConnectionListener>();
+	// lines heard before anyone listened, or while they are being caught up.  Guarded by listeners.
+	private ArrayList<String> unheard = new ArrayList<String>();
+	private boolean catchingUp = false;
+
+
+	protected StreamConnection(TransportLayer layer) {
+		transportLayer = layer;
+	}
+
+	@Override
+	public void sendMessage(String msg) throws Exception {
+		if(!offerMessage(msg)) throw new Exception("Send queue full");
+	}
+
+	@Override
+	public boolean offerMessage(String msg) {
+		if(!commandQueue.offer(msg)) return false;
+		sendQueuedCommand();
+		return true;
+	}
+
+	/**
+	 * The link is open.  Start counting, framing and parsing from scratch.
+	 * @param name what to call the connection, and where {@link #reconnect()} goes.
+	 */
+	protected void opened(String name) {
+		connectionName = name;
+		Telemetry.register(connectionName,stats);
+		waitingForCue = true;
+		synchronized(this) {
+			window.clear();
+			if(framer!=null) framer.reset();
+			stats.cleared();
+		}
+		lines.clear();
+		synchronized(listeners) {
+			unheard.clear();
+		}
+		portOpened = true;
+	}
+
+	/**
+	 * The link is gone, or about to be.  Nothing more is sent or heard, and the statistics are no longer published.
+	 */
+	protected void closed() {
+		portOpened = false;
+		Telemetry.unregister(connectionName,stats);
+	}
+
+	/**
+	 * Bytes from the robot.  Call from one thread only.
+	 */
+	protected void received(ByteBuffer buf) {
+		if(!portOpened) return;
+		lines.append(buf);
+		processLines();
+	}
+
+	/**
+	 * Bytes from the robot.  Call from one thread only.
+	 */
+	protected void received(byte [] buf,int offset,int length) {
+		if(!portOpened) return;
+		lines.append(buf,offset,length);
+		processLines();
+	}
+
+	private void processLines() {
+		while(lines.next()) {
+			// each cue means the robot has read one more line.
+			if(lines.isCue()) {
+				synchronized(this) {
+					waitingForCue=false;
+					if(window.acknowledge()) {
+						stats.cue();
+						if(framer!=null) framer.acknowledge();
+					}
+				}
+				continue;
+			}
+
+			String oneLine = lines.line().toString();
+			stats.lineReceived();
+			// check for error
+			int error_line = errorReported(oneLine);
+			if(error_line != -1) {
+				synchronized(this) {
+					if(framer!=null) framer.rewind(error_line,window.getLinesInFlight());
+				}
+				stats.lineError();
+				notifyLineError(error_line);
+			} else {
+				// no error
+				notifyDataAvailable(oneLine);
+			}
+		}
+		if(waitingForCue==false) {
+			sendQueuedCommand();
+		}
+	}
+
+	/**
+	 * Check if the robot reports an error and if so what line number.
+	 * @param line the message from the robot to be parsed
+	 * @return -1 if there was no error, otherwise the line number containing the error.
+	 */
+	protected int errorReported(String line) {
+		if (line.lastIndexOf(NOCHECKSUM) != -1) {
+			String after_error = line.substring(line.lastIndexOf(NOCHECKSUM) + NOCHECKSUM.length());
+			String x = getNumberPortion(after_error);
+			int err = 0;
+			try {
+				err = Integer.decode(x);
+				System.out.println("NOCHECKSUM "+err);
+			} catch (Exception e) {}
+
+			return err;
+		}
+		if (line.lastIndexOf(BADCHECKSUM) != -1) {
+			String after_error = line.substring(line.lastIndexOf(BADCHECKSUM) + BADCHECKSUM.length());
+			String x = getNumberPortion(after_error);
+			int err = 0;
+			try {
+				err = Integer.decode(x);
+				System.out.println("BADCHECKSUM "+err);
+			} catch (Exception e) {}
+
+			return err;
+		}
+		if (line.lastIndexOf(BADLINENUM) != -1) {
+			String after_error = line.substring(line.lastIndexOf(BADLINENUM) + BADLINENUM.length());
+			String x = getNumberPortion(after_error);
+			int err = 0;
+			try {
+				err = Integer.decode(x);
+				System.out.println("BADLINENUM "+err);
+			} catch (Exception e) {}
+
+			return err;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Send as many queued commands as the robot has room for.  Safe to call from any thread and from inside a listener.
+	 * Listeners are told when there is room for more, but never while this connection is locked.
+	 */
+	protected void sendQueuedCommand() {
+		// someone else is sending?  they will go around again.
+		if(sendRequests.getAndIncrement()!=0) return;
+
+		int missed=1;
+		do {
+			if(sendLines()) {
+				notifySendBufferEmpty();
+			}
+			missed = sendRequests.addAndGet(-missed);
+		} while(missed!=0);
+	}
+
+	/**
+	 * @return true if the queue is empty and the robot has room for more.
+	 */
+	private synchronized boolean sendLines() {
+		if(!portOpened || waitingForCue) return false;
+
+		boolean roomForMore=false;
+		try {
+			while(true) {
+				String command=null;
+				int len=0;
+				CharSequence line;
+				if(framer!=null && framer.hasPending()) {
+					// resend, or tell the robot where line numbers start.
+					line = framer.prepare(null,0);
+				} else {
+					if(commandQueue.isEmpty()) break;
+					command=commandQueue.peek();
+					// comments never go to the robot.
+					len = GCodeTokenizer.commandLength(command);
+					line = (framer==null) ? command : framer.prepare(command,len);
+				}
+				int lineLength = (framer==null) ? len : line.length();
+
+				// would it overflow the robot?  wait for a cue.
+				if(!window.canSend(lineLength+1)) break;
+				// link still busy with the last lines?  the transport will call back when it has room.
+				if(!write(line,lineLength)) break;
+				if(command!=null) commandQueue.poll();
+				if(framer!=null) framer.commit(command,len);
+				window.sent(lineLength+1);
+				stats.lineSent(lineLength+1);
+			}
+			// room for more?
+			roomForMore = commandQueue.isEmpty() && window.hasRoom();
+			stats.setQueueDepth(commandQueue.size());
+			if(roomForMore) stats.starved();
+			flush();
+		}
+		catch(IndexOutOfBoundsException e1) {}
+		catch(IOException e1) {}
+
+		return roomForMore;
+	}
+
+	/**
+	 * Send one line and a newline, or keep it to send with the next {@link #flush()}.  Called with this connection
+	 * locked.
+	 * @param line the line, without a newline.  Only valid during this call.
+	 * @param length how much of the line to send
+	 * @return false if there is no room for it yet.  Nothing is sent, and the line is offered again later.
+	 * @throws IOException if the link fails
+	 */
+	protected abstract boolean write(CharSequence line,int length) throws IOException;
+
+	/**
+	 * Send anything {@link #write(CharSequence, int)} has kept.  Called with this connection locked, after each batch
+	 * of lines.
+	 * @throws IOException if the link fails
+	 */
+	protected void flush() throws IOException {}
+
+	public synchronized void deleteAllQueuedCommands() {
+		commandQueue.clear();
+	}
+
+	@Override
+	public void setSendWindow(SendWindow window) {
+		this.window = window;
+	}
+
+	@Override
+	public SendWindow getSendWindow() {
+		return window;
+	}
+
+	@Override
+	public void setLineNumberFramer(LineNumberFramer framer) {
+		this.framer = framer;
+	}
+
+	@Override
+	public LineNumberFramer getLineNumberFramer() {
+		return framer;
+	}
+
+	@Override
+	public LinkStatistics getStatistics() {
+		return stats;
+	}
+
+	// connect to the last port
+	@Override
+	public void reconnect() throws Exception {
+		openConnection(connectionName);
+	}
+
+	/**
+	 * Java string to int is very picky.  this method is slightly less picky.  Only works with positive whole numbers.
+	 *
+	 * @param src
+	 * @return the portion of the string that is actually a number
+	 */
+	private String getNumberPortion(String src) {
+		src = src.trim();
+		int length = src.length();
+		String result = "";
+		for (int i = 0; i < length; i++) {
+			Character character = src.charAt(i);
+			if (Character.isDigit(character)) {
+				result += character;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the port open for this connection.
+	 */
+	@Override
+	public boolean isOpen() {
+		return portOpened;
+	}
+
+	@Override
+	public String getRecentConnection() {
+		return connectionName;
+	}
+
+	/**
+	 * The first listener is first told every line heard so far, on this thread.  Lines that arrive meanwhile wait their
+	 * turn.
+	 */
+	@Override
+	public void addListener(NetworkConnectionListener listener) {
+		ArrayList<String> heard;
+		synchronized(listeners) {
+			listeners.add(listener);
+			if(unheard.isEmpty()) return;
+			heard = new ArrayList<String>(unheard);
+			unheard.clear();
+			catchingUp = true;
+		}
+		while(true) {
+			for(String line : heard) {
+				tellListeners(line);
+			}
+			synchronized(listeners) {
+				if(unheard.isEmpty()) {
+					catchingUp = false;
+					return;
+				}
+				heard = new ArrayList<String>(unheard);
+				unheard.clear();
+			}
+		}
+	}
+
+	@Override
+	public void removeListener(NetworkConnectionListener listener) {
+		listeners.remove(listener);
+	}
+
+	private void notifyLineError(int lineNumber) {
+		for (NetworkConnectionListener listener : listeners) {
+			listener.lineError(this,lineNumber);
+		}
+	}
+
+	private void notifySendBufferEmpty() {
+		for (NetworkConnectionListener listener : listeners) {
+			listener.sendBufferEmpty(this);
+		}
+	}
+
+	// tell all listeners data has arrived, or keep it until someone listens.
+	private void notifyDataAvailable(String line) {
+		synchronized(listeners) {
+			if(listeners.isEmpty() || catchingUp) {
+				if(unheard.size()<MAX_UNHEARD) unheard.add(line);
+				return;
+			}
+		}
+		tellListeners(line);
+	}
+
+	private void tellListeners(String line) {
+		for (NetworkConnectionListener listener : listeners) {
+			listener.dataAvailable(this,line);
+		}
+	}
+
+	@Override
+	public TransportLayer getTransportLayer() {
+		return this.transportLayer;
+	}
+}
@@ -0,0 +1,193 @@
+package com.marginallyclever.communications;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Every connection's {@link LinkStatistics} in one place.  Each is published over JMX as
+ * <code>com.marginallyclever.skycam:type=Link,name=...</code> so jconsole or VisualVM can watch a running rig, and
+ * all of them can be written to a file every few seconds, one row per connection per report.
+ *
+ * A report file ending in .json gets one JSON object per line.  Anything else gets CSV with a header.
+ * @author Dan Royer
+ */
+public final class Telemetry {
+	private static final String DOMAIN = "com.marginallyclever.skycam";
+	private static final String [] COLUMNS = {
+		"time","link","linesSent","bytesSent","linesReceived","cues","lineErrors","linesPerSecond",
+		"queueDepth","maxQueueDepth","starvedMicros","cueMeanMicros","cue50Micros","cue99Micros","cue999Micros",
+		"cueMaxMicros",
+	};
+
+	private static final Map<String,LinkStatistics> links = new ConcurrentSkipListMap<String,LinkStatistics>();
+	private static ScheduledExecutorService reporter;
+	private static Writer reportOut;
+
+
+	private Telemetry() {}
+
+	/**
+	 * Publish the statistics of a connection.  Replaces any statistics already published under that name.
+	 * @param name what to call the connection, such as the port name
+	 */
+	public static void register(String name,LinkStatistics stats) {
+		links.put(name,stats);
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName id = objectName(name);
+			if(server.isRegistered(id)) server.unregisterMBean(id);
+			server.registerMBean(stats,id);
+		} catch (Exception e) {
+			// no JMX?  the reports still work.
+			System.out.println("Telemetry: could not publish "+name+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Stop publishing the statistics of a connection.  Does nothing if others have been registered under that name since.
+	 * @param name what the connection was registered as
+	 * @param stats what was registered
+	 */
+	public static void unregister(String name,LinkStatistics stats) {
+		if(!links.remove(name,stats)) return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName id = objectName(name);
+			if(server.isRegistered(id)) server.unregisterMBean(id);
+		} catch (Exception e) {}
+	}
+
+	private static ObjectName objectName(String name) throws Exception {
+		return new ObjectName(DOMAIN+":type=Link,name="+ObjectName.quote(name));
+	}
+
+	/**
+	 * Write every connection to a file every so often, until {@link #stopReport()}.  Stops any report already running.
+	 * @param file where to write.  Appended to if it exists.
+	 * @param period how often, in ms
+	 */
+	public static synchronized void startReport(File file,long period) throws IOException {
+		stopReport();
+		final boolean json = file.getName().toLowerCase(Locale.ROOT).endsWith(".json");
+		boolean header = !json && (!file.exists() || file.length()==0);
+		reportOut = new FileWriter(file,true);
+		if(header) {
+			writeCSVHeader(reportOut);
+			reportOut.flush();
+		}
+
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"Telemetry");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report(json);
+			}
+		},period,period,TimeUnit.MILLISECONDS);
+	}
+
+	private static synchronized void report(boolean json) {
+		if(reportOut==null) return;
+		try {
+			if(json) writeJSON(reportOut);
+			else writeCSV(reportOut);
+			reportOut.flush();
+		} catch (IOException e) {
+			System.out.println("Telemetry: report failed: "+e.getMessage());
+		}
+	}
+
+	public static synchronized void stopReport() {
+		if(reporter!=null) {
+			reporter.shutdown();
+			reporter=null;
+		}
+		if(reportOut!=null) {
+			try {
+				reportOut.close();
+			} catch (IOException e) {}
+			reportOut=null;
+		}
+	}
+
+	public static void writeCSVHeader(Appendable out) throws IOException {
+		for(int i=0;i<COLUMNS.length;++i) {
+			if(i>0) out.append(',');
+			out.append(COLUMNS[i]);
+		}
+		out.append('\n');
+	}
+
+	/**
+	 * One CSV row per connection.
+	 */
+	public static void writeCSV(Appendable out) throws IOException {
+		long time = System.currentTimeMillis();
+		for(Map.Entry<String,LinkStatistics> e : links.entrySet()) {
+			Object [] values = values(time,e.getKey(),e.getValue());
+			for(int i=0;i<values.length;++i) {
+				if(i>0) out.append(',');
+				if(values[i] instanceof String) {
+					out.append('"').append(((String)values[i]).replace("\"","\"\"")).append('"');
+				} else {
+					out.append(format(values[i]));
+				}
+			}
+			out.append('\n');
+		}
+	}
+
+	/**
+	 * One JSON object per connection, one per line.
+	 */
+	public static void writeJSON(Appendable out) throws IOException {
+		long time = System.currentTimeMillis();
+		for(Map.Entry<String,LinkStatistics> e : links.entrySet()) {
+			Object [] values = values(time,e.getKey(),e.getValue());
+			out.append('{');
+			for(int i=0;i<values.length;++i) {
+				if(i>0) out.append(',');
+				out.append('"').append(COLUMNS[i]).append("\":");
+				if(values[i] instanceof String) {
+					out.append('"').append(((String)values[i]).replace("\\","\\\\").replace("\"","\\\"")).append('"');
+				} else {
+					out.append(format(values[i]));
+				}
+			}
+			out.append("}\n");
+		}
+	}
+
+	private static String format(Object value) {
+		if(value instanceof Double) return String.format(Locale.ROOT,"%.3f",(Double)value);
+		return value.toString();
+	}
+
+	// in the same order as COLUMNS
+	private static Object [] values(long time,String name,LinkStatistics s) {
+		return new Object[] {
+			time,name,s.getLinesSent(),s.getBytesSent(),s.getLinesReceived(),s.getCues(),s.getLineErrors(),
+			s.getLinesPerSecond(),s.getQueueDepth(),s.getMaxQueueDepth(),s.getStarvedMicros(),s.getCueMeanMicros(),
+			s.getCue50Micros(),s.getCue99Micros(),s.getCue999Micros(),s.getCueMaxMicros(),
+		};
+	}
+}
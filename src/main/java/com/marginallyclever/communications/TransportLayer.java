@@ -7,6 +7,16 @@ package com.marginallyclever.communications;
  * @since v7.1.0.0
  */
 public interface TransportLayer {
+  /**
+   * @return what to call this kind of connection, such as "USB"
+   */
+  public String getName();
+
+  /**
+   * @return false if this kind of connection can't work on this machine.
+   */
+  public boolean isAvailable();
+
   /**
    * opens a connection
    * @param connectionName where to connect
@@ -15,6 +25,9 @@ public interface TransportLayer {
   public NetworkConnection openConnection(String connectionName);
 
   /**
+   * Build the panel through a static method of the panel class that returns TransportLayerPanel, not with
+   * <code>new</code>.  Then the class verifier has nothing to check here and loading the layer does not load Swing,
+   * which {@link com.marginallyclever.Skycam.HeadlessRunner} depends on.
    * @return a panel with the gui options for this transport layer
    */
   public TransportLayerPanel getTransportLayerPanel();
@@ -0,0 +1,54 @@
+package com.marginallyclever.communications;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Every kind of connection Skycam knows, found with {@link ServiceLoader}.  To add one, put its class name in
+ * META-INF/services/com.marginallyclever.communications.TransportLayer of any jar on the class path.
+ *
+ * Kept apart from {@link NetworkConnectionManager} so connections can be opened without loading Swing.
+ * @author Dan Royer
+ */
+public final class TransportLayers {
+	static private List<TransportLayer> layers;
+
+
+	private TransportLayers() {}
+
+	/**
+	 * @return every transport layer that works on this machine, in the order they are listed.  Each is made once.
+	 */
+	static public synchronized List<TransportLayer> getAll() {
+		if(layers==null) {
+			layers = new ArrayList<TransportLayer>();
+			Iterator<TransportLayer> i = ServiceLoader.load(TransportLayer.class).iterator();
+			while(true) {
+				try {
+					if(!i.hasNext()) break;
+					TransportLayer layer = i.next();
+					if(layer.isAvailable()) layers.add(layer);
+				} catch(ServiceConfigurationError e) {
+					// one broken transport must not hide the others.
+					System.out.println("Transport layer not loaded: "+e.getMessage());
+				}
+			}
+		}
+		return Collections.unmodifiableList(layers);
+	}
+
+	/**
+	 * @param name as returned by {@link TransportLayer#getName()}
+	 * @return the transport layer with that name, or null.
+	 */
+	static public TransportLayer get(String name) {
+		for(TransportLayer layer : getAll()) {
+			if(layer.getName().equals(name)) return layer;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,99 @@
+package com.marginallyclever.communications.emulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Puts a {@link FirmwareEmulator} on a TCP port, so anything that can talk to a robot over TCP/IP can talk to it.
+ * One client at a time.  Each new client powers the emulator on again, so it says hello.
+ *
+ * Run it by itself to put pretend robots on a machine with none:
+ * <pre>java com.marginallyclever.communications.emulator.EmulatorServer [port] [baud] [time scale]</pre>
+ * @author Dan Royer
+ */
+public class EmulatorServer implements Runnable {
+	private FirmwareEmulator emulator;
+	private ServerSocket server;
+	private Thread thread;
+	private volatile Socket client;
+
+
+	/**
+	 * @param emulator the robot
+	 * @param port where to listen, or 0 for any free port.  Only this machine can connect.
+	 */
+	public EmulatorServer(FirmwareEmulator emulator,int port) throws IOException {
+		this.emulator = emulator;
+		server = new ServerSocket(port,1,InetAddress.getLoopbackAddress());
+		thread = new Thread(this,emulator.getName()+" server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public FirmwareEmulator getEmulator() {
+		return emulator;
+	}
+
+	@Override
+	public void run() {
+		byte [] buffer = new byte[256];
+		while(!server.isClosed()) {
+			try (Socket s = server.accept()) {
+				s.setTcpNoDelay(true);
+				client = s;
+				final OutputStream out = s.getOutputStream();
+				emulator.start(new FirmwareEmulator.Output() {
+					@Override
+					public void write(byte[] data, int offset, int length) {
+						try {
+							out.write(data,offset,length);
+						} catch (IOException e) {
+							// client is gone.  the read below will notice.
+						}
+					}
+				});
+
+				InputStream in = s.getInputStream();
+				int n;
+				while((n=in.read(buffer))!=-1) {
+					emulator.receive(buffer,0,n);
+				}
+			} catch (IOException e) {
+				// client went away or server closed.
+			} finally {
+				client = null;
+				emulator.stop();
+			}
+		}
+	}
+
+	/**
+	 * Stop listening and drop the client.
+	 */
+	public void close() {
+		try {
+			server.close();
+			Socket s = client;
+			if(s!=null) s.close();
+		} catch (IOException e) {}
+		emulator.stop();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = args.length>0 ? Integer.parseInt(args[0]) : 9999;
+		FirmwareEmulator emulator = new FirmwareEmulator("emulator");
+		if(args.length>1) emulator.setBaudRate(Integer.parseInt(args[1]));
+		if(args.length>2) emulator.setTimeScale(Double.parseDouble(args[2]));
+		EmulatorServer s = new EmulatorServer(emulator,port);
+		System.out.println("Emulator listening on localhost:"+s.getPort());
+		s.thread.join();
+	}
+}
@@ -0,0 +1,108 @@
+package com.marginallyclever.communications.emulator;
+
+import java.util.HashMap;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayer;
+import com.marginallyclever.communications.TransportLayerPanel;
+import com.marginallyclever.communications.tcp.TCPConnection;
+
+/**
+ * Opens connections to pretend robots on this machine.  Each name gets its own {@link FirmwareEmulator} behind an
+ * {@link EmulatorServer}, and the connection is an ordinary {@link TCPConnection}, so everything above the transport
+ * runs exactly as it would with real robots on the network.
+ * Hidden from the connect dialog unless the program is started with -Dskycam.emulator=true.  Tests and benchmarks
+ * make one directly.
+ * @author Dan Royer
+ */
+public class EmulatorTransportLayer implements TransportLayer {
+	private HashMap<String,EmulatorServer> servers = new HashMap<String,EmulatorServer>();
+	private int baud = FirmwareEmulator.DEFAULT_BAUD;
+	private double timeScale = 1.0;
+
+
+	public EmulatorTransportLayer() {}
+
+	// TODO translate me?
+	@Override
+	public String getName() {
+		return "Emulator";
+	}
+
+	// pretend robots are for developers, not for people drawing.
+	@Override
+	public boolean isAvailable() {
+		return Boolean.getBoolean("skycam.emulator");
+	}
+
+	/**
+	 * @param baud for emulators started from now on, or 0 for as fast as possible.
+	 */
+	public void setBaudRate(int baud) {
+		this.baud = baud;
+	}
+
+	public int getBaudRate() {
+		return baud;
+	}
+
+	/**
+	 * @param scale for emulators started from now on.  1 is real time, 0 moves instantly.
+	 */
+	public void setTimeScale(double scale) {
+		this.timeScale = scale;
+	}
+
+	public double getTimeScale() {
+		return timeScale;
+	}
+
+	public synchronized int getServerCount() {
+		return servers.size();
+	}
+
+	/**
+	 * @return the emulator with this name, started if need be.  null on failure.
+	 */
+	public synchronized EmulatorServer getServer(String connectionName) {
+		EmulatorServer s = servers.get(connectionName);
+		if(s!=null) return s;
+		try {
+			FirmwareEmulator emulator = new FirmwareEmulator(connectionName);
+			emulator.setBaudRate(baud);
+			emulator.setTimeScale(timeScale);
+			emulator.setUID(servers.size()+1);
+			s = new EmulatorServer(emulator,0);
+			servers.put(connectionName,s);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+		return s;
+	}
+
+	/**
+	 * @return a connection to the emulator with this name.  <code>null</code> on failure.
+	 */
+	public NetworkConnection openConnection(String connectionName) {
+		EmulatorServer s = getServer(connectionName);
+		if(s==null) return null;
+
+		System.out.println("Connecting to emulator "+connectionName);
+		TCPConnection connection = new TCPConnection(this);
+		try {
+			connection.openConnection("localhost:"+s.getPort());
+			System.out.println("Connect OK");
+		} catch (Exception e) {
+			System.out.println("Connect FAILED");
+			e.printStackTrace();
+			return null;
+		}
+		return connection;
+	}
+
+	@Override
+	public TransportLayerPanel getTransportLayerPanel() {
+		return EmulatorTransportLayerPanel.create(this);
+	}
+}
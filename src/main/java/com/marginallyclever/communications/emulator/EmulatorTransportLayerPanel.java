@@ -0,0 +1,51 @@
+package com.marginallyclever.communications.emulator;
+
+import java.awt.GridLayout;
+
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayerPanel;
+
+public class EmulatorTransportLayerPanel extends TransportLayerPanel {
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 3275381043541872956L;
+	private EmulatorTransportLayer layer;
+	private JTextField nameField;
+	private JTextField baudField;
+	private JTextField timeScaleField;
+
+	static TransportLayerPanel create(EmulatorTransportLayer layer) {
+		return new EmulatorTransportLayerPanel(layer);
+	}
+
+	EmulatorTransportLayerPanel(EmulatorTransportLayer emulatorLayer) {
+		this.layer=emulatorLayer;
+
+		this.setLayout(new GridLayout(0, 1));
+		this.add(new JLabel("Name"));  // TODO translate me?
+		this.add(nameField = new JTextField());
+		this.add(new JLabel("Baud (0=unlimited)"));  // TODO translate me?
+		this.add(baudField = new JTextField());
+		this.add(new JLabel("Time scale (1=real time, 0=instant)"));  // TODO translate me?
+		this.add(timeScaleField = new JTextField());
+
+		// each robot needs its own emulator.  suggest a new one.
+		nameField.setText("emulator"+(layer.getServerCount()+1));
+		baudField.setText(Integer.toString(layer.getBaudRate()));
+		timeScaleField.setText(Double.toString(layer.getTimeScale()));
+	}
+
+	public NetworkConnection openConnection() {
+		try {
+			layer.setBaudRate(Integer.parseInt(baudField.getText().trim()));
+			layer.setTimeScale(Double.parseDouble(timeScaleField.getText().trim()));
+		} catch(NumberFormatException e) {
+			System.out.println("Bad emulator settings, using "+layer.getBaudRate()+" baud at "+layer.getTimeScale());
+		}
+		return layer.openConnection(nameField.getText().trim());
+	}
+}
@@ -0,0 +1,610 @@
+package com.marginallyclever.communications.emulator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.marginallyclever.gcode.GCodeTokenizer;
+import com.marginallyclever.kinematics.FirmwareArc;
+import com.marginallyclever.kinematics.MotionPlanner;
+import com.marginallyclever.kinematics.SkycamKinematics;
+
+/**
+ * A pretend Skycam controller that speaks the same protocol as skycamFirmware.ino, so the host can be tested and timed
+ * without robots on the bench.
+ *
+ * Like the real thing it says hello, prints the cue "\n> " after every line, and sends the cue again when it has been
+ * idle for a second.  It reads at most {@link #getReceiveBufferSize()} bytes ahead; anything sent while that buffer is
+ * full is lost, the same as a real serial port.  While its {@link #getMaxSegments()} segment buffer is full it stops
+ * reading, the same as motor_line().  Lines with N and * are checked the same way as processCommand().
+ *
+ * Bytes are written to it with {@link #receive(byte[], int, int)} and it answers through an {@link Output}.  Both
+ * directions are paced to the baud rate.  Motion takes as long as the steps would take at the feed rate, times
+ * {@link #getTimeScale()}.
+ * @author Dan Royer
+ */
+public class FirmwareEmulator implements Runnable {
+	/**
+	 * Where the emulator's replies go.
+	 */
+	public interface Output {
+		public void write(byte [] data,int offset,int length);
+	}
+
+	// from configure.h
+	public static final int DEFAULT_BAUD = 57600;
+	public static final int MAX_BUF = 64;
+	public static final int MAX_SEGMENTS = 32;
+	// size of the receive buffer in the Arduino serial library.
+	public static final int DEFAULT_RECEIVE_BUFFER = 64;
+	private static final long TIMEOUT_OK_MS = 1000;
+	private static final String HELLO = "HELLO WORLD! I AM SKYCAM #";
+
+	private String name;
+	private int baud = DEFAULT_BAUD;
+	private int receiveBufferSize = DEFAULT_RECEIVE_BUFFER;
+	private int maxBuf = MAX_BUF;
+	private int maxSegments = MAX_SEGMENTS;
+	private double timeScale = 1.0;
+	private double corruptionRate = 0;
+	private long uid = 0;
+	private Random random = new Random();
+
+	private Output output;
+	private volatile boolean running=false;
+	private Thread parserThread, motionThread;
+
+	// bytes received and not yet read, like the Arduino serial buffer.
+	private final byte [] rx = new byte[4096];
+	private int rxHead=0, rxCount=0;
+	// next time the wire is free in each direction.
+	private long rxFree=0, txFree=0;
+
+	// one line being read, like serialBuffer
+	private byte [] serialBuffer = new byte[MAX_BUF+1];
+	private int sofar=0;
+	private long lastCommandTime;
+	private GCodeTokenizer tokenizer = new GCodeTokenizer();
+	private StringBuilder reply = new StringBuilder();
+
+	// motion state, only touched on the parser thread
+	private SkycamKinematics kinematics = new SkycamKinematics();
+	private double posx, posy, posz;
+	private double feedRate = MotionPlanner.DEFAULT_FEEDRATE;
+	private double acceleration = MotionPlanner.DEFAULT_ACCELERATION;
+	private boolean absoluteMode=true;
+	private long [] position = new long[SkycamKinematics.NUM_MOTORS];
+	private long [] target = new long[SkycamKinematics.NUM_MOTORS];
+	private long lineNumber=0;
+	private int tool=0;
+
+	// segments waiting to move, as how long each will take in ns
+	private final long [] segments = new long[256];
+	private int segmentHead=0, segmentCount=0;
+
+	// counters
+	private volatile long linesProcessed, bytesDropped, lineErrors, segmentsDone;
+
+
+	public FirmwareEmulator(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param baud bits per second on the wire, or 0 for as fast as possible.  Ten bits per byte, like 8N1.
+	 */
+	public void setBaudRate(int baud) {
+		this.baud = baud;
+	}
+
+	public int getBaudRate() {
+		return baud;
+	}
+
+	/**
+	 * @param size how many bytes can arrive before the emulator reads them.
+	 */
+	public void setReceiveBufferSize(int size) {
+		receiveBufferSize = Math.max(1,Math.min(rx.length,size));
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * @param size the longest line, like MAX_BUF.  Longer lines are cut short.
+	 */
+	public void setMaxBuffer(int size) {
+		maxBuf = size;
+		serialBuffer = new byte[size+1];
+	}
+
+	public int getMaxBuffer() {
+		return maxBuf;
+	}
+
+	/**
+	 * @param count how many segments can wait to move, like MAX_SEGMENTS
+	 */
+	public void setMaxSegments(int count) {
+		maxSegments = Math.max(1,Math.min(segments.length,count));
+	}
+
+	public int getMaxSegments() {
+		return maxSegments;
+	}
+
+	/**
+	 * @param scale 1 for moves to take as long as they would on a robot, 0 for no time at all.
+	 */
+	public void setTimeScale(double scale) {
+		timeScale = scale;
+	}
+
+	public double getTimeScale() {
+		return timeScale;
+	}
+
+	/**
+	 * @param rate chance that a line is garbled on the way in, 0 to 1.  Shows up as BADCHECKSUM if the host numbers
+	 * its lines.
+	 */
+	public void setCorruptionRate(double rate) {
+		corruptionRate = rate;
+	}
+
+	public void setUID(long uid) {
+		this.uid = uid;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Power on.
+	 * @param output where replies go
+	 */
+	public synchronized void start(Output output) {
+		if(running) return;
+		// the last power cycle has to be over first.
+		join(parserThread);
+		join(motionThread);
+		this.output = output;
+		running = true;
+		synchronized(rx) {
+			rxHead=rxCount=0;
+		}
+		synchronized(segments) {
+			segmentHead=segmentCount=0;
+		}
+		rxFree=txFree=System.nanoTime();
+
+		motionThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runMotion();
+			}
+		},name+" motion");
+		motionThread.setDaemon(true);
+		motionThread.start();
+
+		parserThread = new Thread(this,name+" parser");
+		parserThread.setDaemon(true);
+		parserThread.start();
+	}
+
+	/**
+	 * Power off.
+	 */
+	public synchronized void stop() {
+		running=false;
+		output=null;
+		if(parserThread!=null) parserThread.interrupt();
+		if(motionThread!=null) motionThread.interrupt();
+	}
+
+	private void join(Thread t) {
+		if(t==null) return;
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Bytes arrive from the host.  Takes as long as the bytes take on the wire.  Bytes that arrive while the receive
+	 * buffer is full are lost.
+	 */
+	public void receive(byte [] data,int offset,int length) {
+		// about a millisecond of bytes at a time, so the parser can read while the rest is still on the wire.
+		int step = (baud<=0) ? length : Math.max(1,baud/10000);
+		for(int i=0;i<length;i+=step) {
+			int n = Math.min(step,length-i);
+			rxFree = pace(rxFree,n);
+			synchronized(rx) {
+				for(int j=0;j<n;++j) {
+					if(rxCount>=receiveBufferSize) {
+						bytesDropped++;
+						continue;
+					}
+					rx[(rxHead+rxCount)%rx.length] = data[offset+i+j];
+					rxCount++;
+				}
+				rx.notifyAll();
+			}
+		}
+	}
+
+	// wait until the wire could have carried length more bytes.
+	private long pace(long free,int length) {
+		if(baud<=0) return free;
+		long now = System.nanoTime();
+		if(free<now) free=now;
+		free += length*10L*1000000000L/baud;
+		long wait = free-now;
+		// sleeping is coarse.  let small debts add up.
+		if(wait>TimeUnit.MILLISECONDS.toNanos(1)) LockSupport.parkNanos(wait);
+		return free;
+	}
+
+	private void print(CharSequence text) {
+		byte [] data = text.toString().getBytes(StandardCharsets.US_ASCII);
+		txFree = pace(txFree,data.length);
+		Output o = output;
+		if(o!=null) o.write(data,0,data.length);
+	}
+
+	// the firmware's loop()
+	@Override
+	public void run() {
+		help();
+		parserReady();
+		try {
+			while(running) {
+				int c = read();
+				if(c==-1) {
+					// nothing to read.  still here?
+					if(!segmentBufferFull() && System.currentTimeMillis()-lastCommandTime > TIMEOUT_OK_MS) {
+						parserReady();
+					}
+					continue;
+				}
+				if(c=='\r') continue;
+				if(sofar<maxBuf) serialBuffer[sofar++]=(byte)c;
+				if(c=='\n') {
+					processCommand();
+					parserReady();
+				}
+			}
+		}
+		catch(InterruptedException e) {}
+	}
+
+	// one byte from the receive buffer, or -1 after waiting a while with nothing.
+	private int read() throws InterruptedException {
+		synchronized(rx) {
+			if(rxCount==0) rx.wait(TIMEOUT_OK_MS/4);
+			if(rxCount==0) return -1;
+			int c = rx[rxHead] & 0xFF;
+			rxHead = (rxHead+1)%rx.length;
+			rxCount--;
+			return c;
+		}
+	}
+
+	private void parserReady() {
+		sofar=0;
+		print("\n> ");
+		lastCommandTime = System.currentTimeMillis();
+	}
+
+	private void help() {
+		print("\n\n"+HELLO+uid+"\nFirmware v1 (emulator "+name+")\n");
+	}
+
+	private void processCommand() throws InterruptedException {
+		if(sofar==0 || serialBuffer[0]==';') return;
+		if(corruptionRate>0 && random.nextDouble()<corruptionRate) {
+			serialBuffer[random.nextInt(sofar)] ^= 0x20;
+		}
+		String line = new String(serialBuffer,0,sofar,StandardCharsets.US_ASCII).trim();
+		linesProcessed++;
+
+		// is there a line number?
+		if(serialBuffer[0]=='N') {
+			tokenizer.reset(line);
+			tokenizer.next();
+			if((long)tokenizer.number()!=lineNumber) {
+				lineError("BADLINENUM ");
+				return;
+			}
+			int star = line.indexOf('*');
+			if(star==-1) {
+				lineError("NOCHECKSUM ");
+				return;
+			}
+			int checksum=0;
+			for(int i=0;i<star;++i) checksum ^= line.charAt(i);
+			int against=-1;
+			try {
+				against = Integer.parseInt(line.substring(star+1).trim());
+			} catch(NumberFormatException e) {}
+			if(checksum!=against) {
+				lineError("BADCHECKSUM ");
+				return;
+			}
+			lineNumber++;
+			// drop the number and checksum
+			line = line.substring(line.indexOf(' ')+1,star);
+		}
+
+		if(line.startsWith("CONFIG")) {
+			config(line);
+			return;
+		}
+		if(line.startsWith("TELEPORT")) {
+			teleport(param(line,'X',posx),param(line,'Y',posy),param(line,'Z',posz));
+			return;
+		}
+
+		switch((int)param(line,'M',-1)) {
+		case 6:  tool=(int)param(line,'T',tool);  break;
+		case 100:  help();  break;
+		case 101: {
+				int q=(int)param(line,'Q',-1);
+				if(q<0 || q>=SkycamKinematics.NUM_MOTORS) {
+					print("Invalid motor number. 1=a,2=b,3=c,4=d\n");
+					return;
+				}
+				kinematics.setAnchor(q,param(line,'X',kinematics.getAnchor(q,0)),
+				                       param(line,'Y',kinematics.getAnchor(q,1)),
+				                       param(line,'Z',kinematics.getAnchor(q,2)));
+				teleport(posx,posy,posz);
+				whereMotors();
+				break;
+			}
+		case 102:  whereMotors();  break;
+		case 110:  lineNumber=(long)param(line,'N',lineNumber);  break;
+		case 114:  waitForEmptySegmentBuffer();  where();  break;
+		default:  break;
+		}
+
+		switch((int)param(line,'G',-1)) {
+		case 0:
+		case 1: {
+				acceleration = Math.min(Math.max(param(line,'A',acceleration),1),2000);
+				feedRate = param(line,'F',feedRate);
+				// X and Y arrive in mm, Z in cm, as in the firmware.
+				double x = param(line,'X',(absoluteMode?posx:0)*10)*0.1 + (absoluteMode?0:posx);
+				double y = param(line,'Y',(absoluteMode?posy:0)*10)*0.1 + (absoluteMode?0:posy);
+				double z = param(line,'Z',absoluteMode?posz:0) + (absoluteMode?0:posz);
+				lineSafe(x,y,z);
+				break;
+			}
+		case 2:
+		case 3: {
+				acceleration = Math.min(Math.max(param(line,'A',acceleration),1),2000);
+				feedRate = param(line,'F',feedRate);
+				double cx = param(line,'I',(absoluteMode?posx:0)*10)*0.1 + (absoluteMode?0:posx);
+				double cy = param(line,'J',(absoluteMode?posy:0)*10)*0.1 + (absoluteMode?0:posy);
+				double x = param(line,'X',(absoluteMode?posx:0)*10)*0.1 + (absoluteMode?0:posx);
+				double y = param(line,'Y',(absoluteMode?posy:0)*10)*0.1 + (absoluteMode?0:posy);
+				double z = param(line,'Z',absoluteMode?posz:0) + (absoluteMode?0:posz);
+				FirmwareArc arc = new FirmwareArc(posx,posy,posz,cx,cy,x,y,z,param(line,'G',-1)==2);
+				for(int i=1;i<=arc.getSegments();++i) {
+					lineSafe(arc.getX(i),arc.getY(i),arc.getZ(i));
+				}
+				break;
+			}
+		case 4: {
+				waitForEmptySegmentBuffer();
+				double ms = param(line,'S',0) + param(line,'P',0)*1000.0;
+				sleepScaled((long)(ms*1000000));
+				break;
+			}
+		case 90:  absoluteMode=true;  break;
+		case 91:  absoluteMode=false;  break;
+		case 92: {
+				// unlike G00-G03, Z is in mm here too.
+				double x = param(line,'X',(absoluteMode?posx:0)*10)*0.1 + (absoluteMode?0:posx);
+				double y = param(line,'Y',(absoluteMode?posy:0)*10)*0.1 + (absoluteMode?0:posy);
+				double z = param(line,'Z',(absoluteMode?posz:0)*10)*0.1 + (absoluteMode?0:posz);
+				teleport(x,y,z);
+				break;
+			}
+		default:  break;
+		}
+
+		switch((int)param(line,'D',-1)) {
+		case 0: {
+				// jog.  Skycam sends D00 A100 to mean motor A, 100 steps.  the first token is D00 itself.
+				long steps=0;
+				tokenizer.reset(line);
+				tokenizer.next();
+				while(tokenizer.next()) {
+					int m = tokenizer.letter()-'A';
+					if(tokenizer.isWord() && m>=0 && m<SkycamKinematics.NUM_MOTORS) {
+						steps = Math.max(steps,(long)Math.abs(tokenizer.number()));
+					}
+				}
+				if(steps>0) addSegment((long)(steps/MotionPlanner.MIN_FEEDRATE*1e9));
+				break;
+			}
+		case 5:  print("Firmware v1\n");  break;
+		case 10:  print("D10 V1\n");  break;
+		default:  break;
+		}
+	}
+
+	private void lineError(String error) {
+		lineErrors++;
+		print(error+lineNumber+"\n");
+	}
+
+	// the number after a letter in the line, or otherwise if there isn't one.  like parseNumber().
+	private double param(String line,char letter,double otherwise) {
+		tokenizer.reset(line);
+		while(tokenizer.next()) {
+			if(tokenizer.isWord() && tokenizer.letter()==letter) return tokenizer.number();
+		}
+		return otherwise;
+	}
+
+	/**
+	 * CONFIG A B C (first motor) D E F (second motor) G H (their names) I J (inversion), as sent by Skycam.
+	 */
+	private void config(String line) throws InterruptedException {
+		String [] tokens = line.split("\\s+");
+		String first=null, second=null;
+		for(String t : tokens) {
+			if(t.length()<2) continue;
+			if(t.charAt(0)=='G') first=t.substring(1);
+			if(t.charAt(0)=='H') second=t.substring(1);
+		}
+		int a = motorIndex(first,0);
+		int b = motorIndex(second,1);
+		kinematics.setAnchor(a,param(line,'A',0),param(line,'B',0),param(line,'C',0));
+		kinematics.setAnchor(b,param(line,'D',0),param(line,'E',0),param(line,'F',0));
+		teleport(posx,posy,posz);
+	}
+
+	private int motorIndex(String name,int otherwise) {
+		if(name==null || name.length()!=1) return otherwise;
+		int i = name.charAt(0)-'A';
+		return (i<0 || i>=SkycamKinematics.NUM_MOTORS) ? otherwise : i;
+	}
+
+	private void teleport(double x,double y,double z) throws InterruptedException {
+		waitForEmptySegmentBuffer();
+		posx=x;  posy=y;  posz=z;
+		kinematics.inverse(x,y,z,position);
+	}
+
+	private void where() {
+		reply.setLength(0);
+		reply.append('X').append((float)posx).append(" Y").append((float)posy).append(" Z").append((float)posz)
+		     .append(" F").append((float)feedRate).append(" A").append((float)acceleration).append('\n');
+		print(reply);
+	}
+
+	private void whereMotors() {
+		reply.setLength(0);
+		for(int m=0;m<SkycamKinematics.NUM_MOTORS;++m) {
+			reply.append("M101 Q").append(m)
+			     .append(" X").append((float)kinematics.getAnchor(m,0))
+			     .append(" Y").append((float)kinematics.getAnchor(m,1))
+			     .append(" Z").append((float)kinematics.getAnchor(m,2));
+		}
+		print(reply);
+	}
+
+	// cut a line into pieces and queue them, like line_safe().
+	private void lineSafe(double x,double y,double z) throws InterruptedException {
+		double dx=x-posx, dy=y-posy, dz=z-posz;
+		int pieces = (int)Math.ceil(Math.sqrt(dx*dx+dy*dy+dz*dz)*MotionPlanner.SEGMENT_PER_CM_LINE);
+		double sx=posx, sy=posy, sz=posz;
+		for(int j=1;j<pieces;++j) {
+			double a = (double)j/(double)pieces;
+			polargraphLine(sx+dx*a,sy+dy*a,sz+dz*a);
+		}
+		polargraphLine(x,y,z);
+	}
+
+	private void polargraphLine(double x,double y,double z) throws InterruptedException {
+		kinematics.inverse(x,y,z,target);
+		posx=x;  posy=y;  posz=z;
+		long steps=0;
+		for(int m=0;m<SkycamKinematics.NUM_MOTORS;++m) {
+			steps = Math.max(steps,Math.abs(target[m]-position[m]));
+			position[m]=target[m];
+		}
+		if(steps==0) return;
+		double rate = Math.max(MotionPlanner.MIN_FEEDRATE,Math.min(MotionPlanner.MAX_FEEDRATE,feedRate));
+		addSegment((long)(steps/rate*1e9));
+	}
+
+	// wait for room in the segment buffer, like motor_line().  Nothing is read from the host meanwhile.
+	private void addSegment(long nanos) throws InterruptedException {
+		synchronized(segments) {
+			while(running && segmentCount>=maxSegments) segments.wait();
+			segments[(segmentHead+segmentCount)%segments.length] = nanos;
+			segmentCount++;
+			segments.notifyAll();
+		}
+	}
+
+	private boolean segmentBufferFull() {
+		synchronized(segments) {
+			return segmentCount>=maxSegments;
+		}
+	}
+
+	private void waitForEmptySegmentBuffer() throws InterruptedException {
+		synchronized(segments) {
+			while(running && segmentCount>0) segments.wait();
+		}
+	}
+
+	// the timer interrupt: move one segment at a time.
+	private void runMotion() {
+		try {
+			while(running) {
+				long nanos;
+				synchronized(segments) {
+					while(running && segmentCount==0) segments.wait();
+					if(!running) return;
+					nanos = segments[segmentHead];
+				}
+				sleepScaled(nanos);
+				synchronized(segments) {
+					segmentHead = (segmentHead+1)%segments.length;
+					segmentCount--;
+					segmentsDone++;
+					segments.notifyAll();
+				}
+			}
+		}
+		catch(InterruptedException e) {}
+	}
+
+	private void sleepScaled(long nanos) throws InterruptedException {
+		long n = (long)(nanos*timeScale);
+		if(n>0) Thread.sleep(n/1000000,(int)(n%1000000));
+	}
+
+	/**
+	 * @return how many lines have been read, good or bad.
+	 */
+	public long getLinesProcessed() {
+		return linesProcessed;
+	}
+
+	/**
+	 * @return how many bytes were lost because the receive buffer was full.
+	 */
+	public long getBytesDropped() {
+		return bytesDropped;
+	}
+
+	/**
+	 * @return how many BADLINENUM, BADCHECKSUM and NOCHECKSUM errors were sent.
+	 */
+	public long getLineErrors() {
+		return lineErrors;
+	}
+
+	/**
+	 * @return how many segments have finished moving.
+	 */
+	public long getSegmentsDone() {
+		return segmentsDone;
+	}
+}
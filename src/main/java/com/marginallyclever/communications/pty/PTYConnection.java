@@ -0,0 +1,147 @@
+package com.marginallyclever.communications.pty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.marginallyclever.communications.StreamConnection;
+
+
+/**
+ * Talks to a robot or bridge through a pseudo-terminal, such as one made by
+ * <code>socat pty,raw,echo=0,link=/tmp/ttyV0 ...</code>.  The terminal is opened as a plain {@link FileChannel}, so there
+ * is no serial driver and no baud rate.
+ *
+ * A terminal can't be put in a selector, so each connection has a thread that waits to read.  Writes are made by
+ * whoever sends, like {@link com.marginallyclever.communications.serial.SerialConnection}.
+ * @author Dan Royer
+ */
+public final class PTYConnection extends StreamConnection {
+	private static final int READ_BUFFER_SIZE = 4096;
+	private static final int SEND_BUFFER_SIZE = 4096;
+
+	// one channel each way.  A FileChannel reads or writes, never both at once.
+	private FileChannel in, out;
+	private Thread reader;
+	// lines collected to be written together.
+	private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(SEND_BUFFER_SIZE);
+
+
+	public PTYConnection(PTYTransportLayer layer) {
+		super(layer);
+	}
+
+
+	@Override
+	public void closeConnection() {
+		if (!isOpen()) return;
+		closed();
+		try {
+			// wakes the reader, which then stops.
+			if (in != null) in.close();
+			if (out != null) out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Open the terminal and start reading from it.
+	 * @param path the terminal, such as /dev/pts/3
+	 */
+	@Override
+	public void openConnection(String path) throws Exception {
+		if (isOpen()) return;
+
+		closeConnection();
+
+		rawMode(path);
+		in = FileChannel.open(Paths.get(path),StandardOpenOption.READ);
+		try {
+			out = FileChannel.open(Paths.get(path),StandardOpenOption.WRITE);
+		} catch(IOException e) {
+			in.close();
+			throw e;
+		}
+
+		synchronized(this) {
+			sendBuffer.clear();
+		}
+		opened(path);
+
+		final FileChannel from = in;
+		reader = new Thread(new Runnable() {
+			public void run() {
+				read(from);
+			}
+		},"PTY "+path);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * A terminal starts out cooking lines: echoing them, waiting for the end of each and changing line endings.  The
+	 * cue has no line ending, so it would never arrive.  Ask stty to turn all of that off.  Not fatal if it can't.
+	 */
+	private void rawMode(String path) {
+		try {
+			Process p = new ProcessBuilder("stty","raw","-echo")
+					.redirectInput(new File(path))
+					.redirectErrorStream(true)
+					.start();
+			p.getInputStream().close();
+			if(p.waitFor()!=0) System.out.println("stty could not set raw mode on "+path);
+		} catch(IOException e) {
+			System.out.println("stty not found.  "+path+" must already be in raw mode.");
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// the reader thread.  Runs until the channel closes.
+	private void read(FileChannel from) {
+		ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		try {
+			while(true) {
+				buf.clear();
+				if(from.read(buf)<0) break;
+				buf.flip();
+				if(buf.hasRemaining()) received(buf);
+			}
+		}
+		catch(ClosedChannelException e) {
+			// closed by closeConnection().
+		}
+		catch(IOException e) {
+			// the other end of the terminal went away.
+			if(isOpen()) e.printStackTrace();
+		}
+		if(in==from) closeConnection();
+	}
+
+	// collect the line in sendBuffer.  everything collected goes in one write.
+	@Override
+	protected boolean write(CharSequence line,int length) throws IOException {
+		if(sendBuffer.remaining()<length+1) {
+			flush();
+			if(sendBuffer.capacity()<length+1) sendBuffer = ByteBuffer.allocateDirect(length+1);
+		}
+		for(int i=0;i<length;++i) {
+			sendBuffer.put((byte)line.charAt(i));
+		}
+		sendBuffer.put((byte)'\n');
+		return true;
+	}
+
+	// write all of sendBuffer.  A terminal only blocks while its other end is not reading.
+	@Override
+	protected void flush() throws IOException {
+		sendBuffer.flip();
+		while(sendBuffer.hasRemaining()) out.write(sendBuffer);
+		sendBuffer.clear();
+	}
+}
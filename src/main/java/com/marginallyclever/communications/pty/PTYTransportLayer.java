@@ -0,0 +1,68 @@
+package com.marginallyclever.communications.pty;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayer;
+import com.marginallyclever.communications.TransportLayerPanel;
+
+/**
+ * Lists pseudo-terminals and opens a connection to a robot or bridge through one.  Not on Windows, which has none.
+ * @author Dan Royer
+ */
+public class PTYTransportLayer implements TransportLayer {
+	public PTYTransportLayer() {}
+
+	// TODO translate me?
+	@Override
+	public String getName() {
+		return "Pseudo-terminal";
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return !System.getProperty("os.name").toLowerCase().startsWith("win");
+	}
+
+	/**
+	 * @return the pseudo-terminals open on this machine right now.  Links made by socat are not found.
+	 */
+	public String[] listConnections() {
+		List<String> found = new ArrayList<String>();
+		String [] names = new File("/dev/pts").list();
+		if(names!=null) {
+			Arrays.sort(names);
+			for(String name : names) {
+				// ptmx is where new ones come from, not one itself.
+				if(!name.equals("ptmx")) found.add("/dev/pts/"+name);
+			}
+		}
+		return found.toArray(new String[found.size()]);
+	}
+
+	/**
+	 * @return a connection to the terminal <code>connectionName</code>.  <code>null</code> on failure.
+	 */
+	@Override
+	public NetworkConnection openConnection(String connectionName) {
+		System.out.println("Connecting to "+connectionName);
+		PTYConnection connection = new PTYConnection(this);
+		try {
+			connection.openConnection(connectionName);
+			System.out.println("Connect OK");
+		} catch (Exception e) {
+			System.out.println("Connect FAILED");
+			e.printStackTrace();
+			return null;
+		}
+		return connection;
+	}
+
+	@Override
+	public TransportLayerPanel getTransportLayerPanel() {
+		return PTYTransportLayerPanel.create(this);
+	}
+}
@@ -0,0 +1,43 @@
+package com.marginallyclever.communications.pty;
+
+import java.awt.GridLayout;
+
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayerPanel;
+
+public class PTYTransportLayerPanel extends TransportLayerPanel {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2693488917504360152L;
+	private PTYTransportLayer layer;
+	private JComboBox<String> connectionComboBox;
+	private static String path = "/tmp/ttyV0";
+
+	static TransportLayerPanel create(PTYTransportLayer layer) {
+		return new PTYTransportLayerPanel(layer);
+	}
+
+	PTYTransportLayerPanel(PTYTransportLayer ptyLayer) {
+		this.layer = ptyLayer;
+
+		this.setLayout(new GridLayout(0, 1));
+		this.add(new JLabel("Terminal"));  // TODO translate me?
+		// socat links are not listed, so any path can be typed in.
+		add(connectionComboBox = new JComboBox<String>());
+		connectionComboBox.setEditable(true);
+		connectionComboBox.addItem(path);
+		for(String name : layer.listConnections()) {
+			if(!name.equals(path)) connectionComboBox.addItem(name);
+		}
+	}
+
+	@Override
+	public NetworkConnection openConnection() {
+		path = ((String)connectionComboBox.getSelectedItem()).trim();
+		return layer.openConnection(path);
+	}
+}
@@ -17,6 +17,17 @@ public class SerialTransportLayer implements TransportLayer {
 
 	public SerialTransportLayer() {}
 
+	// TODO translate me?
+	@Override
+	public String getName() {
+		return "USB";
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return true;
+	}
+
 	/**
 	 * find all available serial ports
 	 *
@@ -63,6 +74,6 @@ public class SerialTransportLayer implements TransportLayer {
 	 * @return a panel with the gui options for this transport layer
 	 */
 	public TransportLayerPanel getTransportLayerPanel() {
-		return new SerialTransportLayerPanel(this);
+		return SerialTransportLayerPanel.create(this);
 	}
 }
@@ -15,6 +15,10 @@ public class SerialTransportLayerPanel extends TransportLayerPanel {
 	private SerialTransportLayer layer;
 	private JComboBox<String> connectionComboBox;
 	
+	static TransportLayerPanel create(SerialTransportLayer layer) {
+		return new SerialTransportLayerPanel(layer);
+	}
+
 	public SerialTransportLayerPanel(SerialTransportLayer serialTransportLayer) {
 		this.layer = serialTransportLayer;
 		
@@ -0,0 +1,148 @@
+package com.marginallyclever.communications.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One thread that reads and writes every open {@link TCPConnection}, whatever kind of socket it uses.  Adding robots
+ * does not add threads.
+ *
+ * Channels are only registered and changed on the loop thread.  Other threads hand the loop a task and wake it up.
+ * @author Dan Royer
+ */
+final class TCPEventLoop implements Runnable {
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	private static TCPEventLoop instance;
+
+	private Selector selector;
+	private Thread thread;
+	private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	// shared by every connection.  only touched on the loop thread.
+	private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+
+	private TCPEventLoop() throws IOException {
+		selector = Selector.open();
+		thread = new Thread(this,"TCP I/O");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return the loop, started the first time it is needed.
+	 * @throws IOException if the selector can't be opened
+	 */
+	static synchronized TCPEventLoop get() throws IOException {
+		if(instance==null) instance = new TCPEventLoop();
+		return instance;
+	}
+
+	/**
+	 * Start reading from a connected channel.
+	 * @param channel a connected channel.  It will be made non-blocking.
+	 * @param connection told when the channel can be read or written
+	 * @throws IOException if the channel can't be made non-blocking
+	 */
+	void register(final SocketChannel channel,final TCPConnection connection) throws IOException {
+		channel.configureBlocking(false);
+		execute(new Runnable() {
+			public void run() {
+				try {
+					channel.register(selector,SelectionKey.OP_READ,connection);
+				} catch(IOException e) {
+					e.printStackTrace();
+					connection.closeConnection();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Turn write events on or off for a channel.  Only needed while a write could not finish at once.
+	 * @param channel the channel
+	 * @param on true to be told when the channel can be written
+	 */
+	void setWriteInterest(final SocketChannel channel,final boolean on) {
+		execute(new Runnable() {
+			public void run() {
+				SelectionKey key = channel.keyFor(selector);
+				if(key==null || !key.isValid()) return;
+				int ops = SelectionKey.OP_READ | (on ? SelectionKey.OP_WRITE : 0);
+				if(key.interestOps()!=ops) key.interestOps(ops);
+			}
+		});
+	}
+
+	private void execute(Runnable task) {
+		tasks.add(task);
+		if(Thread.currentThread()!=thread) selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				Runnable task;
+				while((task=tasks.poll())!=null) {
+					task.run();
+				}
+
+				selector.select();
+
+				Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+				while(i.hasNext()) {
+					SelectionKey key = i.next();
+					i.remove();
+					handle(key);
+				}
+			}
+			catch(Exception e) {
+				// one bad connection must not stop the others.
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void handle(SelectionKey key) {
+		TCPConnection connection = (TCPConnection)key.attachment();
+		try {
+			if(key.isReadable()) {
+				readBuffer.clear();
+				int bytesRead = ((SocketChannel)key.channel()).read(readBuffer);
+				if(bytesRead<0) {
+					// the robot hung up.
+					key.cancel();
+					connection.closeConnection();
+					return;
+				}
+				if(bytesRead>0) {
+					readBuffer.flip();
+					connection.readReady(readBuffer);
+				}
+			}
+			if(key.isValid() && key.isWritable()) {
+				connection.writeReady();
+			}
+		}
+		catch(CancelledKeyException e) {
+			// closed from another thread.
+		}
+		catch(ClosedChannelException e) {
+			// closed from another thread while the key was selected.
+			key.cancel();
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			key.cancel();
+			connection.closeConnection();
+		}
+	}
+}
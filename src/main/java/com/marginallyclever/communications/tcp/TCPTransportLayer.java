@@ -13,6 +13,17 @@ import com.marginallyclever.communications.TransportLayerPanel;
 public class TCPTransportLayer implements TransportLayer {
 	public TCPTransportLayer() {}
 
+	// TODO translate me?
+	@Override
+	public String getName() {
+		return "TCP/IP";
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return true;
+	}
+
 	/**
 	 * @return <code>serialConnection</code> if connection successful.  <code>null</code> on failure.
 	 */
@@ -44,6 +55,6 @@ public class TCPTransportLayer implements TransportLayer {
 
 	@Override
 	public TransportLayerPanel getTransportLayerPanel() {
-		return new TCPTransportLayerPanel(this);
+		return TCPTransportLayerPanel.create(this);
 	}
 }
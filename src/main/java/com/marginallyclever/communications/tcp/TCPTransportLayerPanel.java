@@ -19,6 +19,10 @@ public class TCPTransportLayerPanel extends TransportLayerPanel {
 	private static String portNumber = "9999";
 	private static String connectionName = "192.168.1.183";
 	
+	static TransportLayerPanel create(TCPTransportLayer layer) {
+		return new TCPTransportLayerPanel(layer);
+	}
+
 	TCPTransportLayerPanel(TCPTransportLayer tcpLayer) {
 		this.layer=tcpLayer;
 		
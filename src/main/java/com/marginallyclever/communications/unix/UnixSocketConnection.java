@@ -0,0 +1,25 @@
+package com.marginallyclever.communications.unix;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+import com.marginallyclever.communications.tcp.TCPConnection;
+
+/**
+ * A {@link TCPConnection} over a Unix domain socket.  Once it is open, it reads, writes and recovers from errors the
+ * same way, on the same event loop.
+ * @author Dan Royer
+ */
+public class UnixSocketConnection extends TCPConnection {
+	public UnixSocketConnection(UnixSocketTransportLayer layer) {
+		super(layer);
+	}
+
+	/**
+	 * @param path the socket file
+	 */
+	@Override
+	protected SocketChannel openChannel(String path) throws IOException {
+		return UnixSocketTransportLayer.connect(path);
+	}
+}
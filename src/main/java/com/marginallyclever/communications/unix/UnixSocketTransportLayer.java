@@ -0,0 +1,103 @@
+package com.marginallyclever.communications.unix;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SocketChannel;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayer;
+import com.marginallyclever.communications.TransportLayerPanel;
+
+/**
+ * Opens connections to a robot or bridge on this machine through a Unix domain socket.  There is no TCP stack and no
+ * serial driver in the way.
+ *
+ * Java 16 added Unix domain sockets to {@link SocketChannel}.  They are found by name so this still builds and runs on
+ * Java 8, where it says it is not available.
+ * @author Dan Royer
+ */
+public class UnixSocketTransportLayer implements TransportLayer {
+	private static Method open;
+	private static Method address;
+	private static ProtocolFamily unix;
+
+	static {
+		try {
+			address = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of",String.class);
+			open = SocketChannel.class.getMethod("open",ProtocolFamily.class);
+			unix = StandardProtocolFamily.valueOf("UNIX");
+		} catch(Exception e) {
+			// older java.
+			open = null;
+		}
+	}
+
+
+	public UnixSocketTransportLayer() {}
+
+	// TODO translate me?
+	@Override
+	public String getName() {
+		return "Unix socket";
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return open!=null;
+	}
+
+	/**
+	 * @param path the socket file
+	 * @return a connected channel
+	 * @throws IOException if there is nothing listening at path
+	 */
+	static SocketChannel connect(String path) throws IOException {
+		if(open==null) throw new IOException("Unix domain sockets need Java 16 or later");
+		SocketChannel channel;
+		try {
+			channel = (SocketChannel)open.invoke(null,unix);
+		} catch(InvocationTargetException e) {
+			if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		} catch(IllegalAccessException e) {
+			throw new IOException(e);
+		}
+		try {
+			channel.connect((SocketAddress)address.invoke(null,path));
+		} catch(IOException e) {
+			channel.close();
+			throw e;
+		} catch(Exception e) {
+			channel.close();
+			throw new IOException("Bad socket path "+path,e);
+		}
+		return channel;
+	}
+
+	/**
+	 * @return a connection to the socket at <code>connectionName</code>.  <code>null</code> on failure.
+	 */
+	@Override
+	public NetworkConnection openConnection(String connectionName) {
+		System.out.println("Connecting to "+connectionName);
+		UnixSocketConnection connection = new UnixSocketConnection(this);
+		try {
+			connection.openConnection(connectionName);
+			System.out.println("Connect OK");
+		} catch (Exception e) {
+			System.out.println("Connect FAILED");
+			e.printStackTrace();
+			return null;
+		}
+		return connection;
+	}
+
+	@Override
+	public TransportLayerPanel getTransportLayerPanel() {
+		return UnixSocketTransportLayerPanel.create(this);
+	}
+}
@@ -0,0 +1,38 @@
+package com.marginallyclever.communications.unix;
+
+import java.awt.GridLayout;
+
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+
+import com.marginallyclever.communications.NetworkConnection;
+import com.marginallyclever.communications.TransportLayerPanel;
+
+public class UnixSocketTransportLayerPanel extends TransportLayerPanel {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 6121934470128395720L;
+	private UnixSocketTransportLayer layer;
+	private JTextField pathField;
+	private static String path = "/tmp/skycam.sock";
+
+	static TransportLayerPanel create(UnixSocketTransportLayer layer) {
+		return new UnixSocketTransportLayerPanel(layer);
+	}
+
+	UnixSocketTransportLayerPanel(UnixSocketTransportLayer unixLayer) {
+		this.layer=unixLayer;
+
+		this.setLayout(new GridLayout(0, 1));
+		this.add(new JLabel("Socket file"));  // TODO translate me?
+		this.add(pathField = new JTextField());
+
+		pathField.setText(path);
+	}
+
+	public NetworkConnection openConnection() {
+		path = pathField.getText().trim();
+		return layer.openConnection(path);
+	}
+}
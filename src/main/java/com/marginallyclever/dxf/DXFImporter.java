@@ -0,0 +1,191 @@
+package com.marginallyclever.dxf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.marginallyclever.gcode.CompiledGCode;
+import com.marginallyclever.gcode.GCodeCompiler;
+import com.marginallyclever.gcode.Toolpath;
+import com.marginallyclever.gcode.ToolpathOrder;
+import com.marginallyclever.gcode.ToolpathWriter;
+import com.marginallyclever.kinematics.MotionPlanner;
+
+/**
+ * Turns a DXF drawing straight into a {@link CompiledGCode}, so a drawing never has to become a g-code text file
+ * first.  The file is read in one pass, then splines are cut into lines and the paths put in a short order on every
+ * core at once.  See {@link ToolpathOrder}.
+ * @author Dan Royer
+ */
+public class DXFImporter {
+	// change this when the output changes, so old cached results are not used.
+	private static final int VERSION = 2;
+	public static final double DEFAULT_TOLERANCE = 0.01;
+	// splines cut into lines together.
+	private static final int SPLINE_CHUNK = 64;
+
+	private double scale=1;
+	private double offsetX, offsetY, offsetZ;
+	private double tolerance = DEFAULT_TOLERANCE;
+	private double feedRate = MotionPlanner.DEFAULT_FEEDRATE;
+	private double travelRate = MotionPlanner.MAX_FEEDRATE;
+	private boolean orderPaths = true;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	// entities in the last file that were not drawn.
+	private int skipped;
+
+
+	/**
+	 * @return true if the file looks like a drawing this can import.
+	 */
+	public static boolean isDXF(String filename) {
+		return filename.toLowerCase(Locale.ROOT).endsWith(".dxf");
+	}
+
+	/**
+	 * @param scale how much bigger to draw than the drawing, after turning it into cm.
+	 */
+	public void setScale(double scale) {
+		if(scale<=0) throw new IllegalArgumentException("scale must be more than 0");
+		this.scale = scale;
+	}
+
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * @param x where the origin of the drawing goes, in cm.
+	 */
+	public void setOffset(double x,double y,double z) {
+		offsetX=x;
+		offsetY=y;
+		offsetZ=z;
+	}
+
+	/**
+	 * @param tolerance how far in cm the lines cut from curves may stray from them.
+	 */
+	public void setTolerance(double tolerance) {
+		if(tolerance<=0) throw new IllegalArgumentException("tolerance must be more than 0");
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param feedRate how fast to draw, in steps/s
+	 * @param travelRate how fast to move between paths, in steps/s
+	 */
+	public void setFeedRates(double feedRate,double travelRate) {
+		this.feedRate = feedRate;
+		this.travelRate = travelRate;
+	}
+
+	/**
+	 * @param orderPaths false to draw paths in the order they are in the file.
+	 */
+	public void setOrderPaths(boolean orderPaths) {
+		this.orderPaths = orderPaths;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1,threads);
+	}
+
+	/**
+	 * @return how many entities of the last file were skipped, like TEXT, INSERT and meshes.
+	 */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return a name for these settings, so each is cached apart.
+	 */
+	public String getCacheKey() {
+		return String.format(Locale.ROOT,"dxf%d-%.7f-%.4f-%.4f-%.4f-%.7f-%.1f-%.1f%s",
+				VERSION,scale,offsetX,offsetY,offsetZ,tolerance,feedRate,travelRate,orderPaths ? "-ordered" : "");
+	}
+
+	/**
+	 * Load the program for this drawing from the cache.  If it is not there, import it and save the result.
+	 * @throws IOException if the file cannot be read
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public CompiledGCode importCached(String filename) throws IOException, InterruptedException {
+		String key = GCodeCompiler.hash(filename)+"-"+getCacheKey();
+		CompiledGCode p = GCodeCompiler.readCache(key);
+		if(p!=null) return p;
+		p = importFile(filename);
+		GCodeCompiler.writeCache(key,p);
+		return p;
+	}
+
+	/**
+	 * @return the drawing as a program, starting from 0,0,0 like after SendConfig()
+	 * @throws IOException if the file cannot be read
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public CompiledGCode importFile(String filename) throws IOException, InterruptedException {
+		DXFReader reader = new DXFReader(scale,offsetX,offsetY,offsetZ,tolerance);
+		List<Toolpath> paths = reader.read(filename);
+		skipped = reader.getSkipped();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads,new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"DXF importer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			flattenSplines(pool,reader.getSplines());
+			paths = removeEmpty(paths);
+			if(orderPaths) paths = ToolpathOrder.order(pool,paths);
+		} catch(ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		ToolpathWriter writer = new ToolpathWriter(feedRate,travelRate);
+		for(Toolpath path : paths) {
+			path.write(writer);
+		}
+		return writer.getProgram();
+	}
+
+	private void flattenSplines(ExecutorService pool,final List<DXFSpline> splines)
+			throws InterruptedException, ExecutionException {
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for(int i=0;i<splines.size();i+=SPLINE_CHUNK) {
+			final int from = i;
+			final int to = Math.min(splines.size(),i+SPLINE_CHUNK);
+			results.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for(int j=from;j<to;++j) {
+						splines.get(j).flatten(tolerance);
+					}
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> f : results) f.get();
+	}
+
+	private static List<Toolpath> removeEmpty(List<Toolpath> paths) {
+		List<Toolpath> list = new ArrayList<Toolpath>(paths.size());
+		for(Toolpath path : paths) {
+			if(!path.isEmpty()) list.add(path);
+		}
+		return list;
+	}
+}
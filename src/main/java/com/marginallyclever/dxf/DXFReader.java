@@ -0,0 +1,465 @@
+package com.marginallyclever.dxf;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.marginallyclever.gcode.Toolpath;
+
+/**
+ * Reads the ENTITIES of an ASCII DXF file one group at a time, without building the whole drawing in memory first.
+ * LINE, ARC, CIRCLE, LWPOLYLINE, POLYLINE and SPLINE become {@link Toolpath}s.  Everything else, like TEXT and
+ * INSERT, is counted and skipped.
+ *
+ * Points are turned into cm with $INSUNITS, millimeters if the file doesn't say, then scaled and moved to where the
+ * robot should draw them.  Arcs flat on the XY plane stay arcs.  Arcs tipped out of it, and splines, are cut into
+ * lines within the tolerance, splines later by {@link DXFImporter}.
+ * @author Dan Royer
+ */
+class DXFReader {
+	private final double scale;
+	private final double offsetX, offsetY, offsetZ;
+	private final double tolerance;
+	// DXF units to cm.
+	private double unitScale = 0.1;
+
+	private BufferedReader in;
+	private int lineNumber;
+	// the group just read, and the line it started on.
+	private int code;
+	private String value;
+	private int groupLine;
+	// true if the group has been read but not used yet.
+	private boolean pending;
+
+	// the numbers of the entity being read, in file order.
+	private int groupCount;
+	private int [] codes = new int[64];
+	private double [] numbers = new double[64];
+
+	// the arbitrary axes of the entity being read, see the DXF reference.
+	private double [] axisX = new double[3];
+	private double [] axisY = new double[3];
+	private double [] normal = new double[3];
+	// a point after toRobot().
+	private double rx, ry, rz;
+
+	// the POLYLINE being filled by VERTEX entities.
+	private boolean polylineOpen;
+	private boolean polylineClosed, polyline3D;
+	private int polylineLine;
+	private double [] polylineNormal = new double[3];
+	private double polylineElevation;
+	private int vertexCount;
+	private double [] vx = new double[16];
+	private double [] vy = new double[16];
+	private double [] vz = new double[16];
+	private double [] bulge = new double[16];
+
+	private List<Toolpath> paths;
+	private List<DXFSpline> splines;
+	private int skipped;
+
+
+	/**
+	 * @param scale after turning the drawing into cm
+	 * @param tolerance how far in cm lines cut from curves may stray from them.
+	 */
+	DXFReader(double scale,double offsetX,double offsetY,double offsetZ,double tolerance) {
+		this.scale = scale;
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
+		this.offsetZ = offsetZ;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @return every path in the file, in file order.
+	 * @throws IOException if the file can't be read or isn't an ASCII DXF.
+	 */
+	List<Toolpath> read(String filename) throws IOException {
+		paths = new ArrayList<Toolpath>();
+		splines = new ArrayList<DXFSpline>();
+		skipped = 0;
+		lineNumber = 0;
+		pending = false;
+		polylineOpen = false;
+		in = new BufferedReader(new InputStreamReader(new FileInputStream(filename),StandardCharsets.ISO_8859_1),1<<16);
+		try {
+			String section=null;
+			while(next()) {
+				if(code!=0) {
+					if("HEADER".equals(section) && code==9 && value.equals("$INSUNITS") && next() && code==70) {
+						unitScale = units((int)number());
+					}
+					continue;
+				}
+				if(value.equals("SECTION")) {
+					section = (next() && code==2) ? value : null;
+				} else if(value.equals("ENDSEC")) {
+					section = null;
+				} else if(value.equals("EOF")) {
+					break;
+				} else if("ENTITIES".equals(section)) {
+					readEntity(value);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return paths;
+	}
+
+	/**
+	 * @return the splines from the last read, not yet cut into lines.
+	 */
+	List<DXFSpline> getSplines() {
+		return splines;
+	}
+
+	/**
+	 * @return how many entities in the last read were not drawn.
+	 */
+	int getSkipped() {
+		return skipped;
+	}
+
+	// $INSUNITS to cm.  Unitless drawings are taken to be mm.
+	private static double units(int insunits) {
+		switch(insunits) {
+		case 1:  return 2.54;
+		case 2:  return 30.48;
+		case 5:  return 1;
+		case 6:  return 100;
+		case 8:  return 2.54e-6;
+		case 9:  return 2.54e-3;
+		case 10:  return 91.44;
+		default:  return 0.1;
+		}
+	}
+
+	private boolean next() throws IOException {
+		if(pending) {
+			pending=false;
+			return true;
+		}
+		String c = in.readLine();
+		if(c==null) return false;
+		if(lineNumber==0 && c.startsWith("AutoCAD Binary DXF")) throw new IOException("Binary DXF is not supported.");
+		String v = in.readLine();
+		if(v==null) return false;
+		groupLine = lineNumber;
+		lineNumber+=2;
+		try {
+			code = Integer.parseInt(c.trim());
+		} catch(NumberFormatException e) {
+			throw new IOException("Not a DXF group code at line "+(groupLine+1)+": "+c);
+		}
+		value = v.trim();
+		return true;
+	}
+
+	private double number() throws IOException {
+		try {
+			return Double.parseDouble(value);
+		} catch(NumberFormatException e) {
+			throw new IOException("Not a number at line "+(groupLine+2)+": "+value);
+		}
+	}
+
+	// read the groups of one entity, up to the start of the next.
+	private void readEntity(String type) throws IOException {
+		int line = groupLine;
+		groupCount=0;
+		while(next()) {
+			if(code==0) {
+				pending=true;
+				break;
+			}
+			if((code>=10 && code<100) || (code>=210 && code<240)) {
+				if(groupCount==codes.length) {
+					codes = Arrays.copyOf(codes,groupCount*2);
+					numbers = Arrays.copyOf(numbers,groupCount*2);
+				}
+				codes[groupCount] = code;
+				numbers[groupCount] = number();
+				groupCount++;
+			}
+		}
+
+		if(type.equals("LINE")) readLine(line);
+		else if(type.equals("ARC")) readArc(line,false);
+		else if(type.equals("CIRCLE")) readArc(line,true);
+		else if(type.equals("LWPOLYLINE")) readLWPolyline(line);
+		else if(type.equals("POLYLINE")) startPolyline(line);
+		else if(type.equals("VERTEX")) readVertex();
+		else if(type.equals("SEQEND")) endPolyline();
+		else if(type.equals("SPLINE")) readSpline(line);
+		else skipped++;
+	}
+
+	// the first number with this code, or a default.
+	private double get(int c,double defaultValue) {
+		for(int i=0;i<groupCount;++i) {
+			if(codes[i]==c) return numbers[i];
+		}
+		return defaultValue;
+	}
+
+	private void readLine(int line) {
+		Toolpath path = new Toolpath(line);
+		toRobot(get(10,0),get(20,0),get(30,0));
+		path.moveTo(rx,ry,rz);
+		toRobot(get(11,0),get(21,0),get(31,0));
+		path.lineTo(rx,ry,rz);
+		add(path);
+	}
+
+	private void readArc(int line,boolean circle) {
+		setNormal(get(210,0),get(220,0),get(230,1));
+		double cx=get(10,0), cy=get(20,0), elevation=get(30,0);
+		double r=get(40,0);
+		if(r<=0) return;
+		double start = circle ? 0 : Math.toRadians(get(50,0));
+		double sweep = circle ? 2*Math.PI : Math.toRadians(get(51,0))-start;
+		while(sweep<=0) sweep+=2*Math.PI;
+
+		Toolpath path = new Toolpath(line);
+		toOCSRobot(cx+r*Math.cos(start),cy+r*Math.sin(start),elevation);
+		path.moveTo(rx,ry,rz);
+		double ex=cx+r*Math.cos(start+sweep), ey=cy+r*Math.sin(start+sweep);
+		addArc(path,cx,cy,r,start,sweep,elevation,ex,ey);
+		add(path);
+	}
+
+	private void readLWPolyline(int line) {
+		setNormal(get(210,0),get(220,0),get(230,1));
+		double elevation = get(38,0);
+		boolean closed = ((int)get(70,0)&1)!=0;
+		vertexCount=0;
+		for(int i=0;i<groupCount;++i) {
+			switch(codes[i]) {
+			case 10:  addVertex(numbers[i],0,elevation,0);  break;
+			case 20:  if(vertexCount>0) vy[vertexCount-1]=numbers[i];  break;
+			case 42:  if(vertexCount>0) bulge[vertexCount-1]=numbers[i];  break;
+			default:  break;
+			}
+		}
+		addPolyline(line,closed,false);
+	}
+
+	private void startPolyline(int line) {
+		int flags = (int)get(70,0);
+		// polygon and polyface meshes are surfaces, not strokes.
+		if((flags & (16|64))!=0) {
+			skipped++;
+			polylineOpen=false;
+			return;
+		}
+		polylineOpen = true;
+		polylineLine = line;
+		polylineClosed = (flags&1)!=0;
+		polyline3D = (flags&8)!=0;
+		polylineElevation = get(30,0);
+		polylineNormal[0]=get(210,0);
+		polylineNormal[1]=get(220,0);
+		polylineNormal[2]=get(230,1);
+		vertexCount=0;
+	}
+
+	private void readVertex() {
+		if(!polylineOpen) return;
+		// spline frame control points are not on the curve.
+		if(((int)get(70,0)&16)!=0) return;
+		double z = polyline3D ? get(30,0) : polylineElevation;
+		addVertex(get(10,0),get(20,0),z,get(42,0));
+	}
+
+	private void endPolyline() {
+		if(!polylineOpen) return;
+		polylineOpen = false;
+		if(polyline3D) setNormal(0,0,1);
+		else setNormal(polylineNormal[0],polylineNormal[1],polylineNormal[2]);
+		addPolyline(polylineLine,polylineClosed,polyline3D);
+	}
+
+	private void addVertex(double x,double y,double z,double b) {
+		if(vertexCount==vx.length) {
+			int n = vertexCount*2;
+			vx = Arrays.copyOf(vx,n);
+			vy = Arrays.copyOf(vy,n);
+			vz = Arrays.copyOf(vz,n);
+			bulge = Arrays.copyOf(bulge,n);
+		}
+		vx[vertexCount]=x;
+		vy[vertexCount]=y;
+		vz[vertexCount]=z;
+		bulge[vertexCount]=b;
+		vertexCount++;
+	}
+
+	// the vertices so far as one path.  A bulge is the tangent of a quarter of the angle the arc to the next vertex
+	// turns, positive counter-clockwise.
+	private void addPolyline(int line,boolean closed,boolean threeD) {
+		if(vertexCount<2) return;
+		Toolpath path = new Toolpath(line);
+		toOCSRobot(vx[0],vy[0],vz[0]);
+		path.moveTo(rx,ry,rz);
+		int segments = closed ? vertexCount : vertexCount-1;
+		for(int i=0;i<segments;++i) {
+			int j = (i+1)%vertexCount;
+			double b = threeD ? 0 : bulge[i];
+			double dx=vx[j]-vx[i], dy=vy[j]-vy[i];
+			if(b==0 || (dx==0 && dy==0)) {
+				toOCSRobot(vx[j],vy[j],vz[j]);
+				path.lineTo(rx,ry,rz);
+				continue;
+			}
+			double k = (1-b*b)/(4*b);
+			double cx = (vx[i]+vx[j])/2 - dy*k;
+			double cy = (vy[i]+vy[j])/2 + dx*k;
+			double r = Math.hypot(vx[i]-cx,vy[i]-cy);
+			double start = Math.atan2(vy[i]-cy,vx[i]-cx);
+			addArc(path,cx,cy,r,start,4*Math.atan(b),vz[i],vx[j],vy[j]);
+		}
+		add(path);
+	}
+
+	/**
+	 * Add an arc in the plane of the entity to a path that is already at its start.
+	 * @param ex where the arc ends, exactly.
+	 */
+	private void addArc(Toolpath path,double cx,double cy,double r,double start,double sweep,double elevation,
+			double ex,double ey) {
+		boolean flat = Math.abs(normal[0])<1e-9 && Math.abs(normal[1])<1e-9;
+		int pieces;
+		if(flat) {
+			// the firmware draws no more than half a circle at a time.
+			pieces = Math.max(1,(int)Math.ceil(Math.abs(sweep)/Math.PI-1e-9));
+		} else {
+			double radius = r*unitScale*scale;
+			double step = (radius>tolerance) ? 2*Math.acos(1-tolerance/radius) : Math.PI;
+			pieces = Math.max(1,Math.min(100000,(int)Math.ceil(Math.abs(sweep)/step)));
+		}
+		// seen from above, the plane may be upside down.
+		boolean up = (sweep>0) == (normal[2]>0);
+		toOCSRobot(cx,cy,elevation);
+		double centreX=rx, centreY=ry;
+		for(int i=1;i<=pieces;++i) {
+			double a = start+sweep*i/pieces;
+			if(i==pieces) toOCSRobot(ex,ey,elevation);
+			else toOCSRobot(cx+r*Math.cos(a),cy+r*Math.sin(a),elevation);
+			if(flat) path.arcTo(rx,ry,rz,centreX,centreY,up);
+			else path.lineTo(rx,ry,rz);
+		}
+	}
+
+	private void readSpline(int line) {
+		int flags = (int)get(70,0);
+		int degree = (int)get(71,3);
+		int knotCount=0, weightCount=0, pointCount=0, fitCount=0;
+		for(int i=0;i<groupCount;++i) {
+			switch(codes[i]) {
+			case 40:  knotCount++;  break;
+			case 41:  weightCount++;  break;
+			case 10:  pointCount++;  break;
+			case 11:  fitCount++;  break;
+			default:  break;
+			}
+		}
+		double [] knots = new double[knotCount];
+		double [] weights = new double[weightCount];
+		boolean fit = pointCount<2;
+		int n = fit ? fitCount : pointCount;
+		if(n<2) return;
+		double [] px = new double[n];
+		double [] py = new double[n];
+		double [] pz = new double[n];
+		int k=0, w=0, p=-1;
+		int xCode = fit ? 11 : 10;
+		for(int i=0;i<groupCount;++i) {
+			int c = codes[i];
+			if(c==40) knots[k++]=numbers[i];
+			else if(c==41) weights[w++]=numbers[i];
+			else if(c==xCode) px[++p]=numbers[i];
+			else if(c==xCode+10 && p>=0) py[p]=numbers[i];
+			else if(c==xCode+20 && p>=0) pz[p]=numbers[i];
+		}
+		for(int i=0;i<n;++i) {
+			toRobot(px[i],py[i],pz[i]);
+			px[i]=rx;
+			py[i]=ry;
+			pz[i]=rz;
+		}
+
+		Toolpath path = new Toolpath(line);
+		if(fit) {
+			// only the points it passes through.  Join them.
+			path.moveTo(px[0],py[0],pz[0]);
+			for(int i=1;i<n;++i) path.lineTo(px[i],py[i],pz[i]);
+			add(path);
+			return;
+		}
+		boolean rational = (flags&4)!=0 && weightCount==n;
+		paths.add(path);
+		splines.add(new DXFSpline(path,degree,knots,px,py,pz,rational ? weights : null));
+	}
+
+	private void add(Toolpath path) {
+		if(!path.isEmpty()) paths.add(path);
+	}
+
+	// the arbitrary axis algorithm.
+	private void setNormal(double nx,double ny,double nz) {
+		double len = Math.sqrt(nx*nx+ny*ny+nz*nz);
+		if(len==0) {
+			nx=0;  ny=0;  nz=1;  len=1;
+		}
+		normal[0]=nx/len;
+		normal[1]=ny/len;
+		normal[2]=nz/len;
+		// world Y or Z cross N
+		if(Math.abs(normal[0])<1.0/64 && Math.abs(normal[1])<1.0/64) {
+			cross(0,1,0,normal,axisX);
+		} else {
+			cross(0,0,1,normal,axisX);
+		}
+		normalize(axisX);
+		cross(normal[0],normal[1],normal[2],axisX,axisY);
+		normalize(axisY);
+	}
+
+	private static void cross(double ax,double ay,double az,double [] b,double [] out) {
+		out[0] = ay*b[2]-az*b[1];
+		out[1] = az*b[0]-ax*b[2];
+		out[2] = ax*b[1]-ay*b[0];
+	}
+
+	private static void normalize(double [] v) {
+		double len = Math.sqrt(v[0]*v[0]+v[1]*v[1]+v[2]*v[2]);
+		v[0]/=len;
+		v[1]/=len;
+		v[2]/=len;
+	}
+
+	// a point in the plane of the entity to where the robot should go.
+	private void toOCSRobot(double x,double y,double z) {
+		double wx = axisX[0]*x + axisY[0]*y + normal[0]*z;
+		double wy = axisX[1]*x + axisY[1]*y + normal[1]*z;
+		double wz = axisX[2]*x + axisY[2]*y + normal[2]*z;
+		toRobot(wx,wy,wz);
+	}
+
+	private void toRobot(double x,double y,double z) {
+		double s = unitScale*scale;
+		rx = x*s+offsetX;
+		ry = y*s+offsetY;
+		rz = z*s+offsetZ;
+	}
+}
@@ -0,0 +1,128 @@
+package com.marginallyclever.dxf;
+
+import com.marginallyclever.gcode.Toolpath;
+
+/**
+ * A SPLINE from a drawing, kept until it can be cut into lines with the others at the same time.  Control points are
+ * already in cm, where the robot should go.
+ * @author Dan Royer
+ */
+class DXFSpline {
+	// cut each knot span into at least 2^MIN_DEPTH lines, and never more than 2^MAX_DEPTH.
+	private static final int MIN_DEPTH = 2;
+	private static final int MAX_DEPTH = 12;
+
+	// where the lines go.
+	final Toolpath path;
+	final int degree;
+	final double [] knots;
+	final double [] px, py, pz;
+	// null unless the spline is rational.
+	final double [] weights;
+
+
+	DXFSpline(Toolpath path,int degree,double [] knots,double [] px,double [] py,double [] pz,double [] weights) {
+		this.path = path;
+		this.degree = degree;
+		this.knots = knots;
+		this.px = px;
+		this.py = py;
+		this.pz = pz;
+		this.weights = weights;
+	}
+
+	/**
+	 * @return true if the knots match the control points.  If not, the best that can be done is the control polygon.
+	 */
+	boolean isValid() {
+		int n = px.length;
+		if(degree<1 || n<=degree || knots.length!=n+degree+1) return false;
+		for(int i=1;i<knots.length;++i) {
+			if(knots[i]<knots[i-1]) return false;
+		}
+		return knots[n]>knots[degree];
+	}
+
+	/**
+	 * Cut the curve into lines no more than tolerance from it.
+	 * Whatever was in the path is replaced.
+	 */
+	void flatten(double tolerance) {
+		if(!isValid()) {
+			path.moveTo(px[0],py[0],pz[0]);
+			for(int i=1;i<px.length;++i) path.lineTo(px[i],py[i],pz[i]);
+			return;
+		}
+		double [] d = new double[(degree+1)*4];
+		double [] a = new double[3];
+		double [] b = new double[3];
+		int n = px.length;
+		evaluate(knots[degree],a,d);
+		path.moveTo(a[0],a[1],a[2]);
+		for(int k=degree;k<n;++k) {
+			if(knots[k+1]<=knots[k]) continue;
+			evaluate(knots[k+1],b,d);
+			subdivide(path,knots[k],a,knots[k+1],b,0,tolerance,d);
+			a[0]=b[0];  a[1]=b[1];  a[2]=b[2];
+		}
+	}
+
+	// add the curve from t0 to t1 to the path.  The path already ends at p0.
+	private void subdivide(Toolpath path,double t0,double [] p0,double t1,double [] p1,int depth,double tolerance,
+			double [] d) {
+		double tm = (t0+t1)/2;
+		double [] pm = new double[3];
+		evaluate(tm,pm,d);
+		if(depth>=MAX_DEPTH || (depth>=MIN_DEPTH && distanceToLine(pm,p0,p1)<=tolerance)) {
+			path.lineTo(p1[0],p1[1],p1[2]);
+			return;
+		}
+		subdivide(path,t0,p0,tm,pm,depth+1,tolerance,d);
+		subdivide(path,tm,pm,t1,p1,depth+1,tolerance,d);
+	}
+
+	private static double distanceToLine(double [] p,double [] a,double [] b) {
+		double dx=b[0]-a[0], dy=b[1]-a[1], dz=b[2]-a[2];
+		double ex=p[0]-a[0], ey=p[1]-a[1], ez=p[2]-a[2];
+		double len2 = dx*dx+dy*dy+dz*dz;
+		double t = (len2>0) ? Math.max(0,Math.min(1,(ex*dx+ey*dy+ez*dz)/len2)) : 0;
+		ex-=t*dx;  ey-=t*dy;  ez-=t*dz;
+		return Math.sqrt(ex*ex+ey*ey+ez*ez);
+	}
+
+	/**
+	 * The point at t, by de Boor's algorithm in homogeneous coordinates.
+	 * @param out x,y,z
+	 * @param d scratch space of (degree+1)*4
+	 */
+	void evaluate(double t,double [] out,double [] d) {
+		int p = degree;
+		int n = px.length;
+		// the knot span holding t.
+		int k = p;
+		while(k<n-1 && knots[k+1]<=t) ++k;
+
+		for(int j=0;j<=p;++j) {
+			int i = j+k-p;
+			double w = (weights!=null) ? weights[i] : 1;
+			d[j*4  ]=px[i]*w;
+			d[j*4+1]=py[i]*w;
+			d[j*4+2]=pz[i]*w;
+			d[j*4+3]=w;
+		}
+		for(int r=1;r<=p;++r) {
+			for(int j=p;j>=r;--j) {
+				double lo = knots[j+k-p];
+				double hi = knots[j+1+k-r];
+				double alpha = (hi>lo) ? (t-lo)/(hi-lo) : 0;
+				for(int c=0;c<4;++c) {
+					d[j*4+c] = (1-alpha)*d[(j-1)*4+c] + alpha*d[j*4+c];
+				}
+			}
+		}
+		double w = d[p*4+3];
+		out[0]=d[p*4  ]/w;
+		out[1]=d[p*4+1]/w;
+		out[2]=d[p*4+2]/w;
+	}
+}
@@ -0,0 +1,277 @@
+package com.marginallyclever.gcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A g-code program that has already been tokenized.  Each block is an opcode (the first word on the line, like G00)
+ * followed by letter/number parameter words, all kept in flat primitive arrays.  Comments, blank lines and
+ * M codes the robot ignores have been removed.
+ * @author Dan Royer
+ */
+public class CompiledGCode {
+	static final int MAGIC = 0x534B4743;  // "SKGC"
+	static final int VERSION = 3;
+
+	/**
+	 * A block that could not be compiled, such as "TELEPORT X0 Y0 Z0".  It has one parameter whose value is the
+	 * index of the original text.  See {@link #getText(int)}.
+	 */
+	public static final int OP_TEXT = 0;
+
+	private int count=0;
+	private int [] opcodes = new int[1024];
+	private int [] sourceLines = new int[1024];
+	// block i has parameters paramStart[i] to paramStart[i+1]-1
+	private int [] paramStart = new int[1025];
+	private int paramCount=0;
+	private byte [] paramLetters = new byte[4096];
+	// doubles, so numbers are sent with the precision they were written with.
+	private double [] paramValues = new double[4096];
+	private ArrayList<String> texts = new ArrayList<String>();
+
+
+	/**
+	 * @param letter the letter of the command, like 'G'
+	 * @param number the number of the command, like 0
+	 * @return the packed opcode
+	 */
+	public static int opcode(char letter,int number) {
+		return (letter<<24) | (number & 0xFFFFFF);
+	}
+
+	public static char getLetter(int opcode) {
+		return (char)(opcode>>>24);
+	}
+
+	public static int getNumber(int opcode) {
+		return opcode & 0xFFFFFF;
+	}
+
+	/**
+	 * @return the number of blocks in the program.
+	 */
+	public int size() {
+		return count;
+	}
+
+	public int getOpcode(int block) {
+		return opcodes[block];
+	}
+
+	/**
+	 * @param block the block index
+	 * @return the zero-based line in the original file that made this block.
+	 */
+	public int getSourceLine(int block) {
+		return sourceLines[block];
+	}
+
+	public int getParamCount(int block) {
+		return paramStart[block+1]-paramStart[block];
+	}
+
+	public char getParamLetter(int block,int param) {
+		return (char)paramLetters[paramStart[block]+param];
+	}
+
+	public float getParamValue(int block,int param) {
+		return (float)paramValues[paramStart[block]+param];
+	}
+
+	/**
+	 * @param block the block index
+	 * @param letter the parameter to find
+	 * @param defaultValue returned if the parameter is not in this block
+	 * @return the value of the parameter
+	 */
+	public float getParam(int block,char letter,float defaultValue) {
+		int end = paramStart[block+1];
+		for(int i=paramStart[block];i<end;++i) {
+			if(paramLetters[i]==letter) return (float)paramValues[i];
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @param block the block index
+	 * @return the original text of an {@link #OP_TEXT} block, or null.
+	 */
+	public String getText(int block) {
+		if(opcodes[block]!=OP_TEXT) return null;
+		return texts.get((int)paramValues[paramStart[block]]);
+	}
+
+	/**
+	 * Rebuild the text the robot expects for one block.
+	 * @param block the block index
+	 * @param sb where to write the text.
+	 * @return sb
+	 */
+	public StringBuilder appendBlock(int block,StringBuilder sb) {
+		int op = opcodes[block];
+		if(op==OP_TEXT) {
+			return sb.append(getText(block));
+		}
+		int number = getNumber(op);
+		sb.append(getLetter(op));
+		if(number<10) sb.append('0');
+		sb.append(number);
+
+		int end = paramStart[block+1];
+		for(int i=paramStart[block];i<end;++i) {
+			sb.append(' ').append((char)paramLetters[i]);
+			appendNumber(sb,paramValues[i]);
+		}
+		return sb;
+	}
+
+	/**
+	 * Write a number the way a person would, without exponents or trailing zeros.
+	 * @param sb where to write the number
+	 * @param value the number
+	 */
+	public static void appendNumber(StringBuilder sb,double value) {
+		long scaled = Math.round(value*100000.0);
+		if(scaled<0) {
+			sb.append('-');
+			scaled=-scaled;
+		}
+		sb.append(scaled/100000);
+		int fraction = (int)(scaled%100000);
+		if(fraction==0) return;
+
+		sb.append('.');
+		int digit=10000;
+		while(fraction>0) {
+			sb.append((char)('0'+fraction/digit));
+			fraction%=digit;
+			digit/=10;
+		}
+	}
+
+	void startBlock(int opcode,int sourceLine) {
+		if(count==opcodes.length) {
+			int n = opcodes.length*2;
+			opcodes = grow(opcodes,n);
+			sourceLines = grow(sourceLines,n);
+			paramStart = grow(paramStart,n+1);
+		}
+		opcodes[count] = opcode;
+		sourceLines[count] = sourceLine;
+		paramStart[count] = paramCount;
+		count++;
+		paramStart[count] = paramCount;
+	}
+
+	void addParam(char letter,double value) {
+		if(paramCount==paramLetters.length) {
+			int n = paramLetters.length*2;
+			byte [] letters = new byte[n];
+			System.arraycopy(paramLetters, 0, letters, 0, paramCount);
+			paramLetters = letters;
+			double [] values = new double[n];
+			System.arraycopy(paramValues, 0, values, 0, paramCount);
+			paramValues = values;
+		}
+		paramLetters[paramCount] = (byte)letter;
+		paramValues[paramCount] = value;
+		paramCount++;
+		paramStart[count] = paramCount;
+	}
+
+	void addText(String text,int sourceLine) {
+		startBlock(OP_TEXT,sourceLine);
+		addParam('\0',texts.size());
+		texts.add(text);
+	}
+
+	// add a block from another program, unchanged.
+	void copyBlock(CompiledGCode from,int block) {
+		if(from.opcodes[block]==OP_TEXT) {
+			addText(from.getText(block),from.sourceLines[block]);
+			return;
+		}
+		startBlock(from.opcodes[block],from.sourceLines[block]);
+		int end = from.paramStart[block+1];
+		for(int i=from.paramStart[block];i<end;++i) {
+			addParam((char)from.paramLetters[i],from.paramValues[i]);
+		}
+	}
+
+	/**
+	 * Save this program in binary form.
+	 * @param file where to save
+	 * @param sourceHash identifies the file this program came from
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(File file,String sourceHash) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),1<<16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(sourceHash);
+			out.writeInt(count);
+			out.writeInt(paramCount);
+			out.writeInt(texts.size());
+			for(int i=0;i<count;++i) out.writeInt(opcodes[i]);
+			for(int i=0;i<count;++i) out.writeInt(sourceLines[i]);
+			for(int i=0;i<=count;++i) out.writeInt(paramStart[i]);
+			out.write(paramLetters,0,paramCount);
+			for(int i=0;i<paramCount;++i) out.writeDouble(paramValues[i]);
+			for(String s : texts) out.writeUTF(s);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load a program saved by {@link #write(File, String)}.
+	 * @param file where to load from
+	 * @param sourceHash the hash the program must have been made from
+	 * @return the program, or null if the file is from a different source or an older version.
+	 * @throws IOException if the file cannot be read
+	 */
+	public static CompiledGCode read(File file,String sourceHash) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),1<<16));
+		try {
+			if(in.readInt()!=MAGIC || in.readInt()!=VERSION) return null;
+			if(!in.readUTF().equals(sourceHash)) return null;
+
+			CompiledGCode p = new CompiledGCode();
+			p.count = in.readInt();
+			p.paramCount = in.readInt();
+			int textCount = in.readInt();
+			p.opcodes = new int[p.count];
+			p.sourceLines = new int[p.count];
+			p.paramStart = new int[p.count+1];
+			p.paramLetters = new byte[p.paramCount];
+			p.paramValues = new double[p.paramCount];
+			for(int i=0;i<p.count;++i) p.opcodes[i] = in.readInt();
+			for(int i=0;i<p.count;++i) p.sourceLines[i] = in.readInt();
+			for(int i=0;i<=p.count;++i) p.paramStart[i] = in.readInt();
+			in.readFully(p.paramLetters);
+			for(int i=0;i<p.paramCount;++i) p.paramValues[i] = in.readDouble();
+			p.texts = new ArrayList<String>(textCount);
+			for(int i=0;i<textCount;++i) p.texts.add(in.readUTF());
+			return p;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static int [] grow(int [] a,int n) {
+		int [] b = new int[n];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+}
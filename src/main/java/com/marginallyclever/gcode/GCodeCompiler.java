@@ -0,0 +1,201 @@
+package com.marginallyclever.gcode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Turns a g-code file into a {@link CompiledGCode} once.  The result is cached on disk by the hash of the file, so
+ * opening the same file again never tokenizes the text again.
+ * @author Dan Royer
+ */
+public class GCodeCompiler {
+	private static final String CACHE_EXTENSION = ".skgc";
+
+	private GCodeCompiler() {}
+
+	/**
+	 * @return the folder where compiled programs are kept.
+	 */
+	public static File getCacheDirectory() {
+		return new File(System.getProperty("user.home"),".skycam"+File.separator+"cache");
+	}
+
+	/**
+	 * Load the compiled program for this file from the cache.  If it is not there, compile it and save the result.
+	 * @param file the program to compile
+	 * @return the compiled program
+	 * @throws IOException if the file cannot be read
+	 */
+	public static CompiledGCode compileCached(GCodeFile file) throws IOException {
+		return compileCached(file,hash(file.getFilename()));
+	}
+
+	private static CompiledGCode compileCached(GCodeFile file,String hash) throws IOException {
+		CompiledGCode p = readCache(hash);
+		if(p!=null) return p;
+		p = compile(file);
+		writeCache(hash,p);
+		return p;
+	}
+
+	/**
+	 * Load the simplified program for this file from the cache.  If it is not there, compile and simplify it and save
+	 * the result.  Every tolerance is cached apart.
+	 * @param file the program to compile
+	 * @param simplifier how to simplify it
+	 * @return the simplified program
+	 * @throws IOException if the file cannot be read
+	 */
+	public static CompiledGCode simplifyCached(GCodeFile file,PathSimplifier simplifier) throws IOException {
+		String hash = hash(file.getFilename());
+		String key = hash+"-"+simplifier.getCacheKey();
+		CompiledGCode p = readCache(key);
+		if(p!=null) return p;
+		p = simplifier.simplify(compileCached(file,hash));
+		writeCache(key,p);
+		return p;
+	}
+
+	/**
+	 * @param key what the program was saved under, usually starting with the {@link #hash(String)} of its source.
+	 * @return the cached program, or null if there isn't one.
+	 */
+	public static CompiledGCode readCache(String key) {
+		File cached = new File(getCacheDirectory(),key+CACHE_EXTENSION);
+		if(!cached.exists()) return null;
+		try {
+			return CompiledGCode.read(cached,key);
+		} catch(IOException e) {
+			// damaged cache file.  make a new one.
+			return null;
+		}
+	}
+
+	/**
+	 * Save a program in the cache.  Failing to is not fatal.
+	 */
+	public static void writeCache(String key,CompiledGCode p) {
+		try {
+			File dir = getCacheDirectory();
+			dir.mkdirs();
+			// write somewhere else first so a half-written cache is never read.
+			File temp = File.createTempFile(key, ".tmp", dir);
+			p.write(temp,key);
+			if(!temp.renameTo(new File(dir,key+CACHE_EXTENSION))) temp.delete();
+		} catch(IOException e) {
+			// no cache this time.  not fatal.
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param file the program to compile
+	 * @return the compiled program
+	 */
+	public static CompiledGCode compile(GCodeFile file) {
+		CompiledGCode p = new CompiledGCode();
+		GCodeTokenizer tokenizer = new GCodeTokenizer();
+		for(long i=0;file.hasLine(i);++i) {
+			compileLine(p,tokenizer,file.getLine(i),(int)i);
+		}
+		return p;
+	}
+
+	/**
+	 * Add one line of g-code to a program.  Follows the same rules as Skycam.SendLineToRobot().
+	 * @param p the program
+	 * @param tokenizer reused for every line
+	 * @param line the text to compile
+	 * @param sourceLine the line number of the text in the original file
+	 */
+	static void compileLine(CompiledGCode p,GCodeTokenizer tokenizer,String line,int sourceLine) {
+		tokenizer.reset(line);
+		int count=0;
+		boolean toolChange=false;
+		boolean packable=true;
+		char first=0;
+		while(tokenizer.next()) {
+			if(count==0) {
+				first = tokenizer.letter();
+				// the first word becomes the opcode.
+				packable = tokenizer.isWholeNumber() && tokenizer.number()<=0xFFFFFF;
+			}
+			if(tokenizer.is('M',6)) toolChange=true;
+			if(!tokenizer.isWord()) packable=false;
+			count++;
+		}
+		// entire line was a comment?
+		if(count==0) return;
+
+		tokenizer.reset(line);
+		tokenizer.next();
+		if(toolChange) {
+			p.startBlock(CompiledGCode.opcode('M',6),sourceLine);
+			do {
+				if(tokenizer.isWord() && tokenizer.letter()=='T') {
+					p.addParam('T',tokenizer.number());
+				}
+			} while(tokenizer.next());
+			return;
+		}
+
+		// end of program?
+		if(tokenizer.is('M',2)) {
+			p.startBlock(CompiledGCode.opcode('M',2),sourceLine);
+			return;
+		}
+
+		// other machine code to ignore?
+		if(first=='M') return;
+
+		if(!packable) {
+			p.addText(line.substring(tokenizer.commandStart(),tokenizer.commandEnd()),sourceLine);
+			return;
+		}
+
+		p.startBlock(CompiledGCode.opcode(first,(int)tokenizer.number()),sourceLine);
+		while(tokenizer.next()) {
+			p.addParam(tokenizer.letter(),tokenizer.number());
+		}
+	}
+
+	/**
+	 * @param filename the file to hash
+	 * @return the SHA-256 of the file contents as hex
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String hash(String filename) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		try {
+			ByteBuffer buf = ByteBuffer.allocateDirect(1<<20);
+			while(channel.read(buf)!=-1) {
+				buf.flip();
+				digest.update(buf);
+				buf.clear();
+			}
+		}
+		finally {
+			channel.close();
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for(byte b : digest.digest()) {
+			sb.append(Character.forDigit((b>>4)&0xF,16));
+			sb.append(Character.forDigit(b&0xF,16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,214 @@
+package com.marginallyclever.gcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A g-code program read straight from a memory mapped file.  Nothing but the offset of each line lives on the heap.
+ * A background thread builds the line index so a job can start sending as soon as the first lines are found.
+ * @author Dan Royer
+ */
+public class GCodeFile implements Closeable {
+	// MappedByteBuffers are limited to 2GB, so big files are mapped in pieces.
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_SIZE = 1L<<CHUNK_BITS;
+	private static final long CHUNK_MASK = CHUNK_SIZE-1;
+	// how many lines to index before telling waiting readers about them.
+	private static final int PUBLISH_EVERY = 4096;
+	// how many bytes to scan between checks for close(), so close() never waits on a whole chunk.
+	private static final int CLOSE_CHECK_MASK = (1<<20)-1;
+
+	private String filename;
+	private FileChannel channel;
+	private MappedByteBuffer [] chunks;
+	private long size;
+
+	// lineEnds[i] is the offset of the first byte after line i, including the newline.
+	private volatile long [] lineEnds = new long[PUBLISH_EVERY];
+	private volatile int linesIndexed=0;
+	private volatile boolean indexComplete=false;
+	private volatile boolean closed=false;
+	private Thread indexer;
+
+	// reused by getLine() to avoid a new array per line.
+	private byte [] lineBuffer = new byte[256];
+
+
+	/**
+	 * Map the file and start indexing it in the background.
+	 * @param filename the file to open
+	 * @throws IOException if the file cannot be opened or mapped.
+	 */
+	public GCodeFile(String filename) throws IOException {
+		this.filename = filename;
+		channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		size = channel.size();
+
+		int count = (int)((size+CHUNK_SIZE-1)>>>CHUNK_BITS);
+		chunks = new MappedByteBuffer[count];
+		for(int i=0;i<count;++i) {
+			long start = (long)i<<CHUNK_BITS;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size-start));
+		}
+
+		indexer = new Thread(new Runnable() {
+			public void run() {
+				buildIndex();
+			}
+		},"GCodeFile indexer");
+		indexer.setDaemon(true);
+		indexer.start();
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * @return the size of the file in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of lines found so far.
+	 */
+	public long getLinesIndexed() {
+		return linesIndexed;
+	}
+
+	/**
+	 * @return true when every line in the file has been found.
+	 */
+	public boolean isIndexComplete() {
+		return indexComplete;
+	}
+
+	/**
+	 * @return the total number of lines in the file.  Blocks until the index is complete.
+	 */
+	public long getLineCount() {
+		waitForLine(Integer.MAX_VALUE);
+		return linesIndexed;
+	}
+
+	/**
+	 * Does line <code>index</code> exist?  Blocks only until the indexer reaches that line or the end of the file.
+	 * @param index the zero-based line number
+	 * @return true if the line exists.
+	 */
+	public boolean hasLine(long index) {
+		if(index<0) return false;
+		if(index<linesIndexed) return true;
+		waitForLine(index);
+		return index<linesIndexed;
+	}
+
+	/**
+	 * @param index the zero-based line number
+	 * @return the contents of line <code>index</code> without the line ending, or null if there is no such line.
+	 */
+	public synchronized String getLine(long index) {
+		if(!hasLine(index)) return null;
+
+		long [] ends = lineEnds;
+		int i = (int)index;
+		long start = (i==0) ? 0 : ends[i-1];
+		long end = ends[i];
+		// trim the line ending
+		if(end>start && byteAt(end-1)=='\n') end--;
+		if(end>start && byteAt(end-1)=='\r') end--;
+
+		int len = (int)(end-start);
+		if(lineBuffer.length<len) lineBuffer = new byte[Math.max(len,lineBuffer.length*2)];
+		for(int j=0;j<len;++j) {
+			lineBuffer[j] = byteAt(start+j);
+		}
+		return new String(lineBuffer,0,len,StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @param offset position in the file
+	 * @return the byte at that position
+	 */
+	byte byteAt(long offset) {
+		return chunks[(int)(offset>>>CHUNK_BITS)].get((int)(offset&CHUNK_MASK));
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed=true;
+		try {
+			indexer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		chunks = new MappedByteBuffer[0];
+		channel.close();
+	}
+
+	private synchronized void waitForLine(long index) {
+		while(!indexComplete && index>=linesIndexed) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	// walk the whole file once, recording where each line ends.
+	private void buildIndex() {
+		long [] ends = lineEnds;
+		int count=0;
+
+		for(int c=0;c<chunks.length && !closed;++c) {
+			MappedByteBuffer chunk = chunks[c];
+			long base = (long)c<<CHUNK_BITS;
+			int limit = chunk.limit();
+			for(int i=0;i<limit;++i) {
+				if((i&CLOSE_CHECK_MASK)==0 && closed) break;
+				if(chunk.get(i)!='\n') continue;
+
+				if(count==ends.length) {
+					long [] bigger = new long[ends.length*2];
+					System.arraycopy(ends, 0, bigger, 0, count);
+					ends = bigger;
+					lineEnds = ends;
+				}
+				ends[count++] = base+i+1;
+				if((count%PUBLISH_EVERY)==0) publish(count);
+			}
+		}
+
+		// last line without a newline?
+		long lastEnd = (count==0) ? 0 : ends[count-1];
+		if(!closed && lastEnd<size) {
+			if(count==ends.length) {
+				long [] bigger = new long[ends.length+1];
+				System.arraycopy(ends, 0, bigger, 0, count);
+				ends = bigger;
+				lineEnds = ends;
+			}
+			ends[count++] = size;
+		}
+
+		synchronized(this) {
+			linesIndexed = count;
+			indexComplete = true;
+			notifyAll();
+		}
+	}
+
+	private synchronized void publish(int count) {
+		linesIndexed = count;
+		notifyAll();
+	}
+}
@@ -0,0 +1,244 @@
+package com.marginallyclever.gcode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Walks the words of one g-code block without making any new objects.  Point it at a line with
+ * {@link #reset(CharSequence)} or {@link #reset(ByteBuffer)} and call {@link #next()} until it returns false.
+ * A word like "X-1.5" is reported as a letter and a number.  Anything else (like "TELEPORT") is still a token, but
+ * {@link #isWord()} is false.
+ *
+ * Everything after the first ( or ; is a comment and is skipped.  One tokenizer can be reused for every line, but
+ * it is not thread safe.
+ * @author Dan Royer
+ */
+public final class GCodeTokenizer {
+	private static final double [] POW10 = {
+		1e0,1e1,1e2,1e3,1e4,1e5,1e6,1e7,1e8,1e9,1e10,1e11,1e12,1e13,1e14,1e15,1e16,1e17,1e18
+	};
+
+	// the source is one of these two.
+	private CharSequence text;
+	private ByteBuffer bytes;
+
+	private int start;
+	private int end;
+	private int pos;
+
+	// the current token
+	private int tokenStart;
+	private int tokenEnd;
+	private boolean isWord;
+	private boolean isWhole;
+	private double number;
+
+
+	/**
+	 * @param line the text to tokenize
+	 * @return this
+	 */
+	public GCodeTokenizer reset(CharSequence line) {
+		return reset(line,0,line.length());
+	}
+
+	/**
+	 * @param line the text to tokenize
+	 * @param from the first character
+	 * @param to one past the last character
+	 * @return this
+	 */
+	public GCodeTokenizer reset(CharSequence line,int from,int to) {
+		text = line;
+		bytes = null;
+		return restart(from,to);
+	}
+
+	/**
+	 * Tokenize ASCII bytes from the buffer's position to its limit.  The buffer's position is not changed.
+	 * @param buffer the bytes to tokenize
+	 * @return this
+	 */
+	public GCodeTokenizer reset(ByteBuffer buffer) {
+		text = null;
+		bytes = buffer;
+		return restart(buffer.position(),buffer.limit());
+	}
+
+	private GCodeTokenizer restart(int from,int to) {
+		start = from;
+		end = commandEnd(from,to);
+		pos = from;
+		tokenStart = tokenEnd = from;
+		isWord = false;
+		isWhole = false;
+		number = 0;
+		return this;
+	}
+
+	/**
+	 * Move to the next token.
+	 * @return false if there are no more tokens in the block.
+	 */
+	public boolean next() {
+		while(pos<end && isSpace(charAt(pos))) pos++;
+		if(pos>=end) {
+			tokenStart = tokenEnd = end;
+			isWord = false;
+			return false;
+		}
+
+		tokenStart = pos;
+		while(pos<end && !isSpace(charAt(pos))) pos++;
+		tokenEnd = pos;
+		parseWord();
+		return true;
+	}
+
+	/**
+	 * @return true if the current token is a letter followed by a decimal number, like "G00" or "Y-2.5"
+	 */
+	public boolean isWord() {
+		return isWord;
+	}
+
+	/**
+	 * @return true if the current token is a word with no sign and no decimal point, like "M06"
+	 */
+	public boolean isWholeNumber() {
+		return isWhole;
+	}
+
+	/**
+	 * @return the first character of the current token.
+	 */
+	public char letter() {
+		return charAt(tokenStart);
+	}
+
+	/**
+	 * @return the number after the letter of the current word.  Only meaningful if {@link #isWord()} is true.
+	 */
+	public double number() {
+		return number;
+	}
+
+	/**
+	 * @param letter the letter to check
+	 * @param value the number to check
+	 * @return true if the current token is a whole number word like "M6" or "M06".
+	 */
+	public boolean is(char letter,int value) {
+		return isWhole && charAt(tokenStart)==letter && number==value;
+	}
+
+	public int tokenStart() {
+		return tokenStart;
+	}
+
+	public int tokenEnd() {
+		return tokenEnd;
+	}
+
+	/**
+	 * @return one past the last character of the block once comments and trailing white space are removed.
+	 */
+	public int commandEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the first character of the block once leading white space is removed.
+	 */
+	public int commandStart() {
+		int i=start;
+		while(i<end && isSpace(charAt(i))) i++;
+		return i;
+	}
+
+	/**
+	 * @param line some g-code
+	 * @return the length of the line without comments or trailing white space.
+	 */
+	public static int commandLength(CharSequence line) {
+		int len = line.length();
+		for(int i=0;i<len;++i) {
+			char c = line.charAt(i);
+			if(c=='(' || c==';') {
+				len=i;
+				break;
+			}
+		}
+		while(len>0 && isSpace(line.charAt(len-1))) len--;
+		return len;
+	}
+
+	private int commandEnd(int from,int to) {
+		int i;
+		for(i=from;i<to;++i) {
+			char c = charAt(i);
+			if(c=='(' || c==';') break;
+		}
+		while(i>from && isSpace(charAt(i-1))) i--;
+		return i;
+	}
+
+	private char charAt(int i) {
+		if(text!=null) return text.charAt(i);
+		return (char)(bytes.get(i) & 0xFF);
+	}
+
+	private static boolean isSpace(char c) {
+		return c==' ' || c=='\t' || c=='\r' || c=='\n';
+	}
+
+	// is the current token a letter and a decimal number?  if so, what number?
+	private void parseWord() {
+		isWord = false;
+		isWhole = false;
+		number = 0;
+
+		char c = charAt(tokenStart);
+		if(!((c>='A' && c<='Z') || (c>='a' && c<='z'))) return;
+
+		int i = tokenStart+1;
+		boolean negative=false;
+		boolean signed=false;
+		if(i<tokenEnd && (charAt(i)=='-' || charAt(i)=='+')) {
+			negative = charAt(i)=='-';
+			signed = true;
+			i++;
+		}
+
+		long mantissa=0;
+		int scale=0;
+		boolean dot=false;
+		boolean digits=false;
+		for(;i<tokenEnd;++i) {
+			c = charAt(i);
+			if(c>='0' && c<='9') {
+				// digits past what a long holds are past the precision of a double anyhow.
+				if(mantissa<100000000000000000L) {
+					mantissa = mantissa*10 + (c-'0');
+					if(dot) scale++;
+				} else if(!dot) {
+					scale--;
+				}
+				digits=true;
+			} else if(c=='.' && !dot) {
+				dot=true;
+			} else {
+				return;
+			}
+		}
+		// a lone letter or sign is not a number.
+		if(!digits) return;
+
+		double v;
+		if(scale<0) v = mantissa*Math.pow(10,-scale);
+		else if(scale<POW10.length) v = mantissa/POW10[scale];
+		else v = mantissa/Math.pow(10,scale);
+		number = negative ? -v : v;
+		isWord = true;
+		isWhole = !dot && !signed;
+	}
+}
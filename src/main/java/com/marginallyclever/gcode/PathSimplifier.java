@@ -0,0 +1,432 @@
+package com.marginallyclever.gcode;
+
+import java.util.Locale;
+
+import com.marginallyclever.kinematics.FirmwareArc;
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * Sends the same path in fewer lines.  Dense CAM and camera path exports are mostly tiny moves in a row, and every
+ * one costs a round trip to the robot and a place in its segment buffer.  Each run of moves is rebuilt from
+ * <ul>
+ * <li>arcs, where the points lie on a circle closely enough that the firmware's own G02/G03 (see {@link FirmwareArc})
+ * stays within the tolerance, and</li>
+ * <li>straight lines through the points that Ramer-Douglas-Peucker keeps, in 3D.</li>
+ * </ul>
+ * No point of the original path ends up further than the tolerance from the new one.  Distances are in cm, with X and
+ * Y read from mm the way {@link Trajectory} reads them.
+ *
+ * Only G00 and G01 in absolute mode with nothing but X, Y, Z and F are changed.  A different feed rate, G00 after
+ * G01 or any other block ends a run.  Everything else is copied as it is.  Each new block keeps the source line of the
+ * last block it replaces.
+ * @author Dan Royer
+ */
+public class PathSimplifier {
+	// change this when the output changes, so old cached results are not used.
+	private static final int VERSION = 2;
+	public static final double DEFAULT_TOLERANCE = 0.01;
+	// RDP gets slow on one enormous run, so long runs are cut.
+	private static final int MAX_RUN = 65536;
+	// fewer lines than this aren't worth an arc.
+	private static final int MIN_ARC_LINES = 4;
+	// the firmware assumes no arc is more than half a circle.
+	private static final double MAX_SWEEP = Math.PI;
+
+	private static final int G0 = CompiledGCode.opcode('G',0);
+	private static final int G1 = CompiledGCode.opcode('G',1);
+	private static final int G2 = CompiledGCode.opcode('G',2);
+	private static final int G3 = CompiledGCode.opcode('G',3);
+	private static final int G90 = CompiledGCode.opcode('G',90);
+	private static final int G91 = CompiledGCode.opcode('G',91);
+	private static final int G92 = CompiledGCode.opcode('G',92);
+
+	private double tolerance;
+	private boolean fitArcs=true;
+
+	// where the robot will be and what it will be doing after the last block read.
+	private double x, y, z;
+	private float feedRate = Float.NaN;
+	private boolean absolute=true;
+	private GCodeTokenizer tokenizer = new GCodeTokenizer();
+
+	// the run.  Point 0 is where it starts and point i is the end of move i.
+	private double [] px = new double[1024];
+	private double [] py = new double[1024];
+	private double [] pz = new double[1024];
+	private int [] sourceLines = new int[1024];
+	private int points=0;
+	private int runOpcode;
+	private boolean runHasFeed, runHasX, runHasY, runHasZ;
+	private boolean feedWritten;
+	private boolean [] keep = new boolean[1024];
+	private int [] stack = new int[2048];
+	private CompiledGCode out;
+
+
+	/**
+	 * @param tolerance how far the new path may stray from the old, in cm.
+	 */
+	public PathSimplifier(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @param fitArcs false to only merge straight lines.
+	 */
+	public void setFitArcs(boolean fitArcs) {
+		this.fitArcs = fitArcs;
+	}
+
+	public boolean getFitArcs() {
+		return fitArcs;
+	}
+
+	/**
+	 * @return different for every setting that changes the output.
+	 */
+	public String getCacheKey() {
+		return String.format(Locale.ROOT,"s%d-%g%s",VERSION,tolerance,fitArcs?"-arcs":"");
+	}
+
+	/**
+	 * @param program the job, starting from 0,0,0 like after SendConfig()
+	 * @return a new program with the same path
+	 */
+	public CompiledGCode simplify(CompiledGCode program) {
+		out = new CompiledGCode();
+		x=y=z=0;
+		feedRate=Float.NaN;
+		absolute=true;
+		points=0;
+
+		int n = program.size();
+		for(int b=0;b<n;++b) {
+			int op = program.getOpcode(b);
+			if(absolute && (op==G0 || op==G1) && onlyAxes(program,b)) {
+				float f = program.getParam(b,'F',feedRate);
+				boolean sameFeed = f==feedRate || (Float.isNaN(f) && Float.isNaN(feedRate));
+				if(points>0 && (op!=runOpcode || !sameFeed || points>MAX_RUN)) flush();
+				if(points==0) startRun(op,has(program,b,'F'));
+				feedRate=f;
+				x = axis(program.getParam(b,'X',Float.NaN)*Trajectory.MM,x);
+				y = axis(program.getParam(b,'Y',Float.NaN)*Trajectory.MM,y);
+				z = axis(program.getParam(b,'Z',Float.NaN),z);
+				runHasX |= has(program,b,'X');
+				runHasY |= has(program,b,'Y');
+				runHasZ |= has(program,b,'Z');
+				addPoint(program.getSourceLine(b));
+			} else {
+				flush();
+				out.copyBlock(program,b);
+				follow(program,b);
+			}
+		}
+		flush();
+
+		CompiledGCode result = out;
+		out=null;
+		return result;
+	}
+
+	// true if the block has nothing but X, Y, Z and F.
+	private boolean onlyAxes(CompiledGCode p,int block) {
+		for(int i=p.getParamCount(block)-1;i>=0;--i) {
+			char c = p.getParamLetter(block,i);
+			if(c!='X' && c!='Y' && c!='Z' && c!='F') return false;
+		}
+		return true;
+	}
+
+	private static boolean has(CompiledGCode p,int block,char letter) {
+		return !Float.isNaN(p.getParam(block,letter,Float.NaN));
+	}
+
+	// keep track of the position through a block that is copied.
+	private void follow(CompiledGCode p,int block) {
+		int op = p.getOpcode(block);
+		if(op==G0 || op==G1 || op==G2 || op==G3) {
+			feedRate = p.getParam(block,'F',feedRate);
+			x = axis(p.getParam(block,'X',Float.NaN)*Trajectory.MM,x);
+			y = axis(p.getParam(block,'Y',Float.NaN)*Trajectory.MM,y);
+			z = axis(p.getParam(block,'Z',Float.NaN),z);
+		} else if(op==G90) {
+			absolute=true;
+		} else if(op==G91) {
+			absolute=false;
+		} else if(op==G92) {
+			x = axis(p.getParam(block,'X',Float.NaN)*Trajectory.MM,x);
+			y = axis(p.getParam(block,'Y',Float.NaN)*Trajectory.MM,y);
+			z = axis(p.getParam(block,'Z',Float.NaN)*Trajectory.MM,z);
+		} else if(op==CompiledGCode.OP_TEXT) {
+			String text = p.getText(block);
+			if(text!=null && text.startsWith("TELEPORT")) {
+				tokenizer.reset(text);
+				while(tokenizer.next()) {
+					if(!tokenizer.isWord()) continue;
+					switch(tokenizer.letter()) {
+					case 'X':  x=tokenizer.number();  break;
+					case 'Y':  y=tokenizer.number();  break;
+					case 'Z':  z=tokenizer.number();  break;
+					default:  break;
+					}
+				}
+			}
+		}
+	}
+
+	private double axis(double value,double current) {
+		if(Double.isNaN(value)) return current;
+		return absolute ? value : current+value;
+	}
+
+	private void startRun(int opcode,boolean hasFeed) {
+		runOpcode = opcode;
+		runHasFeed = hasFeed;
+		runHasX = runHasY = runHasZ = false;
+		feedWritten = false;
+		addPoint(-1);
+	}
+
+	private void addPoint(int sourceLine) {
+		if(points==px.length) {
+			int n = points*2;
+			px = grow(px,n);
+			py = grow(py,n);
+			pz = grow(pz,n);
+			int [] s = new int[n];
+			System.arraycopy(sourceLines,0,s,0,points);
+			sourceLines = s;
+			keep = new boolean[n];
+		}
+		px[points]=x;
+		py[points]=y;
+		pz[points]=z;
+		sourceLines[points]=sourceLine;
+		points++;
+	}
+
+	private static double [] grow(double [] a,int n) {
+		double [] b = new double[n];
+		System.arraycopy(a,0,b,0,a.length);
+		return b;
+	}
+
+	// write the run as arcs and lines.
+	private void flush() {
+		if(points==0) return;
+		int last = points-1;
+		int lineStart=0;
+		int i=0;
+		while(i<last) {
+			int j = fitArcs ? fitArc(i,last) : -1;
+			if(j<0) {
+				i = Math.max(i+1,nextArcStart);
+				continue;
+			}
+			writeLines(lineStart,i);
+			writeArc(i,j);
+			i=j;
+			lineStart=j;
+		}
+		writeLines(lineStart,last);
+		points=0;
+	}
+
+	// Ramer-Douglas-Peucker from point a to point b.  a has already been written.
+	private void writeLines(int a,int b) {
+		if(b<=a) return;
+		for(int i=a;i<=b;++i) keep[i]=false;
+		keep[a]=keep[b]=true;
+
+		double tolerance2 = tolerance*tolerance;
+		int top=0;
+		stack = push(stack,top,a,b);
+		top+=2;
+		while(top>0) {
+			top-=2;
+			int from=stack[top];
+			int to=stack[top+1];
+			int worst=-1;
+			double worstDistance=tolerance2;
+			for(int i=from+1;i<to;++i) {
+				double d = distanceToLine2(i,from,to);
+				if(d>worstDistance) {
+					worstDistance=d;
+					worst=i;
+				}
+			}
+			if(worst<0) continue;
+			keep[worst]=true;
+			stack = push(stack,top,from,worst);
+			top+=2;
+			stack = push(stack,top,worst,to);
+			top+=2;
+		}
+
+		for(int i=a+1;i<=b;++i) {
+			if(!keep[i]) continue;
+			out.startBlock(runOpcode,sourceLines[i]);
+			writeAxes(i);
+			writeFeed();
+		}
+	}
+
+	private static int [] push(int [] stack,int top,int a,int b) {
+		if(top+2>stack.length) {
+			int [] s = new int[stack.length*2];
+			System.arraycopy(stack,0,s,0,top);
+			stack=s;
+		}
+		stack[top]=a;
+		stack[top+1]=b;
+		return stack;
+	}
+
+	// squared distance from point i to the line from point a to point b
+	private double distanceToLine2(int i,int a,int b) {
+		double dx=px[b]-px[a], dy=py[b]-py[a], dz=pz[b]-pz[a];
+		double ex=px[i]-px[a], ey=py[i]-py[a], ez=pz[i]-pz[a];
+		double len2 = dx*dx+dy*dy+dz*dz;
+		double t = len2>0 ? (ex*dx+ey*dy+ez*dz)/len2 : 0;
+		t = Math.max(0,Math.min(1,t));
+		ex-=dx*t;
+		ey-=dy*t;
+		ez-=dz*t;
+		return ex*ex+ey*ey+ez*ez;
+	}
+
+	private void writeAxes(int i) {
+		if(runHasX) out.addParam('X',(float)(px[i]/Trajectory.MM));
+		if(runHasY) out.addParam('Y',(float)(py[i]/Trajectory.MM));
+		if(runHasZ) out.addParam('Z',(float)pz[i]);
+	}
+
+	// the first block written for a run gets the feed rate, if the run set one.
+	private void writeFeed() {
+		if(runHasFeed && !feedWritten) out.addParam('F',feedRate);
+		feedWritten=true;
+	}
+
+	/**
+	 * Find the longest arc that starts at point i.
+	 * @return the last point on the arc, or -1 if there isn't one.
+	 */
+	private int fitArc(int i,int last) {
+		nextArcStart=i+1;
+		int best = i+MIN_ARC_LINES;
+		if(best>last || !arcFits(i,best)) return -1;
+
+		// double the length until it doesn't fit, then split the difference.
+		int fails=-1;
+		for(int length=MIN_ARC_LINES*2;best<last;length*=2) {
+			int j = Math.min(last,i+length);
+			if(!arcFits(i,j)) {
+				fails=j;
+				break;
+			}
+			best=j;
+		}
+		if(fails>0) {
+			while(fails-best>1) {
+				int j=(best+fails)/2;
+				if(arcFits(i,j)) best=j;
+				else fails=j;
+			}
+		}
+		// nearly straight?  lines will do.  An arc that starts part way along would be nearly straight, too.
+		if(!arcFits(i,best) || arcBulge<=tolerance) {
+			nextArcStart=(i+best)/2;
+			return -1;
+		}
+		return best;
+	}
+
+	// where to look for the next arc if fitArc() finds none.
+	private int nextArcStart;
+	private double arcX, arcY;
+	private boolean arcClockwise;
+	// how far the middle of the arc is from a straight line.
+	private double arcBulge;
+
+	// can the points from i to j be one G02/G03?  If so, sets arcX, arcY, arcClockwise and arcBulge.
+	private boolean arcFits(int i,int j) {
+		int k=(i+j)/2;
+		// the circle through the first, middle and last points.
+		double bx=px[k]-px[i], by=py[k]-py[i];
+		double cx=px[j]-px[i], cy=py[j]-py[i];
+		double d = 2*(bx*cy-by*cx);
+		if(Math.abs(d)<1e-12) return false;
+		double b2=bx*bx+by*by;
+		double c2=cx*cx+cy*cy;
+		// the centre is sent as a float in mm, so test the centre the robot will get.
+		double centreX = (float)((px[i]+(cy*b2-by*c2)/d)/Trajectory.MM)*Trajectory.MM;
+		double centreY = (float)((py[i]+(bx*c2-cx*b2)/d)/Trajectory.MM)*Trajectory.MM;
+
+		// every step must turn the same way, and not too far.
+		double sweep=0;
+		double angle = Math.atan2(py[i]-centreY,px[i]-centreX);
+		for(int t=i+1;t<=j;++t) {
+			double a = Math.atan2(py[t]-centreY,px[t]-centreX);
+			double step = a-angle;
+			if(step>Math.PI) step-=2*Math.PI;
+			else if(step<-Math.PI) step+=2*Math.PI;
+			if(Math.abs(step)>Math.PI/2) return false;
+			if(step*sweep<0) return false;
+			sweep+=step;
+			angle=a;
+		}
+		if(Math.abs(sweep)>MAX_SWEEP) return false;
+
+		FirmwareArc arc = new FirmwareArc(px[i],py[i],pz[i],centreX,centreY,px[j],py[j],pz[j],sweep>0);
+		double r = arc.getRadius();
+		// the firmware must agree which way round and how far.
+		if(Math.abs(arc.getSweep()-sweep)>1e-6) return false;
+		// the firmware draws chords, not the circle.
+		double budget = tolerance-arc.getChordError();
+		if(budget<=0) return false;
+		double budget2 = budget*budget;
+
+		// every point and the middle of every move must be close to where the firmware will go.
+		double dz = pz[j]-pz[i];
+		double turned=0;
+		angle = Math.atan2(py[i]-centreY,px[i]-centreX);
+		for(int t=i+1;t<=j;++t) {
+			double a = Math.atan2(py[t]-centreY,px[t]-centreX);
+			double step = a-angle;
+			if(step>Math.PI) step-=2*Math.PI;
+			else if(step<-Math.PI) step+=2*Math.PI;
+			angle=a;
+
+			double mx=(px[t-1]+px[t])/2, my=(py[t-1]+py[t])/2, mz=(pz[t-1]+pz[t])/2;
+			if(arcError2(mx-centreX,my-centreY,mz-pz[i]-dz*(turned+step/2)/sweep,r)>budget2) return false;
+			turned+=step;
+			if(arcError2(px[t]-centreX,py[t]-centreY,pz[t]-pz[i]-dz*turned/sweep,r)>budget2) return false;
+		}
+
+		arcX=centreX;
+		arcY=centreY;
+		arcClockwise=sweep>0;
+		arcBulge=r*(1-Math.cos(sweep/2));
+		return true;
+	}
+
+	private static double arcError2(double dx,double dy,double dz,double r) {
+		double e = Math.sqrt(dx*dx+dy*dy)-r;
+		return e*e+dz*dz;
+	}
+
+	// the arc from point i to point j, as found by fitArc(i).
+	private void writeArc(int i,int j) {
+		out.startBlock(arcClockwise ? G2 : G3,sourceLines[j]);
+		out.addParam('X',(float)(px[j]/Trajectory.MM));
+		out.addParam('Y',(float)(py[j]/Trajectory.MM));
+		if(runHasZ) out.addParam('Z',(float)pz[j]);
+		out.addParam('I',(float)(arcX/Trajectory.MM));
+		out.addParam('J',(float)(arcY/Trajectory.MM));
+		writeFeed();
+	}
+}
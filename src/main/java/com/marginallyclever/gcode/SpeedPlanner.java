@@ -0,0 +1,140 @@
+package com.marginallyclever.gcode;
+
+import java.util.Arrays;
+
+import com.marginallyclever.kinematics.MotionPlanner;
+import com.marginallyclever.kinematics.SkycamKinematics;
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * Plans the speed of a whole job on the host with a {@link MotionPlanner} and writes the plan back into the job.  Every
+ * move becomes G01 pieces in absolute mode, each with the fastest speed the whole job plan allows as its F.  The
+ * firmware still plans its own short buffer and must still be able to stop at the end of it, so this caps speeds
+ * where the path ahead needs it rather than making the robot faster than the firmware allows.
+ *
+ * Lines are cut the way the firmware cuts them, and pieces of one line that go at the same speed are sent as one
+ * block, which the firmware cuts the same way again.  Arcs are sent piece by piece.  Any block that is not a move is a
+ * wall: the moves before it are planned to stop there, and it is sent unchanged.  G92 is sent with the absolute
+ * position, and G90 and G91 are dropped.  Positions are in cm, written with X and Y in mm and Z in cm the way the
+ * firmware reads them.
+ * @author Dan Royer
+ */
+public class SpeedPlanner {
+	private static final int G0 = CompiledGCode.opcode('G',0);
+	private static final int G1 = CompiledGCode.opcode('G',1);
+	private static final int G2 = CompiledGCode.opcode('G',2);
+	private static final int G3 = CompiledGCode.opcode('G',3);
+	private static final int G90 = CompiledGCode.opcode('G',90);
+	private static final int G91 = CompiledGCode.opcode('G',91);
+
+	private final SkycamKinematics kinematics;
+	private double acceleration = MotionPlanner.DEFAULT_ACCELERATION;
+
+	private MotionPlanner planner;
+	private Trajectory trajectory;
+	private CompiledGCode out;
+	// the block that made each planned segment.
+	private int [] segmentBlock = new int[1024];
+
+
+	public SpeedPlanner(SkycamKinematics kinematics) {
+		this.kinematics = kinematics;
+	}
+
+	/**
+	 * @param acceleration in steps/s/s, like G01 A
+	 */
+	public void setAcceleration(double acceleration) {
+		this.acceleration = acceleration;
+	}
+
+	public double getAcceleration() {
+		return acceleration;
+	}
+
+	/**
+	 * @param program the job, starting from 0,0,0 like after SendConfig()
+	 * @return a new program that goes the same way with planned feed rates
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public CompiledGCode plan(CompiledGCode program) throws InterruptedException {
+		trajectory = Trajectory.build(program);
+		out = new CompiledGCode();
+		// every position written is absolute.
+		out.startBlock(G90,0);
+		planner = new MotionPlanner(kinematics);
+		planner.setAcceleration(acceleration);
+		planner.setLookAhead(0);
+		trajectory.startAt(0,planner);
+
+		int n = program.size();
+		for(int b=0;b<n;++b) {
+			if((b&0xFFF)==0 && Thread.interrupted()) throw new InterruptedException();
+			int op = trajectory.getOpcode(b);
+			if(isMove(op)) {
+				int first = planner.getSegmentCount();
+				trajectory.replay(b,planner);
+				int last = planner.getSegmentCount();
+				if(segmentBlock.length<last) segmentBlock = Arrays.copyOf(segmentBlock,Math.max(last,segmentBlock.length*2));
+				Arrays.fill(segmentBlock,first,last,b);
+				continue;
+			}
+
+			flush();
+			trajectory.replay(b,planner);
+			int original = program.getOpcode(b);
+			if(original==G90 || original==G91) continue;
+			if(op==Trajectory.TELEPORT && original!=CompiledGCode.OP_TEXT) {
+				// G92 could have been relative.
+				out.startBlock(original,program.getSourceLine(b));
+				out.addParam('X',mm(trajectory.getX(b)));
+				out.addParam('Y',mm(trajectory.getY(b)));
+				out.addParam('Z',mm(trajectory.getZ(b)));
+			} else {
+				out.copyBlock(program,b);
+			}
+		}
+		flush();
+
+		CompiledGCode result = out;
+		out = null;
+		planner = null;
+		trajectory = null;
+		return result;
+	}
+
+	// positions are floats in the trajectory, so round away the noise to keep lines short.  A tenth of a micron is far
+	// less than a step.
+	private static double mm(double cm) {
+		return Math.round(cm/Trajectory.MM*10000.0)/10000.0;
+	}
+
+	private static double cm(double cm) {
+		return Math.round(cm*100000.0)/100000.0;
+	}
+
+	private static boolean isMove(int op) {
+		return op==G0 || op==G1 || op==G2 || op==G3;
+	}
+
+	// plan the moves since the last wall to stop at the next, and write them.
+	private void flush() {
+		int n = planner.getSegmentCount();
+		if(n==0) return;
+		planner.plan();
+		for(int i=0;i<n;++i) {
+			long f = Math.round(planner.getPeakSpeed(i));
+			int b = segmentBlock[i];
+			int op = trajectory.getOpcode(b);
+			if(op==G0 || op==G1) {
+				while(i+1<n && segmentBlock[i+1]==b && Math.round(planner.getPeakSpeed(i+1))==f) ++i;
+			}
+			out.startBlock(G1,trajectory.getSourceLine(b));
+			out.addParam('X',mm(planner.getPosition(i,0)));
+			out.addParam('Y',mm(planner.getPosition(i,1)));
+			out.addParam('Z',cm(planner.getPosition(i,2)));
+			out.addParam('F',f);
+		}
+		planner.clear();
+	}
+}
@@ -0,0 +1,115 @@
+package com.marginallyclever.gcode;
+
+import java.util.Arrays;
+
+/**
+ * One unbroken stroke: points joined by straight lines or by arcs of no more than half a circle.  Points are in cm,
+ * where the robot should go.
+ * @author Dan Royer
+ */
+public class Toolpath {
+	static final byte LINE = 0;
+	// an arc that turns toward bigger angles, counter-clockwise from above.  G02 to the firmware.
+	static final byte ARC_UP = 1;
+	static final byte ARC_DOWN = 2;
+
+	// the line of the file this came from.
+	final int sourceLine;
+
+	int count=0;
+	double [] x = new double[4];
+	double [] y = new double[4];
+	double [] z = new double[4];
+	// how the path gets to each point from the one before it, and the centre if it is an arc.
+	byte [] kind = new byte[4];
+	double [] cx = new double[4];
+	double [] cy = new double[4];
+
+
+	/**
+	 * @param sourceLine the line of the original file this came from
+	 */
+	public Toolpath(int sourceLine) {
+		this.sourceLine = sourceLine;
+	}
+
+	public void moveTo(double px,double py,double pz) {
+		count=0;
+		add(LINE,px,py,pz,0,0);
+	}
+
+	public void lineTo(double px,double py,double pz) {
+		if(count>0 && x[count-1]==px && y[count-1]==py && z[count-1]==pz) return;
+		add(LINE,px,py,pz,0,0);
+	}
+
+	/**
+	 * @param up true to turn toward bigger angles.
+	 */
+	public void arcTo(double px,double py,double pz,double centreX,double centreY,boolean up) {
+		if(count>0 && x[count-1]==px && y[count-1]==py && z[count-1]==pz) return;
+		add(up ? ARC_UP : ARC_DOWN,px,py,pz,centreX,centreY);
+	}
+
+	private void add(byte k,double px,double py,double pz,double centreX,double centreY) {
+		if(count==x.length) {
+			int n = count*2;
+			x = Arrays.copyOf(x,n);
+			y = Arrays.copyOf(y,n);
+			z = Arrays.copyOf(z,n);
+			kind = Arrays.copyOf(kind,n);
+			cx = Arrays.copyOf(cx,n);
+			cy = Arrays.copyOf(cy,n);
+		}
+		x[count]=px;
+		y[count]=py;
+		z[count]=pz;
+		kind[count]=k;
+		cx[count]=centreX;
+		cy[count]=centreY;
+		count++;
+	}
+
+	/**
+	 * @return true if there is nothing to draw.
+	 */
+	public boolean isEmpty() {
+		return count<2;
+	}
+
+	/**
+	 * Draw it the other way.  Arcs keep their centres and turn the other way.
+	 */
+	public void reverse() {
+		byte [] k = new byte[count];
+		double [] ax = new double[count];
+		double [] ay = new double[count];
+		// the way to point j is the old way to point n-j, backwards.
+		for(int j=1;j<count;++j) {
+			byte old = kind[count-j];
+			k[j] = (old==ARC_UP) ? ARC_DOWN : (old==ARC_DOWN) ? ARC_UP : LINE;
+			ax[j] = cx[count-j];
+			ay[j] = cy[count-j];
+		}
+		for(int i=0,j=count-1;i<j;++i,--j) {
+			double t;
+			t=x[i];  x[i]=x[j];  x[j]=t;
+			t=y[i];  y[i]=y[j];  y[j]=t;
+			t=z[i];  z[i]=z[j];  z[j]=t;
+		}
+		System.arraycopy(k,0,kind,0,count);
+		System.arraycopy(ax,0,cx,0,count);
+		System.arraycopy(ay,0,cy,0,count);
+	}
+
+	/**
+	 * Move to the start and draw the whole path.
+	 */
+	public void write(ToolpathWriter writer) {
+		writer.travelTo(x[0],y[0],z[0],sourceLine);
+		for(int i=1;i<count;++i) {
+			if(kind[i]==LINE) writer.lineTo(x[i],y[i],z[i],sourceLine);
+			else writer.arcTo(x[i],y[i],z[i],cx[i],cy[i],kind[i]==ARC_UP,sourceLine);
+		}
+	}
+}
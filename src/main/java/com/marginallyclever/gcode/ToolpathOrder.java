@@ -0,0 +1,125 @@
+package com.marginallyclever.gcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Puts {@link Toolpath}s in a short order, so the robot spends less time moving between them.
+ *
+ * The order is not the shortest possible.  Paths are sorted along a Hilbert curve through their starts, then each run
+ * of {@link #GROUP} of them is put in nearest-neighbour order on its own, drawing each path whichever way round starts
+ * closer.
+ * @author Dan Royer
+ */
+public class ToolpathOrder {
+	// paths ordered together.
+	static final int GROUP = 256;
+
+
+	/**
+	 * @param pool where to order the groups.
+	 * @param paths none of them empty.  Some may be reversed.
+	 * @return the same paths in the new order.
+	 */
+	public static List<Toolpath> order(ExecutorService pool,final List<Toolpath> paths)
+			throws InterruptedException, ExecutionException {
+		final int n = paths.size();
+		if(n<2) return paths;
+
+		double minX=Double.POSITIVE_INFINITY, minY=Double.POSITIVE_INFINITY;
+		double maxX=Double.NEGATIVE_INFINITY, maxY=Double.NEGATIVE_INFINITY;
+		for(Toolpath p : paths) {
+			minX=Math.min(minX,p.x[0]);  maxX=Math.max(maxX,p.x[0]);
+			minY=Math.min(minY,p.y[0]);  maxY=Math.max(maxY,p.y[0]);
+		}
+		double size = Math.max(maxX-minX,maxY-minY);
+		double cell = (size>0) ? 32767/size : 0;
+
+		// curve index in the high half, path index in the low half.
+		long [] keys = new long[n];
+		for(int i=0;i<n;++i) {
+			Toolpath p = paths.get(i);
+			int hx = (int)((p.x[0]-minX)*cell);
+			int hy = (int)((p.y[0]-minY)*cell);
+			keys[i] = ((long)hilbert(hx,hy)<<32) | i;
+		}
+		Arrays.parallelSort(keys);
+
+		final Toolpath [] sorted = new Toolpath[n];
+		for(int i=0;i<n;++i) sorted[i] = paths.get((int)keys[i]);
+
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for(int i=0;i<n;i+=GROUP) {
+			final int from = i;
+			final int to = Math.min(n,i+GROUP);
+			results.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					nearestNeighbour(sorted,from,to);
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> f : results) f.get();
+		return Arrays.asList(sorted);
+	}
+
+	// put paths[from...to) in greedy order, starting with the first.
+	private static void nearestNeighbour(Toolpath [] paths,int from,int to) {
+		for(int i=from;i<to-1;++i) {
+			Toolpath last = paths[i];
+			double x=last.x[last.count-1], y=last.y[last.count-1], z=last.z[last.count-1];
+			int best=-1;
+			boolean bestReversed=false;
+			double bestD=Double.POSITIVE_INFINITY;
+			for(int j=i+1;j<to;++j) {
+				Toolpath p = paths[j];
+				double d = distance2(x,y,z,p,0);
+				if(d<bestD) {
+					bestD=d;
+					best=j;
+					bestReversed=false;
+				}
+				d = distance2(x,y,z,p,p.count-1);
+				if(d<bestD) {
+					bestD=d;
+					best=j;
+					bestReversed=true;
+				}
+			}
+			Toolpath next = paths[best];
+			paths[best] = paths[i+1];
+			paths[i+1] = next;
+			if(bestReversed) next.reverse();
+		}
+	}
+
+	private static double distance2(double x,double y,double z,Toolpath p,int i) {
+		double dx=p.x[i]-x, dy=p.y[i]-y, dz=p.z[i]-z;
+		return dx*dx+dy*dy+dz*dz;
+	}
+
+	// the distance along a Hilbert curve through a 32768x32768 grid.
+	static int hilbert(int x,int y) {
+		int d=0;
+		for(int s=1<<14;s>0;s>>=1) {
+			int rx = (x&s)>0 ? 1 : 0;
+			int ry = (y&s)>0 ? 1 : 0;
+			d += s*s*((3*rx)^ry);
+			// rotate the quadrant.
+			if(ry==0) {
+				if(rx==1) {
+					x = s-1-x;
+					y = s-1-y;
+				}
+				int t=x;  x=y;  y=t;
+			}
+		}
+		return d;
+	}
+}
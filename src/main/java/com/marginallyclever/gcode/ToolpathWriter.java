@@ -0,0 +1,108 @@
+package com.marginallyclever.gcode;
+
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * Builds a {@link CompiledGCode} straight from moves, for jobs that never were g-code text, like drawings.  Arcs use
+ * the firmware's rules: I and J are the absolute centre, G02 turns toward bigger angles, and no arc is more than half a
+ * circle.  Moves that go nowhere are dropped, and F is only written when it changes.
+ *
+ * Positions are given in cm.  X, Y, I and J are written in mm and Z in cm, which is how the firmware reads them.
+ * @author Dan Royer
+ */
+public class ToolpathWriter {
+	private static final int G0 = CompiledGCode.opcode('G',0);
+	private static final int G1 = CompiledGCode.opcode('G',1);
+	private static final int G2 = CompiledGCode.opcode('G',2);
+	private static final int G3 = CompiledGCode.opcode('G',3);
+
+	private final CompiledGCode program = new CompiledGCode();
+	private final float feedRate, travelRate;
+	private float lastFeedRate = Float.NaN;
+	// where the last move ended, in cm.
+	private float x, y, z;
+
+
+	/**
+	 * @param feedRate how fast to draw, in steps/s
+	 * @param travelRate how fast to move between drawings, in steps/s
+	 */
+	public ToolpathWriter(double feedRate,double travelRate) {
+		this.feedRate = (float)feedRate;
+		this.travelRate = (float)travelRate;
+		// the robot could have been left in relative mode.
+		program.startBlock(CompiledGCode.opcode('G',90),0);
+	}
+
+	/**
+	 * Move without drawing.
+	 * @param sourceLine the line of the original file this move came from
+	 */
+	public void travelTo(double x,double y,double z,int sourceLine) {
+		move(G0,travelRate,x,y,z,sourceLine);
+	}
+
+	public void lineTo(double x,double y,double z,int sourceLine) {
+		move(G1,feedRate,x,y,z,sourceLine);
+	}
+
+	/**
+	 * @param cx the centre of the circle
+	 * @param toBiggerAngles true for counter-clockwise seen from above, which the firmware calls G02.
+	 */
+	public void arcTo(double x,double y,double z,double cx,double cy,boolean toBiggerAngles,int sourceLine) {
+		float fx=(float)x, fy=(float)y, fz=(float)z;
+		if(fx==this.x && fy==this.y && fz==this.z) return;
+		program.startBlock(toBiggerAngles ? G2 : G3,sourceLine);
+		program.addParam('X',mm(fx));
+		program.addParam('Y',mm(fy));
+		if(fz!=this.z) program.addParam('Z',fz);
+		program.addParam('I',mm(cx));
+		program.addParam('J',mm(cy));
+		feed(feedRate);
+		this.x=fx;  this.y=fy;  this.z=fz;
+	}
+
+	private void move(int opcode,float rate,double x,double y,double z,int sourceLine) {
+		float fx=(float)x, fy=(float)y, fz=(float)z;
+		if(fx==this.x && fy==this.y && fz==this.z) return;
+		program.startBlock(opcode,sourceLine);
+		if(fx!=this.x) program.addParam('X',mm(fx));
+		if(fy!=this.y) program.addParam('Y',mm(fy));
+		if(fz!=this.z) program.addParam('Z',fz);
+		feed(rate);
+		this.x=fx;  this.y=fy;  this.z=fz;
+	}
+
+	private static float mm(double cm) {
+		return (float)(cm/Trajectory.MM);
+	}
+
+	private void feed(float rate) {
+		if(rate==lastFeedRate) return;
+		program.addParam('F',rate);
+		lastFeedRate=rate;
+	}
+
+	/**
+	 * @return where the last move ended, in cm.
+	 */
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	public double getZ() {
+		return z;
+	}
+
+	/**
+	 * @return everything written so far.
+	 */
+	public CompiledGCode getProgram() {
+		return program;
+	}
+}
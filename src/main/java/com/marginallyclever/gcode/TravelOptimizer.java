@@ -0,0 +1,419 @@
+package com.marginallyclever.gcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * Draws the same paths with less travel between them.  A path is a run of G01, G02 and G03 between G00 moves.  Paths
+ * are put in a new order and may be drawn backwards, arcs turning the other way.  See {@link TravelTour} for how.
+ *
+ * Only absolute moves with nothing but X, Y, Z, F and the centre of an arc are moved.  Any other block is a wall:
+ * paths never cross it, and if it could care where the robot is, the robot gets there the way it did before.  A job
+ * that ends with a G00, like going home, still ends there.  Every move keeps the feed rate it had.  If the new order is
+ * no shorter, a run of paths is left as it was.  Travel is measured in cm, with X and Y read from mm the way
+ * {@link Trajectory} reads them.
+ * @author Dan Royer
+ */
+public class TravelOptimizer {
+	// change this when the output changes, so old cached results are not used.
+	private static final int VERSION = 2;
+	public static final double DEFAULT_TIME_LIMIT = 2;
+
+	private static final int G0 = CompiledGCode.opcode('G',0);
+	private static final int G1 = CompiledGCode.opcode('G',1);
+	private static final int G2 = CompiledGCode.opcode('G',2);
+	private static final int G3 = CompiledGCode.opcode('G',3);
+	private static final int G4 = CompiledGCode.opcode('G',4);
+	private static final int G20 = CompiledGCode.opcode('G',20);
+	private static final int G21 = CompiledGCode.opcode('G',21);
+	private static final int G90 = CompiledGCode.opcode('G',90);
+	private static final int G91 = CompiledGCode.opcode('G',91);
+	private static final int G92 = CompiledGCode.opcode('G',92);
+
+	private final double timeLimit;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private double travelBefore, travelAfter;
+
+	private GCodeTokenizer tokenizer = new GCodeTokenizer();
+	// where the robot is and what it is doing after each block of the program, in cm.
+	private float [] bx, by, bz, bf;
+	private CompiledGCode in, out;
+	// where the new program is, and its feed rate.
+	private float ox, oy, oz, of;
+
+
+	/**
+	 * @param timeLimit how long to spend improving the order, in seconds.  The first order is always finished.
+	 */
+	public TravelOptimizer(double timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public double getTimeLimit() {
+		return timeLimit;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1,threads);
+	}
+
+	/**
+	 * @return different for every setting that changes the output.
+	 */
+	public String getCacheKey() {
+		return String.format(Locale.ROOT,"t%d-%g",VERSION,timeLimit);
+	}
+
+	/**
+	 * @return how far the last program travelled without drawing, before and after.
+	 */
+	public double getTravelBefore() {
+		return travelBefore;
+	}
+
+	public double getTravelAfter() {
+		return travelAfter;
+	}
+
+	// paths between walls.
+	private static class Run {
+		// blocks [first,last] of the program.
+		int first, last;
+		// the first and last block of each path.
+		int [] pathFirst = new int[16];
+		int [] pathLast = new int[16];
+		int paths;
+		// true if the robot must end where it did before.
+		boolean fixedEnd;
+		// true if it ends with travel.
+		boolean endsWithTravel;
+		// the new order, and which way round.
+		int [] order;
+		boolean [] backwards;
+
+		void add(int a,int b) {
+			if(paths==pathFirst.length) {
+				pathFirst = Arrays.copyOf(pathFirst,paths*2);
+				pathLast = Arrays.copyOf(pathLast,paths*2);
+			}
+			pathFirst[paths]=a;
+			pathLast[paths]=b;
+			paths++;
+		}
+	}
+
+	/**
+	 * @param program the job, starting from 0,0,0 like after SendConfig()
+	 * @return a new program that draws the same paths
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public CompiledGCode optimize(CompiledGCode program) throws InterruptedException {
+		in = program;
+		List<Run> runs = split();
+
+		travelBefore = 0;
+		travelAfter = 0;
+		long total=0;
+		for(Run run : runs) total += run.paths;
+		long started = System.nanoTime();
+		long deadline = started+(long)(timeLimit*1e9);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads,new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"Travel optimizer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			for(Run run : runs) {
+				// each run gets time for its share of the paths left.
+				long now = System.nanoTime();
+				long share = (total>0) ? (long)((deadline-now)*((double)run.paths/total)) : 0;
+				total -= run.paths;
+				solve(run,pool,now+Math.max(0,share));
+				if(Thread.interrupted()) throw new InterruptedException();
+			}
+		} catch(ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		CompiledGCode result = write(runs);
+		in = null;
+		bx = by = bz = bf = null;
+		return result;
+	}
+
+	// find the runs of paths, and where the robot is after every block.
+	private List<Run> split() {
+		int n = in.size();
+		bx = new float[n];
+		by = new float[n];
+		bz = new float[n];
+		bf = new float[n];
+		float x=0, y=0, z=0, f=Float.NaN;
+		boolean absolute=true;
+		List<Run> runs = new ArrayList<Run>();
+		Run run = null;
+		// a run that ended at a block that doesn't care where the robot is.  The next block that does decides.
+		Run waiting = null;
+		int pathStart = -1;
+		// the last path, or travel, in the run.
+		int lastPathEnd = -1, lastMove = -1;
+
+		for(int b=0;b<n;++b) {
+			int op = in.getOpcode(b);
+			boolean movable = absolute && movable(b);
+			if(waiting!=null && !ignoresPosition(b)) {
+				waiting.fixedEnd = waiting.endsWithTravel || !movable;
+				waiting = null;
+			}
+			if(movable) {
+				if(run==null) {
+					run = new Run();
+					run.first = b;
+				}
+				if(op==G0) {
+					if(pathStart>=0) run.add(pathStart,b-1);
+					pathStart=-1;
+				} else {
+					if(pathStart<0) pathStart=b;
+					lastPathEnd=b;
+				}
+				lastMove=b;
+			} else if(run!=null) {
+				if(pathStart>=0) run.add(pathStart,b-1);
+				run.last = b-1;
+				run.endsWithTravel = lastMove>lastPathEnd;
+				run.fixedEnd = true;
+				if(ignoresPosition(b)) waiting = run;
+				runs.add(run);
+				run = null;
+				pathStart = -1;
+			}
+
+			// follow the block.
+			if(op==G0 || op==G1 || op==G2 || op==G3) {
+				f = in.getParam(b,'F',f);
+				x = axis(in.getParam(b,'X',Float.NaN)*Trajectory.MM,x,absolute);
+				y = axis(in.getParam(b,'Y',Float.NaN)*Trajectory.MM,y,absolute);
+				z = axis(in.getParam(b,'Z',Float.NaN),z,absolute);
+			} else if(op==G90) {
+				absolute=true;
+			} else if(op==G91) {
+				absolute=false;
+			} else if(op==G92) {
+				x = axis(in.getParam(b,'X',Float.NaN)*Trajectory.MM,x,true);
+				y = axis(in.getParam(b,'Y',Float.NaN)*Trajectory.MM,y,true);
+				z = axis(in.getParam(b,'Z',Float.NaN)*Trajectory.MM,z,true);
+			} else if(op==CompiledGCode.OP_TEXT) {
+				String text = in.getText(b);
+				if(text!=null && text.startsWith("TELEPORT")) {
+					tokenizer.reset(text);
+					while(tokenizer.next()) {
+						if(!tokenizer.isWord()) continue;
+						switch(tokenizer.letter()) {
+						case 'X':  x=(float)tokenizer.number();  break;
+						case 'Y':  y=(float)tokenizer.number();  break;
+						case 'Z':  z=(float)tokenizer.number();  break;
+						default:  break;
+						}
+					}
+				}
+			}
+			bx[b]=x;
+			by[b]=y;
+			bz[b]=z;
+			bf[b]=f;
+		}
+		if(run!=null) {
+			if(pathStart>=0) run.add(pathStart,n-1);
+			run.last = n-1;
+			run.endsWithTravel = lastMove>lastPathEnd;
+			waiting = run;
+			runs.add(run);
+		}
+		// nothing comes after it.
+		if(waiting!=null) waiting.fixedEnd = waiting.endsWithTravel;
+		return runs;
+	}
+
+	private static float axis(double value,float current,boolean absolute) {
+		if(Double.isNaN(value)) return current;
+		return (float)(absolute ? value : current+value);
+	}
+
+	// a move that can be put somewhere else.  Arcs need their centre.
+	private boolean movable(int b) {
+		int op = in.getOpcode(b);
+		boolean arc = (op==G2 || op==G3);
+		if(op!=G0 && op!=G1 && !arc) return false;
+		boolean hasI=false, hasJ=false;
+		for(int i=in.getParamCount(b)-1;i>=0;--i) {
+			char c = in.getParamLetter(b,i);
+			if(c=='X' || c=='Y' || c=='Z' || c=='F') continue;
+			if(arc && c=='I') hasI=true;
+			else if(arc && c=='J') hasJ=true;
+			else return false;
+		}
+		return !arc || (hasI && hasJ);
+	}
+
+	// blocks that don't move the robot or care where it is.
+	private boolean ignoresPosition(int b) {
+		int op = in.getOpcode(b);
+		if(CompiledGCode.getLetter(op)=='M') return true;
+		return op==G4 || op==G20 || op==G21 || op==G90;
+	}
+
+	// where block b starts.
+	private float startX(int b) { return (b>0) ? bx[b-1] : 0; }
+	private float startY(int b) { return (b>0) ? by[b-1] : 0; }
+	private float startZ(int b) { return (b>0) ? bz[b-1] : 0; }
+
+	private void solve(Run run,ExecutorService pool,long deadline) throws InterruptedException, ExecutionException {
+		int n = run.paths;
+		if(n<2) return;
+		double [] ends = new double[n*6];
+		for(int i=0;i<n;++i) {
+			int a = run.pathFirst[i];
+			int b = run.pathLast[i];
+			ends[i*6  ]=startX(a);
+			ends[i*6+1]=startY(a);
+			ends[i*6+2]=startZ(a);
+			ends[i*6+3]=bx[b];
+			ends[i*6+4]=by[b];
+			ends[i*6+5]=bz[b];
+		}
+		double [] from = { startX(run.first), startY(run.first), startZ(run.first) };
+		double [] to = run.fixedEnd ? new double[] { bx[run.last], by[run.last], bz[run.last] } : null;
+
+		TravelTour tour = new TravelTour(ends,from,to);
+		double before = tour.length();
+		tour.solve(pool,threads,deadline);
+		double after = tour.length();
+		travelBefore += before;
+		if(after<before) {
+			run.order = new int[n];
+			run.backwards = new boolean[n];
+			for(int i=0;i<n;++i) {
+				int p = tour.getPath(i);
+				run.order[i]=p;
+				run.backwards[i]=tour.isReversed(p);
+			}
+			travelAfter += after;
+		} else {
+			travelAfter += before;
+		}
+	}
+
+	private CompiledGCode write(List<Run> runs) {
+		out = new CompiledGCode();
+		ox=oy=oz=0;
+		of=Float.NaN;
+		int next=0;
+		int n = in.size();
+		for(int r=0;r<=runs.size();++r) {
+			Run run = (r<runs.size()) ? runs.get(r) : null;
+			int stop = (run!=null) ? run.first : n;
+			// everything before the run, as it was.
+			for(int b=next;b<stop;++b) copy(b);
+			if(run==null) break;
+			if(run.order==null) {
+				// the run before may have ended somewhere else.
+				int a = run.first;
+				travel(startX(a),startY(a),startZ(a),(a>0) ? bf[a-1] : Float.NaN,in.getSourceLine(a));
+				for(int b=run.first;b<=run.last;++b) copy(b);
+			} else {
+				writeRun(run);
+			}
+			next = run.last+1;
+		}
+		CompiledGCode result = out;
+		out = null;
+		return result;
+	}
+
+	private void writeRun(Run run) {
+		for(int i=0;i<run.paths;++i) {
+			int p = run.order[i];
+			int a = run.pathFirst[p];
+			int b = run.pathLast[p];
+			// travel as fast as the original did to this path.
+			float travelFeed = (a>0) ? bf[a-1] : Float.NaN;
+			if(run.backwards[i]) {
+				travel(bx[b],by[b],bz[b],travelFeed,in.getSourceLine(b));
+				for(int k=b;k>=a;--k) {
+					int op = in.getOpcode(k);
+					int back = (op==G2) ? G3 : (op==G3) ? G2 : op;
+					move(back,startX(k),startY(k),startZ(k),k);
+				}
+			} else {
+				travel(startX(a),startY(a),startZ(a),travelFeed,in.getSourceLine(a));
+				for(int k=a;k<=b;++k) copy(k);
+			}
+		}
+		if(run.fixedEnd) {
+			travel(bx[run.last],by[run.last],bz[run.last],bf[run.last],in.getSourceLine(run.last));
+		}
+	}
+
+	private void travel(float x,float y,float z,float feed,int sourceLine) {
+		if(x==ox && y==oy && z==oz) return;
+		out.startBlock(G0,sourceLine);
+		if(x!=ox) out.addParam('X',(float)(x/Trajectory.MM));
+		if(y!=oy) out.addParam('Y',(float)(y/Trajectory.MM));
+		if(z!=oz) out.addParam('Z',z);
+		feed(feed,true);
+		ox=x;  oy=y;  oz=z;
+	}
+
+	// the move of block k, backwards, to x,y,z.
+	private void move(int opcode,float x,float y,float z,int k) {
+		boolean arc = (opcode==G2 || opcode==G3);
+		if(!arc && x==ox && y==oy && z==oz) return;
+		out.startBlock(opcode,in.getSourceLine(k));
+		if(arc || x!=ox) out.addParam('X',(float)(x/Trajectory.MM));
+		if(arc || y!=oy) out.addParam('Y',(float)(y/Trajectory.MM));
+		if(z!=oz) out.addParam('Z',z);
+		if(arc) {
+			out.addParam('I',in.getParam(k,'I',0));
+			out.addParam('J',in.getParam(k,'J',0));
+		}
+		feed(bf[k],true);
+		ox=x;  oy=y;  oz=z;
+	}
+
+	// copy block b as it is, with the feed rate it had.
+	private void copy(int b) {
+		out.copyBlock(in,b);
+		int op = in.getOpcode(b);
+		if(op==G0 || op==G1 || op==G2 || op==G3) {
+			boolean hasFeed = !Float.isNaN(in.getParam(b,'F',Float.NaN));
+			feed(bf[b],!hasFeed);
+		}
+		// the robot may not be where it was before, but then this block doesn't care.
+		if(ignoresPosition(b)) return;
+		ox=bx[b];
+		oy=by[b];
+		oz=bz[b];
+	}
+
+	// the block just written moves at this feed rate.  Say so if the robot would otherwise use another.
+	private void feed(float feed,boolean write) {
+		if(Float.isNaN(feed) || feed==of) return;
+		if(write) out.addParam('F',feed);
+		of=feed;
+	}
+}
@@ -0,0 +1,463 @@
+package com.marginallyclever.gcode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The order to draw paths in, and which way round, so the travel between them is short.  Each path is two points,
+ * where it starts and where it ends.  The tour starts at a fixed point and may have to end at one.
+ *
+ * A grid over the ends of the paths finds each path's nearest neighbours, and the nearest path not yet drawn while the
+ * first tour is built.  2-opt and Or-opt moves between neighbours then shorten it until nothing improves or time runs
+ * out.  The tour is cut into windows with a fixed path between each, so the windows can be improved at the same time,
+ * and the cuts move every round.
+ * @author Dan Royer
+ */
+class TravelTour {
+	// neighbours of each end.
+	static final int NEIGHBOURS = 8;
+	// the most paths one window can move at once.  Every move shifts part of the window.
+	static final int MAX_WINDOW = 32768;
+	// Or-opt moves up to this many paths in a row.
+	private static final int MAX_SEGMENT = 3;
+	private static final double EPSILON = 1e-9;
+
+	private final int n;
+	// point 2i is where path i starts, 2i+1 where it ends.  then the start and end of the tour.
+	private final double [] px, py, pz;
+	private final int start, end;
+	private final boolean fixedEnd;
+
+	// tour[1...n] are paths.  0 and n+1 stand for the start and end.
+	private final int [] tour;
+	// where each path is in the tour.
+	private final int [] pos;
+	private final boolean [] reversed;
+	private int [] neighbours;
+
+	// the grid.  cell c holds points items[cellStart[c]...cellStart[c]+cellCount[c]).
+	private double minX, minY, cellSize;
+	private int cols, rows;
+	private int [] cellStart, cellCount, items, where;
+
+
+	/**
+	 * @param ends x,y,z of the start then the end of each path
+	 * @param from where the tour starts
+	 * @param to where the tour must end, or null if it may end anywhere.
+	 */
+	TravelTour(double [] ends,double [] from,double [] to) {
+		n = ends.length/6;
+		px = new double[2*n+2];
+		py = new double[2*n+2];
+		pz = new double[2*n+2];
+		for(int i=0;i<2*n;++i) {
+			px[i]=ends[i*3];
+			py[i]=ends[i*3+1];
+			pz[i]=ends[i*3+2];
+		}
+		start = 2*n;
+		end = 2*n+1;
+		px[start]=from[0];  py[start]=from[1];  pz[start]=from[2];
+		fixedEnd = (to!=null);
+		if(fixedEnd) {
+			px[end]=to[0];  py[end]=to[1];  pz[end]=to[2];
+		}
+		tour = new int[n+2];
+		pos = new int[n];
+		reversed = new boolean[n];
+		for(int i=0;i<n;++i) {
+			tour[i+1]=i;
+			pos[i]=i+1;
+		}
+	}
+
+	/**
+	 * @return the path in place i, from 0.
+	 */
+	int getPath(int i) {
+		return tour[i+1];
+	}
+
+	boolean isReversed(int path) {
+		return reversed[path];
+	}
+
+	/**
+	 * @return the length of all travel in the tour as it is now.
+	 */
+	double length() {
+		double sum=0;
+		for(int i=0;i<=n;++i) sum += d(out(i),in(i+1));
+		return sum;
+	}
+
+	/**
+	 * Build the first tour and improve it.
+	 * @param deadline when to stop improving, by System.nanoTime().  The first tour is always finished.
+	 */
+	void solve(ExecutorService pool,int threads,long deadline) throws InterruptedException, ExecutionException {
+		if(n<2) return;
+		buildGrid();
+		findNeighbours(pool,threads);
+		nearestNeighbour();
+		improve(pool,threads,deadline);
+	}
+
+	private void buildGrid() {
+		minX=Double.POSITIVE_INFINITY;
+		minY=Double.POSITIVE_INFINITY;
+		double maxX=Double.NEGATIVE_INFINITY, maxY=Double.NEGATIVE_INFINITY;
+		for(int p=0;p<2*n;++p) {
+			minX=Math.min(minX,px[p]);  maxX=Math.max(maxX,px[p]);
+			minY=Math.min(minY,py[p]);  maxY=Math.max(maxY,py[p]);
+		}
+		// about two points a cell.
+		double w = Math.max(maxX-minX,1e-6);
+		double h = Math.max(maxY-minY,1e-6);
+		cellSize = Math.sqrt(w*h/n);
+		cols = (int)Math.min(4096,Math.max(1,w/cellSize+1));
+		rows = (int)Math.min(4096,Math.max(1,h/cellSize+1));
+		cellSize = Math.max(w/(cols-0.5),h/(rows-0.5));
+
+		int cells = cols*rows;
+		cellStart = new int[cells+1];
+		cellCount = new int[cells];
+		items = new int[2*n];
+		where = new int[2*n];
+		for(int p=0;p<2*n;++p) cellCount[cell(px[p],py[p])]++;
+		for(int c=0;c<cells;++c) cellStart[c+1] = cellStart[c]+cellCount[c];
+		for(int p=0;p<2*n;++p) {
+			int c = cell(px[p],py[p]);
+			int i = cellStart[c] + --cellCount[c];
+			items[i]=p;
+			where[p]=i;
+		}
+		for(int c=0;c<cells;++c) cellCount[c] = cellStart[c+1]-cellStart[c];
+	}
+
+	private int cell(double x,double y) {
+		int cx = Math.max(0,Math.min(cols-1,(int)((x-minX)/cellSize)));
+		int cy = Math.max(0,Math.min(rows-1,(int)((y-minY)/cellSize)));
+		return cy*cols+cx;
+	}
+
+	// the closest NEIGHBOURS ends of other paths to every end, and to the start.  -1 where there are fewer.
+	private void findNeighbours(ExecutorService pool,int threads) throws InterruptedException, ExecutionException {
+		final int points = 2*n+1;
+		neighbours = new int[points*NEIGHBOURS];
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		int chunk = Math.max(1024,(points+threads*4-1)/(threads*4));
+		for(int i=0;i<points;i+=chunk) {
+			final int from = i;
+			final int to = Math.min(points,i+chunk);
+			results.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					double [] best = new double[NEIGHBOURS];
+					for(int p=from;p<to;++p) nearest(p,best,p*NEIGHBOURS);
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> f : results) f.get();
+	}
+
+	// search the grid in growing squares around point p until nothing closer can be left.
+	private void nearest(int p,double [] best,int at) {
+		int found=0;
+		int self = (p<2*n) ? p>>1 : -1;
+		int cx = Math.max(0,Math.min(cols-1,(int)((px[p]-minX)/cellSize)));
+		int cy = Math.max(0,Math.min(rows-1,(int)((py[p]-minY)/cellSize)));
+		int max = Math.max(cols,rows);
+		for(int r=0;r<=max;++r) {
+			if(found==NEIGHBOURS && best[found-1] <= (r-1)*cellSize*(r-1)*cellSize) break;
+			for(int y=cy-r;y<=cy+r;++y) {
+				if(y<0 || y>=rows) continue;
+				boolean edge = (y==cy-r || y==cy+r);
+				for(int x=cx-r;x<=cx+r;x += edge ? 1 : Math.max(1,2*r)) {
+					if(x<0 || x>=cols) continue;
+					int c = y*cols+x;
+					for(int i=cellStart[c];i<cellStart[c]+cellCount[c];++i) {
+						int q = items[i];
+						if((q>>1)==self) continue;
+						double d = d2(p,q);
+						if(found==NEIGHBOURS && d>=best[found-1]) continue;
+						int k = (found<NEIGHBOURS) ? found++ : found-1;
+						while(k>0 && best[k-1]>d) {
+							best[k]=best[k-1];
+							neighbours[at+k]=neighbours[at+k-1];
+							--k;
+						}
+						best[k]=d;
+						neighbours[at+k]=q;
+					}
+				}
+			}
+		}
+		for(int k=found;k<NEIGHBOURS;++k) neighbours[at+k]=-1;
+	}
+
+	// the first tour: always the closest end of any path not yet drawn.
+	private void nearestNeighbour() {
+		// paths not drawn yet, for when the grid around here is empty.
+		int [] left = new int[n];
+		int [] leftAt = new int[n];
+		for(int i=0;i<n;++i) {
+			left[i]=i;
+			leftAt[i]=i;
+		}
+		int remaining=n;
+		int at = start;
+		for(int i=1;i<=n;++i) {
+			int q = closestLeft(at,remaining,left);
+			int c = q>>1;
+			tour[i]=c;
+			pos[c]=i;
+			reversed[c] = (q&1)!=0;
+			at = reversed[c] ? 2*c : 2*c+1;
+			// take both ends out of the grid.
+			remove(2*c);
+			remove(2*c+1);
+			int j = leftAt[c];
+			int last = left[--remaining];
+			left[j]=last;
+			leftAt[last]=j;
+		}
+	}
+
+	private int closestLeft(int p,int remaining,int [] left) {
+		int cx = Math.max(0,Math.min(cols-1,(int)((px[p]-minX)/cellSize)));
+		int cy = Math.max(0,Math.min(rows-1,(int)((py[p]-minY)/cellSize)));
+		int max = Math.max(cols,rows);
+		int best=-1;
+		double bestD=Double.POSITIVE_INFINITY;
+		// give up on the grid once it costs more than looking at every path left.
+		int budget = 4*remaining+64;
+		for(int r=0;r<=max;++r) {
+			if(best>=0 && bestD <= (r-1)*cellSize*(r-1)*cellSize) return best;
+			for(int y=cy-r;y<=cy+r;++y) {
+				if(y<0 || y>=rows) continue;
+				boolean edge = (y==cy-r || y==cy+r);
+				for(int x=cx-r;x<=cx+r;x += edge ? 1 : Math.max(1,2*r)) {
+					if(x<0 || x>=cols) continue;
+					int c = y*cols+x;
+					--budget;
+					for(int i=cellStart[c];i<cellStart[c]+cellCount[c];++i) {
+						int q = items[i];
+						double d = d2(p,q);
+						if(d<bestD) {
+							bestD=d;
+							best=q;
+						}
+					}
+				}
+			}
+			if(budget<0) break;
+		}
+		if(best>=0 && budget>=0) return best;
+		for(int i=0;i<remaining;++i) {
+			int c = left[i];
+			for(int q=2*c;q<=2*c+1;++q) {
+				double d = d2(p,q);
+				if(d<bestD) {
+					bestD=d;
+					best=q;
+				}
+			}
+		}
+		return best;
+	}
+
+	private void remove(int p) {
+		int c = cell(px[p],py[p]);
+		int last = cellStart[c] + --cellCount[c];
+		int i = where[p];
+		int q = items[last];
+		items[i]=q;
+		where[q]=i;
+		items[last]=p;
+		where[p]=last;
+	}
+
+	private void improve(ExecutorService pool,int threads,long deadline) throws InterruptedException, ExecutionException {
+		int window = Math.min(MAX_WINDOW,Math.max(1024,(n+threads-1)/threads));
+		if(window>=n) {
+			// one window, nothing to share.
+			while(System.nanoTime()<deadline && improveWindow(1,n,deadline)) {}
+			return;
+		}
+		int offset=0;
+		int quiet=0;
+		while(System.nanoTime()<deadline && quiet<2) {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			int from=1;
+			// the path at each gap stays put this round.
+			for(int gap=(offset>0 ? offset : window);from<=n;gap+=window) {
+				final int lo = from;
+				final int hi = Math.min(n,gap-1);
+				final long stop = deadline;
+				if(hi>lo) {
+					results.add(pool.submit(new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							boolean any=false;
+							while(System.nanoTime()<stop && improveWindow(lo,hi,stop)) any=true;
+							return any;
+						}
+					}));
+				}
+				from=gap+1;
+			}
+			boolean any=false;
+			for(Future<Boolean> f : results) any |= f.get();
+			quiet = any ? 0 : quiet+1;
+			offset = (offset==0) ? window/2 : 0;
+		}
+	}
+
+	// one pass of 2-opt and Or-opt over tour[lo...hi].  Only those places change.
+	private boolean improveWindow(int lo,int hi,long deadline) {
+		boolean improved=false;
+		for(int i=lo;i<=hi;++i) {
+			if((i&255)==0 && System.nanoTime()>=deadline) break;
+			if(twoOpt(i,lo,hi)) improved=true;
+			for(int length=1;length<=MAX_SEGMENT && i+length-1<=hi;++length) {
+				if(orOpt(i,i+length-1,lo,hi)) {
+					improved=true;
+					break;
+				}
+			}
+		}
+		return improved;
+	}
+
+	// 2-opt that makes a new link to a neighbour of either end of the link into place i.
+	private boolean twoOpt(int i,int lo,int hi) {
+		int a = out(i-1);
+		int b = in(i);
+		double ab = d(a,b);
+		for(int k=0;k<NEIGHBOURS;++k) {
+			// reverse [i...j], linking a to the end of j.
+			int q = neighbours[a*NEIGHBOURS+k];
+			if(q<0) break;
+			int j = pos[q>>1];
+			if(j<i || j>hi || out(j)!=q) continue;
+			int c = in(j+1);
+			if(d(a,q)+d(b,c)-ab-d(q,c) < -EPSILON) {
+				reverse(i,j);
+				return true;
+			}
+		}
+		for(int k=0;k<NEIGHBOURS;++k) {
+			// reverse [j...i-1], linking the start of j to b.
+			int q = neighbours[b*NEIGHBOURS+k];
+			if(q<0) break;
+			int j = pos[q>>1];
+			if(j<lo || j>=i || in(j)!=q) continue;
+			int c = out(j-1);
+			if(d(c,a)+d(q,b)-d(c,q)-ab < -EPSILON) {
+				reverse(j,i-1);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// move tour[s...e] next to a neighbour of either of its ends, either way round.
+	private boolean orOpt(int s,int e,int lo,int hi) {
+		int first = in(s);
+		int last = out(e);
+		int before = out(s-1);
+		int after = in(e+1);
+		double gain = d(before,first)+d(last,after)-d(before,after);
+		if(gain<=EPSILON) return false;
+
+		for(int side=0;side<2;++side) {
+			int from = (side==0) ? first : last;
+			for(int k=0;k<NEIGHBOURS;++k) {
+				int q = neighbours[from*NEIGHBOURS+k];
+				if(q<0) break;
+				int j = pos[q>>1];
+				if(j<lo || j>hi) continue;
+				// put it between p and p+1.
+				int p = (out(j)==q) ? j : j-1;
+				if(p>=s-1 && p<=e) continue;
+				int o = out(p);
+				int i = in(p+1);
+				double oi = d(o,i);
+				double forward = d(o,first)+d(last,i)-oi;
+				double backward = d(o,last)+d(first,i)-oi;
+				boolean flip = backward<forward;
+				if(Math.min(forward,backward)-gain < -EPSILON) {
+					move(s,e,p,flip);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void reverse(int i,int j) {
+		for(int a=i,b=j;a<=b;++a,--b) {
+			int t=tour[a];
+			tour[a]=tour[b];
+			tour[b]=t;
+		}
+		for(int a=i;a<=j;++a) {
+			int c = tour[a];
+			reversed[c] = !reversed[c];
+			pos[c]=a;
+		}
+	}
+
+	// move tour[s...e] to between p and p+1.
+	private void move(int s,int e,int p,boolean flip) {
+		int length = e-s+1;
+		int [] moving = new int[length];
+		System.arraycopy(tour,s,moving,0,length);
+		int at;
+		if(p>e) {
+			System.arraycopy(tour,e+1,tour,s,p-e);
+			for(int a=s;a<s+p-e;++a) pos[tour[a]]=a;
+			at = p-length+1;
+		} else {
+			System.arraycopy(tour,p+1,tour,p+1+length,s-p-1);
+			for(int a=p+1+length;a<=e;++a) pos[tour[a]]=a;
+			at = p+1;
+		}
+		for(int k=0;k<length;++k) {
+			int c = moving[flip ? length-1-k : k];
+			tour[at+k]=c;
+			pos[c]=at+k;
+			if(flip) reversed[c] = !reversed[c];
+		}
+	}
+
+	// where the thing in place i starts and ends.
+	private int in(int i) {
+		if(i>n) return end;
+		int c = tour[i];
+		return reversed[c] ? 2*c+1 : 2*c;
+	}
+
+	private int out(int i) {
+		if(i==0) return start;
+		int c = tour[i];
+		return reversed[c] ? 2*c : 2*c+1;
+	}
+
+	private double d(int a,int b) {
+		if(b==end && !fixedEnd) return 0;
+		return Math.sqrt(d2(a,b));
+	}
+
+	private double d2(int a,int b) {
+		double dx=px[a]-px[b], dy=py[a]-py[b], dz=pz[a]-pz[b];
+		return dx*dx+dy*dy+dz*dz;
+	}
+}
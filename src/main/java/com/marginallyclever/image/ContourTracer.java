@@ -0,0 +1,276 @@
+package com.marginallyclever.image;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Traces the outlines of a {@link GrayImage} at a few levels of darkness with marching squares.  Each band of rows is
+ * traced and joined into strokes on its own.  Strokes that run off the top or bottom of a band are joined to those in
+ * the next band after all of them are traced.
+ *
+ * The grid is edged with white, so every outline closes.  Where the outline is ambiguous, the middle of the cell
+ * decides.  Points are in cells from the top left, where the middle of cell 0,0 is 0,0.
+ * @author Dan Royer
+ */
+class ContourTracer {
+	private final GrayImage image;
+	// darkness at each level.
+	private final float [] iso;
+	// samples across, with the white edge.
+	private final int stride;
+
+
+	/**
+	 * @param levels how many outlines, evenly between white and black.
+	 */
+	ContourTracer(GrayImage image,int levels) {
+		this.image = image;
+		iso = new float[levels];
+		for(int k=0;k<levels;++k) iso[k] = (k+0.5f)/levels;
+		stride = image.width+2;
+	}
+
+	/**
+	 * An outline, or the part of one inside a band.
+	 */
+	static class Stroke {
+		final int level;
+		// the edges it crosses, in order.
+		long [] edges;
+		int count;
+		boolean closed;
+
+		Stroke(int level,long [] edges,int count,boolean closed) {
+			this.level = level;
+			this.edges = edges;
+			this.count = count;
+			this.closed = closed;
+		}
+
+		void reverse() {
+			for(int i=0,j=count-1;i<j;++i,--j) {
+				long t=edges[i];  edges[i]=edges[j];  edges[j]=t;
+			}
+		}
+
+		void append(Stroke s) {
+			// the first edge of s is the last of this.
+			if(count+s.count-1>edges.length) edges = Arrays.copyOf(edges,Math.max(edges.length*2,count+s.count-1));
+			System.arraycopy(s.edges,1,edges,count,s.count-1);
+			count += s.count-1;
+		}
+	}
+
+	/**
+	 * @return the number of cell rows to trace, counting the white edge.
+	 */
+	int rows() {
+		return image.height+1;
+	}
+
+	/**
+	 * Trace cell rows [from,to).  Row 0 is the white edge above the picture.
+	 */
+	List<Stroke> trace(int from,int to) {
+		List<Stroke> strokes = new ArrayList<Stroke>();
+		// edges from the top of row from to the bottom of row to-1.
+		long base = edge(-1,from-1,false);
+		int span = (int)(edge(-1,to,false)-base);
+		int [] segA = new int[64];
+		int [] segB = new int[64];
+		int [] at = new int[span*2];
+		for(int k=0;k<iso.length;++k) {
+			float t = iso[k];
+			int n=0;
+			for(int j=from-1;j<to-1;++j) {
+				for(int i=-1;i<image.width;++i) {
+					float a=image.get(i,j), b=image.get(i+1,j), c=image.get(i+1,j+1), d=image.get(i,j+1);
+					int cell = (a>t?8:0) | (b>t?4:0) | (c>t?2:0) | (d>t?1:0);
+					if(cell==0 || cell==15) continue;
+					int top    = (int)(edge(i  ,j  ,false)-base);
+					int right  = (int)(edge(i+1,j  ,true )-base);
+					int bottom = (int)(edge(i  ,j+1,false)-base);
+					int left   = (int)(edge(i  ,j  ,true )-base);
+					if(n+2>segA.length) {
+						segA = Arrays.copyOf(segA,segA.length*2);
+						segB = Arrays.copyOf(segB,segB.length*2);
+					}
+					switch(cell) {
+					case  1: case 14:  segA[n]=left;  segB[n++]=bottom;  break;
+					case  2: case 13:  segA[n]=bottom;  segB[n++]=right;  break;
+					case  3: case 12:  segA[n]=left;  segB[n++]=right;  break;
+					case  4: case 11:  segA[n]=top;  segB[n++]=right;  break;
+					case  6: case  9:  segA[n]=top;  segB[n++]=bottom;  break;
+					case  7: case  8:  segA[n]=left;  segB[n++]=top;  break;
+					case  5: case 10:
+						// a saddle.  cut off the corners the middle does not agree with.
+						boolean middle = (a+b+c+d)/4>t;
+						if(middle == (cell==5)) {
+							segA[n]=left;  segB[n++]=top;
+							segA[n]=bottom;  segB[n++]=right;
+						} else {
+							segA[n]=top;  segB[n++]=right;
+							segA[n]=left;  segB[n++]=bottom;
+						}
+						break;
+					}
+				}
+			}
+			chain(k,base,segA,segB,n,at,strokes);
+		}
+		return strokes;
+	}
+
+	// join segments that share edges into strokes.  Every edge is crossed by no more than two segments.
+	private static void chain(int level,long base,int [] segA,int [] segB,int n,int [] at,List<Stroke> strokes) {
+		Arrays.fill(at,-1);
+		for(int s=0;s<n;++s) {
+			link(at,segA[s],s);
+			link(at,segB[s],s);
+		}
+		boolean [] used = new boolean[n];
+		int [] forward = new int[64];
+		int [] backward = new int[64];
+		for(int s=0;s<n;++s) {
+			if(used[s]) continue;
+			used[s]=true;
+			boolean closed=false;
+			// forward from B.  A loop comes back to s across A.
+			int nf=0;
+			int cur=s, e=segB[s];
+			while(true) {
+				int next = other(at,e,cur);
+				if(next<0) break;
+				if(next==s) {
+					closed=true;
+					break;
+				}
+				used[next]=true;
+				e = (segA[next]==e) ? segB[next] : segA[next];
+				if(nf==forward.length) forward = Arrays.copyOf(forward,nf*2);
+				forward[nf++]=e;
+				cur=next;
+			}
+			// then backward from A.
+			int nb=0;
+			cur=s;
+			e=segA[s];
+			while(!closed) {
+				int next = other(at,e,cur);
+				if(next<0) break;
+				used[next]=true;
+				e = (segA[next]==e) ? segB[next] : segA[next];
+				if(nb==backward.length) backward = Arrays.copyOf(backward,nb*2);
+				backward[nb++]=e;
+				cur=next;
+			}
+			long [] edges = new long[nb+2+nf];
+			int count=0;
+			for(int i=nb-1;i>=0;--i) edges[count++] = base+backward[i];
+			edges[count++] = base+segA[s];
+			edges[count++] = base+segB[s];
+			for(int i=0;i<nf;++i) edges[count++] = base+forward[i];
+			strokes.add(new Stroke(level,edges,count,closed));
+		}
+	}
+
+	private static void link(int [] at,int edge,int s) {
+		if(at[edge*2]<0) at[edge*2]=s;
+		else at[edge*2+1]=s;
+	}
+
+	// the other segment crossing this edge, or -1.
+	private static int other(int [] at,int edge,int s) {
+		int a = at[edge*2];
+		return (a!=s) ? a : at[edge*2+1];
+	}
+
+	/**
+	 * Join the strokes of every band where they meet.
+	 * @return every outline, whole.
+	 */
+	List<Stroke> join(List<Stroke> strokes) {
+		List<Stroke> whole = new ArrayList<Stroke>();
+		List<Stroke> open = new ArrayList<Stroke>();
+		for(Stroke s : strokes) {
+			if(s.closed) whole.add(s);
+			else open.add(s);
+		}
+		// the two strokes ending at each edge, if there are two.
+		Map<Long,int []> ends = new HashMap<Long,int []>();
+		for(int i=0;i<open.size();++i) {
+			Stroke s = open.get(i);
+			addEnd(ends,key(s,s.edges[0]),i);
+			addEnd(ends,key(s,s.edges[s.count-1]),i);
+		}
+		boolean [] used = new boolean[open.size()];
+		for(int i=0;i<open.size();++i) {
+			if(used[i]) continue;
+			used[i]=true;
+			Stroke s = open.get(i);
+			extend(s,i,open,ends,used);
+			if(!s.closed) {
+				s.reverse();
+				extend(s,i,open,ends,used);
+			}
+			whole.add(s);
+		}
+		return whole;
+	}
+
+	// add strokes to the end of s until it stops or comes back to the start.
+	private void extend(Stroke s,int first,List<Stroke> open,Map<Long,int []> ends,boolean [] used) {
+		int cur=first;
+		while(true) {
+			long e = s.edges[s.count-1];
+			int [] pair = ends.get(key(s,e));
+			if(pair==null) return;
+			int next = (pair[0]!=cur) ? pair[0] : pair[1];
+			if(next<0) return;
+			if(next==first) {
+				s.closed=true;
+				return;
+			}
+			used[next]=true;
+			Stroke t = open.get(next);
+			if(t.edges[0]!=e) t.reverse();
+			s.append(t);
+			cur=next;
+		}
+	}
+
+	private long key(Stroke s,long edge) {
+		return edge*iso.length+s.level;
+	}
+
+	private static void addEnd(Map<Long,int []> ends,long key,int i) {
+		int [] pair = ends.get(key);
+		if(pair==null) ends.put(key,new int[] {i,-1});
+		else pair[1]=i;
+	}
+
+	// the edge from sample i,j to the next one right, or down if vertical.  The white edge is at -1.
+	private long edge(int i,int j,boolean vertical) {
+		return ((long)(j+1)*stride+(i+1))*2 + (vertical ? 1 : 0);
+	}
+
+	/**
+	 * Where an outline crosses an edge.
+	 * @param out column and row
+	 */
+	void point(long edge,int level,double [] out) {
+		boolean vertical = (edge&1)!=0;
+		long sample = edge>>1;
+		int i = (int)(sample%stride)-1;
+		int j = (int)(sample/stride)-1;
+		float t = iso[level];
+		float v0 = image.get(i,j);
+		float v1 = vertical ? image.get(i,j+1) : image.get(i+1,j);
+		double f = (t-v0)/(v1-v0);
+		out[0] = vertical ? i : i+f;
+		out[1] = vertical ? j+f : j;
+	}
+}
@@ -0,0 +1,135 @@
+package com.marginallyclever.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A picture as a grid of cells, one byte of darkness each: 0 is white and 255 is black.  The picture is decoded once,
+ * already subsampled as close to the grid as the reader can get, then each band of cells is averaged from it on its own
+ * thread.  The decoded picture is dropped once the grid is filled, so only one copy bigger than a byte a cell ever
+ * exists.
+ * @author Dan Royer
+ */
+class GrayImage {
+	// rows of cells filled together.
+	static final int BAND = 64;
+
+	final int width, height;
+	// row by row from the top.
+	final byte [] dark;
+
+
+	GrayImage(int width,int height) {
+		this.width = width;
+		this.height = height;
+		dark = new byte[width*height];
+	}
+
+	/**
+	 * @return darkness from 0 to 1.  Outside the grid is white.
+	 */
+	float get(int col,int row) {
+		if(col<0 || row<0 || col>=width || row>=height) return 0;
+		return (dark[row*width+col]&0xFF)/255f;
+	}
+
+	/**
+	 * @param columns how many cells across.  The rows keep the picture's shape.
+	 * @throws IOException if the file cannot be read or is not a picture
+	 */
+	static GrayImage read(String filename,int columns,ExecutorService pool)
+			throws IOException, InterruptedException, ExecutionException {
+		ImageInputStream in = ImageIO.createImageInputStream(new File(filename));
+		if(in==null) throw new IOException("Cannot read "+filename);
+		final BufferedImage image;
+		int rows;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if(!readers.hasNext()) throw new IOException(filename+" is not a picture I can read.");
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in,true,true);
+				int w = reader.getWidth(0);
+				int h = reader.getHeight(0);
+				rows = Math.max(1,(int)Math.round((double)columns*h/w));
+				// never decode much more than the grid needs.
+				int step = Math.max(1,Math.min(w/columns,h/rows));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(step,step,0,0);
+				image = reader.read(0,param);
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		final GrayImage gray = new GrayImage(columns,rows);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for(int r=0;r<rows;r+=BAND) {
+			final int from = r;
+			final int to = Math.min(rows,r+BAND);
+			results.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					gray.fill(image,from,to);
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> f : results) f.get();
+		return gray;
+	}
+
+	// average the pixels under each cell in rows [from,to).  Clear pixels are white.
+	private void fill(BufferedImage image,int from,int to) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int [] line = new int[w];
+		long [] sum = new long[width];
+		int [] n = new int[width];
+		// the first pixel under each cell, and one past the last.
+		int [] x0 = new int[width+1];
+		for(int c=0;c<=width;++c) x0[c] = (int)((long)c*w/width);
+
+		for(int r=from;r<to;++r) {
+			int y0 = (int)((long)r*h/height);
+			int y1 = Math.max(y0+1,(int)((long)(r+1)*h/height));
+			Arrays.fill(sum,0);
+			Arrays.fill(n,0);
+			for(int y=y0;y<y1;++y) {
+				image.getRGB(0,y,w,1,line,0,w);
+				for(int c=0;c<width;++c) {
+					int end = Math.max(x0[c]+1,x0[c+1]);
+					for(int x=x0[c];x<end;++x) {
+						int argb = line[x];
+						int a = argb>>>24;
+						// light from 0 to 255*1000, on white.
+						int luma = 299*((argb>>16)&0xFF) + 587*((argb>>8)&0xFF) + 114*(argb&0xFF);
+						sum[c] += (luma*a + 255000L*(255-a))/255;
+						n[c]++;
+					}
+				}
+			}
+			for(int c=0;c<width;++c) {
+				dark[r*width+c] = (byte)(255 - (int)Math.round(sum[c]/(1000.0*n[c])));
+			}
+		}
+	}
+}
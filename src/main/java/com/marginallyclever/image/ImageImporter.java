@@ -0,0 +1,288 @@
+package com.marginallyclever.image;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import com.marginallyclever.gcode.CompiledGCode;
+import com.marginallyclever.gcode.GCodeCompiler;
+import com.marginallyclever.gcode.Toolpath;
+import com.marginallyclever.gcode.ToolpathOrder;
+import com.marginallyclever.gcode.ToolpathWriter;
+import com.marginallyclever.kinematics.MotionPlanner;
+
+/**
+ * Turns a picture straight into a {@link CompiledGCode}, flat on a plane at one height.  The picture is cut into cells
+ * {@link #setSpacing(double)} apart, darker cells are drawn, and every band of cells is worked on by its own thread.
+ *
+ * Hatching and dithering draw rows of cells, top to bottom, each row from whichever end is closer.  Outlines trace the
+ * edges between light and dark, and are put in a short order like a drawing.
+ * @author Dan Royer
+ */
+public class ImageImporter {
+	// change this when the output changes, so old cached results are not used.
+	private static final int VERSION = 2;
+	public static final int MODE_HATCH = 0;
+	public static final int MODE_DITHER = 1;
+	public static final int MODE_CONTOUR = 2;
+	public static final String [] MODE_NAMES = { "Hatching", "Dithering", "Outlines" };
+
+	public static final double DEFAULT_WIDTH = 100;
+	public static final double DEFAULT_SPACING = 0.5;
+	public static final int DEFAULT_LEVELS = 4;
+	// outlines turned into paths together.
+	private static final int STROKE_CHUNK = 256;
+
+	private int mode = MODE_HATCH;
+	private double width = DEFAULT_WIDTH;
+	private double spacing = DEFAULT_SPACING;
+	private int levels = DEFAULT_LEVELS;
+	private double centreX, centreY, planeZ;
+	private double feedRate = MotionPlanner.DEFAULT_FEEDRATE;
+	private double travelRate = MotionPlanner.MAX_FEEDRATE;
+	private boolean orderPaths = true;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+
+	/**
+	 * @return true if the file looks like a picture this can import.
+	 */
+	public static boolean isImage(String filename) {
+		String name = filename.toLowerCase(Locale.ROOT);
+		for(String suffix : ImageIO.getReaderFileSuffixes()) {
+			if(name.endsWith("."+suffix.toLowerCase(Locale.ROOT))) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param mode one of {@link #MODE_HATCH}, {@link #MODE_DITHER} or {@link #MODE_CONTOUR}
+	 */
+	public void setMode(int mode) {
+		if(mode<MODE_HATCH || mode>MODE_CONTOUR) throw new IllegalArgumentException("no such mode "+mode);
+		this.mode = mode;
+	}
+
+	public int getMode() {
+		return mode;
+	}
+
+	/**
+	 * @param width how wide to draw the picture, in cm.  The height keeps its shape.
+	 */
+	public void setWidth(double width) {
+		if(width<=0) throw new IllegalArgumentException("width must be more than 0");
+		this.width = width;
+	}
+
+	/**
+	 * @param spacing how far apart the rows are, in cm.  The picture is cut into squares this size.
+	 */
+	public void setSpacing(double spacing) {
+		if(spacing<=0) throw new IllegalArgumentException("spacing must be more than 0");
+		this.spacing = spacing;
+	}
+
+	/**
+	 * @param levels how many rows it takes hatching to reach black, or how many outlines to trace between white and
+	 * black.
+	 */
+	public void setLevels(int levels) {
+		if(levels<1) throw new IllegalArgumentException("levels must be at least 1");
+		this.levels = levels;
+	}
+
+	/**
+	 * @param x where the middle of the picture goes, in cm.
+	 * @param z the height of the plane it is drawn on.
+	 */
+	public void setCentre(double x,double y,double z) {
+		centreX=x;
+		centreY=y;
+		planeZ=z;
+	}
+
+	/**
+	 * @param feedRate how fast to draw, in steps/s
+	 * @param travelRate how fast to move between paths, in steps/s
+	 */
+	public void setFeedRates(double feedRate,double travelRate) {
+		this.feedRate = feedRate;
+		this.travelRate = travelRate;
+	}
+
+	/**
+	 * @param orderPaths false to draw outlines in the order they are traced, top to bottom.
+	 */
+	public void setOrderPaths(boolean orderPaths) {
+		this.orderPaths = orderPaths;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1,threads);
+	}
+
+	/**
+	 * @return a name for these settings, so each is cached apart.
+	 */
+	public String getCacheKey() {
+		return String.format(Locale.ROOT,"img%d-%d-%.4f-%.5f-%d-%.4f-%.4f-%.4f-%.1f-%.1f%s",
+				VERSION,mode,width,spacing,levels,centreX,centreY,planeZ,feedRate,travelRate,orderPaths ? "-ordered" : "");
+	}
+
+	/**
+	 * Load the program for this picture from the cache.  If it is not there, import it and save the result.
+	 * @throws IOException if the file cannot be read
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public CompiledGCode importCached(String filename) throws IOException, InterruptedException {
+		String key = GCodeCompiler.hash(filename)+"-"+getCacheKey();
+		CompiledGCode p = GCodeCompiler.readCache(key);
+		if(p!=null) return p;
+		p = importFile(filename);
+		GCodeCompiler.writeCache(key,p);
+		return p;
+	}
+
+	/**
+	 * @return the picture as a program, starting from 0,0,0 like after SendConfig()
+	 * @throws IOException if the file cannot be read
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public CompiledGCode importFile(String filename) throws IOException, InterruptedException {
+		int columns = Math.max(1,(int)Math.round(width/spacing));
+		ExecutorService pool = Executors.newFixedThreadPool(threads,new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"Image importer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			GrayImage image = GrayImage.read(filename,columns,pool);
+			ToolpathWriter writer = new ToolpathWriter(feedRate,travelRate);
+			if(mode==MODE_CONTOUR) {
+				writeOutlines(pool,image,writer);
+			} else {
+				writeRows(pool,image,writer);
+			}
+			return writer.getProgram();
+		} catch(ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void writeRows(ExecutorService pool,GrayImage image,ToolpathWriter writer)
+			throws InterruptedException, ExecutionException {
+		final ScanlineFiller filler = new ScanlineFiller(image,mode==MODE_DITHER,levels);
+		List<Future<int []>> bands = new ArrayList<Future<int []>>();
+		for(int r=0;r<image.height;r+=GrayImage.BAND) {
+			final int from = r;
+			final int to = Math.min(image.height,r+GrayImage.BAND);
+			bands.add(pool.submit(new Callable<int []>() {
+				@Override
+				public int [] call() {
+					return filler.fill(from,to);
+				}
+			}));
+		}
+
+		double cell = width/image.width;
+		double left = centreX-width/2;
+		double top = centreY+cell*image.height/2;
+		for(Future<int []> band : bands) {
+			int [] runs = band.get();
+			for(int i=0;i<runs.length;) {
+				int row = runs[i];
+				int end = i;
+				while(end<runs.length && runs[end]==row) end+=3;
+				double y = top-(row+0.5)*cell;
+				// start from the closer end of the row.
+				double first = left+runs[i+1]*cell;
+				double last = left+(runs[end-1]+1)*cell;
+				if(Math.abs(writer.getX()-first) <= Math.abs(writer.getX()-last)) {
+					for(int j=i;j<end;j+=3) {
+						writer.travelTo(left+runs[j+1]*cell,y,planeZ,row);
+						writer.lineTo(left+(runs[j+2]+1)*cell,y,planeZ,row);
+					}
+				} else {
+					for(int j=end-3;j>=i;j-=3) {
+						writer.travelTo(left+(runs[j+2]+1)*cell,y,planeZ,row);
+						writer.lineTo(left+runs[j+1]*cell,y,planeZ,row);
+					}
+				}
+				i=end;
+			}
+		}
+	}
+
+	private void writeOutlines(ExecutorService pool,GrayImage image,ToolpathWriter writer)
+			throws InterruptedException, ExecutionException {
+		final ContourTracer tracer = new ContourTracer(image,levels);
+		List<Future<List<ContourTracer.Stroke>>> bands = new ArrayList<Future<List<ContourTracer.Stroke>>>();
+		int rows = tracer.rows();
+		for(int r=0;r<rows;r+=GrayImage.BAND) {
+			final int from = r;
+			final int to = Math.min(rows,r+GrayImage.BAND);
+			bands.add(pool.submit(new Callable<List<ContourTracer.Stroke>>() {
+				@Override
+				public List<ContourTracer.Stroke> call() {
+					return tracer.trace(from,to);
+				}
+			}));
+		}
+		List<ContourTracer.Stroke> strokes = new ArrayList<ContourTracer.Stroke>();
+		for(Future<List<ContourTracer.Stroke>> band : bands) strokes.addAll(band.get());
+		final List<ContourTracer.Stroke> whole = tracer.join(strokes);
+
+		final double cell = width/image.width;
+		final double left = centreX-width/2+cell/2;
+		final double top = centreY+cell*image.height/2-cell/2;
+		final Toolpath [] paths = new Toolpath[whole.size()];
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for(int i=0;i<whole.size();i+=STROKE_CHUNK) {
+			final int from = i;
+			final int to = Math.min(whole.size(),i+STROKE_CHUNK);
+			results.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					double [] p = new double[2];
+					for(int j=from;j<to;++j) {
+						ContourTracer.Stroke s = whole.get(j);
+						tracer.point(s.edges[0],s.level,p);
+						Toolpath path = new Toolpath(Math.max(0,(int)p[1]));
+						path.moveTo(left+p[0]*cell,top-p[1]*cell,planeZ);
+						for(int k=1;k<s.count;++k) {
+							tracer.point(s.edges[k],s.level,p);
+							path.lineTo(left+p[0]*cell,top-p[1]*cell,planeZ);
+						}
+						paths[j] = path;
+					}
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> f : results) f.get();
+
+		List<Toolpath> list = new ArrayList<Toolpath>(paths.length);
+		for(Toolpath path : paths) {
+			if(!path.isEmpty()) list.add(path);
+		}
+		if(orderPaths) list = ToolpathOrder.order(pool,list);
+		for(Toolpath path : list) {
+			path.write(writer);
+		}
+	}
+}
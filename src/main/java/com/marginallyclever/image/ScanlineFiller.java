@@ -0,0 +1,90 @@
+package com.marginallyclever.image;
+
+import java.util.Arrays;
+
+/**
+ * Shades a {@link GrayImage} with straight runs along its rows.  Each band of rows is filled on its own, so the bands
+ * can be filled at the same time.
+ *
+ * Hatching draws a row of cells wherever the cells are darker than that row's threshold.  The thresholds repeat every
+ * few rows, spread out so a light grey is a few even lines and black is every row.  Dithering uses an 8x8 Bayer matrix
+ * instead, which shades in both directions and needs nothing from the cells around it, unlike error diffusion.
+ * @author Dan Royer
+ */
+class ScanlineFiller {
+	private static final int [] BAYER = {
+		 0,32, 8,40, 2,34,10,42,
+		48,16,56,24,50,18,58,26,
+		12,44, 4,36,14,46, 6,38,
+		60,28,52,20,62,30,54,22,
+		 3,35,11,43, 1,33, 9,41,
+		51,19,59,27,49,17,57,25,
+		15,47, 7,39,13,45, 5,37,
+		63,31,55,23,61,29,53,21,
+	};
+
+	private final GrayImage image;
+	// darkness a cell must be over to be drawn.  [row%levels] for hatching, [(row%8)*8+col%8] for dithering.
+	private final int [] threshold;
+	private final boolean dither;
+
+
+	/**
+	 * @param levels how many rows it takes hatching to reach black.  Not used by dithering.
+	 */
+	ScanlineFiller(GrayImage image,boolean dither,int levels) {
+		this.image = image;
+		this.dither = dither;
+		if(dither) {
+			threshold = new int[64];
+			for(int i=0;i<64;++i) threshold[i] = (int)((BAYER[i]+0.5)*255/64);
+		} else {
+			threshold = new int[levels];
+			int [] rank = spread(levels);
+			for(int i=0;i<levels;++i) threshold[i] = (int)((rank[i]+0.5)*255/levels);
+		}
+	}
+
+	// the order rows are added in as it gets darker: each one as far as it can be from those before it.
+	private static int [] spread(int levels) {
+		int bits=0;
+		while((1<<bits)<levels) ++bits;
+		int [] rank = new int[levels];
+		int next=0;
+		for(int i=0;i<(1<<bits);++i) {
+			// bit reversed, skipping rows past the end.
+			int r = Integer.reverse(i)>>>(32-bits);
+			if(r<levels) rank[r]=next++;
+		}
+		return rank;
+	}
+
+	/**
+	 * @return the runs in rows [from,to), three numbers each: the row, the first cell and the last cell.  Left to right,
+	 * top to bottom.
+	 */
+	int [] fill(int from,int to) {
+		int w = image.width;
+		int [] runs = new int[48];
+		int n=0;
+		for(int r=from;r<to;++r) {
+			int start=-1;
+			for(int c=0;c<=w;++c) {
+				boolean on = c<w && (image.dark[r*w+c]&0xFF) > threshold(c,r);
+				if(on && start<0) start=c;
+				if(!on && start>=0) {
+					if(n+3>runs.length) runs = Arrays.copyOf(runs,runs.length*2);
+					runs[n++]=r;
+					runs[n++]=start;
+					runs[n++]=c-1;
+					start=-1;
+				}
+			}
+		}
+		return Arrays.copyOf(runs,n);
+	}
+
+	private int threshold(int c,int r) {
+		return dither ? threshold[(r&7)*8+(c&7)] : threshold[r%threshold.length];
+	}
+}
@@ -0,0 +1,97 @@
+package com.marginallyclever.kinematics;
+
+/**
+ * A G02 or G03 the way arc() in the firmware draws it: {@link #getSegments()} straight pieces around the centre, each
+ * of which then goes through line_safe().  Z moves evenly with the angle.
+ *
+ * Mind the firmware's rules, which are not the usual ones.  In absolute mode (G90) I and J are the centre of the
+ * circle, not an offset from the start.  G02 turns toward bigger angles, the way atan2() measures them, and G03 toward
+ * smaller ones.  Arcs are assumed to be no more than half a circle.
+ * @author Dan Royer
+ */
+public class FirmwareArc {
+	private double cx, cy;
+	private double sz, dz;
+	private double radius;
+	private double startAngle;
+	private double sweep;
+	private int segments;
+
+
+	/**
+	 * @param sx where the robot is
+	 * @param cx the centre of the circle
+	 * @param x where the arc ends.  The firmware ends at the same angle but keeps the starting radius.
+	 * @param clockwise true for G02
+	 */
+	public FirmwareArc(double sx,double sy,double sz,double cx,double cy,double x,double y,double z,boolean clockwise) {
+		this.cx=cx;
+		this.cy=cy;
+		this.sz=sz;
+		dz=z-sz;
+		double dx=sx-cx;
+		double dy=sy-cy;
+		radius = Math.sqrt(dx*dx+dy*dy);
+
+		double sa=atan3(dy,dx);
+		double ea=atan3(y-cy,x-cx);
+		double da=ea-sa;
+		if(clockwise && da<0) ea+=2*Math.PI;
+		else if(!clockwise && da>0) sa+=2*Math.PI;
+		startAngle=sa;
+		sweep=ea-sa;
+		segments = (int)Math.ceil(Math.abs(sweep)*radius*MotionPlanner.SEGMENT_PER_CM_ARC);
+	}
+
+	// atan2 from 0 to 2PI
+	private static double atan3(double dy,double dx) {
+		double a=Math.atan2(dy,dx);
+		if(a<0) a+=Math.PI*2.0;
+		return a;
+	}
+
+	public double getRadius() {
+		return radius;
+	}
+
+	/**
+	 * @return radians turned, positive for G02.
+	 */
+	public double getSweep() {
+		return sweep;
+	}
+
+	/**
+	 * @return how many pieces the firmware cuts the arc into.  0 if the arc has no length.
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return the furthest any piece strays from the true circle.
+	 */
+	public double getChordError() {
+		if(segments==0) return 0;
+		return radius*(1.0-Math.cos(Math.abs(sweep)/segments/2.0));
+	}
+
+	/**
+	 * @param i from 1 to {@link #getSegments()}
+	 */
+	public double getX(int i) {
+		return cx+Math.cos(angle(i))*radius;
+	}
+
+	public double getY(int i) {
+		return cy+Math.sin(angle(i))*radius;
+	}
+
+	public double getZ(int i) {
+		return sz+dz*i/segments;
+	}
+
+	private double angle(int i) {
+		return startAngle+sweep*i/segments;
+	}
+}
@@ -0,0 +1,72 @@
+package com.marginallyclever.kinematics;
+
+/**
+ * How long each block of a job should take.  Made by {@link JobTimeEstimator}.  Times are in seconds and do not
+ * include tool changes, which wait for a person.
+ * @author Dan Royer
+ */
+public class JobTimeEstimate {
+	private final float [] blockTime;
+	// before[i] is the time from the start of the job to the start of block i.
+	private final double [] before;
+	private final int toolChanges;
+
+
+	JobTimeEstimate(float [] blockTime,int toolChanges) {
+		this.blockTime = blockTime;
+		this.toolChanges = toolChanges;
+		before = new double[blockTime.length+1];
+		for(int i=0;i<blockTime.length;++i) {
+			before[i+1] = before[i]+blockTime[i];
+		}
+	}
+
+	/**
+	 * @return the number of blocks estimated.
+	 */
+	public int size() {
+		return blockTime.length;
+	}
+
+	public double getTotalTime() {
+		return before[blockTime.length];
+	}
+
+	/**
+	 * @return how long one block takes.
+	 */
+	public double getBlockTime(int block) {
+		return blockTime[block];
+	}
+
+	/**
+	 * @return time from the start of the job to the start of this block.
+	 */
+	public double getTimeBefore(int block) {
+		return before[Math.max(0,Math.min(blockTime.length,block))];
+	}
+
+	/**
+	 * @param block the next block to run
+	 * @return how much longer the job will take.
+	 */
+	public double getRemainingTime(int block) {
+		return getTotalTime()-getTimeBefore(block);
+	}
+
+	/**
+	 * @return how many times the job will stop for a tool change.
+	 */
+	public int getToolChanges() {
+		return toolChanges;
+	}
+
+	/**
+	 * @param seconds a time
+	 * @return the time as h:mm:ss
+	 */
+	public static String format(double seconds) {
+		long s = Math.round(seconds);
+		return String.format("%d:%02d:%02d",s/3600,(s/60)%60,s%60);
+	}
+}
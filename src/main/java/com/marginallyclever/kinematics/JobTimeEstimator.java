@@ -0,0 +1,179 @@
+package com.marginallyclever.kinematics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.marginallyclever.gcode.CompiledGCode;
+
+/**
+ * Works out how long a job will take by running every move through the same {@link MotionPlanner} the firmware's
+ * motor code is modelled on: the same segments, jerk limits and trapezoids.  By default the planner only looks
+ * {@link #DEFAULT_LOOK_AHEAD} segments ahead, like the firmware's segment buffer, because that is what the robot will
+ * really do with the job as written.
+ *
+ * The job is cut into chunks that are planned at the same time on every core.  Where a chunk starts and ends depends
+ * on speeds in the chunks next to it, so each chunk also plans enough blocks either side to stop from
+ * {@link MotionPlanner#MAX_FEEDRATE} and throws their times away.  Speed limits don't carry further than that, so the
+ * answer is the same as planning the whole job in one piece.
+ *
+ * Each chunk starts from where the {@link Trajectory} says the block before it ends.
+ * @author Dan Royer
+ */
+public class JobTimeEstimator {
+	public static final int DEFAULT_LOOK_AHEAD = 32;
+	// big enough that the overlap is cheap, small enough that a chunk of long moves fits in memory.
+	private static final int MIN_CHUNK = 8192;
+	private static final int MAX_CHUNK = 32768;
+
+	private static final int M6 = CompiledGCode.opcode('M',6);
+
+	private SkycamKinematics kinematics;
+	private double acceleration = MotionPlanner.DEFAULT_ACCELERATION;
+	private int lookAhead = DEFAULT_LOOK_AHEAD;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+
+	public JobTimeEstimator(SkycamKinematics kinematics) {
+		this.kinematics = kinematics;
+	}
+
+	/**
+	 * @param acceleration in steps/s/s
+	 */
+	public void setAcceleration(double acceleration) {
+		this.acceleration = acceleration;
+	}
+
+	/**
+	 * @param segments how far ahead the robot plans, or 0 to plan over the whole job.
+	 */
+	public void setLookAhead(int segments) {
+		lookAhead = segments;
+	}
+
+	/**
+	 * @param threads how many chunks to plan at once.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1,threads);
+	}
+
+	/**
+	 * @param program the job, starting from 0,0,0 like after SendConfig()
+	 * @return the time of every block
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public JobTimeEstimate estimate(CompiledGCode program) throws InterruptedException {
+		return estimate(Trajectory.build(program));
+	}
+
+	/**
+	 * @param trajectory the job
+	 * @return the time of every block
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public JobTimeEstimate estimate(final Trajectory trajectory) throws InterruptedException {
+		final int n = trajectory.size();
+		final float [] blockTime = new float[n];
+		int chunkSize = Math.max(MIN_CHUNK,Math.min(MAX_CHUNK,(n+threads*4-1)/(threads*4)));
+		int chunks = Math.max(1,(n+chunkSize-1)/chunkSize);
+
+		int toolChanges=0;
+		for(int b=0;b<n;++b) {
+			if(trajectory.getOpcode(b)==M6) toolChanges++;
+		}
+		if(n==0) return new JobTimeEstimate(blockTime,0);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads,chunks),new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"Job time estimator");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for(int c=0;c<chunks;++c) {
+				final int from = c*chunkSize;
+				final int to = Math.min(n,from+chunkSize);
+				results.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						estimateChunk(trajectory,from,to,blockTime);
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> f : results) {
+				f.get();
+			}
+		} catch(ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return new JobTimeEstimate(blockTime,toolChanges);
+	}
+
+	// plan blocks from a stop before from to a stop after to, and keep the times of blocks from to to.
+	private void estimateChunk(Trajectory trajectory,int from,int to,float [] blockTime) {
+		int n = trajectory.size();
+		double stop = MotionPlanner.MAX_FEEDRATE*MotionPlanner.MAX_FEEDRATE/(2.0*Math.max(1,acceleration));
+		long [] start = new long[SkycamKinematics.NUM_MOTORS];
+		long [] end = new long[SkycamKinematics.NUM_MOTORS];
+		int first = from;
+		for(double steps=0;first>0 && steps<stop;) {
+			steps += getSteps(trajectory,--first,start,end);
+		}
+		int last = to;
+		for(double steps=0;last<n && steps<stop;) {
+			steps += getSteps(trajectory,last++,start,end);
+		}
+
+		MotionPlanner planner = new MotionPlanner(kinematics);
+		planner.setAcceleration(acceleration);
+		planner.setLookAhead(lookAhead);
+		trajectory.startAt(first,planner);
+
+		// firstSegment[i] is the first segment made by block from+i.
+		int [] firstSegment = new int[to-from+1];
+		for(int b=first;b<last;++b) {
+			if(Thread.currentThread().isInterrupted()) return;
+			if(b>=from && b<to) firstSegment[b-from] = planner.getSegmentCount();
+			double dwell = trajectory.replay(b,planner);
+			if(b>=from && b<to) blockTime[b] = (float)dwell;
+			if(b==to-1) firstSegment[to-from] = planner.getSegmentCount();
+		}
+		planner.plan();
+
+		for(int b=from;b<to;++b) {
+			double t=0;
+			for(int i=firstSegment[b-from];i<firstSegment[b-from+1];++i) {
+				t += planner.getDuration(i);
+			}
+			blockTime[b] += (float)t;
+		}
+	}
+
+	/**
+	 * @return the fewest steps the busiest motor can make in a block.  An arc is never shorter than its chord.
+	 */
+	private long getSteps(Trajectory trajectory,int block,long [] start,long [] end) {
+		if(trajectory.getOpcode(block)==Trajectory.TELEPORT) return 0;
+		if(block==0) kinematics.inverse(0,0,0,start);
+		else kinematics.inverse(trajectory.getX(block-1),trajectory.getY(block-1),trajectory.getZ(block-1),start);
+		kinematics.inverse(trajectory.getX(block),trajectory.getY(block),trajectory.getZ(block),end);
+		long most=0;
+		for(int m=0;m<start.length;++m) {
+			most = Math.max(most,Math.abs(end[m]-start[m]));
+		}
+		return most;
+	}
+}
@@ -0,0 +1,19 @@
+package com.marginallyclever.kinematics;
+
+/**
+ * Is told every move a program makes, after arcs have been cut into lines the way the firmware cuts them.
+ * {@link MotionPlanner} is one.
+ * @author Dan Royer
+ */
+public interface MotionListener {
+	/**
+	 * Say where the plotter is without moving, like TELEPORT or G92.
+	 */
+	public void teleport(double x,double y,double z);
+
+	/**
+	 * Move in a straight line.
+	 * @param feedRate in steps/s, as written in the program
+	 */
+	public void lineTo(double x,double y,double z,double feedRate);
+}
@@ -0,0 +1,314 @@
+package com.marginallyclever.kinematics;
+
+import java.util.Arrays;
+
+/**
+ * Plans the speed of every segment in a job, the way motor.ino does for the 32 segments the firmware can hold, but
+ * looking ahead over the whole job.  The firmware has to assume it will stop at the end of its short buffer, so on a
+ * dense curve it never gets up to speed.  The host can see how far the path really goes.
+ * {@link com.marginallyclever.gcode.SpeedPlanner} sends the plan to the robot.
+ *
+ * Lines are cut into pieces like line_safe() and each piece goes through the inverse kinematics, so segments are in
+ * motor steps and speeds are in steps per second, the same units as the firmware.  Junction speeds use the same jerk
+ * rule as motor_line() and each segment gets the same trapezoid as segment_update_trapezoid().
+ *
+ * Everything is kept in primitive arrays, so planning a job of a million segments makes a handful of objects.
+ * @author Dan Royer
+ */
+public class MotionPlanner implements MotionListener {
+	// from configure.h
+	public static final double MAX_FEEDRATE = 9000.0;
+	public static final double MIN_FEEDRATE = 100.0;
+	public static final double MAX_JERK = 5.0;
+	public static final double DEFAULT_FEEDRATE = 7000.0;
+	public static final double DEFAULT_ACCELERATION = 2500.0;
+	public static final double SEGMENT_PER_CM_LINE = 2.0;
+	public static final double SEGMENT_PER_CM_ARC = 3.0;
+
+	private static final int M = SkycamKinematics.NUM_MOTORS;
+
+	private SkycamKinematics kinematics;
+	private double acceleration = DEFAULT_ACCELERATION;
+	private double maxJerk = MAX_JERK;
+	// how many segments the robot can see ahead, or 0 for the whole job.
+	private int lookAhead = 0;
+
+	// where the last segment ended
+	private double posx, posy, posz;
+	private long [] position = new long[M];
+	private long [] scratch = new long[M];
+
+	private int count=0;
+	// per segment.  xyz and steps are where the segment ends.
+	private double [] xyz = new double[0];
+	private long [] steps = new long[0];
+	private int [] stepsTotal = new int[0];
+	private double [] unit = new double[0];
+	private double [] feedMax = new double[0];
+	private double [] entryMax = new double[0];
+	private double [] entry = new double[0];
+	private double [] exit = new double[0];
+	private int [] accelUntil = new int[0];
+	private int [] decelAfter = new int[0];
+	// segments before this have been through plan().
+	private int planned=0;
+
+
+	public MotionPlanner(SkycamKinematics kinematics) {
+		this.kinematics = kinematics;
+		teleport(0,0,0);
+	}
+
+	/**
+	 * @param acceleration in steps/s/s, like G01 A
+	 */
+	public void setAcceleration(double acceleration) {
+		this.acceleration = acceleration;
+		planned=0;
+	}
+
+	public double getAcceleration() {
+		return acceleration;
+	}
+
+	/**
+	 * @param maxJerk how sharp a corner can be taken at full speed, like max_xy_jerk.  Applies to segments added after.
+	 */
+	public void setMaxJerk(double maxJerk) {
+		this.maxJerk = maxJerk;
+	}
+
+	/**
+	 * @param segments plan as if the robot can only see this many segments ahead and must be able to stop at the end
+	 * of them, like the firmware with MAX_SEGMENTS.  0 to plan over the whole job.
+	 */
+	public void setLookAhead(int segments) {
+		lookAhead = Math.max(0,segments);
+		planned=0;
+	}
+
+	public int getLookAhead() {
+		return lookAhead;
+	}
+
+	@Override
+	public void teleport(double x,double y,double z) {
+		posx=x;  posy=y;  posz=z;
+		kinematics.inverse(x,y,z,position);
+	}
+
+	/**
+	 * Move in a straight line, cut into pieces like line_safe().
+	 * @param feedRate in steps/s
+	 */
+	@Override
+	public void lineTo(double x,double y,double z,double feedRate) {
+		feedRate = Math.max(MIN_FEEDRATE,Math.min(MAX_FEEDRATE,feedRate));
+		double dx=x-posx, dy=y-posy, dz=z-posz;
+		int pieces = (int)Math.ceil(Math.sqrt(dx*dx+dy*dy+dz*dz)*SEGMENT_PER_CM_LINE);
+		double sx=posx, sy=posy, sz=posz;
+		for(int j=1;j<pieces;++j) {
+			double a = (double)j/(double)pieces;
+			addSegment(sx+dx*a,sy+dy*a,sz+dz*a,feedRate);
+		}
+		// stop exactly at the destination.
+		addSegment(x,y,z,feedRate);
+	}
+
+	private void addSegment(double x,double y,double z,double feedRate) {
+		kinematics.inverse(x,y,z,scratch);
+		posx=x;  posy=y;  posz=z;
+
+		int total=0;
+		double len=0;
+		for(int m=0;m<M;++m) {
+			long d = scratch[m]-position[m];
+			total = (int)Math.max(total,Math.abs(d));
+			len += (double)d*d;
+		}
+		// no steps?  no work.
+		if(total==0) return;
+
+		grow(count+1);
+		int i=count++;
+		len = Math.sqrt(len);
+		for(int m=0;m<M;++m) {
+			unit[i*M+m] = (scratch[m]-position[m])/len;
+			steps[i*M+m] = scratch[m];
+			position[m] = scratch[m];
+		}
+		xyz[i*3]=x;  xyz[i*3+1]=y;  xyz[i*3+2]=z;
+		stepsTotal[i]=total;
+		feedMax[i]=feedRate;
+
+		// how fast can we go around the corner from the last segment?
+		double startMax = MIN_FEEDRATE;
+		if(i>0) {
+			double sum=0;
+			for(int m=0;m<M;++m) {
+				double ds = unit[i*M+m]-unit[(i-1)*M+m];
+				sum += ds*ds;
+			}
+			double jerk = Math.sqrt(sum);
+			double factor = (jerk>maxJerk) ? maxJerk/jerk : 1.0;
+			startMax = Math.min(feedRate*factor,feedMax[i-1]);
+		}
+		entryMax[i] = Math.max(MIN_FEEDRATE,startMax);
+	}
+
+	private void grow(int size) {
+		if(size<=stepsTotal.length) return;
+		int n = Math.max(1024,stepsTotal.length*2);
+		xyz = Arrays.copyOf(xyz,n*3);
+		steps = Arrays.copyOf(steps,n*M);
+		unit = Arrays.copyOf(unit,n*M);
+		stepsTotal = Arrays.copyOf(stepsTotal,n);
+		feedMax = Arrays.copyOf(feedMax,n);
+		entryMax = Arrays.copyOf(entryMax,n);
+		entry = Arrays.copyOf(entry,n);
+		exit = Arrays.copyOf(exit,n);
+		accelUntil = Arrays.copyOf(accelUntil,n);
+		decelAfter = Arrays.copyOf(decelAfter,n);
+	}
+
+	// fastest start speed that can still reach targetSpeed within distance steps.  max_speed_allowed() in motor.ino.
+	private double maxSpeedAllowed(double targetSpeed,double distance) {
+		return Math.sqrt(targetSpeed*targetSpeed + 2*acceleration*distance);
+	}
+
+	/**
+	 * Work out the entry, cruise and exit speed of every segment.  The job ends stopped.
+	 */
+	public void plan() {
+		if(count==0) return;
+
+		// backward: every segment must be able to slow down for the next.
+		double next = MIN_FEEDRATE;
+		// steps in segments i to i+lookAhead-1
+		long window=0;
+		for(int i=count-1;i>=0;--i) {
+			exit[i] = next;
+			entry[i] = Math.min(entryMax[i],maxSpeedAllowed(next,stepsTotal[i]));
+			if(lookAhead>0) {
+				window += stepsTotal[i];
+				if(i+lookAhead<count) window -= stepsTotal[i+lookAhead];
+				// the robot can't see past its buffer, so it must be able to stop before the end of it.
+				entry[i] = Math.min(entry[i],maxSpeedAllowed(MIN_FEEDRATE,window));
+			}
+			next = entry[i];
+		}
+
+		// forward: no segment can start faster than the last could reach.
+		for(int i=1;i<count;++i) {
+			double reachable = maxSpeedAllowed(entry[i-1],stepsTotal[i-1]);
+			if(entry[i]>reachable) entry[i]=reachable;
+			exit[i-1]=entry[i];
+		}
+
+		for(int i=0;i<count;++i) {
+			updateTrapezoid(i);
+		}
+		planned=count;
+	}
+
+	// when to stop speeding up and when to start slowing down.  segment_update_trapezoid() in motor.ino.
+	private void updateTrapezoid(int i) {
+		double vs = entry[i], ve = exit[i], vm = feedMax[i];
+		int total = stepsTotal[i];
+		int up   = (int)Math.ceil ((vm*vm - vs*vs)/(2.0*acceleration));
+		int down = (int)Math.floor((vm*vm - ve*ve)/(2.0*acceleration));
+		int cruise = total-up-down;
+		if(cruise<0) {
+			// never reaches full speed.  meet in the middle.
+			up = (int)Math.ceil((2.0*acceleration*total - vs*vs + ve*ve)/(4.0*acceleration));
+			up = Math.max(0,Math.min(total,up));
+			cruise = 0;
+		}
+		accelUntil[i] = up;
+		decelAfter[i] = up+cruise;
+	}
+
+	/**
+	 * Forget every segment.  The position stays where it is.
+	 */
+	public void clear() {
+		count=0;
+		planned=0;
+	}
+
+	/**
+	 * @return how many segments there are.
+	 */
+	public int getSegmentCount() {
+		return count;
+	}
+
+	/**
+	 * @return true if segments have been added or settings changed since the last {@link #plan()}.
+	 */
+	public boolean needsPlan() {
+		return planned!=count;
+	}
+
+	public int getStepsTotal(int i) {
+		return stepsTotal[i];
+	}
+
+	/**
+	 * @return where motor m should be at the end of segment i, in steps.
+	 */
+	public long getSteps(int i,int m) {
+		return steps[i*M+m];
+	}
+
+	/**
+	 * @return coordinate axis (0=x,1=y,2=z) of the end of segment i.
+	 */
+	public double getPosition(int i,int axis) {
+		return xyz[i*3+axis];
+	}
+
+	public double getFeedRate(int i) {
+		return feedMax[i];
+	}
+
+	public double getEntrySpeed(int i) {
+		return entry[i];
+	}
+
+	public double getExitSpeed(int i) {
+		return exit[i];
+	}
+
+	/**
+	 * @return the fastest segment i actually goes.
+	 */
+	public double getPeakSpeed(int i) {
+		int up = accelUntil[i];
+		return Math.min(feedMax[i],Math.sqrt(entry[i]*entry[i] + 2*acceleration*up));
+	}
+
+	public int getAccelerateUntil(int i) {
+		return accelUntil[i];
+	}
+
+	public int getDecelerateAfter(int i) {
+		return decelAfter[i];
+	}
+
+	/**
+	 * @return how long segment i takes, in seconds.
+	 */
+	public double getDuration(int i) {
+		double vs = entry[i], ve = exit[i];
+		double vp = getPeakSpeed(i);
+		int up = accelUntil[i];
+		int cruise = decelAfter[i]-up;
+		int down = stepsTotal[i]-decelAfter[i];
+		double t=0;
+		if(up>0) t += 2.0*up/(vs+vp);
+		if(cruise>0) t += cruise/vp;
+		if(down>0) t += 2.0*down/(vp+Math.max(ve,MIN_FEEDRATE));
+		return t;
+	}
+}
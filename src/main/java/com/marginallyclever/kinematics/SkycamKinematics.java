@@ -0,0 +1,259 @@
+package com.marginallyclever.kinematics;
+
+import javax.vecmath.Point3d;
+
+/**
+ * The same cable math as IK() in skycamFirmware.ino, so the host can work out lengths and steps for a whole job
+ * without asking the robots.  Positions and lengths are in cm, like the firmware.
+ *
+ * Batches are flat double arrays: point i is xyz[i*3], xyz[i*3+1], xyz[i*3+2] and the cable lengths for point i are
+ * lengths[i*4] to lengths[i*4+3], in motor order a,b,c,d.
+ *
+ * The firmware FK() is unfinished, so {@link #forward(double[], double[])} finds the position numerically.
+ * @author Dan Royer
+ */
+public class SkycamKinematics {
+	public static final int NUM_MOTORS = 4;
+
+	// from configure.h
+	public static final double PLOTTER_RADIUS = 6.0;
+	public static final double PLOTTER_Z = 0.5;
+	public static final double PULLEY_PITCH = 4.0;
+	public static final double MICROSTEPS = 16.0;
+	public static final double STEPS_PER_TURN = 400.0 * MICROSTEPS;
+	public static final double THREAD_PER_STEP = PULLEY_PITCH / STEPS_PER_TURN;
+
+	// forward kinematics gives up after this many steps.
+	private static final int FK_MAX_ITERATIONS = 50;
+	// close enough, in cm.
+	private static final double FK_TOLERANCE = 1e-9;
+
+	// x,y,z of each motor, motor order a,b,c,d
+	private final double [] anchors = new double[NUM_MOTORS*3];
+
+
+	public SkycamKinematics() {}
+
+	/**
+	 * @param a position of motor a (10:00)
+	 * @param b position of motor b (2:00)
+	 * @param c position of motor c (4:30)
+	 * @param d position of motor d (7:30)
+	 */
+	public SkycamKinematics(Point3d a,Point3d b,Point3d c,Point3d d) {
+		setAnchor(0,a.x,a.y,a.z);
+		setAnchor(1,b.x,b.y,b.z);
+		setAnchor(2,c.x,c.y,c.z);
+		setAnchor(3,d.x,d.y,d.z);
+	}
+
+	/**
+	 * Move one motor, like M101.
+	 * @param motor 0 to 3
+	 */
+	public void setAnchor(int motor,double x,double y,double z) {
+		anchors[motor*3  ] = x;
+		anchors[motor*3+1] = y;
+		anchors[motor*3+2] = z;
+	}
+
+	public double getAnchor(int motor,int axis) {
+		return anchors[motor*3+axis];
+	}
+
+	/**
+	 * @return the length of one cable when the plotter is at x,y,z.
+	 */
+	public double cableLength(int motor,double x,double y,double z) {
+		double dx = Math.abs(x-anchors[motor*3  ])+PLOTTER_RADIUS;
+		double dy = Math.abs(y-anchors[motor*3+1])+PLOTTER_RADIUS;
+		double dz = Math.abs(z-anchors[motor*3+2])+PLOTTER_Z;
+		return Math.sqrt(dx*dx+dy*dy+dz*dz);
+	}
+
+	/**
+	 * Which way one cable pulls the plotter.
+	 * @param u receives the unit vector from the plotter toward the motor at u[offset] to u[offset+2].
+	 */
+	public void cableDirection(int motor,double x,double y,double z,double [] u,int offset) {
+		double sx = x-anchors[motor*3  ];
+		double sy = y-anchors[motor*3+1];
+		double sz = z-anchors[motor*3+2];
+		double dx = Math.abs(sx)+PLOTTER_RADIUS;
+		double dy = Math.abs(sy)+PLOTTER_RADIUS;
+		double dz = Math.abs(sz)+PLOTTER_Z;
+		double len = Math.sqrt(dx*dx+dy*dy+dz*dz);
+		u[offset  ] = -side(sx)*dx/len;
+		u[offset+1] = -side(sy)*dy/len;
+		u[offset+2] = -side(sz)*dz/len;
+	}
+
+	/**
+	 * Inverse kinematics for one point.
+	 * @param steps receives the step count of each motor, the same as the firmware would get.
+	 */
+	public void inverse(double x,double y,double z,long [] steps) {
+		for(int m=0;m<NUM_MOTORS;++m) {
+			steps[m] = Math.round(cableLength(m,x,y,z)/THREAD_PER_STEP);
+		}
+	}
+
+	/**
+	 * Cable lengths for many points.
+	 * @param xyz count points
+	 * @param count how many points
+	 * @param lengths receives count*4 lengths
+	 */
+	public void inverse(double [] xyz,int count,double [] lengths) {
+		for(int i=0;i<count;++i) {
+			double x = xyz[i*3  ];
+			double y = xyz[i*3+1];
+			double z = xyz[i*3+2];
+			for(int m=0;m<NUM_MOTORS;++m) {
+				lengths[i*NUM_MOTORS+m] = cableLength(m,x,y,z);
+			}
+		}
+	}
+
+	/**
+	 * Step counts for many points.
+	 * @param xyz count points
+	 * @param count how many points
+	 * @param steps receives count*4 step counts
+	 */
+	public void inverse(double [] xyz,int count,long [] steps) {
+		for(int i=0;i<count;++i) {
+			double x = xyz[i*3  ];
+			double y = xyz[i*3+1];
+			double z = xyz[i*3+2];
+			for(int m=0;m<NUM_MOTORS;++m) {
+				steps[i*NUM_MOTORS+m] = Math.round(cableLength(m,x,y,z)/THREAD_PER_STEP);
+			}
+		}
+	}
+
+	/**
+	 * @return the length of cable for a step count.
+	 */
+	public static double stepsToLength(long steps) {
+		return steps*THREAD_PER_STEP;
+	}
+
+	/**
+	 * Forward kinematics: find the point whose cable lengths best match.  Four cables over-determine three unknowns, so
+	 * this is a least squares fit, solved by damped Gauss-Newton.
+	 * @param lengths the four cable lengths
+	 * @param xyz on entry a guess, such as the last known position.  On exit the answer.
+	 * @return true if the answer converged.
+	 */
+	public boolean forward(double [] lengths,double [] xyz) {
+		return forward(lengths,0,xyz,0);
+	}
+
+	/**
+	 * Forward kinematics for many points.  Each answer is the guess for the next, so a path converges in a step or two.
+	 * @param lengths count*4 cable lengths
+	 * @param count how many points
+	 * @param xyz receives count points
+	 * @return how many points did not converge.
+	 */
+	public int forward(double [] lengths,int count,double [] xyz) {
+		int failed=0;
+		if(count==0) return 0;
+		getCenter(xyz,0);
+		for(int i=0;i<count;++i) {
+			if(i>0) System.arraycopy(xyz,(i-1)*3,xyz,i*3,3);
+			if(!forward(lengths,i*NUM_MOTORS,xyz,i*3)) failed++;
+		}
+		return failed;
+	}
+
+	/**
+	 * Put a point below the middle of the motors in xyz, a reasonable first guess for forward kinematics.  The cables
+	 * can't tell above the motors from below, so the guess has to start on the side the plotter hangs.
+	 */
+	public void getCenter(double [] xyz,int offset) {
+		xyz[offset]=xyz[offset+1]=xyz[offset+2]=0;
+		for(int m=0;m<NUM_MOTORS;++m) {
+			xyz[offset  ]+=anchors[m*3  ]/NUM_MOTORS;
+			xyz[offset+1]+=anchors[m*3+1]/NUM_MOTORS;
+			xyz[offset+2]+=anchors[m*3+2]/NUM_MOTORS;
+		}
+		double reach=0;
+		for(int m=0;m<NUM_MOTORS;++m) {
+			double dx = anchors[m*3  ]-xyz[offset  ];
+			double dy = anchors[m*3+1]-xyz[offset+1];
+			reach += Math.sqrt(dx*dx+dy*dy)/NUM_MOTORS;
+		}
+		xyz[offset+2] -= reach/2;
+	}
+
+	// direction of the slope of abs(s).  At the kink pick the side below and left of the motor, never zero.
+	private static double side(double s) {
+		return s>0 ? 1 : -1;
+	}
+
+	private boolean forward(double [] lengths,int lo,double [] xyz,int po) {
+		double x=xyz[po], y=xyz[po+1], z=xyz[po+2];
+		double lambda=1e-3;
+		double error = fkError(lengths,lo,x,y,z);
+
+		for(int iter=0;iter<FK_MAX_ITERATIONS;++iter) {
+			// normal equations J'J d = -J'r, with J the 4x3 jacobian of the cable lengths
+			double a00=0,a01=0,a02=0,a11=0,a12=0,a22=0;
+			double g0=0,g1=0,g2=0;
+			for(int m=0;m<NUM_MOTORS;++m) {
+				double sx = x-anchors[m*3  ];
+				double sy = y-anchors[m*3+1];
+				double sz = z-anchors[m*3+2];
+				double dx = Math.abs(sx)+PLOTTER_RADIUS;
+				double dy = Math.abs(sy)+PLOTTER_RADIUS;
+				double dz = Math.abs(sz)+PLOTTER_Z;
+				double len = Math.sqrt(dx*dx+dy*dy+dz*dz);
+				double r = len-lengths[lo+m];
+				double jx = side(sx)*dx/len;
+				double jy = side(sy)*dy/len;
+				double jz = side(sz)*dz/len;
+				a00+=jx*jx;  a01+=jx*jy;  a02+=jx*jz;
+				a11+=jy*jy;  a12+=jy*jz;  a22+=jz*jz;
+				g0+=jx*r;  g1+=jy*r;  g2+=jz*r;
+			}
+
+			// try a step.  too far?  damp it and try again.
+			boolean improved=false;
+			while(lambda<1e12) {
+				double b00=a00*(1+lambda), b11=a11*(1+lambda), b22=a22*(1+lambda);
+				double det = b00*(b11*b22-a12*a12) - a01*(a01*b22-a12*a02) + a02*(a01*a12-b11*a02);
+				if(Math.abs(det)<1e-300) { lambda*=10; continue; }
+				double d0 = -(g0*(b11*b22-a12*a12) - a01*(g1*b22-a12*g2) + a02*(g1*a12-b11*g2))/det;
+				double d1 = -(b00*(g1*b22-a12*g2) - g0*(a01*b22-a12*a02) + a02*(a01*g2-g1*a02))/det;
+				double d2 = -(b00*(b11*g2-g1*a12) - a01*(a01*g2-g1*a02) + g0*(a01*a12-b11*a02))/det;
+
+				double e = fkError(lengths,lo,x+d0,y+d1,z+d2);
+				if(e<error) {
+					x+=d0;  y+=d1;  z+=d2;
+					lambda=Math.max(lambda/10,1e-12);
+					improved = (error-e)>FK_TOLERANCE*FK_TOLERANCE || Math.abs(d0)+Math.abs(d1)+Math.abs(d2)>FK_TOLERANCE;
+					error=e;
+					break;
+				}
+				lambda*=10;
+			}
+			if(!improved) break;
+		}
+
+		xyz[po]=x;  xyz[po+1]=y;  xyz[po+2]=z;
+		// within a step of every cable?
+		return Math.sqrt(error/NUM_MOTORS) < THREAD_PER_STEP;
+	}
+
+	// sum of squared differences between the cables at x,y,z and the lengths wanted.
+	private double fkError(double [] lengths,int lo,double x,double y,double z) {
+		double sum=0;
+		for(int m=0;m<NUM_MOTORS;++m) {
+			double r = cableLength(m,x,y,z)-lengths[lo+m];
+			sum+=r*r;
+		}
+		return sum;
+	}
+}
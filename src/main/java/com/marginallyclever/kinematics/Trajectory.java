@@ -0,0 +1,238 @@
+package com.marginallyclever.kinematics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.marginallyclever.gcode.CompiledGCode;
+import com.marginallyclever.gcode.GCodeTokenizer;
+
+/**
+ * Where a job goes, one row per block of a {@link CompiledGCode}: the position and feed rate after the block, its
+ * opcode and the line of the file it came from.  Relative moves, G92 and TELEPORT have already been followed, so any
+ * block can be read without reading the ones before it.  That lets the passes over a whole job, like
+ * {@link JobTimeEstimator} and {@link WorkspaceValidator}, start anywhere.
+ *
+ * Positions are in cm, like {@link SkycamKinematics}.  The g-code says X, Y, I and J in mm and Z in cm, except that
+ * G92 says Z in mm too, and they are read the way the firmware reads them.  TELEPORT is all cm.
+ *
+ * Each column is a run of 4 byte numbers in one buffer outside the Java heap, 32 bytes a block in all.  A million
+ * line job is 32MB that the garbage collector never looks at.
+ * @author Dan Royer
+ */
+public class Trajectory {
+	/**
+	 * The opcode of blocks that say where the plotter is without moving it: G92 and TELEPORT.
+	 */
+	public static final int TELEPORT = CompiledGCode.opcode('G',92);
+	/**
+	 * cm in a mm, for X, Y, I and J.
+	 */
+	public static final double MM = 0.1;
+
+	private static final int G0 = CompiledGCode.opcode('G',0);
+	private static final int G1 = CompiledGCode.opcode('G',1);
+	private static final int G2 = CompiledGCode.opcode('G',2);
+	private static final int G3 = CompiledGCode.opcode('G',3);
+	private static final int G4 = CompiledGCode.opcode('G',4);
+	private static final int G90 = CompiledGCode.opcode('G',90);
+	private static final int G91 = CompiledGCode.opcode('G',91);
+
+	private static final int COLUMNS = 8;
+
+	private final int count;
+	private final FloatBuffer x, y, z, feedRate;
+	// the centre of an arc, or the seconds of a dwell in a.
+	private final FloatBuffer a, b;
+	private final IntBuffer opcode, sourceLine;
+
+
+	private Trajectory(int count) {
+		this.count = count;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1,count)*COLUMNS*4).order(ByteOrder.nativeOrder());
+		x = column(buffer,0).asFloatBuffer();
+		y = column(buffer,1).asFloatBuffer();
+		z = column(buffer,2).asFloatBuffer();
+		feedRate = column(buffer,3).asFloatBuffer();
+		a = column(buffer,4).asFloatBuffer();
+		b = column(buffer,5).asFloatBuffer();
+		opcode = column(buffer,6).asIntBuffer();
+		sourceLine = column(buffer,7).asIntBuffer();
+	}
+
+	private ByteBuffer column(ByteBuffer buffer,int column) {
+		ByteBuffer c = buffer.duplicate();
+		c.position(column*count*4);
+		c.limit((column+1)*count*4);
+		return c.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Follow a program from start to end.
+	 * @param program the job, starting from 0,0,0 like after SendConfig()
+	 */
+	public static Trajectory build(CompiledGCode program) {
+		int n = program.size();
+		Trajectory t = new Trajectory(n);
+		GCodeTokenizer tokenizer = new GCodeTokenizer();
+		double px=0, py=0, pz=0;
+		float feed = (float)MotionPlanner.DEFAULT_FEEDRATE;
+		boolean absolute=true;
+
+		for(int i=0;i<n;++i) {
+			int op = program.getOpcode(i);
+			float ca=0, cb=0;
+			if(op==G0 || op==G1 || op==G2 || op==G3) {
+				feed = program.getParam(i,'F',feed);
+				if(op==G2 || op==G3) {
+					// I and J are the centre in absolute mode, like the firmware.
+					ca = (float)axis(program.getParam(i,'I',Float.NaN)*MM,px,absolute);
+					cb = (float)axis(program.getParam(i,'J',Float.NaN)*MM,py,absolute);
+				}
+				px = axis(program.getParam(i,'X',Float.NaN)*MM,px,absolute);
+				py = axis(program.getParam(i,'Y',Float.NaN)*MM,py,absolute);
+				pz = axis(program.getParam(i,'Z',Float.NaN),pz,absolute);
+			} else if(op==G4) {
+				// S is ms, P is seconds, like the firmware.
+				ca = program.getParam(i,'S',0)/1000.0f + program.getParam(i,'P',0);
+			} else if(op==G90) {
+				absolute=true;
+			} else if(op==G91) {
+				absolute=false;
+			} else if(op==TELEPORT) {
+				px = axis(program.getParam(i,'X',Float.NaN)*MM,px,absolute);
+				py = axis(program.getParam(i,'Y',Float.NaN)*MM,py,absolute);
+				pz = axis(program.getParam(i,'Z',Float.NaN)*MM,pz,absolute);
+			} else if(op==CompiledGCode.OP_TEXT) {
+				String text = program.getText(i);
+				if(text!=null && text.startsWith("TELEPORT")) {
+					op = TELEPORT;
+					tokenizer.reset(text);
+					while(tokenizer.next()) {
+						if(!tokenizer.isWord()) continue;
+						switch(tokenizer.letter()) {
+						case 'X':  px=tokenizer.number();  break;
+						case 'Y':  py=tokenizer.number();  break;
+						case 'Z':  pz=tokenizer.number();  break;
+						default:  break;
+						}
+					}
+				}
+			}
+			t.x.put(i,(float)px);
+			t.y.put(i,(float)py);
+			t.z.put(i,(float)pz);
+			t.feedRate.put(i,feed);
+			t.a.put(i,ca);
+			t.b.put(i,cb);
+			t.opcode.put(i,op);
+			t.sourceLine.put(i,program.getSourceLine(i));
+		}
+		return t;
+	}
+
+	private static double axis(double value,double current,boolean absolute) {
+		if(Double.isNaN(value)) return current;
+		return absolute ? value : current+value;
+	}
+
+	/**
+	 * @return the number of blocks.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return where the plotter is after a block.
+	 */
+	public float getX(int block) {
+		return x.get(block);
+	}
+
+	public float getY(int block) {
+		return y.get(block);
+	}
+
+	public float getZ(int block) {
+		return z.get(block);
+	}
+
+	/**
+	 * @return the feed rate after a block, in steps/s.
+	 */
+	public float getFeedRate(int block) {
+		return feedRate.get(block);
+	}
+
+	/**
+	 * @return the opcode of a block, with TELEPORT as {@link #TELEPORT}.
+	 */
+	public int getOpcode(int block) {
+		return opcode.get(block);
+	}
+
+	/**
+	 * @return the zero-based line in the original file that made this block.
+	 */
+	public int getSourceLine(int block) {
+		return sourceLine.get(block);
+	}
+
+	/**
+	 * @return the centre of a G02 or G03.
+	 */
+	public float getCentreX(int block) {
+		return a.get(block);
+	}
+
+	public float getCentreY(int block) {
+		return b.get(block);
+	}
+
+	/**
+	 * @return the seconds a G04 waits.
+	 */
+	public float getDwell(int block) {
+		return (opcode.get(block)==G4) ? a.get(block) : 0;
+	}
+
+	/**
+	 * Put a listener where the plotter is before a block.
+	 */
+	public void startAt(int block,MotionListener listener) {
+		if(block==0) listener.teleport(0,0,0);
+		else listener.teleport(x.get(block-1),y.get(block-1),z.get(block-1));
+	}
+
+	/**
+	 * Make the moves of one block, with arcs cut into lines the way the firmware cuts them.  The listener must be where
+	 * the block starts, see {@link #startAt(int, MotionListener)}.
+	 * @return seconds spent waiting in place, like G04.
+	 */
+	public double replay(int block,MotionListener listener) {
+		int op = opcode.get(block);
+		if(op==G0 || op==G1) {
+			listener.lineTo(x.get(block),y.get(block),z.get(block),feedRate.get(block));
+		} else if(op==G2 || op==G3) {
+			double sx=0, sy=0, sz=0;
+			if(block>0) {
+				sx=x.get(block-1);
+				sy=y.get(block-1);
+				sz=z.get(block-1);
+			}
+			FirmwareArc arc = new FirmwareArc(sx,sy,sz,a.get(block),b.get(block),
+					x.get(block),y.get(block),z.get(block),op==G2);
+			double f = feedRate.get(block);
+			for(int i=1;i<=arc.getSegments();++i) {
+				listener.lineTo(arc.getX(i),arc.getY(i),arc.getZ(i),f);
+			}
+		} else if(op==TELEPORT) {
+			listener.teleport(x.get(block),y.get(block),z.get(block));
+		} else if(op==G4) {
+			return a.get(block);
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,154 @@
+package com.marginallyclever.kinematics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Everywhere a job would take the robot somewhere it shouldn't go.  Made by {@link WorkspaceValidator}.  Blocks in a
+ * row with the same problem are one {@link Problem}.
+ * @author Dan Royer
+ */
+public class WorkspaceReport {
+	/** The plotter leaves the space under the motors, or goes too close to their height. */
+	public static final int OUTSIDE = 0;
+	/** A cable would go slack. */
+	public static final int SLACK = 1;
+	/** A cable would pull much harder than the weight of the plotter. */
+	public static final int OVER_TENSION = 2;
+	/** A cable would be asked to reel faster than the motors can. */
+	public static final int TOO_FAST = 3;
+	static final int KINDS = 4;
+
+	/**
+	 * One stretch of a job with one kind of problem.
+	 */
+	public static class Problem {
+		final int kind;
+		int firstBlock, lastBlock;
+		int firstLine, lastLine;
+		// the worst value seen, and where.
+		double value;
+		double x, y, z;
+
+		Problem(int kind,int block,int line,double value,double x,double y,double z) {
+			this.kind=kind;
+			firstBlock=lastBlock=block;
+			firstLine=lastLine=line;
+			this.value=value;
+			this.x=x;  this.y=y;  this.z=z;
+		}
+
+		// add another block with the same problem.
+		void extend(int block,int line,double value,double x,double y,double z) {
+			lastBlock=block;
+			firstLine=Math.min(firstLine,line);
+			lastLine=Math.max(lastLine,line);
+			if(kind==SLACK ? value<this.value : value>this.value) {
+				this.value=value;
+				this.x=x;  this.y=y;  this.z=z;
+			}
+		}
+
+		void extend(Problem p) {
+			extend(p.lastBlock,p.firstLine,p.value,p.x,p.y,p.z);
+			lastLine=Math.max(lastLine,p.lastLine);
+		}
+
+		/**
+		 * @return {@link WorkspaceReport#OUTSIDE}, {@link WorkspaceReport#SLACK},
+		 * {@link WorkspaceReport#OVER_TENSION} or {@link WorkspaceReport#TOO_FAST}
+		 */
+		public int getKind() {
+			return kind;
+		}
+
+		/**
+		 * @return the first zero-based line of the file with this problem.
+		 */
+		public int getFirstLine() {
+			return firstLine;
+		}
+
+		public int getLastLine() {
+			return lastLine;
+		}
+
+		public int getFirstBlock() {
+			return firstBlock;
+		}
+
+		public int getLastBlock() {
+			return lastBlock;
+		}
+
+		/**
+		 * @return the worst of it: cm outside, the lowest or highest cable tension as a multiple of the weight of the
+		 * plotter, or the fastest cable speed in cm/s.
+		 */
+		public double getValue() {
+			return value;
+		}
+
+		/**
+		 * @return where the worst of it is.
+		 */
+		public double getX() {
+			return x;
+		}
+
+		public double getY() {
+			return y;
+		}
+
+		public double getZ() {
+			return z;
+		}
+
+		@Override
+		public String toString() {
+			String where = (firstLine==lastLine)
+					? "Line "+(firstLine+1)
+					: "Lines "+(firstLine+1)+"-"+(lastLine+1);
+			String what;
+			switch(kind) {
+			case OUTSIDE:  what = String.format(Locale.ROOT,"%.2fcm outside the motors",value);  break;
+			case SLACK:  what = String.format(Locale.ROOT,"cable goes slack (%.2f of the weight)",value);  break;
+			case OVER_TENSION:  what = String.format(Locale.ROOT,"cable pulls %.1f times the weight",value);  break;
+			default:  what = String.format(Locale.ROOT,"cable reels at %.2fcm/s",value);  break;
+			}
+			return String.format(Locale.ROOT,"%s: %s at %.2f,%.2f,%.2f",where,what,x,y,z);
+		}
+	}
+
+	private final List<Problem> problems;
+	private final long problemCount;
+
+
+	WorkspaceReport(List<Problem> problems,long problemCount) {
+		this.problems = Collections.unmodifiableList(new ArrayList<Problem>(problems));
+		this.problemCount = problemCount;
+	}
+
+	/**
+	 * @return true if there is nothing wrong.
+	 */
+	public boolean isOK() {
+		return problemCount==0;
+	}
+
+	/**
+	 * @return the problems, in the order they happen.  There may be more than this, see {@link #getProblemCount()}.
+	 */
+	public List<Problem> getProblems() {
+		return problems;
+	}
+
+	/**
+	 * @return about how many problems there are, including those too many to list.
+	 */
+	public long getProblemCount() {
+		return problemCount;
+	}
+}
@@ -0,0 +1,427 @@
+package com.marginallyclever.kinematics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.marginallyclever.gcode.CompiledGCode;
+
+/**
+ * Checks a whole job before it runs, so the robot doesn't find out half way through.  Every point the firmware would
+ * visit, with lines and arcs cut into pieces the same way, is checked for
+ * <ul>
+ * <li>leaving the space under the motors, or coming within {@link #setTopMargin(double)} of their height.</li>
+ * <li>cable tension.  The plotter hangs from four cables, so there are many ways to share its weight.  A point is
+ * slack if no way of sharing it keeps every cable above {@link #setMinTension(double)}, and over tensioned if every
+ * way puts one cable above {@link #setMaxTension(double)}.  Tensions are in multiples of the weight of the plotter.</li>
+ * <li>cable speed.  The firmware's feed rate is the speed of the busiest motor in steps/s, so this is the feed rate
+ * written in the job, in cm/s of cable.</li>
+ * </ul>
+ * Like {@link JobTimeEstimator} the job is cut into chunks that are checked at the same time on every core, each
+ * starting from where the {@link Trajectory} says.
+ * @author Dan Royer
+ */
+public class WorkspaceValidator {
+	public static final double DEFAULT_MIN_TENSION = 0.05;
+	public static final double DEFAULT_MAX_TENSION = 10.0;
+	public static final double DEFAULT_TOP_MARGIN = 5.0;
+	// nobody reads more than this many.
+	static final int MAX_PROBLEMS = 1000;
+	private static final int CHUNK = 65536;
+
+	private SkycamKinematics kinematics;
+	private double minTension = DEFAULT_MIN_TENSION;
+	private double maxTension = DEFAULT_MAX_TENSION;
+	private double topMargin = DEFAULT_TOP_MARGIN;
+	private double maxCableSpeed = MotionPlanner.MAX_FEEDRATE*SkycamKinematics.THREAD_PER_STEP;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	// the motors seen from above, counter-clockwise.
+	private double [] hullX = new double[SkycamKinematics.NUM_MOTORS];
+	private double [] hullY = new double[SkycamKinematics.NUM_MOTORS];
+	private int hullSize;
+	// the lowest motor.
+	private double top;
+
+
+	public WorkspaceValidator(SkycamKinematics kinematics) {
+		this.kinematics = kinematics;
+	}
+
+	/**
+	 * @param tension the least a cable may pull, as a multiple of the weight of the plotter.
+	 */
+	public void setMinTension(double tension) {
+		minTension = tension;
+	}
+
+	/**
+	 * @param tension the most a cable may pull, as a multiple of the weight of the plotter.
+	 */
+	public void setMaxTension(double tension) {
+		maxTension = tension;
+	}
+
+	/**
+	 * @param cm how far below the lowest motor the plotter must stay.
+	 */
+	public void setTopMargin(double cm) {
+		topMargin = cm;
+	}
+
+	/**
+	 * @param speed the fastest a cable may reel in or out, in cm/s.  By default the fastest the firmware will go.
+	 */
+	public void setMaxCableSpeed(double speed) {
+		maxCableSpeed = speed;
+	}
+
+	/**
+	 * @param threads how many chunks to check at once.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1,threads);
+	}
+
+	/**
+	 * @param program the job, starting from 0,0,0 like after SendConfig()
+	 * @return everything wrong with it
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public WorkspaceReport validate(CompiledGCode program) throws InterruptedException {
+		return validate(Trajectory.build(program));
+	}
+
+	/**
+	 * @param trajectory the job
+	 * @return everything wrong with it
+	 * @throws InterruptedException if the thread is interrupted, such as when another file is opened.
+	 */
+	public WorkspaceReport validate(final Trajectory trajectory) throws InterruptedException {
+		findHull();
+
+		final int n = trajectory.size();
+		int chunks = Math.max(1,(n+CHUNK-1)/CHUNK);
+		if(n==0) return new WorkspaceReport(new ArrayList<WorkspaceReport.Problem>(),0);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads,chunks),new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"Workspace validator");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		List<WorkspaceReport.Problem> problems = new ArrayList<WorkspaceReport.Problem>();
+		long count=0;
+		try {
+			List<Future<Chunk>> results = new ArrayList<Future<Chunk>>();
+			for(int c=0;c<chunks;++c) {
+				final int from = c*CHUNK;
+				final int to = Math.min(n,from+CHUNK);
+				results.add(pool.submit(new Callable<Chunk>() {
+					@Override
+					public Chunk call() {
+						return checkChunk(trajectory,from,to);
+					}
+				}));
+			}
+
+			// a problem that runs off the end of one chunk carries on in the next.
+			WorkspaceReport.Problem [] open = new WorkspaceReport.Problem[WorkspaceReport.KINDS];
+			for(Future<Chunk> f : results) {
+				Chunk chunk = f.get();
+				if(chunk==null) throw new InterruptedException();
+				for(WorkspaceReport.Problem p : chunk.problems) {
+					if(open[p.kind]!=null && p.firstBlock<chunk.firstClean[p.kind]) {
+						open[p.kind].extend(p);
+						continue;
+					}
+					count++;
+					if(problems.size()<MAX_PROBLEMS) problems.add(p);
+					open[p.kind]=p;
+				}
+				count+=chunk.dropped;
+				for(int k=0;k<WorkspaceReport.KINDS;++k) {
+					if(open[k]!=null && chunk.lastClean[k]>open[k].lastBlock) open[k]=null;
+				}
+			}
+		} catch(ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return new WorkspaceReport(problems,count);
+	}
+
+	// the convex hull of the motors from above, by gift wrapping.  Four points don't need anything faster.
+	private void findHull() {
+		int m = SkycamKinematics.NUM_MOTORS;
+		top = Double.POSITIVE_INFINITY;
+		int first=0;
+		for(int i=0;i<m;++i) {
+			top = Math.min(top,kinematics.getAnchor(i,2));
+			double x=kinematics.getAnchor(i,0), y=kinematics.getAnchor(i,1);
+			double fx=kinematics.getAnchor(first,0), fy=kinematics.getAnchor(first,1);
+			if(x<fx || (x==fx && y<fy)) first=i;
+		}
+		top -= topMargin;
+
+		hullSize=0;
+		int p=first;
+		do {
+			hullX[hullSize]=kinematics.getAnchor(p,0);
+			hullY[hullSize]=kinematics.getAnchor(p,1);
+			hullSize++;
+			int q=-1;
+			for(int i=0;i<m;++i) {
+				double ix=kinematics.getAnchor(i,0)-hullX[hullSize-1];
+				double iy=kinematics.getAnchor(i,1)-hullY[hullSize-1];
+				if(ix==0 && iy==0) continue;
+				if(q<0) {
+					q=i;
+					continue;
+				}
+				double qx=kinematics.getAnchor(q,0)-hullX[hullSize-1];
+				double qy=kinematics.getAnchor(q,1)-hullY[hullSize-1];
+				double cross = qx*iy-qy*ix;
+				// i is to the right of q, or in line and further?  i is the next corner.
+				if(cross<0 || (cross==0 && ix*ix+iy*iy>qx*qx+qy*qy)) q=i;
+			}
+			p=q;
+		} while(p>=0 && p!=first && hullSize<m);
+	}
+
+	// how far x,y is outside the motors seen from above.  0 or less is inside.
+	private double outside(double x,double y) {
+		if(hullSize<3) {
+			// the motors are in a line, probably not set yet.  nowhere is inside.
+			double dx=x-hullX[0], dy=y-hullY[0];
+			return Math.max(Double.MIN_VALUE,Math.sqrt(dx*dx+dy*dy));
+		}
+		double worst=Double.NEGATIVE_INFINITY;
+		for(int i=0;i<hullSize;++i) {
+			int j=(i+1)%hullSize;
+			double ex=hullX[j]-hullX[i], ey=hullY[j]-hullY[i];
+			double d = ((x-hullX[i])*ey-(y-hullY[i])*ex)/Math.sqrt(ex*ex+ey*ey);
+			worst=Math.max(worst,d);
+		}
+		return worst;
+	}
+
+	// what one chunk found.
+	private static class Chunk {
+		List<WorkspaceReport.Problem> problems = new ArrayList<WorkspaceReport.Problem>();
+		long dropped=0;
+		// the first and last block with moves and without each kind of problem.
+		int [] firstClean = new int[WorkspaceReport.KINDS];
+		int [] lastClean = new int[WorkspaceReport.KINDS];
+	}
+
+	// check blocks from to to.  null if interrupted.
+	private Chunk checkChunk(Trajectory trajectory,int from,int to) {
+		Chunk chunk = new Chunk();
+		for(int k=0;k<WorkspaceReport.KINDS;++k) {
+			chunk.firstClean[k]=Integer.MAX_VALUE;
+			chunk.lastClean[k]=-1;
+		}
+		WorkspaceReport.Problem [] current = new WorkspaceReport.Problem[WorkspaceReport.KINDS];
+		Checker checker = new Checker();
+		trajectory.startAt(from,checker);
+
+		for(int b=from;b<to;++b) {
+			if((b&4095)==0 && Thread.currentThread().isInterrupted()) return null;
+			checker.hits=0;
+			checker.moved=false;
+			trajectory.replay(b,checker);
+
+			int line = trajectory.getSourceLine(b);
+			for(int k=0;k<WorkspaceReport.KINDS;++k) {
+				if((checker.hits & (1<<k))!=0) {
+					double v = checker.value[k];
+					double x = checker.where[k*3], y = checker.where[k*3+1], z = checker.where[k*3+2];
+					if(current[k]!=null) {
+						current[k].extend(b,line,v,x,y,z);
+					} else {
+						current[k] = new WorkspaceReport.Problem(k,b,line,v,x,y,z);
+						if(chunk.problems.size()<MAX_PROBLEMS) chunk.problems.add(current[k]);
+						else chunk.dropped++;
+					}
+				} else if(checker.moved) {
+					current[k]=null;
+					if(chunk.firstClean[k]==Integer.MAX_VALUE) chunk.firstClean[k]=b;
+					chunk.lastClean[k]=b;
+				}
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * Checks every point of the moves of one block.  Not thread safe, each chunk has its own.
+	 */
+	private class Checker implements MotionListener {
+		double px, py, pz;
+		// which kinds of problem the block has, and the worst of each.
+		int hits;
+		boolean moved;
+		double [] value = new double[WorkspaceReport.KINDS];
+		double [] where = new double[WorkspaceReport.KINDS*3];
+
+		private double [] u = new double[SkycamKinematics.NUM_MOTORS*3];
+		private double [] t0 = new double[SkycamKinematics.NUM_MOTORS];
+		private double [] nul = new double[SkycamKinematics.NUM_MOTORS];
+
+		@Override
+		public void teleport(double x,double y,double z) {
+			px=x;  py=y;  pz=z;
+		}
+
+		@Override
+		public void lineTo(double x,double y,double z,double feedRate) {
+			double dx=x-px, dy=y-py, dz=z-pz;
+			double len = Math.sqrt(dx*dx+dy*dy+dz*dz);
+			moved=true;
+			if(len>0) {
+				double speed = feedRate*SkycamKinematics.THREAD_PER_STEP;
+				if(speed>maxCableSpeed) hit(WorkspaceReport.TOO_FAST,speed,x,y,z);
+			}
+			// the same pieces as line_safe()
+			int pieces = Math.max(1,(int)Math.ceil(len*MotionPlanner.SEGMENT_PER_CM_LINE));
+			double sx=px, sy=py, sz=pz;
+			for(int j=1;j<=pieces;++j) {
+				double a = (double)j/(double)pieces;
+				check(sx+dx*a,sy+dy*a,sz+dz*a);
+			}
+			px=x;  py=y;  pz=z;
+		}
+
+		private void hit(int kind,double v,double x,double y,double z) {
+			int bit = 1<<kind;
+			if((hits & bit)!=0 && (kind==WorkspaceReport.SLACK ? v>=value[kind] : v<=value[kind])) return;
+			hits |= bit;
+			value[kind]=v;
+			where[kind*3  ]=x;
+			where[kind*3+1]=y;
+			where[kind*3+2]=z;
+		}
+
+		private void check(double x,double y,double z) {
+			double out = Math.max(outside(x,y),z-top);
+			if(out>0) {
+				hit(WorkspaceReport.OUTSIDE,out,x,y,z);
+				// tension means nothing out there.
+				return;
+			}
+			if(!tensions(x,y,z)) {
+				hit(WorkspaceReport.OVER_TENSION,Double.POSITIVE_INFINITY,x,y,z);
+				return;
+			}
+			double least = bestLeast();
+			if(least<minTension) {
+				hit(WorkspaceReport.SLACK,least,x,y,z);
+				return;
+			}
+			double most = bestMost(minTension);
+			if(most>maxTension) hit(WorkspaceReport.OVER_TENSION,most,x,y,z);
+		}
+
+		/**
+		 * Every way the cables can hold up the plotter is t0+s*nul for some s.  t0 is the one with the least total
+		 * pull, and nul is a way of pulling that doesn't move the plotter at all.
+		 * @return false if the cables can't hold the plotter at any tension, such as when they are level.
+		 */
+		private boolean tensions(double x,double y,double z) {
+			int m = SkycamKinematics.NUM_MOTORS;
+			for(int i=0;i<m;++i) {
+				kinematics.cableDirection(i,x,y,z,u,i*3);
+			}
+			// A is the 3x4 matrix of cable directions.  t0 = A' inverse(AA') g with g straight up.
+			double a00=0,a01=0,a02=0,a11=0,a12=0,a22=0;
+			for(int i=0;i<m;++i) {
+				double ux=u[i*3], uy=u[i*3+1], uz=u[i*3+2];
+				a00+=ux*ux;  a01+=ux*uy;  a02+=ux*uz;
+				a11+=uy*uy;  a12+=uy*uz;  a22+=uz*uz;
+			}
+			double c0 = a01*a12-a02*a11;
+			double c1 = a01*a02-a00*a12;
+			double c2 = a00*a11-a01*a01;
+			double det = a02*c0+a12*c1+a22*c2;
+			if(Math.abs(det)<1e-12) return false;
+			double w0=c0/det, w1=c1/det, w2=c2/det;
+			for(int i=0;i<m;++i) {
+				t0[i] = u[i*3]*w0+u[i*3+1]*w1+u[i*3+2]*w2;
+			}
+			// the null space of A, by cofactors.
+			for(int i=0;i<m;++i) {
+				int p=(i+1)%m, q=(i+2)%m, r=(i+3)%m;
+				double d = u[p*3  ]*(u[q*3+1]*u[r*3+2]-u[q*3+2]*u[r*3+1])
+				         - u[q*3  ]*(u[p*3+1]*u[r*3+2]-u[p*3+2]*u[r*3+1])
+				         + u[r*3  ]*(u[p*3+1]*u[q*3+2]-u[p*3+2]*u[q*3+1]);
+				nul[i] = (i%2==0) ? d : -d;
+			}
+			return true;
+		}
+
+		// the most the slackest cable can pull, sharing the weight the best way.
+		private double bestLeast() {
+			int m = SkycamKinematics.NUM_MOTORS;
+			boolean up=true, down=true;
+			for(int i=0;i<m;++i) {
+				if(nul[i]<=0) up=false;
+				if(nul[i]>=0) down=false;
+			}
+			// every cable can pull harder at once.
+			if(up || down) return Double.POSITIVE_INFINITY;
+
+			// the best is where two cables cross.
+			double best=Double.NEGATIVE_INFINITY;
+			for(int i=0;i<m;++i) {
+				for(int j=i+1;j<m;++j) {
+					if(nul[i]==nul[j]) continue;
+					double s = (t0[j]-t0[i])/(nul[i]-nul[j]);
+					best = Math.max(best,least(s));
+				}
+			}
+			return best;
+		}
+
+		// the least the tightest cable can pull while every cable pulls at least floor.
+		private double bestMost(double floor) {
+			int m = SkycamKinematics.NUM_MOTORS;
+			double lo=Double.NEGATIVE_INFINITY, hi=Double.POSITIVE_INFINITY;
+			for(int i=0;i<m;++i) {
+				if(nul[i]>0) lo=Math.max(lo,(floor-t0[i])/nul[i]);
+				else if(nul[i]<0) hi=Math.min(hi,(floor-t0[i])/nul[i]);
+			}
+			double best=Double.POSITIVE_INFINITY;
+			if(!Double.isInfinite(lo)) best=Math.min(best,most(lo));
+			if(!Double.isInfinite(hi)) best=Math.min(best,most(hi));
+			for(int i=0;i<m;++i) {
+				for(int j=i+1;j<m;++j) {
+					if(nul[i]==nul[j]) continue;
+					double s = (t0[j]-t0[i])/(nul[i]-nul[j]);
+					if(s>=lo && s<=hi) best=Math.min(best,most(s));
+				}
+			}
+			return best;
+		}
+
+		private double least(double s) {
+			double v=Double.POSITIVE_INFINITY;
+			for(int i=0;i<SkycamKinematics.NUM_MOTORS;++i) v=Math.min(v,t0[i]+s*nul[i]);
+			return v;
+		}
+
+		private double most(double s) {
+			double v=Double.NEGATIVE_INFINITY;
+			for(int i=0;i<SkycamKinematics.NUM_MOTORS;++i) v=Math.max(v,t0[i]+s*nul[i]);
+			return v;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.marginallyclever.preview;
+
+import java.awt.Color;
+import java.awt.Component;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLProfile;
+import com.jogamp.opengl.awt.GLJPanel;
+import com.jogamp.opengl.fixedfunc.GLMatrixFunc;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+
+/**
+ * Draws the preview with OpenGL.  The points and every level of detail go into buffers once per job.  After that a
+ * frame is two draw calls, one for the lines already sent and one for the rest, so the progress moves without touching
+ * the buffers again.  Only fixed function GL2 is used, so a software OpenGL like Mesa is enough.
+ *
+ * Nothing here is touched unless {@link #isAvailable()}, so the JOGL classes are only loaded if they will work.
+ * @author Dan Royer
+ */
+class GLPreview implements GLEventListener {
+	private final PreviewPanel panel;
+	// the job in the buffers, and the buffers: points first, then one per level of detail.
+	private PreviewGeometry uploaded;
+	private int[] buffers = new int[0];
+
+
+	private GLPreview(PreviewPanel panel) {
+		this.panel = panel;
+	}
+
+	/**
+	 * @return true if this machine can draw with OpenGL 2.
+	 */
+	static boolean isAvailable() {
+		return GLProfile.isAvailable(GLProfile.GL2);
+	}
+
+	// a Component, so the caller needn't load JOGL to check what comes back.
+	static Component create(PreviewPanel panel) {
+		GLJPanel view = new GLJPanel(new GLCapabilities(GLProfile.get(GLProfile.GL2)));
+		view.addGLEventListener(new GLPreview(panel));
+		return view;
+	}
+
+	@Override
+	public void init(GLAutoDrawable drawable) {
+		GL2 gl = drawable.getGL().getGL2();
+		gl.glDisable(GL.GL_DEPTH_TEST);
+		gl.glEnable(GL.GL_LINE_SMOOTH);
+		gl.glEnable(GL.GL_BLEND);
+		gl.glBlendFunc(GL.GL_SRC_ALPHA,GL.GL_ONE_MINUS_SRC_ALPHA);
+		// the context is new, so anything uploaded before is gone.
+		uploaded = null;
+		buffers = new int[0];
+	}
+
+	@Override
+	public void dispose(GLAutoDrawable drawable) {
+		release(drawable.getGL().getGL2());
+	}
+
+	@Override
+	public void reshape(GLAutoDrawable drawable,int x,int y,int width,int height) {}
+
+	@Override
+	public void display(GLAutoDrawable drawable) {
+		GL2 gl = drawable.getGL().getGL2();
+		Color bg = PreviewPanel.BACKGROUND;
+		gl.glClearColor(bg.getRed()/255f,bg.getGreen()/255f,bg.getBlue()/255f,1);
+		gl.glClear(GL.GL_COLOR_BUFFER_BIT);
+
+		PreviewGeometry geometry = panel.getGeometry();
+		if(geometry!=uploaded) upload(gl,geometry);
+		if(geometry==null) return;
+
+		int w = drawable.getSurfaceWidth();
+		int h = drawable.getSurfaceHeight();
+		PreviewCamera camera = panel.getCamera();
+		int level = geometry.levelFor(camera.worldPerPixel(h));
+		int done = geometry.linesBefore(level,panel.getLinesProcessed());
+
+		gl.glMatrixMode(GLMatrixFunc.GL_PROJECTION);
+		gl.glLoadMatrixd(camera.matrix(w,h),0);
+		gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
+		gl.glLoadIdentity();
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER,buffers[0]);
+		gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3,GL.GL_FLOAT,0,0);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER,buffers[1+level]);
+		drawLines(gl,0,done,PreviewPanel.DONE);
+		drawLines(gl,done,geometry.lineCount[level],PreviewPanel.TODO);
+		gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER,0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER,0);
+	}
+
+	private void drawLines(GL2 gl,int from,int to,Color color) {
+		if(from>=to) return;
+		gl.glColor3f(color.getRed()/255f,color.getGreen()/255f,color.getBlue()/255f);
+		gl.glDrawElements(GL.GL_LINES,(to-from)*2,GL.GL_UNSIGNED_INT,from*2L*4);
+	}
+
+	private void upload(GL2 gl,PreviewGeometry geometry) {
+		release(gl);
+		uploaded = geometry;
+		if(geometry==null) return;
+
+		int levels = geometry.lines.length;
+		buffers = new int[1+levels];
+		gl.glGenBuffers(buffers.length,buffers,0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER,buffers[0]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER,geometry.vertexCount*3L*4,geometry.vertices,GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER,0);
+		for(int i=0;i<levels;++i) {
+			gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER,buffers[1+i]);
+			gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER,geometry.lineCount[i]*2L*4,geometry.lines[i],GL.GL_STATIC_DRAW);
+		}
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER,0);
+	}
+
+	private void release(GL2 gl) {
+		if(buffers.length>0) gl.glDeleteBuffers(buffers.length,buffers,0);
+		buffers = new int[0];
+		uploaded = null;
+	}
+}
@@ -0,0 +1,89 @@
+package com.marginallyclever.preview;
+
+/**
+ * An orthographic camera that orbits a point.  Both renderers draw through the same matrix, so they agree on what is
+ * on screen.
+ * @author Dan Royer
+ */
+class PreviewCamera {
+	// the point looked at.
+	double targetX, targetY, targetZ;
+	// degrees around the Z axis, and above the XY plane.
+	double yaw=-30, pitch=30;
+	// how many cm fit in the height of the view.
+	double height=100;
+	// how far in front of and behind the target is drawn, in cm.
+	double depth=1000;
+
+
+	/**
+	 * Look at everything in the job.
+	 */
+	void fit(PreviewGeometry g) {
+		targetX = (g.minX+g.maxX)/2;
+		targetY = (g.minY+g.maxY)/2;
+		targetZ = (g.minZ+g.maxZ)/2;
+		double size = g.diagonal();
+		if(size<=0) size=100;
+		height = size*1.1;
+		depth = size*2;
+	}
+
+	void orbit(double dx,double dy) {
+		yaw += dx;
+		pitch = Math.max(-89,Math.min(89,pitch+dy));
+	}
+
+	/**
+	 * Move the target by a number of pixels in a view h pixels high.
+	 */
+	void pan(double dx,double dy,int h) {
+		double[] a = axes();
+		double s = worldPerPixel(h);
+		// screen y grows down.
+		targetX -= (a[0]*dx - a[3]*dy)*s;
+		targetY -= (a[1]*dx - a[4]*dy)*s;
+		targetZ -= (a[2]*dx - a[5]*dy)*s;
+	}
+
+	void zoom(double factor) {
+		height = Math.max(1e-3,height*factor);
+	}
+
+	/**
+	 * @return cm per pixel in a view h pixels high.
+	 */
+	double worldPerPixel(int h) {
+		return height/Math.max(1,h);
+	}
+
+	// right, up and forward in the world, Z up.
+	private double[] axes() {
+		double cy = Math.cos(Math.toRadians(yaw)),   sy = Math.sin(Math.toRadians(yaw));
+		double cp = Math.cos(Math.toRadians(pitch)), sp = Math.sin(Math.toRadians(pitch));
+		double fx = -cp*cy, fy = -cp*sy, fz = -sp;
+		double rx = -sy, ry = cy, rz = 0;
+		// up = right x forward
+		return new double[] { rx, ry, rz, ry*fz-rz*fy, rz*fx-rx*fz, rx*fy-ry*fx, fx, fy, fz };
+	}
+
+	/**
+	 * @return a column-major 4x4 matrix from the world to -1...1 on each axis for a view w by h pixels.
+	 */
+	double[] matrix(int w,int h) {
+		double[] a = axes();
+		double sx = 2/(height*Math.max(1,w)/Math.max(1,h));
+		double sy = 2/height;
+		double sz = 1/depth;
+
+		double[] m = new double[16];
+		m[0]=a[0]*sx;  m[4]=a[1]*sx;  m[ 8]=a[2]*sx;
+		m[1]=a[3]*sy;  m[5]=a[4]*sy;  m[ 9]=a[5]*sy;
+		m[2]=a[6]*sz;  m[6]=a[7]*sz;  m[10]=a[8]*sz;
+		m[12]=-(m[0]*targetX+m[4]*targetY+m[ 8]*targetZ);
+		m[13]=-(m[1]*targetX+m[5]*targetY+m[ 9]*targetZ);
+		m[14]=-(m[2]*targetX+m[6]*targetY+m[10]*targetZ);
+		m[15]=1;
+		return m;
+	}
+}
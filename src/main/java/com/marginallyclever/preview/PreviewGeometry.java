@@ -0,0 +1,218 @@
+package com.marginallyclever.preview;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.marginallyclever.kinematics.MotionListener;
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * The lines of a {@link Trajectory} ready to draw: every point the plotter passes through, with arcs cut the way the
+ * firmware cuts them, and the lines between them as pairs of point indices.  Made once per job, so the renderers only
+ * upload or walk what is here.
+ *
+ * Big jobs also get coarser levels of detail.  Each level skips points closer than its spacing to the last point it
+ * kept, so a level is good enough wherever its spacing is smaller than a pixel.
+ * @author Dan Royer
+ */
+class PreviewGeometry {
+	// jobs with fewer lines than this are always drawn in full.
+	static final int LOD_MIN_LINES = 65536;
+	// stop making coarser levels after this few lines.
+	static final int LOD_MAX_LINES = 16384;
+	static final int LOD_MAX_LEVELS = 10;
+
+	// x,y,z of each point.
+	final FloatBuffer vertices;
+	final int vertexCount;
+	// the number of points after each block, so the points of block b end at blockEnd[b].
+	final int[] blockEnd;
+	// pairs of point indices, one IntBuffer per level of detail.  Level 0 is every line.
+	final IntBuffer[] lines;
+	final int[] lineCount;
+	// the smallest distance between points kept at each level.
+	final double[] spacing;
+	final float minX, minY, minZ, maxX, maxY, maxZ;
+
+
+	private PreviewGeometry(Collector c,int[] blockEnd,List<IntBuffer> levels,List<Double> spacings) {
+		vertexCount = c.vertexCount;
+		this.blockEnd = blockEnd;
+		vertices = ByteBuffer.allocateDirect(Math.max(1,vertexCount)*3*4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		vertices.put(c.v,0,vertexCount*3).flip();
+
+		int n = levels.size();
+		lines = new IntBuffer[n];
+		lineCount = new int[n];
+		spacing = new double[n];
+		for(int i=0;i<n;++i) {
+			lines[i] = levels.get(i);
+			lineCount[i] = lines[i].limit()/2;
+			spacing[i] = spacings.get(i);
+		}
+
+		minX=c.minX;  minY=c.minY;  minZ=c.minZ;
+		maxX=c.maxX;  maxY=c.maxY;  maxZ=c.maxZ;
+	}
+
+	/**
+	 * Follow a whole job.
+	 */
+	static PreviewGeometry build(Trajectory trajectory) {
+		Collector c = new Collector();
+		int n = trajectory.size();
+		int[] blockEnd = new int[n];
+		trajectory.startAt(0,c);
+		for(int b=0;b<n;++b) {
+			trajectory.replay(b,c);
+			blockEnd[b] = c.vertexCount;
+		}
+
+		List<IntBuffer> levels = new ArrayList<IntBuffer>();
+		List<Double> spacings = new ArrayList<Double>();
+		levels.add(direct(c.lines,c.lineCount));
+		spacings.add(0.0);
+
+		if(c.lineCount>=LOD_MIN_LINES) {
+			int[] level = new int[c.lineCount*2];
+			double size = c.diagonal();
+			double d = size/LOD_MAX_LINES/8;
+			int count = c.lineCount;
+			while(count>LOD_MAX_LINES && levels.size()<LOD_MAX_LEVELS && d<size) {
+				int kept = decimate(c.v,c.lines,c.lineCount,d,level);
+				// a level that saves little isn't worth the memory.
+				if(kept<=count*3/4) {
+					count = kept;
+					levels.add(direct(level,count));
+					spacings.add(d);
+				}
+				d*=2;
+			}
+		}
+		return new PreviewGeometry(c,blockEnd,levels,spacings);
+	}
+
+	private static IntBuffer direct(int[] lines,int count) {
+		IntBuffer b = ByteBuffer.allocateDirect(Math.max(1,count)*2*4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		b.put(lines,0,count*2).flip();
+		return b;
+	}
+
+	// keep the end of each line only if it is at least d from the last point kept.  Lines that don't touch the one
+	// before them start again, and the end of each run of touching lines is always kept.
+	private static int decimate(float[] v,int[] lines,int lineCount,double d,int[] out) {
+		int count=0;
+		int kept=-1;
+		double dd = d*d;
+		for(int i=0;i<lineCount;++i) {
+			int a = lines[i*2];
+			int b = lines[i*2+1];
+			if(kept<0 || (i>0 && a!=lines[i*2-1])) kept=a;
+			boolean last = (i+1==lineCount || lines[i*2+2]!=b);
+			double dx = v[b*3  ]-v[kept*3  ];
+			double dy = v[b*3+1]-v[kept*3+1];
+			double dz = v[b*3+2]-v[kept*3+2];
+			if(last || dx*dx+dy*dy+dz*dz>=dd) {
+				out[count*2  ]=kept;
+				out[count*2+1]=b;
+				++count;
+				kept=b;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of lines of a level that end at or before the end of a block, so they have been sent.
+	 */
+	int linesBefore(int level,long blocks) {
+		if(blocks<=0 || blockEnd.length==0) return 0;
+		if(blocks>=blockEnd.length) return lineCount[level];
+		// the last point of the last block sent.
+		int end = blockEnd[(int)blocks-1]-1;
+		IntBuffer l = lines[level];
+		int lo=0, hi=lineCount[level];
+		while(lo<hi) {
+			int mid = (lo+hi)>>>1;
+			if(l.get(mid*2+1)<=end) lo=mid+1;
+			else hi=mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param worldPerPixel how big a pixel is in cm.
+	 * @return the coarsest level that is still good to within a pixel.
+	 */
+	int levelFor(double worldPerPixel) {
+		int best=0;
+		for(int i=1;i<spacing.length;++i) {
+			if(spacing[i]<=worldPerPixel) best=i;
+		}
+		return best;
+	}
+
+	/**
+	 * @return the size of the box around everything, in cm.
+	 */
+	double diagonal() {
+		double dx=maxX-minX, dy=maxY-minY, dz=maxZ-minZ;
+		return Math.sqrt(dx*dx+dy*dy+dz*dz);
+	}
+
+	// gathers the points and lines of the job as it is replayed.
+	private static class Collector implements MotionListener {
+		float[] v = new float[3*1024];
+		int vertexCount=0;
+		int[] lines = new int[2*1024];
+		int lineCount=0;
+		// the point the plotter is at, or -1 before the first.
+		int current=-1;
+		float minX, minY, minZ, maxX, maxY, maxZ;
+
+		@Override
+		public void teleport(double x,double y,double z) {
+			current = add(x,y,z);
+		}
+
+		@Override
+		public void lineTo(double x,double y,double z,double feedRate) {
+			int next = add(x,y,z);
+			if(current>=0) {
+				if(lineCount*2==lines.length) lines = Arrays.copyOf(lines,lines.length*2);
+				lines[lineCount*2  ]=current;
+				lines[lineCount*2+1]=next;
+				++lineCount;
+			}
+			current = next;
+		}
+
+		private int add(double x,double y,double z) {
+			if(vertexCount*3==v.length) v = Arrays.copyOf(v,v.length*2);
+			float fx=(float)x, fy=(float)y, fz=(float)z;
+			v[vertexCount*3  ]=fx;
+			v[vertexCount*3+1]=fy;
+			v[vertexCount*3+2]=fz;
+			if(vertexCount==0) {
+				minX=maxX=fx;
+				minY=maxY=fy;
+				minZ=maxZ=fz;
+			} else {
+				minX=Math.min(minX,fx);  maxX=Math.max(maxX,fx);
+				minY=Math.min(minY,fy);  maxY=Math.max(maxY,fy);
+				minZ=Math.min(minZ,fz);  maxZ=Math.max(maxZ,fz);
+			}
+			return vertexCount++;
+		}
+
+		double diagonal() {
+			double dx=maxX-minX, dy=maxY-minY, dz=maxZ-minZ;
+			return Math.sqrt(dx*dx+dy*dy+dz*dz);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.marginallyclever.preview;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * A 3D view of the job, with the part already sent to the robots drawn in another color.  Drag to turn, right drag to
+ * move, wheel to zoom, double click to see everything.
+ *
+ * Draws with OpenGL when it can and with Java2D when it can't, like when there is no screen.
+ * @author Dan Royer
+ */
+public class PreviewPanel extends JPanel {
+	static final long serialVersionUID=1;
+
+	static final Color BACKGROUND = Color.WHITE;
+	static final Color DONE = new Color(192,192,192);
+	static final Color TODO = new Color(0,0,128);
+
+	private final PreviewCamera camera = new PreviewCamera();
+	// the job to draw.  Swing thread only.
+	private PreviewGeometry geometry;
+	// blocks sent so far.
+	private volatile long linesProcessed;
+	private final Component view;
+	private final boolean accelerated;
+
+
+	public PreviewPanel() {
+		super(new BorderLayout());
+
+		Component gl = null;
+		if(!GraphicsEnvironment.isHeadless()) {
+			try {
+				if(GLPreview.isAvailable()) gl = GLPreview.create(this);
+			}
+			catch(Throwable e) {
+				// no JOGL, no natives, or no driver.
+				System.out.println("OpenGL preview not available: "+e.getMessage());
+			}
+		}
+		accelerated = (gl!=null);
+		view = accelerated ? gl : new SoftwarePreview(this);
+		add(view,BorderLayout.CENTER);
+
+		MouseAdapter mouse = new MouseAdapter() {
+			private int lastX, lastY;
+
+			@Override
+			public void mousePressed(MouseEvent e) {
+				lastX=e.getX();
+				lastY=e.getY();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				int dx = e.getX()-lastX;
+				int dy = e.getY()-lastY;
+				lastX=e.getX();
+				lastY=e.getY();
+				if(SwingUtilities.isLeftMouseButton(e)) camera.orbit(-dx*0.5,dy*0.5);
+				else camera.pan(dx,dy,view.getHeight());
+				view.repaint();
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				camera.zoom(Math.pow(1.1,e.getPreciseWheelRotation()));
+				view.repaint();
+			}
+
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if(e.getClickCount()==2 && geometry!=null) {
+					camera.fit(geometry);
+					view.repaint();
+				}
+			}
+		};
+		view.addMouseListener(mouse);
+		view.addMouseMotionListener(mouse);
+		view.addMouseWheelListener(mouse);
+	}
+
+	/**
+	 * Show a job, or nothing if null.  Can be called from any thread.  The lines are made on the calling thread, so
+	 * call it from a background thread for big jobs.
+	 */
+	public void setTrajectory(Trajectory trajectory) {
+		final PreviewGeometry g = (trajectory==null) ? null : PreviewGeometry.build(trajectory);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				geometry = g;
+				if(g!=null) camera.fit(g);
+				view.repaint();
+			}
+		});
+	}
+
+	/**
+	 * Draw the first blocks of the job as sent.  Cheap enough to call after every block.
+	 */
+	public void setLinesProcessed(long linesProcessed) {
+		if(this.linesProcessed==linesProcessed) return;
+		this.linesProcessed = linesProcessed;
+		view.repaint();
+	}
+
+	public long getLinesProcessed() {
+		return linesProcessed;
+	}
+
+	/**
+	 * @return true if the preview is drawn with OpenGL.
+	 */
+	public boolean isAccelerated() {
+		return accelerated;
+	}
+
+	/**
+	 * Draw the preview into an image with Java2D, whatever draws it on screen.  Swing thread only.
+	 */
+	public BufferedImage renderImage(int width,int height) {
+		BufferedImage image = new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		SoftwarePreview.draw(g,width,height,geometry,camera,linesProcessed);
+		g.dispose();
+		return image;
+	}
+
+	PreviewGeometry getGeometry() {
+		return geometry;
+	}
+
+	PreviewCamera getCamera() {
+		return camera;
+	}
+}
@@ -0,0 +1,80 @@
+package com.marginallyclever.preview;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import javax.swing.JComponent;
+
+/**
+ * Draws the preview with Java2D, for machines without OpenGL and for drawing into images when there is no screen.
+ * @author Dan Royer
+ */
+class SoftwarePreview extends JComponent {
+	static final long serialVersionUID=1;
+	// Java2D is much slower than OpenGL, so trade detail for a quick redraw past this many lines.
+	static final int MAX_LINES = 131072;
+
+	private final PreviewPanel panel;
+
+
+	SoftwarePreview(PreviewPanel panel) {
+		this.panel = panel;
+		setOpaque(true);
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		draw((Graphics2D)g,getWidth(),getHeight(),panel.getGeometry(),panel.getCamera(),panel.getLinesProcessed());
+	}
+
+	/**
+	 * Draw a job as seen by a camera into a w by h pixel area.
+	 * @param blocksDone how many blocks of the job have been sent.
+	 */
+	static void draw(Graphics2D g,int w,int h,PreviewGeometry geometry,PreviewCamera camera,long blocksDone) {
+		g.setColor(PreviewPanel.BACKGROUND);
+		g.fillRect(0,0,w,h);
+		if(geometry==null) return;
+
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,RenderingHints.VALUE_ANTIALIAS_ON);
+		int level = geometry.levelFor(camera.worldPerPixel(h));
+		while(level+1<geometry.lineCount.length && geometry.lineCount[level]>MAX_LINES) ++level;
+		int done = geometry.linesBefore(level,blocksDone);
+		double[] m = camera.matrix(w,h);
+		drawLines(g,w,h,m,geometry,level,0,done,PreviewPanel.DONE);
+		drawLines(g,w,h,m,geometry,level,done,geometry.lineCount[level],PreviewPanel.TODO);
+	}
+
+	private static void drawLines(Graphics2D g,int w,int h,double[] m,PreviewGeometry geometry,int level,int from,
+			int to,Color color) {
+		if(from>=to) return;
+		FloatBuffer v = geometry.vertices;
+		IntBuffer lines = geometry.lines[level];
+		Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO,(to-from)+16);
+		int last=-1;
+		for(int i=from;i<to;++i) {
+			int a = lines.get(i*2);
+			int b = lines.get(i*2+1);
+			if(a!=last) path.moveTo(screenX(m,v,a,w),screenY(m,v,a,h));
+			path.lineTo(screenX(m,v,b,w),screenY(m,v,b,h));
+			last=b;
+		}
+		g.setColor(color);
+		g.draw(path);
+	}
+
+	private static float screenX(double[] m,FloatBuffer v,int i,int w) {
+		double x=v.get(i*3), y=v.get(i*3+1), z=v.get(i*3+2);
+		return (float)((m[0]*x+m[4]*y+m[8]*z+m[12]+1)*w/2);
+	}
+
+	private static float screenY(double[] m,FloatBuffer v,int i,int h) {
+		double x=v.get(i*3), y=v.get(i*3+1), z=v.get(i*3+2);
+		return (float)((1-(m[1]*x+m[5]*y+m[9]*z+m[13]))*h/2);
+	}
+}
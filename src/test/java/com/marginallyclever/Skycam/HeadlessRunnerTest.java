@@ -0,0 +1,107 @@
+package com.marginallyclever.Skycam;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.marginallyclever.communications.emulator.EmulatorTransportLayer;
+
+/**
+ * Runs jobs against two emulated robots that move instantly, and checks the exit code of each way a job can end.
+ * @author Dan Royer
+ */
+public class HeadlessRunnerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private JobSettings settings;
+	private EmulatorTransportLayer layer;
+
+	@Before
+	public void setUp() {
+		// the motors at the corners of a 4m x 4m room, 2m up.
+		settings = new JobSettings();
+		settings.m1.set(-200, 200,200);
+		settings.m2.set( 200, 200,200);
+		settings.m3.set( 200,-200,200);
+		settings.m4.set(-200,-200,200);
+		layer = new EmulatorTransportLayer();
+		layer.setBaudRate(0);
+		layer.setTimeScale(0);
+	}
+
+	@After
+	public void tearDown() {
+		if(layer.getServerCount()==0) return;
+		layer.getServer("A").close();
+		layer.getServer("B").close();
+	}
+
+	private String job(String text) throws IOException {
+		File file = folder.newFile();
+		FileWriter w = new FileWriter(file);
+		try {
+			w.write(text);
+		} finally {
+			w.close();
+		}
+		return file.getPath();
+	}
+
+	private String toolChangeJob() throws IOException {
+		return job("G90\nG00 X100 Y0\nG01 X100 Y100 F3000\nM06 T1\nG01 X0 Y0\n");
+	}
+
+	private int send(HeadlessRunner runner) throws InterruptedException {
+		return runner.send(layer.openConnection("A"),layer.openConnection("B"));
+	}
+
+	@Test
+	public void explainsItsArguments() throws InterruptedException {
+		assertEquals(HeadlessRunner.EXIT_USAGE,HeadlessRunner.run(new String[0]));
+		assertEquals(HeadlessRunner.EXIT_USAGE,HeadlessRunner.run(new String[] { "-a" }));
+		assertEquals(HeadlessRunner.EXIT_USAGE,HeadlessRunner.run(new String[] {
+				"-a","TCP/IP=localhost:1","-b","TCP/IP=localhost:2","--tool-change","maybe","job.ngc" }));
+	}
+
+	@Test
+	public void needsAFile() throws InterruptedException {
+		String missing = new File(folder.getRoot(),"missing.ngc").getPath();
+		assertEquals(HeadlessRunner.EXIT_FILE,HeadlessRunner.run(new String[] {
+				"-a","TCP/IP=localhost:1","-b","TCP/IP=localhost:2",missing }));
+	}
+
+	@Test
+	public void refusesToLeaveTheWorkspace() throws Exception {
+		String outside = job("G00 X3000 Y0\n");
+		HeadlessRunner runner = new HeadlessRunner(settings);
+		assertEquals(HeadlessRunner.EXIT_WORKSPACE,runner.load(outside));
+		runner.setForce(true);
+		assertEquals(HeadlessRunner.EXIT_OK,runner.load(outside));
+	}
+
+	@Test
+	public void skipsToolChanges() throws Exception {
+		HeadlessRunner runner = new HeadlessRunner(settings);
+		runner.setToolChange(HeadlessRunner.TOOL_CHANGE_SKIP);
+		runner.setHelloTimeout(10000);
+		assertEquals(HeadlessRunner.EXIT_OK,runner.load(toolChangeJob()));
+		assertEquals(HeadlessRunner.EXIT_OK,send(runner));
+	}
+
+	@Test
+	public void stopsForToolChanges() throws Exception {
+		HeadlessRunner runner = new HeadlessRunner(settings);
+		runner.setHelloTimeout(10000);
+		assertEquals(HeadlessRunner.EXIT_OK,runner.load(toolChangeJob()));
+		assertEquals(HeadlessRunner.EXIT_TOOL_CHANGE,send(runner));
+	}
+}
@@ -0,0 +1,142 @@
+package com.marginallyclever.communications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Plays the robot's side of a line error: BADLINENUM or BADCHECKSUM, then a cue, for the bad line and for every line
+ * sent after it.
+ * @author Dan Royer
+ */
+public class LineNumberFramerTest {
+	private LineNumberFramer framer;
+	private int inFlight;
+
+	@Before
+	public void setUp() {
+		framer = new LineNumberFramer();
+		inFlight = 0;
+		assertEquals("M110 N0",send(null));
+		cue();
+	}
+
+	// send the next line as a connection would.  A resend goes before new commands.
+	private String send(String command) {
+		if(framer.hasPending()) command=null;
+		int length = (command==null) ? 0 : command.length();
+		String line = framer.prepare(command,length).toString();
+		framer.commit(command,length);
+		inFlight++;
+		return line;
+	}
+
+	private void cue() {
+		inFlight--;
+		framer.acknowledge();
+	}
+
+	// the robot rejects a line.  The error comes before that line's cue.
+	private boolean reject(int lineNumber) {
+		boolean resend = framer.rewind(lineNumber,inFlight);
+		cue();
+		return resend;
+	}
+
+	private static String frame(int number,String command) {
+		String line = "N"+number+" "+command;
+		int checksum=0;
+		for(int i=0;i<line.length();++i) checksum ^= line.charAt(i);
+		return line+"*"+checksum;
+	}
+
+	@Test
+	public void framesLines() {
+		assertEquals(frame(0,"G00 X1"),send("G00 X1"));
+		assertEquals(frame(1,"G00 X2"),send("G00 X2"));
+		assertFalse(framer.hasPending());
+		assertEquals(2,framer.getNextLineNumber());
+	}
+
+	@Test
+	public void resendsOnceForEveryLineInFlight() {
+		for(int i=0;i<5;++i) send("G00 X"+i);
+		cue();
+		// lines 1 to 4 are in flight.  The robot wants line 1 again and rejects the rest because they are out of order.
+		assertTrue(reject(1));
+		assertFalse(reject(1));
+		assertFalse(reject(1));
+		assertFalse(reject(1));
+		assertEquals(0,inFlight);
+		assertEquals(1,framer.getResendCount());
+
+		assertTrue(framer.hasPending());
+		for(int i=1;i<5;++i) {
+			assertEquals(frame(i,"G00 X"+i),send("G00 X9"));
+		}
+		assertFalse(framer.hasPending());
+		assertEquals(frame(5,"G00 X5"),send("G00 X5"));
+	}
+
+	@Test
+	public void resendsTheLastLineInFlight() {
+		send("G00 X0");
+		send("G00 X1");
+		assertTrue(reject(0));
+		assertFalse(reject(0));
+		assertEquals(frame(0,"G00 X0"),send("G00 X2"));
+		assertEquals(frame(1,"G00 X1"),send("G00 X2"));
+		assertFalse(framer.hasPending());
+	}
+
+	@Test
+	public void resendsAgainAfterTheStaleLinesAreCued() {
+		for(int i=0;i<3;++i) send("G00 X"+i);
+		assertTrue(reject(0));
+		assertFalse(reject(0));
+		assertFalse(reject(0));
+
+		// the resend is garbled too.
+		send(null);
+		send(null);
+		assertTrue(reject(0));
+		assertFalse(reject(0));
+		assertEquals(2,framer.getResendCount());
+		assertEquals(frame(0,"G00 X0"),send(null));
+	}
+
+	@Test
+	public void ignoresErrorsWhileRewound() {
+		for(int i=0;i<3;++i) send("G00 X"+i);
+		assertTrue(reject(1));
+		// new lines were sent before the rewind was noticed.
+		assertFalse(framer.rewind(2,inFlight));
+		assertEquals(1,framer.getResendCount());
+	}
+
+	@Test
+	public void refusesLinesItDoesNotHave() {
+		LineNumberFramer small = new LineNumberFramer(4);
+		small.prepare(null,0);
+		small.commit(null,0);
+		for(int i=0;i<8;++i) {
+			small.prepare("G00",3);
+			small.commit("G00",3);
+		}
+		assertFalse(small.rewind(8,1));
+		assertFalse(small.rewind(2,1));
+		assertTrue(small.rewind(5,1));
+	}
+
+	@Test
+	public void resetStartsCountingAgain() {
+		send("G00 X0");
+		framer.reset();
+		assertTrue(framer.hasPending());
+		assertEquals("M110 N0",send("G00 X1"));
+		assertEquals(frame(0,"G00 X1"),send("G00 X1"));
+	}
+}
@@ -0,0 +1,47 @@
+package com.marginallyclever.gcode;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that compiled blocks are sent the way they were written.
+ * @author Dan Royer
+ */
+public class CompiledGCodeTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String block(CompiledGCode p,int b) {
+		return p.appendBlock(b,new StringBuilder()).toString();
+	}
+
+	@Test
+	public void keepsSourcePrecision() {
+		CompiledGCode p = new CompiledGCode();
+		GCodeCompiler.compileLine(p,new GCodeTokenizer(),"G01 X1234.5678 Y-0.00001 Z16777217",0);
+		assertEquals("G01 X1234.5678 Y-0.00001 Z16777217",block(p,0));
+
+		CompiledGCode copy = new CompiledGCode();
+		copy.copyBlock(p,0);
+		assertEquals("G01 X1234.5678 Y-0.00001 Z16777217",block(copy,0));
+	}
+
+	@Test
+	public void cacheRoundTrip() throws Exception {
+		CompiledGCode p = new CompiledGCode();
+		GCodeTokenizer tokenizer = new GCodeTokenizer();
+		GCodeCompiler.compileLine(p,tokenizer,"G01 X1234.5678 F3000",0);
+		GCodeCompiler.compileLine(p,tokenizer,"TELEPORT X0 Y0 Z0",1);
+		File file = folder.newFile("p.bin");
+		p.write(file,"hash");
+		CompiledGCode q = CompiledGCode.read(file,"hash");
+		assertEquals(2,q.size());
+		assertEquals("G01 X1234.5678 F3000",block(q,0));
+		assertEquals("TELEPORT X0 Y0 Z0",block(q,1));
+	}
+}
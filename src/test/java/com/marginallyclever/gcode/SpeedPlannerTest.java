@@ -0,0 +1,102 @@
+package com.marginallyclever.gcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.kinematics.MotionPlanner;
+import com.marginallyclever.kinematics.SkycamKinematics;
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * Plans a small job and checks the result goes to the same places, in the units the firmware reads.
+ * @author Dan Royer
+ */
+public class SpeedPlannerTest {
+	private static final String [] JOB = {
+		"G00 X100 Y0 Z0 F3000",
+		"G01 X100 Y200 F1500",
+		"G91",
+		"G01 X-50 Y-50 Z1",
+		"G90",
+		"G04 P1",
+		"G02 X0 Y100 I0 J150",
+		"M06 T2",
+		"G92 X0 Y0 Z0",
+		"G01 X123.4567 Y-98.7654 Z2",
+	};
+
+	private CompiledGCode program;
+	private CompiledGCode planned;
+
+	@Before
+	public void setUp() throws Exception {
+		SkycamKinematics kinematics = new SkycamKinematics();
+		kinematics.setAnchor(0,-200, 200,200);
+		kinematics.setAnchor(1, 200, 200,200);
+		kinematics.setAnchor(2, 200,-200,200);
+		kinematics.setAnchor(3,-200,-200,200);
+
+		program = new CompiledGCode();
+		GCodeTokenizer tokenizer = new GCodeTokenizer();
+		for(int i=0;i<JOB.length;++i) GCodeCompiler.compileLine(program,tokenizer,JOB[i],i);
+		planned = new SpeedPlanner(kinematics).plan(program);
+	}
+
+	@Test
+	public void goesToTheSamePlaces() {
+		Trajectory before = Trajectory.build(program);
+		Trajectory after = Trajectory.build(planned);
+		for(int b=0;b<before.size();++b) {
+			// G90 and G91 are dropped.
+			if(JOB[b].length()==3) continue;
+			// the last block made from each line ends where that line did.
+			int last=-1;
+			for(int i=0;i<after.size();++i) {
+				if(after.getSourceLine(i)==before.getSourceLine(b)) last=i;
+			}
+			assertTrue(JOB[b],last>=0);
+			assertEquals(JOB[b],before.getX(b),after.getX(last),1e-4);
+			assertEquals(JOB[b],before.getY(b),after.getY(last),1e-4);
+			assertEquals(JOB[b],before.getZ(b),after.getZ(last),1e-4);
+		}
+	}
+
+	@Test
+	public void writesMovesInMillimetres() {
+		int last = planned.size()-1;
+		assertEquals("G01 X123.4567 Y-98.7654 Z2",
+				planned.appendBlock(last,new StringBuilder()).toString().replaceAll(" F[0-9]+$",""));
+	}
+
+	@Test
+	public void givesEveryMoveASpeed() {
+		int g1 = CompiledGCode.opcode('G',1);
+		float fastest=0;
+		for(int b=0;b<planned.size();++b) {
+			int op = planned.getOpcode(b);
+			assertTrue(op!=CompiledGCode.opcode('G',91));
+			if(op!=g1) continue;
+			float f = planned.getParam(b,'F',Float.NaN);
+			assertTrue(f>=MotionPlanner.MIN_FEEDRATE && f<=3000);
+			fastest = Math.max(fastest,f);
+		}
+		assertEquals(3000,fastest,1);
+		// the first piece is still speeding up from a stop.
+		assertTrue(planned.getParam(1,'F',Float.NaN)<3000);
+	}
+
+	@Test
+	public void keepsWalls() {
+		int m6=-1, g92=-1;
+		for(int b=0;b<planned.size();++b) {
+			if(planned.getOpcode(b)==CompiledGCode.opcode('M',6)) m6=b;
+			if(planned.getOpcode(b)==CompiledGCode.opcode('G',92)) g92=b;
+		}
+		assertEquals(2,planned.getParam(m6,'T',0),0);
+		assertEquals(m6+1,g92);
+		assertEquals(0,planned.getParam(g92,'X',Float.NaN),0);
+	}
+}
@@ -0,0 +1,90 @@
+package com.marginallyclever.gcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * Reorders a job that zig zags between near and far paths, and checks it draws the same lines with less travel.
+ * @author Dan Royer
+ */
+public class TravelOptimizerTest {
+	private static final String [] JOB = {
+		"G90",
+		"G00 X0 Y0",
+		"G01 X10 Y0 F1000",
+		"G00 X500 Y0",
+		"G01 X510 Y0 F2000",
+		"G00 X20 Y0",
+		"G01 X30 Y0 F1500",
+		"G00 X520 Y0",
+		"G01 X530 Y0",
+		"M06 T1",
+		"G00 X0 Y100",
+		"G01 X10 Y100",
+		"G00 X0 Y0",
+	};
+	private static final int M6 = CompiledGCode.opcode('M',6);
+
+	private CompiledGCode program;
+	private CompiledGCode optimized;
+	private TravelOptimizer optimizer;
+
+	@Before
+	public void setUp() throws Exception {
+		program = new CompiledGCode();
+		GCodeTokenizer tokenizer = new GCodeTokenizer();
+		for(int i=0;i<JOB.length;++i) GCodeCompiler.compileLine(program,tokenizer,JOB[i],i);
+		optimizer = new TravelOptimizer(0.2);
+		optimizer.setThreads(1);
+		optimized = optimizer.optimize(program);
+	}
+
+	// every line drawn before (or after) the tool change, with its feed rate, either way round.
+	private static List<String> drawn(CompiledGCode p,boolean beforeToolChange) {
+		Trajectory t = Trajectory.build(p);
+		List<String> lines = new ArrayList<String>();
+		boolean before=true;
+		for(int b=1;b<t.size();++b) {
+			if(t.getOpcode(b)==M6) before=false;
+			if(before!=beforeToolChange || t.getOpcode(b)!=CompiledGCode.opcode('G',1)) continue;
+			String from = String.format(Locale.ROOT,"%.3f,%.3f",t.getX(b-1),t.getY(b-1));
+			String to = String.format(Locale.ROOT,"%.3f,%.3f",t.getX(b),t.getY(b));
+			String line = (from.compareTo(to)<0) ? from+" "+to : to+" "+from;
+			lines.add(line+" F"+t.getFeedRate(b));
+		}
+		Collections.sort(lines);
+		return lines;
+	}
+
+	@Test
+	public void travelsLess() {
+		assertTrue(optimizer.getTravelAfter()<optimizer.getTravelBefore());
+		// three 49cm hops between the near and far paths, measured in cm with X read in mm.
+		assertEquals(147,optimizer.getTravelBefore(),0.01);
+	}
+
+	@Test
+	public void drawsTheSameLines() {
+		assertEquals(4,drawn(program,true).size());
+		assertEquals(drawn(program,true),drawn(optimized,true));
+		assertEquals(drawn(program,false),drawn(optimized,false));
+	}
+
+	@Test
+	public void endsWhereItDid() {
+		Trajectory before = Trajectory.build(program);
+		Trajectory after = Trajectory.build(optimized);
+		assertEquals(before.getX(before.size()-1),after.getX(after.size()-1),1e-6);
+		assertEquals(before.getY(before.size()-1),after.getY(after.size()-1),1e-6);
+	}
+}
@@ -0,0 +1,73 @@
+package com.marginallyclever.image;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.marginallyclever.gcode.CompiledGCode;
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * Imports a black picture, which hatching fills from edge to edge, and checks how big it comes out.
+ * @author Dan Royer
+ */
+public class ImageImporterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String blackPicture() throws Exception {
+		BufferedImage image = new BufferedImage(40,20,BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.BLACK);
+		g.fillRect(0,0,image.getWidth(),image.getHeight());
+		g.dispose();
+		File file = folder.newFile("black.png");
+		ImageIO.write(image,"png",file);
+		return file.getPath();
+	}
+
+	private CompiledGCode importTenCentimetres() throws Exception {
+		ImageImporter importer = new ImageImporter();
+		importer.setMode(ImageImporter.MODE_HATCH);
+		importer.setWidth(10);
+		importer.setSpacing(0.5);
+		importer.setCentre(0,0,0);
+		importer.setThreads(1);
+		return importer.importFile(blackPicture());
+	}
+
+	@Test
+	public void writesXInMillimetres() throws Exception {
+		CompiledGCode p = importTenCentimetres();
+		float min=Float.MAX_VALUE, max=-Float.MAX_VALUE;
+		for(int b=0;b<p.size();++b) {
+			float x = p.getParam(b,'X',Float.NaN);
+			if(Float.isNaN(x)) continue;
+			min = Math.min(min,x);
+			max = Math.max(max,x);
+		}
+		assertEquals(-50,min,1e-3);
+		assertEquals(50,max,1e-3);
+	}
+
+	@Test
+	public void followsInCentimetres() throws Exception {
+		Trajectory t = Trajectory.build(importTenCentimetres());
+		float min=Float.MAX_VALUE, max=-Float.MAX_VALUE;
+		for(int b=0;b<t.size();++b) {
+			min = Math.min(min,t.getX(b));
+			max = Math.max(max,t.getX(b));
+		}
+		assertEquals(-5,min,1e-4);
+		assertEquals(5,max,1e-4);
+	}
+}
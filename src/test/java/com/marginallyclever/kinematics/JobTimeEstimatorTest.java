@@ -0,0 +1,66 @@
+package com.marginallyclever.kinematics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.gcode.ToolpathWriter;
+
+/**
+ * Estimates a job of many short moves in chunks and checks it takes as long as planning it in one piece.  The moves
+ * are short enough that speeds carry from one chunk to the next.
+ * @author Dan Royer
+ */
+public class JobTimeEstimatorTest {
+	private SkycamKinematics kinematics;
+	private Trajectory trajectory;
+
+	@Before
+	public void setUp() {
+		kinematics = new SkycamKinematics();
+		kinematics.setAnchor(0,-100, 100,100);
+		kinematics.setAnchor(1, 100, 100,100);
+		kinematics.setAnchor(2, 100,-100,100);
+		kinematics.setAnchor(3,-100,-100,100);
+
+		// out and back along x, 20 microns or about three steps at a time.
+		ToolpathWriter writer = new ToolpathWriter(MotionPlanner.MAX_FEEDRATE,MotionPlanner.MAX_FEEDRATE);
+		int line=0;
+		for(int i=1;i<=20000;++i) writer.lineTo(i*0.002,0,0,line++);
+		for(int i=19999;i>=0;--i) writer.lineTo(i*0.002,0,0,line++);
+		trajectory = Trajectory.build(writer.getProgram());
+	}
+
+	private double inOnePiece(int lookAhead) {
+		MotionPlanner planner = new MotionPlanner(kinematics);
+		planner.setLookAhead(lookAhead);
+		trajectory.startAt(0,planner);
+		for(int b=0;b<trajectory.size();++b) trajectory.replay(b,planner);
+		planner.plan();
+		double t=0;
+		for(int i=0;i<planner.getSegmentCount();++i) t += planner.getDuration(i);
+		return t;
+	}
+
+	private double inChunks(int lookAhead) throws InterruptedException {
+		JobTimeEstimator estimator = new JobTimeEstimator(kinematics);
+		estimator.setLookAhead(lookAhead);
+		estimator.setThreads(4);
+		return estimator.estimate(trajectory).getTotalTime();
+	}
+
+	@Test
+	public void chunksMatchTheWholeJob() throws InterruptedException {
+		assertTrue(trajectory.size()>4*8192);
+		double whole = inOnePiece(0);
+		assertEquals(whole,inChunks(0),whole*1e-5);
+	}
+
+	@Test
+	public void chunksMatchTheFirmwareLookAhead() throws InterruptedException {
+		double whole = inOnePiece(JobTimeEstimator.DEFAULT_LOOK_AHEAD);
+		assertEquals(whole,inChunks(JobTimeEstimator.DEFAULT_LOOK_AHEAD),whole*1e-5);
+	}
+}
@@ -0,0 +1,118 @@
+package com.marginallyclever.kinematics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the corner speeds and trapezoids of the motion plan against the formulas in motor.ino.
+ * @author Dan Royer
+ */
+public class MotionPlannerTest {
+	private static final double FEED = 2000;
+
+	private SkycamKinematics kinematics;
+	private MotionPlanner planner;
+
+	@Before
+	public void setUp() {
+		// the motors at the corners of a 4m x 4m room, 2m up.
+		kinematics = new SkycamKinematics();
+		kinematics.setAnchor(0,-200, 200,200);
+		kinematics.setAnchor(1, 200, 200,200);
+		kinematics.setAnchor(2, 200,-200,200);
+		kinematics.setAnchor(3,-200,-200,200);
+		planner = new MotionPlanner(kinematics);
+	}
+
+	// the direction of segment i in motor space.
+	private double [] unit(int i) {
+		double [] u = new double[SkycamKinematics.NUM_MOTORS];
+		long [] start = new long[SkycamKinematics.NUM_MOTORS];
+		if(i==0) kinematics.inverse(0,0,0,start);
+		double len=0;
+		for(int m=0;m<u.length;++m) {
+			long s = (i==0) ? start[m] : planner.getSteps(i-1,m);
+			u[m] = planner.getSteps(i,m)-s;
+			len += u[m]*u[m];
+		}
+		len = Math.sqrt(len);
+		for(int m=0;m<u.length;++m) u[m]/=len;
+		return u;
+	}
+
+	@Test
+	public void slowsForACorner() {
+		double maxJerk = 0.5;
+		planner.setMaxJerk(maxJerk);
+		planner.lineTo(20,0,0,FEED);
+		int corner = planner.getSegmentCount();
+		planner.lineTo(20,20,0,FEED);
+		planner.plan();
+
+		double [] a = unit(corner-1);
+		double [] b = unit(corner);
+		double sum=0;
+		for(int m=0;m<a.length;++m) sum += (b[m]-a[m])*(b[m]-a[m]);
+		double jerk = Math.sqrt(sum);
+		assertTrue(jerk>maxJerk);
+		assertEquals(Math.max(MotionPlanner.MIN_FEEDRATE,FEED*maxJerk/jerk),planner.getEntrySpeed(corner),1e-6);
+		assertTrue(planner.getEntrySpeed(corner)>MotionPlanner.MIN_FEEDRATE);
+		assertEquals(planner.getEntrySpeed(corner),planner.getExitSpeed(corner-1),1e-9);
+		// the middle of each line is at full speed.
+		assertEquals(FEED,planner.getPeakSpeed(corner/2),1e-9);
+		assertEquals(FEED,planner.getPeakSpeed(corner+corner/2),1e-9);
+	}
+
+	@Test
+	public void startsAndEndsStopped() {
+		planner.lineTo(50,0,0,FEED);
+		planner.plan();
+		int n = planner.getSegmentCount();
+		assertEquals(MotionPlanner.MIN_FEEDRATE,planner.getEntrySpeed(0),1e-9);
+		assertEquals(MotionPlanner.MIN_FEEDRATE,planner.getExitSpeed(n-1),1e-9);
+		for(int i=0;i<n;++i) {
+			// nothing goes faster than it can speed up to.
+			double reachable = Math.sqrt(planner.getEntrySpeed(i)*planner.getEntrySpeed(i)
+					+2*planner.getAcceleration()*planner.getStepsTotal(i));
+			assertTrue(planner.getExitSpeed(i)<=reachable+1e-9);
+			assertTrue(planner.getAccelerateUntil(i)<=planner.getDecelerateAfter(i));
+			assertTrue(planner.getDecelerateAfter(i)<=planner.getStepsTotal(i));
+			if(i>0) assertEquals(planner.getExitSpeed(i-1),planner.getEntrySpeed(i),1e-9);
+		}
+	}
+
+	@Test
+	public void timesATrapezoid() {
+		planner.lineTo(50,0,0,FEED);
+		planner.plan();
+		double steps=0, t=0;
+		for(int i=0;i<planner.getSegmentCount();++i) {
+			steps += planner.getStepsTotal(i);
+			t += planner.getDuration(i);
+		}
+		// speed up from the slowest speed, cruise, and slow down again.
+		double v0 = MotionPlanner.MIN_FEEDRATE, a = planner.getAcceleration();
+		double ramp = (FEED*FEED-v0*v0)/(2*a);
+		double expected = 2*(FEED-v0)/a + (steps-2*ramp)/FEED;
+		assertEquals(expected,t,expected*0.01);
+	}
+
+	@Test
+	public void meetsInTheMiddle() {
+		// too short to reach full speed.
+		planner.lineTo(0.4,0,0,MotionPlanner.MAX_FEEDRATE);
+		planner.plan();
+		assertEquals(1,planner.getSegmentCount());
+		int total = planner.getStepsTotal(0);
+		int up = planner.getAccelerateUntil(0);
+		assertEquals(up,planner.getDecelerateAfter(0));
+		assertEquals(total/2.0,up,1);
+		double a = planner.getAcceleration();
+		double v0 = MotionPlanner.MIN_FEEDRATE;
+		assertEquals(Math.sqrt(v0*v0+a*total),planner.getPeakSpeed(0),10);
+		assertTrue(planner.getPeakSpeed(0)<MotionPlanner.MAX_FEEDRATE);
+	}
+}
@@ -0,0 +1,92 @@
+package com.marginallyclever.kinematics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.marginallyclever.gcode.ToolpathWriter;
+
+/**
+ * Checks jobs that go where they shouldn't in a 4m x 4m room with the motors 2m up.
+ * @author Dan Royer
+ */
+public class WorkspaceValidatorTest {
+	private WorkspaceValidator validator;
+	private ToolpathWriter writer;
+
+	@Before
+	public void setUp() {
+		SkycamKinematics kinematics = new SkycamKinematics();
+		kinematics.setAnchor(0,-200, 200,200);
+		kinematics.setAnchor(1, 200, 200,200);
+		kinematics.setAnchor(2, 200,-200,200);
+		kinematics.setAnchor(3,-200,-200,200);
+		validator = new WorkspaceValidator(kinematics);
+		validator.setThreads(2);
+		writer = new ToolpathWriter(MotionPlanner.DEFAULT_FEEDRATE,MotionPlanner.DEFAULT_FEEDRATE);
+	}
+
+	private WorkspaceReport validate() throws InterruptedException {
+		return validator.validate(writer.getProgram());
+	}
+
+	@Test
+	public void passesASquare() throws InterruptedException {
+		writer.lineTo(50,0,0,1);
+		writer.lineTo(50,50,0,2);
+		writer.lineTo(0,50,0,3);
+		writer.lineTo(0,0,0,4);
+		WorkspaceReport w = validate();
+		assertTrue(w.isOK());
+		assertEquals(0,w.getProblems().size());
+	}
+
+	@Test
+	public void findsTheWayOut() throws InterruptedException {
+		writer.lineTo(50,0,0,1);
+		writer.lineTo(300,0,0,2);
+		writer.lineTo(50,0,0,3);
+		WorkspaceReport w = validate();
+		assertFalse(w.isOK());
+		WorkspaceReport.Problem p = w.getProblems().get(0);
+		assertEquals(WorkspaceReport.OUTSIDE,p.getKind());
+		assertEquals(2,p.getFirstLine());
+		assertEquals(3,p.getLastLine());
+		// the worst of it is the far end.
+		assertEquals(100,p.getValue(),0.5);
+		assertEquals(300,p.getX(),0.5);
+	}
+
+	@Test
+	public void staysBelowTheMotors() throws InterruptedException {
+		writer.lineTo(0,0,WorkspaceValidator.DEFAULT_TOP_MARGIN+190,1);
+		assertFalse(validate().isOK());
+	}
+
+	@Test
+	public void findsFastCables() throws InterruptedException {
+		validator.setMaxCableSpeed(1);
+		writer.lineTo(50,0,0,1);
+		WorkspaceReport w = validate();
+		assertFalse(w.isOK());
+		assertEquals(WorkspaceReport.TOO_FAST,w.getProblems().get(0).getKind());
+	}
+
+	@Test
+	public void joinsAProblemAcrossChunks() throws InterruptedException {
+		// zig zag outside the room for more blocks than one chunk holds.
+		for(int i=1;i<=100000;++i) writer.lineTo(250+(i&1),0,0,i);
+		WorkspaceReport.Problem p = null;
+		for(WorkspaceReport.Problem q : validate().getProblems()) {
+			if(q.getKind()!=WorkspaceReport.OUTSIDE) continue;
+			assertNull(p);
+			p=q;
+		}
+		assertEquals(1,p.getFirstLine());
+		assertEquals(100000,p.getLastLine());
+	}
+}
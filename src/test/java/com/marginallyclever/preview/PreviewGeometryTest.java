@@ -0,0 +1,76 @@
+package com.marginallyclever.preview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.marginallyclever.gcode.ToolpathWriter;
+import com.marginallyclever.kinematics.MotionPlanner;
+import com.marginallyclever.kinematics.Trajectory;
+
+/**
+ * Checks the levels of detail of a big spiral: each is coarser than the last, still ends where the job does, and is
+ * picked when its spacing fits in a pixel.
+ * @author Dan Royer
+ */
+public class PreviewGeometryTest {
+	private static final int POINTS = 100000;
+
+	private static PreviewGeometry spiral(int points) {
+		ToolpathWriter writer = new ToolpathWriter(MotionPlanner.DEFAULT_FEEDRATE,MotionPlanner.DEFAULT_FEEDRATE);
+		for(int i=1;i<=points;++i) {
+			double a = i*Math.PI*40/points;
+			double r = 10+40.0*i/points;
+			writer.lineTo(r*Math.cos(a),r*Math.sin(a),0,i);
+		}
+		return PreviewGeometry.build(Trajectory.build(writer.getProgram()));
+	}
+
+	@Test
+	public void drawsSmallJobsInFull() {
+		PreviewGeometry g = spiral(1000);
+		assertEquals(1,g.lines.length);
+		assertEquals(1000,g.lineCount[0]);
+		assertEquals(0,g.levelFor(1000));
+	}
+
+	@Test
+	public void makesCoarserLevels() {
+		PreviewGeometry g = spiral(POINTS);
+		assertEquals(POINTS,g.lineCount[0]);
+		assertTrue(g.lines.length>1);
+		int last = g.vertexCount-1;
+		for(int level=1;level<g.lines.length;++level) {
+			assertTrue(g.spacing[level]>g.spacing[level-1]);
+			assertTrue(g.lineCount[level]<=g.lineCount[level-1]*3/4);
+			// one unbroken chain from the first point to the last.
+			int n = g.lineCount[level];
+			assertEquals(g.lines[level].get(1),g.lines[level].get(2));
+			for(int i=1;i<n;++i) assertEquals(g.lines[level].get(i*2-1),g.lines[level].get(i*2));
+			assertEquals(last,g.lines[level].get(n*2-1));
+		}
+	}
+
+	@Test
+	public void picksTheCoarsestLevelUnderAPixel() {
+		PreviewGeometry g = spiral(POINTS);
+		int top = g.lines.length-1;
+		assertEquals(0,g.levelFor(0));
+		assertEquals(top,g.levelFor(g.spacing[top]));
+		assertEquals(1,g.levelFor((g.spacing[1]+g.spacing[2])/2));
+	}
+
+	@Test
+	public void countsTheLinesSent() {
+		PreviewGeometry g = spiral(POINTS);
+		for(int level=0;level<g.lines.length;++level) {
+			assertEquals(0,g.linesBefore(level,0));
+			assertEquals(g.lineCount[level],g.linesBefore(level,g.blockEnd.length));
+			int half = g.linesBefore(level,g.blockEnd.length/2);
+			assertTrue(half>0 && half<g.lineCount[level]);
+		}
+		// block 0 is G90 and block b draws line b-1 in full detail.
+		assertEquals(500,g.linesBefore(0,501));
+	}
+}